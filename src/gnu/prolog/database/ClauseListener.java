@@ -0,0 +1,47 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.database;
+
+import gnu.prolog.term.Term;
+
+/**
+ * Listener to clauses added to and removed from a dynamic {@link Predicate}.
+ * When a predicate has a clause listener the code of the predicate is kept
+ * instead of being dropped on every change.
+ */
+public interface ClauseListener extends java.util.EventListener
+{
+	/**
+	 * clause was added to predicate
+	 * 
+	 * @param clause
+	 *          the added clause
+	 * @param first
+	 *          true if clause was added at the beginning, false if it was added
+	 *          at the end
+	 */
+	public void clauseAdded(Term clause, boolean first);
+
+	/**
+	 * clause was removed from predicate
+	 * 
+	 * @param clause
+	 *          the removed clause
+	 */
+	public void clauseRemoved(Term clause);
+}
@@ -0,0 +1,388 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.database;
+
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.IntegerTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.TermConstants;
+import gnu.prolog.vm.interpreter.ClauseIndex;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Columnar storage for a predicate which consists only of ground facts. Every
+ * argument is kept in its own column, an int array if all values of the
+ * argument are small integers and an array of the shared terms otherwise.
+ * Clause terms are only created when they are asked for. Rows with a given
+ * index key are found through hash indexes which are built per column on first
+ * use. Lookups take no lock, an index is not changed after it is published.
+ */
+public class FactTable
+{
+	/** empty list of rows */
+	protected static final int NO_ROWS[] = new int[0];
+
+	/** tag of the facts */
+	protected final CompoundTermTag tag;
+	/** number of facts */
+	protected final int size;
+	/** values of integer columns, null for other columns */
+	protected final int integerColumns[][];
+	/** values of term columns, null for integer columns */
+	protected final Term termColumns[][];
+	/** rows by index key for each column, built lazily */
+	private final AtomicReferenceArray<Map<Object, int[]>> indexes;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param tag
+	 *          tag of the facts
+	 * @param size
+	 *          number of facts
+	 * @param integerColumns
+	 *          values of integer columns
+	 * @param termColumns
+	 *          values of term columns
+	 */
+	protected FactTable(CompoundTermTag tag, int size, int integerColumns[][], Term termColumns[][])
+	{
+		this.tag = tag;
+		this.size = size;
+		this.integerColumns = integerColumns;
+		this.termColumns = termColumns;
+		indexes = new AtomicReferenceArray<Map<Object, int[]>>(tag.arity);
+	}
+
+	/**
+	 * create table for clauses of predicate
+	 * 
+	 * @param tag
+	 *          tag of predicate
+	 * @param clauses
+	 *          clauses in the form returned by {@link Predicate#prepareClause}
+	 * @return the table or null if some clause is not a ground fact
+	 */
+	public static FactTable create(CompoundTermTag tag, List<Term> clauses)
+	{
+		int arity = tag.arity;
+		int size = clauses.size();
+		if (arity == 0)
+		{
+			return null;
+		}
+		Term rows[][] = new Term[size][];
+		int row = 0;
+		for (Term clause : clauses)
+		{
+			Term head = getFactHead(clause);
+			if (!(head instanceof CompoundTerm) || ((CompoundTerm) head).tag != tag)
+			{
+				return null;
+			}
+			Term args[] = ((CompoundTerm) head).args;
+			Term values[] = new Term[arity];
+			for (int i = 0; i < arity; i++)
+			{
+				values[i] = ground(args[i]);
+				if (values[i] == null)
+				{
+					return null;
+				}
+			}
+			rows[row++] = values;
+		}
+		int integerColumns[][] = new int[arity][];
+		Term termColumns[][] = new Term[arity][];
+		for (int i = 0; i < arity; i++)
+		{
+			boolean integers = true;
+			for (row = 0; row < size && integers; row++)
+			{
+				integers = rows[row][i] instanceof IntegerTerm;
+			}
+			if (integers)
+			{
+				int column[] = new int[size];
+				for (row = 0; row < size; row++)
+				{
+					column[row] = ((IntegerTerm) rows[row][i]).value;
+				}
+				integerColumns[i] = column;
+			}
+			else
+			{
+				Term column[] = new Term[size];
+				for (row = 0; row < size; row++)
+				{
+					column[row] = rows[row][i];
+				}
+				termColumns[i] = column;
+			}
+		}
+		return new FactTable(tag, size, integerColumns, termColumns);
+	}
+
+	/** get head of clause if its body is true */
+	private static Term getFactHead(Term clause)
+	{
+		clause = clause.dereference();
+		if (clause instanceof CompoundTerm)
+		{
+			CompoundTerm ct = (CompoundTerm) clause;
+			if (ct.tag == TermConstants.clauseTag && ct.args[1].dereference() == TermConstants.trueAtom)
+			{
+				return ct.args[0].dereference();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * get ground copy of term
+	 * 
+	 * @param term
+	 *          term to copy
+	 * @return the term without bound variables or null if term is not ground
+	 */
+	private static Term ground(Term term)
+	{
+		term = term.dereference();
+		if (term instanceof VariableTerm)
+		{
+			return null;
+		}
+		if (term instanceof CompoundTerm)
+		{
+			CompoundTerm ct = (CompoundTerm) term;
+			Term args[] = new Term[ct.tag.arity];
+			boolean copy = false;
+			for (int i = 0; i < args.length; i++)
+			{
+				args[i] = ground(ct.args[i]);
+				if (args[i] == null)
+				{
+					return null;
+				}
+				copy |= args[i] != ct.args[i];
+			}
+			return copy ? new CompoundTerm(ct.tag, args) : ct;
+		}
+		return term;
+	}
+
+	/**
+	 * get tag of the facts
+	 * 
+	 * @return the tag of the facts
+	 */
+	public CompoundTermTag getTag()
+	{
+		return tag;
+	}
+
+	/**
+	 * get number of facts
+	 * 
+	 * @return the number of facts
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * check if column only contains small integers
+	 * 
+	 * @param column
+	 *          the argument
+	 * @return true if values of the column could be got with
+	 *         {@link #getInteger(int, int)}
+	 */
+	public boolean isIntegerColumn(int column)
+	{
+		return integerColumns[column] != null;
+	}
+
+	/**
+	 * get value of integer column
+	 * 
+	 * @param row
+	 *          the fact
+	 * @param column
+	 *          the argument
+	 * @return the value
+	 */
+	public int getInteger(int row, int column)
+	{
+		return integerColumns[column][row];
+	}
+
+	/**
+	 * get argument of fact
+	 * 
+	 * @param row
+	 *          the fact
+	 * @param column
+	 *          the argument
+	 * @return the ground value
+	 */
+	public Term getValue(int row, int column)
+	{
+		int integers[] = integerColumns[column];
+		return integers != null ? IntegerTerm.get(integers[row]) : termColumns[column][row];
+	}
+
+	/**
+	 * get index key of argument of fact
+	 * 
+	 * @param row
+	 *          the fact
+	 * @param column
+	 *          the argument
+	 * @return the key as returned by {@link ClauseIndex#getKey(Term)}
+	 */
+	public Object getKey(int row, int column)
+	{
+		return ClauseIndex.getKey(getValue(row, column));
+	}
+
+	/**
+	 * check if argument of fact has the key
+	 * 
+	 * @param row
+	 *          the fact
+	 * @param column
+	 *          the argument
+	 * @param key
+	 *          non null key as returned by {@link ClauseIndex#getKey(Term)}
+	 * @return true if the argument has the key
+	 */
+	public boolean hasKey(int row, int column, Object key)
+	{
+		int integers[] = integerColumns[column];
+		if (integers != null)
+		{
+			return key instanceof IntegerTerm && ((IntegerTerm) key).value == integers[row];
+		}
+		return key.equals(ClauseIndex.getKey(termColumns[column][row]));
+	}
+
+	/**
+	 * get facts which have key in column
+	 * 
+	 * @param column
+	 *          the argument
+	 * @param key
+	 *          non null key as returned by {@link ClauseIndex#getKey(Term)}
+	 * @return the rows in source order
+	 */
+	public int[] getRows(int column, Object key)
+	{
+		Map<Object, int[]> index = indexes.get(column);
+		if (index == null)
+		{
+			// threads racing here build equal indexes, the first one is kept
+			indexes.compareAndSet(column, null, createIndex(column));
+			index = indexes.get(column);
+		}
+		int rows[] = index.get(key);
+		return rows == null ? NO_ROWS : rows;
+	}
+
+	/** count the rows of every key and then fill the row arrays */
+	private Map<Object, int[]> createIndex(int column)
+	{
+		Object keys[] = new Object[size];
+		Map<Object, int[]> counts = new HashMap<Object, int[]>();
+		for (int row = 0; row < size; row++)
+		{
+			keys[row] = getKey(row, column);
+			int count[] = counts.get(keys[row]);
+			if (count == null)
+			{
+				count = new int[1];
+				counts.put(keys[row], count);
+			}
+			count[0]++;
+		}
+		Map<Object, int[]> index = new HashMap<Object, int[]>();
+		for (Map.Entry<Object, int[]> entry : counts.entrySet())
+		{
+			index.put(entry.getKey(), new int[entry.getValue()[0]]);
+			entry.getValue()[0] = 0;
+		}
+		for (int row = 0; row < size; row++)
+		{
+			int count[] = counts.get(keys[row]);
+			index.get(keys[row])[count[0]++] = row;
+		}
+		return index;
+	}
+
+	/**
+	 * get clause of fact
+	 * 
+	 * @param row
+	 *          the fact
+	 * @return clause in the form returned by {@link Predicate#prepareClause}
+	 */
+	public Term getClause(int row)
+	{
+		Term args[] = new Term[tag.arity];
+		for (int i = 0; i < args.length; i++)
+		{
+			args[i] = getValue(row, i);
+		}
+		return new CompoundTerm(TermConstants.clauseTag, new CompoundTerm(tag, args), TermConstants.trueAtom);
+	}
+
+	/**
+	 * get clauses of facts. Clause terms are created on access.
+	 * 
+	 * @return list of clauses
+	 */
+	public List<Term> getClauses()
+	{
+		return new AbstractList<Term>()
+		{
+			@Override
+			public Term get(int index)
+			{
+				if (index < 0 || index >= size)
+				{
+					throw new IndexOutOfBoundsException(Integer.toString(index));
+				}
+				return getClause(index);
+			}
+
+			@Override
+			public int size()
+			{
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,652 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.database;
+
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.BigIntegerTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.FloatTerm;
+import gnu.prolog.term.IntegerTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.interpreter.ClauseIndex;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fact table which is stored outside of the Java heap in a read only memory
+ * mapped file. The file is created with {@link #write(FactTable, File)} and
+ * contains a dictionary of the distinct ground terms, a fixed width column of
+ * ints for every argument (the value for integer columns, the dictionary entry
+ * otherwise) and a hash index for every column. Dictionary entries are decoded
+ * when they are first used. The same file is mapped only once per JVM, so
+ * several environments share the table, and several JVMs share the pages of
+ * the file through the operating system.
+ * 
+ * <pre>
+ * header:     magic, version, arity, rows, functor entry, dictionary size, dictionary offset
+ * per column: type, column offset, index offset, number of keys
+ * column:     rows ints
+ * index:      slot count, group count, slots (group + 1 or 0),
+ *             groups (first row, row count, sample row), rows grouped by key
+ * dictionary: entry offsets, entries
+ * </pre>
+ */
+public class MappedFactTable extends FactTable
+{
+	/** first int of file */
+	public static final int MAGIC = 0x47504654;
+	/** version of file layout */
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 28;
+	private static final int COLUMN_HEADER_SIZE = 16;
+	private static final int INTEGER_COLUMN = 0;
+	private static final int TERM_COLUMN = 1;
+
+	private static final byte ATOM_ENTRY = 0;
+	private static final byte INTEGER_ENTRY = 1;
+	private static final byte BIG_INTEGER_ENTRY = 2;
+	private static final byte FLOAT_ENTRY = 3;
+	private static final byte COMPOUND_ENTRY = 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** tables which are mapped by canonical path */
+	private static final Map<String, WeakReference<MappedFactTable>> mapped = new HashMap<String, WeakReference<MappedFactTable>>();
+
+	/** the mapped file */
+	protected final ByteBuffer buffer;
+	/** true for integer columns */
+	private final boolean integerColumn[];
+	/** offset of every column */
+	private final int columnOffset[];
+	/** offset of index of every column */
+	private final int indexOffset[];
+	/** offset of dictionary entry offsets */
+	private final int dictionaryOffset;
+	/** decoded dictionary entries */
+	private final AtomicReferenceArray<Term> dictionary;
+	/** modification time of the mapped file, a replaced file is mapped again */
+	private long modified;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param buffer
+	 *          the mapped file
+	 * @throws IOException
+	 *           if buffer does not contain a fact table
+	 */
+	protected MappedFactTable(ByteBuffer buffer) throws IOException
+	{
+		this(buffer, readTag(buffer));
+	}
+
+	private MappedFactTable(ByteBuffer buffer, CompoundTermTag tag)
+	{
+		super(tag, buffer.getInt(12), null, null);
+		this.buffer = buffer;
+		int arity = tag.arity;
+		integerColumn = new boolean[arity];
+		columnOffset = new int[arity];
+		indexOffset = new int[arity];
+		for (int i = 0; i < arity; i++)
+		{
+			int pos = HEADER_SIZE + i * COLUMN_HEADER_SIZE;
+			integerColumn[i] = buffer.getInt(pos) == INTEGER_COLUMN;
+			columnOffset[i] = buffer.getInt(pos + 4);
+			indexOffset[i] = buffer.getInt(pos + 8);
+		}
+		dictionaryOffset = buffer.getInt(24);
+		dictionary = new AtomicReferenceArray<Term>(buffer.getInt(20));
+	}
+
+	/** check header and read tag */
+	private static CompoundTermTag readTag(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+		{
+			throw new IOException("not a fact table");
+		}
+		if (buffer.getInt(4) != VERSION)
+		{
+			throw new IOException("unsupported fact table version " + buffer.getInt(4));
+		}
+		int arity = buffer.getInt(8);
+		Term functor = decode(buffer, buffer.getInt(24), buffer.getInt(16), null);
+		if (arity <= 0 || !(functor instanceof AtomTerm))
+		{
+			throw new IOException("invalid fact table header");
+		}
+		return CompoundTermTag.get((AtomTerm) functor, arity);
+	}
+
+	/**
+	 * map fact table file. A file which is already mapped in this JVM is shared
+	 * until it is replaced.
+	 * 
+	 * @param file
+	 *          file written by {@link #write(FactTable, File)}
+	 * @return the table
+	 * @throws IOException
+	 *           if file could not be mapped or does not contain a fact table
+	 */
+	public static MappedFactTable open(File file) throws IOException
+	{
+		String path = file.getCanonicalPath();
+		synchronized (mapped)
+		{
+			WeakReference<MappedFactTable> ref = mapped.get(path);
+			MappedFactTable table = ref == null ? null : ref.get();
+			if (table == null || table.modified != file.lastModified() || table.buffer.capacity() != file.length())
+			{
+				long modified = file.lastModified();
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try
+				{
+					// a buffer is addressed with int offsets
+					if (raf.length() > Integer.MAX_VALUE)
+					{
+						throw new IOException("fact table file " + file + " is larger than 2GB");
+					}
+					MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+					table = new MappedFactTable(buffer);
+				}
+				catch (IndexOutOfBoundsException ex)
+				{
+					throw new IOException("fact table file " + file + " is truncated");
+				}
+				finally
+				{
+					raf.close();
+				}
+				table.modified = modified;
+				mapped.put(path, new WeakReference<MappedFactTable>(table));
+			}
+			return table;
+		}
+	}
+
+	@Override
+	public boolean isIntegerColumn(int column)
+	{
+		return integerColumn[column];
+	}
+
+	@Override
+	public int getInteger(int row, int column)
+	{
+		return buffer.getInt(columnOffset[column] + 4 * row);
+	}
+
+	@Override
+	public Term getValue(int row, int column)
+	{
+		int value = buffer.getInt(columnOffset[column] + 4 * row);
+		return integerColumn[column] ? IntegerTerm.get(value) : getEntry(value);
+	}
+
+	@Override
+	public boolean hasKey(int row, int column, Object key)
+	{
+		int value = buffer.getInt(columnOffset[column] + 4 * row);
+		if (integerColumn[column])
+		{
+			return key instanceof IntegerTerm && ((IntegerTerm) key).value == value;
+		}
+		return key.equals(ClauseIndex.getKey(getEntry(value)));
+	}
+
+	@Override
+	public int[] getRows(int column, Object key)
+	{
+		int pos = indexOffset[column];
+		int slots = buffer.getInt(pos);
+		int groups = pos + 8 + 4 * slots;
+		int rows = groups + 12 * buffer.getInt(pos + 4);
+		for (int slot = hash(key) & (slots - 1);; slot = (slot + 1) & (slots - 1))
+		{
+			int group = buffer.getInt(pos + 8 + 4 * slot) - 1;
+			if (group < 0)
+			{
+				return NO_ROWS;
+			}
+			int groupPos = groups + 12 * group;
+			if (hasKey(buffer.getInt(groupPos + 8), column, key))
+			{
+				int rc[] = new int[buffer.getInt(groupPos + 4)];
+				ByteBuffer dup = buffer.duplicate();
+				dup.position(rows + 4 * buffer.getInt(groupPos));
+				dup.asIntBuffer().get(rc);
+				return rc;
+			}
+		}
+	}
+
+	/** get decoded dictionary entry */
+	private Term getEntry(int entry)
+	{
+		Term term = dictionary.get(entry);
+		if (term == null)
+		{
+			term = decode(buffer, dictionaryOffset, entry, dictionary);
+		}
+		return term;
+	}
+
+	/** decode dictionary entry, entries are cached if cache is not null */
+	private static Term decode(ByteBuffer buffer, int dictionaryOffset, int entry, AtomicReferenceArray<Term> cache)
+	{
+		if (cache != null && cache.get(entry) != null)
+		{
+			return cache.get(entry);
+		}
+		int pos = buffer.getInt(dictionaryOffset + 4 * entry);
+		Term term;
+		switch (buffer.get(pos))
+		{
+			case ATOM_ENTRY:
+				term = AtomTerm.get(new String(getBytes(buffer, pos + 1), UTF8));
+				break;
+			case INTEGER_ENTRY:
+				term = IntegerTerm.get(buffer.getInt(pos + 1));
+				break;
+			case BIG_INTEGER_ENTRY:
+				term = new BigIntegerTerm(new BigInteger(getBytes(buffer, pos + 1)));
+				break;
+			case FLOAT_ENTRY:
+				term = new FloatTerm(buffer.getDouble(pos + 1));
+				break;
+			case COMPOUND_ENTRY:
+				AtomTerm functor = (AtomTerm) decode(buffer, dictionaryOffset, buffer.getInt(pos + 1), cache);
+				Term args[] = new Term[buffer.getInt(pos + 5)];
+				for (int i = 0; i < args.length; i++)
+				{
+					args[i] = decode(buffer, dictionaryOffset, buffer.getInt(pos + 9 + 4 * i), cache);
+				}
+				term = new CompoundTerm(CompoundTermTag.get(functor, args.length), args);
+				break;
+			default:
+				throw new IllegalStateException("invalid fact table entry " + entry);
+		}
+		if (cache != null)
+		{
+			cache.compareAndSet(entry, null, term);
+			term = cache.get(entry);
+		}
+		return term;
+	}
+
+	private static byte[] getBytes(ByteBuffer buffer, int pos)
+	{
+		byte bytes[] = new byte[buffer.getInt(pos)];
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(pos + 4);
+		dup.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * hash of index key which does not depend on the JVM
+	 * 
+	 * @param key
+	 *          key as returned by {@link ClauseIndex#getKey(Term)}
+	 * @return the hash
+	 */
+	private static int hash(Object key)
+	{
+		int h;
+		if (key instanceof IntegerTerm)
+		{
+			h = ((IntegerTerm) key).value;
+		}
+		else if (key instanceof AtomTerm)
+		{
+			h = ((AtomTerm) key).value.hashCode();
+		}
+		else if (key instanceof CompoundTermTag)
+		{
+			CompoundTermTag tag = (CompoundTermTag) key;
+			h = tag.functor.value.hashCode() * 31 + tag.arity;
+		}
+		else
+		{
+			h = 0;
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * write fact table to file. The table is written to a temporary file in the
+	 * same directory which then replaces the file, so the file is never seen
+	 * partially written and tables which map the old file keep their contents.
+	 * 
+	 * @param table
+	 *          the table
+	 * @param file
+	 *          file to create
+	 * @throws IOException
+	 *           if file could not be written or table contains terms which
+	 *           could not be stored or table does not fit in 2GB
+	 */
+	public static void write(FactTable table, File file) throws IOException
+	{
+		CompoundTermTag tag = table.getTag();
+		int arity = tag.arity;
+		int rows = table.size();
+		Dictionary dictionary = new Dictionary();
+		int functor = dictionary.add(tag.functor);
+
+		int columns[][] = new int[arity][];
+		boolean integers[] = new boolean[arity];
+		byte indexes[][] = new byte[arity][];
+		for (int i = 0; i < arity; i++)
+		{
+			integers[i] = table.isIntegerColumn(i);
+			columns[i] = new int[rows];
+			Map<Object, List<Integer>> groups = new LinkedHashMap<Object, List<Integer>>();
+			for (int row = 0; row < rows; row++)
+			{
+				columns[i][row] = integers[i] ? table.getInteger(row, i) : dictionary.add(table.getValue(row, i));
+				Object key = table.getKey(row, i);
+				List<Integer> group = groups.get(key);
+				if (group == null)
+				{
+					group = new ArrayList<Integer>();
+					groups.put(key, group);
+				}
+				group.add(Integer.valueOf(row));
+			}
+			indexes[i] = writeIndex(groups);
+		}
+		byte entries[] = dictionary.toByteArray();
+
+		// offsets are stored as ints
+		long size = HEADER_SIZE + arity * COLUMN_HEADER_SIZE;
+		int columnOffsets[] = new int[arity];
+		int indexOffsets[] = new int[arity];
+		for (int i = 0; i < arity; i++)
+		{
+			columnOffsets[i] = checkOffset(size);
+			size += 4L * rows;
+			indexOffsets[i] = checkOffset(size);
+			size += indexes[i].length;
+		}
+		int offset = checkOffset(size);
+		int entryOffset = checkOffset(size + 4L * dictionary.size());
+		checkOffset(entryOffset + (long) entries.length);
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+		boolean written = false;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(arity);
+			out.writeInt(rows);
+			out.writeInt(functor);
+			out.writeInt(dictionary.size());
+			out.writeInt(offset);
+			for (int i = 0; i < arity; i++)
+			{
+				out.writeInt(integers[i] ? INTEGER_COLUMN : TERM_COLUMN);
+				out.writeInt(columnOffsets[i]);
+				out.writeInt(indexOffsets[i]);
+				out.writeInt(0);
+			}
+			for (int i = 0; i < arity; i++)
+			{
+				for (int row = 0; row < rows; row++)
+				{
+					out.writeInt(columns[i][row]);
+				}
+				out.write(indexes[i]);
+			}
+			for (int i = 0; i < dictionary.size(); i++)
+			{
+				out.writeInt(entryOffset + dictionary.offsets.get(i).intValue());
+			}
+			out.write(entries);
+			out.close();
+			// rename replaces the file atomically where the platform supports it
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+			{
+				throw new IOException("could not replace " + file);
+			}
+			written = true;
+		}
+		finally
+		{
+			if (!written)
+			{
+				out.close();
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * check that offset in file could be stored
+	 * 
+	 * @param offset
+	 * @return the offset
+	 * @throws IOException
+	 *           if the offset does not fit in an int
+	 */
+	private static int checkOffset(long offset) throws IOException
+	{
+		if (offset > Integer.MAX_VALUE)
+		{
+			throw new IOException("fact table does not fit in 2GB");
+		}
+		return (int) offset;
+	}
+
+	/** write hash index of column */
+	private static byte[] writeIndex(Map<Object, List<Integer>> groups) throws IOException
+	{
+		int slots = 2;
+		while (slots < 2 * groups.size())
+		{
+			slots *= 2;
+		}
+		int slot[] = new int[slots];
+		int group = 0;
+		for (Object key : groups.keySet())
+		{
+			int s = hash(key) & (slots - 1);
+			while (slot[s] != 0)
+			{
+				s = (s + 1) & (slots - 1);
+			}
+			slot[s] = ++group;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(slots);
+		out.writeInt(groups.size());
+		for (int s : slot)
+		{
+			out.writeInt(s);
+		}
+		int first = 0;
+		for (List<Integer> rows : groups.values())
+		{
+			out.writeInt(first);
+			out.writeInt(rows.size());
+			out.writeInt(rows.get(0).intValue());
+			first += rows.size();
+		}
+		for (List<Integer> rows : groups.values())
+		{
+			for (Integer row : rows)
+			{
+				out.writeInt(row.intValue());
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/** distinct terms of table and their encoding */
+	private static class Dictionary
+	{
+		final Map<Object, Integer> entries = new HashMap<Object, Integer>();
+		final List<Integer> offsets = new ArrayList<Integer>();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+
+		int size()
+		{
+			return offsets.size();
+		}
+
+		byte[] toByteArray()
+		{
+			return bytes.toByteArray();
+		}
+
+		/** add term and its subterms, returns the entry of the term */
+		int add(Term term) throws IOException
+		{
+			term = term.dereference();
+			Object key;
+			int args[] = null;
+			if (term instanceof AtomTerm)
+			{
+				key = term;
+			}
+			else if (term instanceof IntegerTerm)
+			{
+				key = term;
+			}
+			else if (term instanceof BigIntegerTerm)
+			{
+				key = ((BigIntegerTerm) term).value;
+			}
+			else if (term instanceof FloatTerm)
+			{
+				key = Long.valueOf(Double.doubleToRawLongBits(((FloatTerm) term).value));
+			}
+			else if (term instanceof CompoundTerm && term.getClass() == CompoundTerm.class)
+			{
+				CompoundTerm ct = (CompoundTerm) term;
+				args = new int[ct.tag.arity + 1];
+				args[0] = add(ct.tag.functor);
+				for (int i = 0; i < ct.tag.arity; i++)
+				{
+					args[i + 1] = add(ct.args[i]);
+				}
+				key = new IntArrayKey(args);
+			}
+			else
+			{
+				throw new IOException("term could not be stored in fact table: " + term);
+			}
+			Integer entry = entries.get(key);
+			if (entry != null)
+			{
+				return entry.intValue();
+			}
+			entry = Integer.valueOf(offsets.size());
+			entries.put(key, entry);
+			offsets.add(Integer.valueOf(out.size()));
+			if (term instanceof AtomTerm)
+			{
+				out.writeByte(ATOM_ENTRY);
+				byte name[] = ((AtomTerm) term).value.getBytes(UTF8);
+				out.writeInt(name.length);
+				out.write(name);
+			}
+			else if (term instanceof IntegerTerm)
+			{
+				out.writeByte(INTEGER_ENTRY);
+				out.writeInt(((IntegerTerm) term).value);
+			}
+			else if (term instanceof BigIntegerTerm)
+			{
+				out.writeByte(BIG_INTEGER_ENTRY);
+				byte value[] = ((BigIntegerTerm) term).value.toByteArray();
+				out.writeInt(value.length);
+				out.write(value);
+			}
+			else if (term instanceof FloatTerm)
+			{
+				out.writeByte(FLOAT_ENTRY);
+				out.writeDouble(((FloatTerm) term).value);
+			}
+			else
+			{
+				out.writeByte(COMPOUND_ENTRY);
+				out.writeInt(args[0]);
+				out.writeInt(args.length - 1);
+				for (int i = 1; i < args.length; i++)
+				{
+					out.writeInt(args[i]);
+				}
+			}
+			return entry.intValue();
+		}
+	}
+
+	/** value equality for int arrays */
+	private static class IntArrayKey
+	{
+		final int values[];
+
+		IntArrayKey(int values[])
+		{
+			this.values = values;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return obj instanceof IntArrayKey && Arrays.equals(values, ((IntArrayKey) obj).values);
+		}
+	}
+}
@@ -38,6 +38,8 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.lang.ref.WeakReference;
 import java.lang.ref.ReferenceQueue;
 
@@ -49,8 +51,8 @@ import java.lang.ref.ReferenceQueue;
  */
 public class Module
 {
-	/** map from tag to predicates */
-	protected Map<CompoundTermTag, Predicate> tag2predicate = new HashMap<CompoundTermTag, Predicate>();
+	/** map from tag to predicates, it is read without locking */
+	protected Map<CompoundTermTag, Predicate> tag2predicate = new ConcurrentHashMap<CompoundTermTag, Predicate>();
 
 	/** initialization */
 	protected List<Pair<PrologTextLoaderError, Term>> initialization = Collections
@@ -60,8 +62,16 @@ public class Module
 	protected List<CompoundTermTag> exports = null;
 	public final static AtomTerm userAtom = AtomTerm.get("user");
 
-	/** PredicateTag to code mapping */
-	protected Map<CompoundTermTag, PrologCode> tag2code = new HashMap<CompoundTermTag, PrologCode>();
+	/**
+	 * PredicateTag to code mapping. Code is published once it is loaded, so it
+	 * is read without locking.
+	 */
+	protected ConcurrentMap<CompoundTermTag, PrologCode> tag2code = new ConcurrentHashMap<CompoundTermTag, PrologCode>();
+	/**
+	 * loads of code which are in progress, an entry is removed when its code is
+	 * published
+	 */
+	protected final ConcurrentMap<CompoundTermTag, CodeLoad> tag2load = new ConcurrentHashMap<CompoundTermTag, CodeLoad>();
 	protected final Map<CompoundTermTag, List<PrologCodeListenerRef>> tag2listeners = new HashMap<CompoundTermTag, List<PrologCodeListenerRef>>();
 
 
@@ -155,16 +165,8 @@ public class Module
 		p.setType(Predicate.TYPE.USER_DEFINED);
 		p.addClauseLast(linkClause);
 		p.setSourceModule(exportingModule);
-		environment.pushModule(name);
-		try
-		{
-			environment.loadPrologCode(export);
-			return p;
-		}
-		finally
-		{
-			environment.popModule();
-		}
+		environment.loadPrologCode(this, export);
+		return p;
         }
 
 	/**
@@ -209,9 +211,10 @@ public class Module
 	 *          tag of this predicate
 	 * @return predicate defined in this module or null if predicate is not found
 	 */
-	public synchronized Predicate getDefinedPredicate(CompoundTermTag tag)
+	public Predicate getDefinedPredicate(CompoundTermTag tag)
 	{
-		return tag2predicate.get(tag);
+		// code of goals has no tag, the concurrent map does not accept null
+		return tag == null ? null : tag2predicate.get(tag);
 	}
 
 	public synchronized void removeDefinedPredicate(CompoundTermTag tag)
@@ -397,19 +400,63 @@ public class Module
 
 	public void predicateUpdated(Environment env, PredicateUpdatedEvent evt)
 	{
+		// the update is recorded before the code is removed, so code which is
+		// being loaded from the old predicate is not published after the removal
+		CodeLoad load = tag2load.get(evt.getTag());
+		if (load != null)
+		{
+			load.updated = true;
+		}
 		PrologCode code = tag2code.remove(evt.getTag());
 		pollPrologCodeListeners();
 		if (code == null) // if code was not loaded yet
 		{
 			return;
 		}
-		CompoundTermTag tag = evt.getTag();
+		firePrologCodeUpdated(env, evt.getTag());
+	}
+
+	/**
+	 * Replace the code of a predicate, for example with code compiled with more
+	 * optimisations. Listeners are notified in the same way as when the
+	 * predicate is updated.
+	 *
+	 * @param env
+	 *   Environment in which the code is installed
+	 * @param tag
+	 *   Tag of the predicate
+	 * @param oldCode
+	 *   Code which is expected to be current
+	 * @param newCode
+	 *   Code replacing it, installed to env by this method
+	 * @return true if code was replaced, false if oldCode is no longer the current code
+	 */
+	public boolean replacePrologCode(Environment env, CompoundTermTag tag, PrologCode oldCode, PrologCode newCode)
+	{
+		if (!tag2code.replace(tag, oldCode, newCode))
+		{
+			return false;
+		}
+		pollPrologCodeListeners();
+		firePrologCodeUpdated(env, tag);
+		newCode.install(env);
+		return true;
+	}
+
+	/**
+	 * Notify listeners of tag that its code was changed
+	 *
+	 * @param env
+	 * @param tag
+	 */
+	protected void firePrologCodeUpdated(Environment env, CompoundTermTag tag)
+	{
 		synchronized (tag2listeners)
 		{
 			List<PrologCodeListenerRef> list = tag2listeners.get(tag);
 			if (list != null)
 			{
-				PrologCodeUpdatedEvent uevt = new PrologCodeUpdatedEvent(env, tag);
+				PrologCodeUpdatedEvent uevt = new PrologCodeUpdatedEvent(env, this, tag);
 				ListIterator<PrologCodeListenerRef> i = list.listIterator();
 				while (i.hasNext())
 				{
@@ -422,7 +469,6 @@ public class Module
 					else
 					{
 						lst.prologCodeUpdated(uevt);
-						return;
 					}
 				}
 			}
@@ -440,16 +486,86 @@ public class Module
 	 * @return the {@link PrologCode} for the tag
 	 * @throws PrologException
 	 */
-	public synchronized PrologCode getPrologCode(Environment env, CompoundTermTag tag) throws PrologException
+	public PrologCode getPrologCode(Environment env, CompoundTermTag tag) throws PrologException
 	{
 		PrologCode code = tag2code.get(tag);
-		if (code == null)
+		while (code == null)
 		{
-			code = env.loadPrologCode(tag);
-			tag2code.put(tag, code);
+			CodeLoad load = tag2load.get(tag);
+			if (load == null)
+			{
+				code = loadPrologCode(env, tag);
+			}
+			else if (Thread.holdsLock(load))
+			{
+				// predicate is needed while its own code is loaded
+				return env.loadPrologCode(this, tag);
+			}
+			else
+			{
+				// threads loading the same predicate wait for the first one, others
+				// are not blocked. The lock is held until the load is finished.
+				synchronized (load)
+				{
+					code = tag2code.get(tag);
+				}
+			}
 		}
 		return code;
+	}
+
+	/**
+	 * load and publish code of predicate unless another thread is loading it
+	 * 
+	 * @param env
+	 *          Environment to use for loading the code
+	 * @param tag
+	 *          Tag of the predicate to load
+	 * @return the loaded code, or null if another thread started to load it
+	 * @throws PrologException
+	 */
+	protected PrologCode loadPrologCode(Environment env, CompoundTermTag tag) throws PrologException
+	{
+		CodeLoad load = new CodeLoad();
+		synchronized (load)
+		{
+			if (tag2load.putIfAbsent(tag, load) != null)
+			{
+				return null;
+			}
+			try
+			{
+				PrologCode code = tag2code.get(tag);
+				if (code != null) // published after it was looked up
+				{
+					return code;
+				}
+				code = env.loadPrologCode(this, tag);
+				PrologCode previous = tag2code.putIfAbsent(tag, code);
+				if (previous != null)
+				{
+					return previous;
+				}
+				if (load.updated && tag2code.remove(tag, code))
+				{
+					// predicate was updated while its code was loaded
+					pollPrologCodeListeners();
+					firePrologCodeUpdated(env, tag);
+				}
+				return code;
+			}
+			finally
+			{
+				tag2load.remove(tag, load);
+			}
+		}
+	}
 
+	/** load of code of a predicate, its lock is held while the code is loaded */
+	protected static class CodeLoad
+	{
+		/** true if the predicate was updated while its code was loaded */
+		volatile boolean updated;
 	}
 
 	protected void pollPrologCodeListeners()
@@ -488,15 +604,7 @@ public class Module
 		// very soon anyway if we are about to call them
 		if (p.getType() == Predicate.TYPE.BUILD_IN)
 		{
-			env.pushModule(name);
-			try
-			{
-				getPrologCode(env, tag);
-			}
-			finally
-			{
-				env.popModule();
-			}
+			getPrologCode(env, tag);
 		}
 		return p.getMetaPredicateInfo();
 	}
@@ -68,25 +68,33 @@ public class Predicate
 	 * type of predicate. It should be either UNDEFINED, CONTROL ,BUILD_IN,
 	 * USER_DEFINED or EXTERNAL
 	 */
-	protected TYPE type = TYPE.UNDEFINED;
+	protected volatile TYPE type = TYPE.UNDEFINED;
 	/** a tag of predicate head */
 	protected CompoundTermTag tag;
-	/** list of clauses for this predicate */
-	protected List<Term> clauses = Collections.synchronizedList(new ArrayList<Term>());
+	/**
+	 * list of clauses for this predicate. When a fact table is created the list
+	 * is replaced after the table is set, so readers which read the list before
+	 * the table need no lock.
+	 */
+	protected volatile List<Term> clauses = Collections.synchronizedList(new ArrayList<Term>());
+	/** columnar storage of clauses, if not null the clauses list is empty */
+	protected volatile FactTable factTable;
 	/** flag which indicate that clauses was added for this predicate */
-	protected boolean propertiesLocked = false;
+	protected volatile boolean propertiesLocked = false;
 	/** dynamic property of predicate */
-	protected boolean dynamicFlag = false;
+	protected volatile boolean dynamicFlag = false;
 	/** meta property of predicate */
-	protected MetaPredicateInfo metaPredicateInfo = null;
+	protected volatile MetaPredicateInfo metaPredicateInfo = null;
 	/** class name for external predicate */
-	protected String javaClassName;
+	protected volatile String javaClassName;
 	/** set files where this predicate is defined */
 	protected Set<String> files = new HashSet<String>();
 	/** current module */
 	protected Module module;
 	/** exporting module */
 	protected Module sourceModule;
+	/** listener to changes of clauses of dynamic predicate */
+	protected ClauseListener clauseListener;
 
 
 	/**
@@ -112,9 +120,78 @@ public class Predicate
 	 * 
 	 * @return an unmodifiable list of the clauses of the {@link Predicate}
 	 * */
-	public synchronized List<Term> getClauses()
+	public List<Term> getClauses()
+	{
+		List<Term> list = clauses;
+		FactTable table = factTable;
+		if (table != null)
+		{
+			return Collections.unmodifiableList(table.getClauses());
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * get columnar storage of clauses. The table is created on the first call if
+	 * predicate is a static user defined predicate which has enough clauses and
+	 * all of them are ground facts. It is dropped again when clauses are added or
+	 * removed.
+	 * 
+	 * @param minimumSize
+	 *          minimum number of clauses for which the table is created
+	 * @return the table or null if clauses are not stored in a table
+	 */
+	public synchronized FactTable getFactTable(int minimumSize)
+	{
+		if (factTable == null && type == TYPE.USER_DEFINED && !dynamicFlag && clauses.size() >= minimumSize
+				&& minimumSize > 0)
+		{
+			factTable = FactTable.create(tag, clauses);
+			if (factTable != null)
+			{
+				clauses = Collections.synchronizedList(new ArrayList<Term>());
+			}
+		}
+		return factTable;
+	}
+
+	/**
+	 * store clauses of predicate in a fact table which was created elsewhere, for
+	 * example a {@link MappedFactTable}.
+	 * 
+	 * @param table
+	 *          table with the facts of this predicate
+	 * @throws IllegalStateException
+	 *           if predicate is not a static user defined predicate without
+	 *           clauses
+	 */
+	public synchronized void setFactTable(FactTable table)
+	{
+		if (type != TYPE.USER_DEFINED || dynamicFlag)
+		{
+			throw new IllegalStateException("fact table could be set only for static user defined predicate");
+		}
+		if (factTable != null || !clauses.isEmpty())
+		{
+			throw new IllegalStateException("predicate already has clauses");
+		}
+		if (table.getTag() != tag)
+		{
+			throw new IllegalArgumentException("fact table is for " + table.getTag());
+		}
+		propertiesLocked = true;
+		factTable = table;
+		module.predicateUpdated(tag);
+	}
+
+	/** move clauses from fact table back to the list */
+	private void dropFactTable()
 	{
-		return Collections.unmodifiableList(clauses);
+		if (factTable != null)
+		{
+			clauses.addAll(factTable.getClauses());
+			factTable = null;
+		}
 	}
 
 	/**
@@ -122,7 +199,7 @@ public class Predicate
 	 * 
 	 * @return type of predicate
 	 */
-	public synchronized TYPE getType()
+	public TYPE getType()
 	{
 		return type;
 	}
@@ -149,7 +226,7 @@ public class Predicate
 	 * 
 	 * @return true if predicate is external, false otherwise.
 	 */
-	public synchronized String getJavaClassName()
+	public String getJavaClassName()
 	{
 		return javaClassName;
 	}
@@ -186,7 +263,7 @@ public class Predicate
 	 * @return the functor for the predicate. e.g. in foo(X,Y) the functor is
 	 *         'foo'
 	 * */
-	public synchronized AtomTerm getFunctor()
+	public AtomTerm getFunctor()
 	{
 		return tag.functor;
 	}
@@ -196,7 +273,7 @@ public class Predicate
 	 * 
 	 * @return the arity of the {@link Predicate}
 	 */
-	public synchronized int getArity()
+	public int getArity()
 	{
 		return tag.arity;
 	}
@@ -206,7 +283,7 @@ public class Predicate
 	 * 
 	 * @return the tag of the predicate
 	 */
-	public synchronized CompoundTermTag getTag()
+	public CompoundTermTag getTag()
 	{
 		return tag;
 	}
@@ -225,8 +302,16 @@ public class Predicate
 			throw new IllegalStateException("clauses could be added only to user defined predicate");
 		}
 		propertiesLocked = true;
+		dropFactTable();
 		clauses.add(clause);
-		module.predicateUpdated(tag);
+		if (clauseListener != null)
+		{
+			clauseListener.clauseAdded(clause, false);
+		}
+		else
+		{
+			module.predicateUpdated(tag);
+		}
 	}
 
 	/**
@@ -243,6 +328,7 @@ public class Predicate
 			throw new IllegalStateException("clauses could be added only to user defined predicate");
 		}
 		propertiesLocked = true;
+		dropFactTable();
 
 		if (clauses.size() == 0) // bug workaround
 		{
@@ -252,7 +338,14 @@ public class Predicate
 		{
 			clauses.add(0, clause);
 		}
-		module.predicateUpdated(tag);
+		if (clauseListener != null)
+		{
+			clauseListener.clauseAdded(clause, true);
+		}
+		else
+		{
+			module.predicateUpdated(tag);
+		}
 	}
 
 	/**
@@ -264,8 +357,39 @@ public class Predicate
 	 */
 	public synchronized void removeClause(Term clause)
 	{
-		clauses.remove(clause);
-		module.predicateUpdated(tag);
+		dropFactTable();
+		if (!clauses.remove(clause))
+		{
+			return;
+		}
+		if (clauseListener != null)
+		{
+			clauseListener.clauseRemoved(clause);
+		}
+		else
+		{
+			module.predicateUpdated(tag);
+		}
+	}
+
+	/**
+	 * set listener to changes of clauses. While the listener is set adding or
+	 * removing a clause does not cause the code of the predicate to be dropped,
+	 * the listener has to update it instead. Only one listener could be set, it
+	 * replaces the previous one.
+	 * 
+	 * @param listener
+	 *          the listener or null to remove the listener
+	 * @throws IllegalStateException
+	 *           if predicate is not dynamic
+	 */
+	public synchronized void setClauseListener(ClauseListener listener)
+	{
+		if (!dynamicFlag)
+		{
+			throw new IllegalStateException("clause listener could be set only for dynamic predicate");
+		}
+		clauseListener = listener;
 	}
 
 	/**
@@ -273,7 +397,7 @@ public class Predicate
 	 * 
 	 * @return true if properties of predicate could be changed at this moment
 	 */
-	public synchronized boolean arePropertiesLocked()
+	public boolean arePropertiesLocked()
 	{
 		return propertiesLocked;
 	}
@@ -283,7 +407,7 @@ public class Predicate
 	 * 
 	 * @return true if predicate is dynamic, false otherwise.
 	 */
-	public synchronized boolean isDynamic()
+	public boolean isDynamic()
 	{
 		return dynamicFlag;
 	}
@@ -324,7 +448,7 @@ public class Predicate
 		metaPredicateInfo = info;
 	}
 
-	public synchronized MetaPredicateInfo getMetaPredicateInfo()
+	public MetaPredicateInfo getMetaPredicateInfo()
 	{
 		return metaPredicateInfo;
 	}
@@ -334,7 +458,7 @@ public class Predicate
 	{
 		StringBuilder answer = new StringBuilder(tag.toString());
 		answer.append(": ");
-		answer.append(clauses.toString());
+		answer.append(getClauses().toString());
 		return answer.toString();
 	}
 
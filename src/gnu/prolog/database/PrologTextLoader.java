@@ -75,6 +75,7 @@ public class PrologTextLoader
 
 	// my extension directives
 	public static final CompoundTermTag externalTag = CompoundTermTag.get("external", 2);
+	public static final CompoundTermTag fact_tableTag = CompoundTermTag.get("fact_table", 2);
 	public static final CompoundTermTag build_inTag = CompoundTermTag.get("build_in", 2);
 	public static final CompoundTermTag controlTag = CompoundTermTag.get("control", 2);
 	public static final CompoundTermTag moduleTag = CompoundTermTag.get("module", 2);
@@ -276,6 +277,10 @@ public class PrologTextLoader
 					{
 						processExternalDirective(dirTerm.args[0], dirTerm.args[1]);
 					}
+					else if (dirTag == fact_tableTag)
+					{
+						processFactTableDirective(dirTerm.args[0], dirTerm.args[1]);
+					}
 					else if (dirTag == controlTag)
 					{
 						processControlDirective(dirTerm.args[0], dirTerm.args[1]);
@@ -376,6 +381,21 @@ public class PrologTextLoader
 				Predicate.TYPE.EXTERNAL);
 	}
 
+	protected void processFactTableDirective(Term pi, Term fileName)
+	{
+		if (!(fileName instanceof AtomTerm))
+		{
+			logError("file name should be atom term");
+			return;
+		}
+		if (!(pi instanceof CompoundTerm))
+		{
+			logError("predicate indicator should be a compound term");
+			return;
+		}
+		prologTextLoaderState.defineFactTable(this, (CompoundTerm) pi, ((AtomTerm) fileName).value);
+	}
+
 	protected void processInitializationDirective(Term term)
 	{
 		prologTextLoaderState.addInitialization(this, term);
@@ -379,6 +379,60 @@ public class PrologTextLoaderState implements PrologTextLoaderListener, HasEnvir
 		defineOptionAndDeclare(loader, p, "defined");
 	}
 
+	/**
+	 * define predicate whose facts are stored in a {@link MappedFactTable}
+	 * 
+	 * @param loader
+	 * @param pi
+	 *          predicate indicator
+	 * @param fileName
+	 *          file written by {@link MappedFactTable#write(FactTable, File)}
+	 */
+	public void defineFactTable(PrologTextLoader loader, CompoundTerm pi, String fileName)
+	{
+		if (!CompoundTermTag.isPredicateIndicator(pi))
+		{
+			logError(loader, "predicate indicator is not valid.");
+			return;
+		}
+		CompoundTermTag tag = CompoundTermTag.get(pi);
+		Predicate p = module.getOrCreateDefinedPredicate(tag);
+		if (p.getType() == Predicate.TYPE.UNDEFINED)
+		{
+			p.setType(Predicate.TYPE.USER_DEFINED);
+		}
+		if (p.getType() != Predicate.TYPE.USER_DEFINED || p.isDynamic() || testOption(loader, p, "defined"))
+		{
+			logError(loader, "predicate could not be defined by fact table.");
+			return;
+		}
+		FactTable table;
+		try
+		{
+			table = MappedFactTable.open(new File(fileName));
+		}
+		catch (IOException ex)
+		{
+			logError(loader, "could not open fact table \'" + fileName + "\': " + ex.getMessage());
+			return;
+		}
+		if (table.getTag() != tag)
+		{
+			logError(loader, "fact table \'" + fileName + "\' contains facts of " + table.getTag() + ".");
+			return;
+		}
+		try
+		{
+			p.setFactTable(table);
+		}
+		catch (IllegalStateException ex)
+		{
+			logError(loader, ex.getMessage());
+			return;
+		}
+		defineOptionAndDeclare(loader, p, "defined");
+	}
+
 	public void logError(PrologTextLoader loader, ParseException ex)
 	{
 		synchronized (errorList)
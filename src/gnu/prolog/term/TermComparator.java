@@ -28,6 +28,66 @@ public class TermComparator implements Comparator<Term>
 	protected int currentIdx;
 	protected Map<Term, Integer> orderMap = new HashMap<Term, Integer>();
 
+	/**
+	 * check if two terms are identical, which is the same as
+	 * <code>compare(o1, o2) == 0</code> but does not need an instance to order
+	 * variables
+	 * 
+	 * @param o1
+	 * @param o2
+	 * @return true if terms are identical
+	 */
+	public static boolean identical(Term o1, Term o2)
+	{
+		Term t1 = o1.dereference();
+		Term t2 = o2.dereference();
+		if (t1 == t2)
+		{
+			return true;
+		}
+		int ty = t1.getTermType();
+		if (ty != t2.getTermType())
+		{
+			return false;
+		}
+		switch (ty)
+		{
+			case Term.FLOAT:
+				double fr = ((FloatTerm) t1).value - ((FloatTerm) t2).value;
+				return !(fr < 0 || fr > 0);
+			case Term.BIG_INTEGER:
+				return ((BigIntegerTerm) t1).compareTo((BigIntegerTerm) t2) == 0;
+			case Term.RATIONAL:
+				return ((RationalTerm) t1).compareTo((RationalTerm) t2) == 0;
+			case Term.INTEGER:
+				return ((IntegerTerm) t1).value == ((IntegerTerm) t2).value;
+			case Term.ATOM:
+				return ((AtomTerm) t1).value.equals(((AtomTerm) t2).value);
+			case Term.COMPOUND:
+				CompoundTerm ct1 = (CompoundTerm) t1;
+				CompoundTerm ct2 = (CompoundTerm) t2;
+				if (ct1.tag.arity != ct2.tag.arity || !ct1.tag.functor.value.equals(ct2.tag.functor.value))
+				{
+					return false;
+				}
+				Term args1[] = ct1.args;
+				Term args2[] = ct2.args;
+				for (int i = 0; i < args1.length; i++)
+				{
+					if (!identical(args1[i], args2[i]))
+					{
+						return false;
+					}
+				}
+				return true;
+			case Term.VARIABLE:
+			case Term.JAVA_OBJECT:
+				return false;
+			default:
+				return true;
+		}
+	}
+
 	/**
 	 * Compares its two arguments for order. Returns a negative integer, zero, or
 	 * a positive integer as the first argument is less than, equal to, or greater
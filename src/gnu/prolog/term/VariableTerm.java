@@ -56,6 +56,14 @@ public class VariableTerm extends Term
 	/** value of variable term */
 	public Term value = null;
 
+	/**
+	 * Creation stamp given by the interpreter which created the variable, 0 if
+	 * the variable was not created by an interpreter.
+	 * 
+	 * @see gnu.prolog.vm.Interpreter#newVariable()
+	 */
+	public long stamp = 0;
+
 	/**
 	 * Name of the variable when it was declared
 	 * 
@@ -30,6 +30,7 @@ import gnu.prolog.term.Term;
 import gnu.prolog.vm.Environment;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologCode;
+import gnu.prolog.vm.interpreter.InterpretedByteCode;
 
 import java.io.StringReader;
 
@@ -73,8 +74,21 @@ public class CodeDumper
 			ReadOptions rd_ops = new ReadOptions(new OperatorSet());
 			// WriteOptions wr_ops = new WriteOptions();
 			Term goalTerm = trd.readTermEof(rd_ops);
-			PrologCode code = env.getPrologCode(CompoundTermTag.get((CompoundTerm) goalTerm));
+			CompoundTermTag tag = CompoundTermTag.get((CompoundTerm) goalTerm);
+			PrologCode code = env.getPrologCode(tag);
+			if (code instanceof InterpretedByteCode && !((InterpretedByteCode) code).isOptimized())
+			{
+				// dump the code which is used once the predicate is hot
+				env.promotePrologCode(tag, code);
+				code = env.getPrologCode(tag);
+			}
 			System.out.println(code);
+			if (code instanceof InterpretedByteCode)
+			{
+				InterpretedByteCode bc = (InterpretedByteCode) code;
+				System.out.println("instructions: " + bc.getUnoptimizedInstructionCount() + " before peephole optimisation, "
+						+ bc.getInstructionCount() + " after");
+			}
 		}
 		catch (Exception ex)
 		{
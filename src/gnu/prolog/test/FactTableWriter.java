@@ -0,0 +1,84 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.test;
+
+import gnu.prolog.Version;
+import gnu.prolog.database.FactTable;
+import gnu.prolog.database.MappedFactTable;
+import gnu.prolog.database.Predicate;
+import gnu.prolog.database.PrologTextLoaderError;
+import gnu.prolog.io.OperatorSet;
+import gnu.prolog.io.ReadOptions;
+import gnu.prolog.io.TermReader;
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.Environment;
+
+import java.io.File;
+import java.io.StringReader;
+
+/**
+ * Write the ground facts of a predicate from the supplied Prolog file to a fact
+ * table file which could be loaded with the fact_table/2 directive.
+ * 
+ */
+public class FactTableWriter
+{
+	private FactTableWriter()
+	{}
+
+	public static void main(String args[])
+	{
+		try
+		{
+			System.out.println("GNU Prolog for Java (" + Version.getVersion()
+					+ ") Fact table writer (c) Constantine Plotnikov, 1997-1999.");
+			if (args.length < 3)
+			{
+				System.out.println("usage: java gnu.prolog.test.FactTableWriter <text to load> <predicate indicator> <fact table file>");
+				System.out.println("example: java gnu.prolog.test.FactTableWriter edges.pro edge/2 edges.facts");
+				return;
+			}
+			Environment env = new Environment();
+			env.ensureLoaded(AtomTerm.get(args[0]));
+			for (Object element : env.getLoadingErrors())
+			{
+				PrologTextLoaderError err = (PrologTextLoaderError) element;
+				System.err.println(err);
+			}
+			TermReader trd = new TermReader(new StringReader(args[1]), env);
+			Term pi = trd.readTermEof(new ReadOptions(new OperatorSet()));
+			CompoundTermTag tag = CompoundTermTag.get((CompoundTerm) pi);
+			Predicate p = env.getModule().getDefinedPredicate(tag);
+			FactTable table = p == null ? null : FactTable.create(tag, p.getClauses());
+			if (table == null)
+			{
+				System.err.println(tag + " is not defined by ground facts");
+				return;
+			}
+			MappedFactTable.write(table, new File(args[2]));
+			System.out.println(table.size() + " facts written");
+		}
+		catch (Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
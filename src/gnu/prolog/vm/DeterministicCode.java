@@ -0,0 +1,28 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm;
+
+/**
+ * Marker for code which returns either {@link PrologCode.RC#SUCCESS_LAST} or
+ * {@link PrologCode.RC#FAIL}, does not execute other goals and does not keep a
+ * reference to the argument array after it returns. Interpreted code passes the
+ * arguments of calls to such code in an array which is reused by later calls.
+ */
+public interface DeterministicCode extends PrologCode
+{
+}
@@ -20,6 +20,7 @@
 package gnu.prolog.vm;
 
 import gnu.prolog.Version;
+import gnu.prolog.database.FactTable;
 import gnu.prolog.database.Module;
 import gnu.prolog.database.Pair;
 import gnu.prolog.database.Predicate;
@@ -41,6 +42,11 @@ import gnu.prolog.term.JavaObjectTerm;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
 import gnu.prolog.vm.PrologCode.RC;
+import gnu.prolog.vm.interpreter.CallCache;
+import gnu.prolog.vm.interpreter.DynamicCode;
+import gnu.prolog.vm.interpreter.FactTableCode;
+import gnu.prolog.vm.interpreter.InstructionEncoding;
+import gnu.prolog.vm.interpreter.InterpretedByteCode;
 import gnu.prolog.vm.interpreter.InterpretedCodeCompiler;
 
 import java.io.File;
@@ -63,6 +69,7 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * this class represent prolog processor.
@@ -108,6 +115,20 @@ public class Environment implements PredicateListener
 	/** atom to flag */
 	protected Map<AtomTerm, Term> atom2flag = new HashMap<AtomTerm, Term>();
 	protected Set<AtomTerm> changableFlags = new HashSet<AtomTerm>();
+	/** encoding of instructions of interpreted code */
+	protected final InstructionEncoding instructionEncoding;
+	/** code compiled for goals of call/1 */
+	protected final CallCache callCache = new CallCache(this);
+	/** number of spy points of interpreters on builtins which are compiled inline */
+	private final Map<CompoundTermTag, Integer> spiedBuiltins = new HashMap<CompoundTermTag, Integer>();
+
+	/**
+	 * system property with the minimum number of clauses of a static predicate
+	 * consisting only of ground facts which is stored in a {@link FactTable}, 0
+	 * or less to disable fact tables
+	 */
+	public static final String FACT_TABLE_THRESHOLD_PROPERTY = "gnu.prolog.factTableThreshold";
+	private static final int FACT_TABLE_THRESHOLD = Integer.getInteger(FACT_TABLE_THRESHOLD_PROPERTY, 256).intValue();
 
 	/** constructor of environment, it loads buildins to database at start. */
 	public Environment()
@@ -117,6 +138,20 @@ public class Environment implements PredicateListener
 
 	public Environment(InputStream stdin, OutputStream stdout)
 	{
+		this(stdin, stdout, InstructionEncoding.getDefault());
+	}
+
+	/**
+	 * constructor of environment with encoding of interpreted code
+	 * 
+	 * @param stdin
+	 * @param stdout
+	 * @param instructionEncoding
+	 *          encoding of instructions executed by interpreter
+	 */
+	public Environment(InputStream stdin, OutputStream stdout, InstructionEncoding instructionEncoding)
+	{
+		this.instructionEncoding = instructionEncoding;
 		createTextLoader();
 		initEnvironment();
 		initStreams(stdin, stdout);
@@ -176,6 +211,97 @@ public class Environment implements PredicateListener
 		return prologTextLoaderState;
 	}
 
+	/**
+	 * @return the encoding of instructions of interpreted code
+	 */
+	public InstructionEncoding getInstructionEncoding()
+	{
+		return instructionEncoding;
+	}
+
+	/**
+	 * @return the cache of code compiled for goals of call/1
+	 */
+	public CallCache getCallCache()
+	{
+		return callCache;
+	}
+
+	/**
+	 * check if an interpreter has a spy point on a builtin which is compiled
+	 * inline, such builtin is compiled to a call so that the spy point reports it
+	 * 
+	 * @param tag
+	 *          tag of builtin
+	 * @return true if the builtin has a spy point
+	 */
+	public boolean hasSpyPoint(CompoundTermTag tag)
+	{
+		synchronized (spiedBuiltins)
+		{
+			return spiedBuiltins.containsKey(tag);
+		}
+	}
+
+	/**
+	 * called by the tracer of an interpreter when a spy point is set or removed.
+	 * When the first spy point on a builtin which is compiled inline is set or
+	 * its last one is removed, compiled code is dropped and compiled again on
+	 * next use.
+	 * 
+	 * @param tag
+	 *          tag of predicate
+	 * @param set
+	 *          true if the spy point was set, false if it was removed
+	 */
+	public void spyPointChanged(CompoundTermTag tag, boolean set)
+	{
+		if (!InterpretedCodeCompiler.isInlineBuiltin(tag))
+		{
+			return;
+		}
+		boolean changed;
+		synchronized (spiedBuiltins)
+		{
+			Integer count = spiedBuiltins.get(tag);
+			int before = count == null ? 0 : count.intValue();
+			int after = set ? before + 1 : Math.max(before - 1, 0);
+			if (after == 0)
+			{
+				spiedBuiltins.remove(tag);
+			}
+			else
+			{
+				spiedBuiltins.put(tag, Integer.valueOf(after));
+			}
+			changed = (before == 0) != (after == 0);
+		}
+		if (changed)
+		{
+			dropCompiledCode();
+		}
+	}
+
+	/**
+	 * drop code of user defined predicates and of goals of call/1, it is compiled
+	 * again on next use. Code which is running keeps running.
+	 */
+	protected void dropCompiledCode()
+	{
+		for (Module module : modules.values())
+		{
+			for (CompoundTermTag tag : module.getPredicateTags())
+			{
+				Predicate p = module.getDefinedPredicate(tag);
+				if (p != null && p.getType() == Predicate.TYPE.USER_DEFINED)
+				{
+					module.predicateUpdated(tag);
+				}
+			}
+		}
+		callCache.clear();
+	}
+
 	/**
 	 * true if the environment is currently initialized
 	 * 
@@ -409,6 +535,13 @@ public class Environment implements PredicateListener
 		return new Interpreter(this);
 	}
 
+	/**
+	 * get module into which prolog text is currently loaded. Running goals use
+	 * the module of their {@link Interpreter} instead, see
+	 * {@link Interpreter#getModule()}.
+	 * 
+	 * @return the module
+	 */
 	public Module getModule()
 	{
 		return modules.get(moduleStack.peek());
@@ -419,6 +552,11 @@ public class Environment implements PredicateListener
 		return modules.get(name);
 	}
 
+	public Module getUserModule()
+	{
+		return userModule;
+	}
+
 	/**
 	 * load code for prolog
 	 * 
@@ -427,14 +565,31 @@ public class Environment implements PredicateListener
 	 * @return the loaded PrologCode
 	 * @throws PrologException
 	 */
-	public synchronized PrologCode loadPrologCode(CompoundTermTag tag) throws PrologException
+	public PrologCode loadPrologCode(CompoundTermTag tag) throws PrologException
+	{
+		return loadPrologCode(getModule(), tag);
+	}
+
+	/**
+	 * load code for prolog. The environment is not locked,
+	 * {@link Module#getPrologCode(Environment, CompoundTermTag)} loads each
+	 * predicate only once.
+	 * 
+	 * @param module
+	 *          the module in which the predicate is looked up
+	 * @param tag
+	 *          the tag of the {@link PrologCode} to load
+	 * @return the loaded PrologCode
+	 * @throws PrologException
+	 */
+	public PrologCode loadPrologCode(Module module, CompoundTermTag tag) throws PrologException
 	{
 		// simple variant, later I will need to add compilation.
-		Predicate p = getModule().getDefinedPredicate(tag);
+		Predicate p = module.getDefinedPredicate(tag);
 		if (p == null) // case of undefined predicate
 		{
 			// tag is not defined in the current module. Check user
-			if (!getModule().equals(userModule))
+			if (!module.equals(userModule))
 			{
 				p = userModule.getDefinedPredicate(tag);
 				if (p == null)
@@ -449,7 +604,7 @@ public class Environment implements PredicateListener
 					// both define a clause of something, when the user module calls it, we will get the one in the current module, which
 					// is wrong!
 					Module sourceModule = p.getSourceModule();
-					p = getModule().importPredicate(this, (sourceModule==null?Module.userAtom:sourceModule.getName()), tag);
+					p = module.importPredicate(this, (sourceModule==null?Module.userAtom:sourceModule.getName()), tag);
 				}
 				// At this point we can fall back to the switch statement below
 			}
@@ -486,7 +641,24 @@ public class Environment implements PredicateListener
 			}
 			case USER_DEFINED:
 			{
-				PrologCode code = InterpretedCodeCompiler.compile(p.getClauses());
+				FactTable facts = p.getFactTable(FACT_TABLE_THRESHOLD);
+				if (facts != null)
+				{
+					return new FactTableCode(facts);
+				}
+				if (p.isDynamic())
+				{
+					// the code is updated by the predicate when clauses change
+					synchronized (p)
+					{
+						DynamicCode code = new DynamicCode(module, tag, p.getClauses());
+						code.install(this);
+						p.setClauseListener(code);
+						return code;
+					}
+				}
+				// start with baseline code, it is promoted when it becomes hot
+				PrologCode code = InterpretedCodeCompiler.compile(this, module, p.getClauses(), !InterpretedByteCode.isTiered());
 				code.install(this);
 				return code;
 			}
@@ -495,6 +667,47 @@ public class Environment implements PredicateListener
 		}
 	}
 
+	/**
+	 * recompile user defined predicate with all optimisations and replace its
+	 * current code
+	 * 
+	 * @param tag
+	 *          tag of predicate
+	 * @param code
+	 *          current code of predicate
+	 * @return true if code was replaced
+	 * @throws PrologException
+	 */
+	public boolean promotePrologCode(CompoundTermTag tag, PrologCode code) throws PrologException
+	{
+		return promotePrologCode(getModule(), tag, code);
+	}
+
+	/**
+	 * recompile user defined predicate with all optimisations and replace its
+	 * current code
+	 * 
+	 * @param module
+	 *          module of predicate
+	 * @param tag
+	 *          tag of predicate
+	 * @param code
+	 *          current code of predicate
+	 * @return true if code was replaced
+	 * @throws PrologException
+	 */
+	public boolean promotePrologCode(Module module, CompoundTermTag tag, PrologCode code)
+			throws PrologException
+	{
+		Predicate p = module.getDefinedPredicate(tag);
+		if (p == null || p.getType() != Predicate.TYPE.USER_DEFINED)
+		{
+			return false;
+		}
+		PrologCode optimized = InterpretedCodeCompiler.compile(this, module, p.getClauses(), true);
+		return module.replacePrologCode(this, tag, code, optimized);
+	}
+
 	/**
 	 * get undefined predicate code
 	 * 
@@ -513,9 +726,22 @@ public class Environment implements PredicateListener
 	 * @return the {@link PrologCode} for the tag
 	 * @throws PrologException
 	 */
-	public synchronized PrologCode getPrologCode(CompoundTermTag tag) throws PrologException
+	public PrologCode getPrologCode(CompoundTermTag tag) throws PrologException
+	{
+		return getPrologCode(getModule(), tag);
+	}
+
+	/**
+	 * get prolog code of predicate in module
+	 * 
+	 * @param module
+	 * @param tag
+	 * @return the {@link PrologCode} for the tag
+	 * @throws PrologException
+	 */
+	public PrologCode getPrologCode(Module module, CompoundTermTag tag) throws PrologException
 	{
-		return getModule().getPrologCode(this, tag);
+		return module.getPrologCode(this, tag);
 	}
 
 
@@ -544,7 +770,7 @@ public class Environment implements PredicateListener
 
 	public void predicateUpdated(PredicateUpdatedEvent evt)
 	{
-		getModule().predicateUpdated(this, evt);
+		evt.getModule().predicateUpdated(this, evt);
 	}
 
 	private static InputStream defaultInputStream;
@@ -875,8 +1101,9 @@ public class Environment implements PredicateListener
 
 
 	private Module userModule;
-	private Map<AtomTerm, Module> modules = new HashMap<AtomTerm, Module>();
-	public Stack<AtomTerm> moduleStack = new Stack<AtomTerm>();
+	private Map<AtomTerm, Module> modules = new ConcurrentHashMap<AtomTerm, Module>();
+	/** modules into which prolog text is loaded, the current one is on top */
+	private Stack<AtomTerm> moduleStack = new Stack<AtomTerm>();
 
 	public Module startNewModule(AtomTerm name, List<CompoundTermTag> exports) throws PrologException
 	{
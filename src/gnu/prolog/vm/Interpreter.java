@@ -19,6 +19,7 @@
  */
 package gnu.prolog.vm;
 
+import gnu.prolog.database.Module;
 import gnu.prolog.io.PrologStream;
 import gnu.prolog.term.CompoundTerm;
 import gnu.prolog.term.FloatTerm;
@@ -29,10 +30,14 @@ import gnu.prolog.term.JavaObjectTerm;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
 import gnu.prolog.vm.PrologCode.RC;
+import gnu.prolog.vm.interpreter.ArithmeticExpression;
+import gnu.prolog.vm.interpreter.FrameStack;
 import gnu.prolog.vm.interpreter.Tracer;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class represent interpreter, it should be used only from one thread If
@@ -54,6 +59,16 @@ public final class Interpreter implements HasEnvironment
 	 */
 	private Tracer tracer;
 
+	/**
+	 * Frames of interpreted code which called other interpreted code
+	 */
+	private FrameStack frameStack = new FrameStack();
+
+	/**
+	 * Module in which goals are executed, null for the user module
+	 */
+	private Module module;
+
 	/**
 	 * Contains an {@link PrologHalt} instance when the interpreter was halted in
 	 * an {@link #execute(Goal)}.
@@ -86,7 +101,7 @@ public final class Interpreter implements HasEnvironment
 			System.err.println("Could not get an output stream:");
 			e.printStackTrace();
 		}
-		tracer = new Tracer(outstream);
+		tracer = new Tracer(environment, outstream);
 		context = new HashMap<String, Object>();
 	}
 
@@ -101,6 +116,129 @@ public final class Interpreter implements HasEnvironment
 		return tracer;
 	}
 
+	/**
+	 * get module in which goals are executed. Predicates called by meta calls
+	 * are looked up in it and database predicates work on it.
+	 * 
+	 * @return the module
+	 */
+	public Module getModule()
+	{
+		return module != null ? module : environment.getUserModule();
+	}
+
+	/**
+	 * set module in which goals are executed, the caller restores the previous
+	 * module when the goal exits
+	 * 
+	 * @param module
+	 *          the module or null for the user module
+	 * @return the previous module
+	 */
+	public Module setModule(Module module)
+	{
+		Module previous = this.module;
+		this.module = module;
+		return previous;
+	}
+
+	/** get stack of frames used by interpreted code */
+	public FrameStack getFrameStack()
+	{
+		return frameStack;
+	}
+
+	/**
+	 * Pushdown stack shared by interpreted code. Every execution of interpreted
+	 * code uses the part above the top published when it was entered, so nested
+	 * executions do not need a stack of their own.
+	 */
+	private Term pushDown[] = new Term[64];
+
+	/** top of pushdown stack published before control leaves interpreted code */
+	private int pushDownTop = 0;
+
+	/** reusable argument arrays for calls to {@link DeterministicCode} */
+	private Term argumentRegisters[][] = new Term[8][];
+
+	/** stack of unboxed values used by inline arithmetic of interpreted code */
+	private final long arithmeticStack[] = new long[ArithmeticExpression.MAX_DEPTH];
+
+	/** get pushdown stack shared by interpreted code */
+	public Term[] getPushDown()
+	{
+		return pushDown;
+	}
+
+	/**
+	 * ensure that pushdown stack is large enough
+	 *
+	 * @param size
+	 *          required size
+	 * @return pushdown stack, it is replaced by a larger copy if needed
+	 */
+	public Term[] ensurePushDownCapacity(int size)
+	{
+		if (size > pushDown.length)
+		{
+			Term tmp[] = new Term[Math.max(size, pushDown.length * 2)];
+			System.arraycopy(pushDown, 0, tmp, 0, pushDown.length);
+			pushDown = tmp;
+		}
+		return pushDown;
+	}
+
+	/** get first free position of pushdown stack */
+	public int getPushDownTop()
+	{
+		return pushDownTop;
+	}
+
+	/**
+	 * publish first free position of pushdown stack
+	 *
+	 * @param top
+	 *          first free position
+	 */
+	public void setPushDownTop(int top)
+	{
+		pushDownTop = top;
+	}
+
+	/**
+	 * get argument array for call to {@link DeterministicCode}. The array is
+	 * shared by all such calls of same arity, the caller should clear it after
+	 * the call.
+	 *
+	 * @param arity
+	 *          number of arguments
+	 * @return argument array
+	 */
+	public Term[] getArgumentRegisters(int arity)
+	{
+		if (arity >= argumentRegisters.length)
+		{
+			return new Term[arity];
+		}
+		Term rc[] = argumentRegisters[arity];
+		if (rc == null)
+		{
+			rc = new Term[arity];
+			argumentRegisters[arity] = rc;
+		}
+		return rc;
+	}
+
+	/**
+	 * get stack used by {@link ArithmeticExpression}
+	 *
+	 * @return stack of unboxed values
+	 */
+	public long[] getArithmeticStack()
+	{
+		return arithmeticStack;
+	}
+
 	@Deprecated
 	public Object putContext(String key, Object contextValue)
 	{
@@ -120,6 +258,11 @@ public final class Interpreter implements HasEnvironment
 	private int backtrackInfoAmount = 0;
 	private int backtrackInfoMax = backtrackInfoStack.length;
 
+	/** undo positions of the last cut barriers indexed by backtrack stack height */
+	private int cutBarrierUndoPositions[] = new int[PAGESIZE];
+	/** undo epochs of the last cut barriers indexed by backtrack stack height */
+	private long cutBarrierEpochs[] = new long[PAGESIZE];
+
 	/**
 	 * push backtrack information
 	 * 
@@ -154,6 +297,28 @@ public final class Interpreter implements HasEnvironment
 		return rc;
 	}
 
+	/**
+	 * pop backtrack information which is above height
+	 *
+	 * @param height
+	 *          height returned by {@link #getBacktrackInfoHeight()}
+	 * @return the popped top backtrack information or null if there is none
+	 *         above height
+	 */
+	public BacktrackInfo popBacktrackInfoAbove(int height)
+	{
+		while (backtrackInfoAmount > height)
+		{
+			BacktrackInfo rc = backtrackInfoStack[--backtrackInfoAmount];
+			backtrackInfoStack[backtrackInfoAmount] = null;
+			if (!(rc instanceof BacktrackInfoWithCleanup))
+			{
+				return rc;
+			}
+		}
+		return null;
+	}
+
 	public void popBacktrackInfoUntil(BacktrackInfo cutPoint)
 	{
 		int pos = backtrackInfoAmount - 1;
@@ -165,7 +330,30 @@ public final class Interpreter implements HasEnvironment
 		{
 			throw new IllegalArgumentException("cutPoint not found");
 		}
-		for (int i = pos + 1; i < backtrackInfoAmount; i++)
+		popBacktrackInfoTo(pos + 1);
+	}
+
+	/**
+	 * get height of backtrack stack, it is used as cut barrier by interpreted
+	 * code
+	 * 
+	 * @return number of backtrack infos on stack
+	 */
+	public int getBacktrackInfoHeight()
+	{
+		return backtrackInfoAmount;
+	}
+
+	/**
+	 * cut backtrack stack to height, cleanup of removed backtrack infos is
+	 * executed
+	 * 
+	 * @param height
+	 *          height returned by {@link #getBacktrackInfoHeight()}
+	 */
+	public void popBacktrackInfoTo(int height)
+	{
+		for (int i = height; i < backtrackInfoAmount; i++)
 		{
 			if (backtrackInfoStack[i] instanceof BacktrackInfoWithCleanup)
 			{
@@ -173,7 +361,54 @@ public final class Interpreter implements HasEnvironment
 			}
 			backtrackInfoStack[i] = null;
 		}
-		backtrackInfoAmount = pos + 1;
+		if (height < backtrackInfoAmount)
+		{
+			backtrackInfoAmount = height;
+		}
+	}
+
+	/**
+	 * get cut barrier for interpreted code. The undo position and epoch are
+	 * remembered with the barrier so that {@link #cut(int)} could drop the undo
+	 * of variables which were created after the barrier.
+	 * 
+	 * @return height of backtrack stack to which {@link #cut(int)} cuts
+	 */
+	public int getCutBarrier()
+	{
+		int height = backtrackInfoAmount;
+		if (height >= cutBarrierEpochs.length)
+		{
+			int tmp[] = new int[height + GROWSIZE];
+			System.arraycopy(cutBarrierUndoPositions, 0, tmp, 0, cutBarrierUndoPositions.length);
+			cutBarrierUndoPositions = tmp;
+			long tmpEpochs[] = new long[height + GROWSIZE];
+			System.arraycopy(cutBarrierEpochs, 0, tmpEpochs, 0, cutBarrierEpochs.length);
+			cutBarrierEpochs = tmpEpochs;
+		}
+		cutBarrierUndoPositions[height] = undoDataAmount;
+		cutBarrierEpochs[height] = undoEpoch;
+		return height;
+	}
+
+	/**
+	 * cut backtrack stack to barrier returned by {@link #getCutBarrier()}.
+	 * Backtrack infos which were pushed after the barrier are removed, so undo
+	 * of variables created after the barrier is not needed any more and it is
+	 * dropped.
+	 * 
+	 * @param height
+	 *          height returned by {@link #getCutBarrier()}
+	 */
+	public void cut(int height)
+	{
+		popBacktrackInfoTo(height);
+		// a later barrier of the same height only drops less
+		if (height < cutBarrierEpochs.length && cutBarrierUndoPositions[height] < undoDataAmount)
+		{
+			pruneUndo(cutBarrierUndoPositions[height], cutBarrierEpochs[height]);
+		}
+		shrinkStacks();
 	}
 
 	/**
@@ -194,6 +429,19 @@ public final class Interpreter implements HasEnvironment
 	private int undoDataAmount = 0;
 	private boolean undoPositionAsked = true;
 
+	/** number of bits of undo epoch used for counter, the rest identifies interpreter */
+	private static final int EPOCH_BITS = 40;
+	/** last interpreter identifier */
+	private static final AtomicLong lastInterpreterId = new AtomicLong();
+	/**
+	 * undo epoch, it is incremented whenever an undo position is given out.
+	 * Variables created by this interpreter are stamped with it, so a variable
+	 * stamped with the current epoch was created after every undo position that
+	 * could be restored and its binding needs no undo. Every interpreter uses its
+	 * own range of epochs.
+	 */
+	private long undoEpoch = (lastInterpreterId.incrementAndGet() << EPOCH_BITS) + 1;
+
 	/**
 	 * get current undo position
 	 * 
@@ -202,9 +450,24 @@ public final class Interpreter implements HasEnvironment
 	public int getUndoPosition()
 	{
 		undoPositionAsked = true;
+		undoEpoch++;
 		return undoDataAmount;
 	}
 
+	/**
+	 * create new variable stamped with current undo epoch. Bindings of such
+	 * variable are only recorded for undo if an undo position was asked after
+	 * it was created.
+	 * 
+	 * @return new variable
+	 */
+	public VariableTerm newVariable()
+	{
+		VariableTerm variable = new VariableTerm();
+		variable.stamp = undoEpoch;
+		return variable;
+	}
+
 	/**
 	 * undo changes until this position
 	 * 
@@ -220,6 +483,99 @@ public final class Interpreter implements HasEnvironment
 		}
 		undoDataAmount = position;
 		undoPositionAsked = true;
+		shrinkStacks();
+	}
+
+	/**
+	 * drop undo of variables created in epoch or later from undo stack above
+	 * position. There must be no undo position above position in use.
+	 * 
+	 * @param position
+	 *          undo position from which undo stack is compacted
+	 * @param epoch
+	 *          undo epoch at the time position was current
+	 */
+	private void pruneUndo(int position, long epoch)
+	{
+		int amount = position;
+		int newVariablesAmount = -1;
+		for (int i = position; i < undoDataAmount; i++)
+		{
+			UndoData datum = undoData[i];
+			undoData[i] = null;
+			if (!(datum instanceof VariableUndoData))
+			{
+				undoData[amount++] = datum;
+				continue;
+			}
+			VariableUndoData variableUndo = (VariableUndoData) datum;
+			// variables of undo data end where the next one starts
+			int end = variablesAmount;
+			for (int j = i + 1; j < undoDataAmount; j++)
+			{
+				if (undoData[j] instanceof VariableUndoData)
+				{
+					end = ((VariableUndoData) undoData[j]).startPosion;
+					break;
+				}
+			}
+			int start = variableUndo.startPosion;
+			if (newVariablesAmount == -1)
+			{
+				newVariablesAmount = start;
+			}
+			variableUndo.startPosion = newVariablesAmount;
+			for (int j = start; j < end; j++)
+			{
+				VariableTerm variable = variables[j];
+				// variables of other interpreters are outside of the epoch range
+				if (variable != null && (variable.stamp < epoch || variable.stamp > undoEpoch))
+				{
+					variables[newVariablesAmount++] = variable;
+				}
+			}
+			if (newVariablesAmount > variableUndo.startPosion)
+			{
+				undoData[amount++] = variableUndo;
+			}
+		}
+		if (newVariablesAmount != -1)
+		{
+			Arrays.fill(variables, newVariablesAmount, variablesAmount, null);
+			variablesAmount = newVariablesAmount;
+		}
+		if (amount < undoDataAmount)
+		{
+			undoDataAmount = amount;
+			// undo data on top might precede used undo position now
+			undoPositionAsked = true;
+		}
+	}
+
+	/**
+	 * shrink stacks which use less than quarter of their size, so interpreter
+	 * which once went deep does not keep the memory
+	 */
+	private void shrinkStacks()
+	{
+		if (backtrackInfoMax > PAGESIZE && backtrackInfoAmount < backtrackInfoMax >> 2)
+		{
+			backtrackInfoMax = Math.max(PAGESIZE, backtrackInfoMax >> 1);
+			backtrackInfoStack = Arrays.copyOf(backtrackInfoStack, backtrackInfoMax);
+			if (cutBarrierEpochs.length > backtrackInfoMax)
+			{
+				cutBarrierUndoPositions = Arrays.copyOf(cutBarrierUndoPositions, backtrackInfoMax);
+				cutBarrierEpochs = Arrays.copyOf(cutBarrierEpochs, backtrackInfoMax);
+			}
+		}
+		if (undoData.length > PAGESIZE && undoDataAmount < undoData.length >> 2)
+		{
+			undoData = Arrays.copyOf(undoData, Math.max(PAGESIZE, undoData.length >> 1));
+		}
+		if (variables.length > PAGESIZE && variablesAmount < variables.length >> 2)
+		{
+			variables = Arrays.copyOf(variables, Math.max(PAGESIZE, variables.length >> 1));
+		}
 	}
 
 	/**
@@ -229,9 +585,15 @@ public final class Interpreter implements HasEnvironment
 	 */
 	public void addVariableUndo(VariableTerm variable)
 	{
+		if (variable.stamp == undoEpoch)
+		{
+			// no undo position is older than variable
+			return;
+		}
 		if (undoPositionAsked || !(undoData[undoDataAmount - 1] instanceof VariableUndoData))
 		{
 			addSpecialUndo(new VariableUndoData());
+			undoPositionAsked = false;
 		}
 		if (variablesAmount == variables.length)
 		{
@@ -303,8 +665,20 @@ public final class Interpreter implements HasEnvironment
 		else if (t1 instanceof VariableTerm)
 		{
 			VariableTerm vt1 = (VariableTerm) t1;
-			addVariableUndo(vt1);
-			vt1.value = t2;
+			if (t2 instanceof VariableTerm && vt1.stamp != 0 && ((VariableTerm) t2).stamp > vt1.stamp)
+			{
+				// younger variable is bound to older one, it keeps reference chains
+				// short and its binding is less likely to need undo. The age of a
+				// variable with stamp 0 is unknown, such a variable is bound as before.
+				VariableTerm vt2 = (VariableTerm) t2;
+				addVariableUndo(vt2);
+				vt2.value = vt1;
+			}
+			else
+			{
+				addVariableUndo(vt1);
+				vt1.value = t2;
+			}
 		}
 		else if (t2 instanceof VariableTerm)
 		{
@@ -397,12 +771,16 @@ public final class Interpreter implements HasEnvironment
 	 */
 	public RC unify(Term t1, Term t2) throws PrologException
 	{
-                int undoPos = getUndoPosition();
-                RC rc = simpleUnify(t1, t2);
+		long epoch = undoEpoch;
+		int undoPos = getUndoPosition();
+		RC rc = simpleUnify(t1, t2);
 		if (rc == PrologCode.RC.FAIL)
 		{
 			undo(undoPos);
 		}
+		// the undo position is not kept, so variables created before it still
+		// need no undo
+		undoEpoch = epoch;
 		return rc;
 	}
 
@@ -450,7 +828,9 @@ public final class Interpreter implements HasEnvironment
 
 	/**
 	 * Used to store the current state so that we can support
-	 * {@link gnu.prolog.vm.buildins.io.Predicate_ensure_loaded}
+	 * {@link gnu.prolog.vm.buildins.io.Predicate_ensure_loaded}. The goal
+	 * prepared later uses the stacks above the heights kept here, and the
+	 * heights are restored when it is stopped.
 	 * 
 	 * @see #prepareGoal(Term)
 	 * @see #stop(Goal)
@@ -463,17 +843,15 @@ public final class Interpreter implements HasEnvironment
 	{
 		public Map<String, Object> rContext;
 
-		public BacktrackInfo rBacktrackInfoStack[];
 		public int rBacktrackInfoAmount;
-		public int rBacktrackInfoMax;
 
-		public VariableTerm rVariables[];
 		public int rVariablesAmount;
 
-		public UndoData rUndoData[];
 		public int rUndoDataAmount;
 		public boolean rUndoPositionAsked;
 
+		public Module rModule;
+
 		public Goal rCurrentGoal;
 	}
 
@@ -498,20 +876,18 @@ public final class Interpreter implements HasEnvironment
 	{
 		ReturnPoint rp = null;
 		if (currentGoal != null)
-		{// Take a copy of the current state into a Return point
+		{// Mark the current state in a Return point, the stacks are shared
 			rp = new ReturnPoint();
 			rp.rContext = context;
-			rp.rBacktrackInfoStack = backtrackInfoStack.clone();
 			rp.rBacktrackInfoAmount = backtrackInfoAmount;
-			rp.rBacktrackInfoMax = backtrackInfoMax;
-			rp.rVariables = variables.clone();
 			rp.rVariablesAmount = variablesAmount;
-			rp.rUndoData = undoData.clone();
 			rp.rUndoDataAmount = undoDataAmount;
+			rp.rModule = module;
 			rp.rUndoPositionAsked = undoPositionAsked;
 			rp.rCurrentGoal = currentGoal;
 		}
 		currentGoal = new Goal(term);
+		module = null;
 		context.clear();
 		if (rp != null)
 		{// save the return point so that we can jump back later
@@ -634,7 +1010,10 @@ public final class Interpreter implements HasEnvironment
 		// fine).
 		// undo(0);
 
-		for (int i = 0; i < backtrackInfoAmount; i++)
+		// backtrack infos of the goal which this goal forced out are kept
+		ReturnPoint rp = returnPoints.remove(goal);
+		int base = rp != null ? rp.rBacktrackInfoAmount : 0;
+		for (int i = base; i < backtrackInfoAmount; i++)
 		{
 			if (backtrackInfoStack[i] instanceof BacktrackInfoWithCleanup)
 			{
@@ -642,26 +1021,25 @@ public final class Interpreter implements HasEnvironment
 			}
 			backtrackInfoStack[i] = null;
 		}
-		backtrackInfoAmount = 0;
+		backtrackInfoAmount = base;
 
 		currentGoal = null;
 
 		// We have just finished with a goal we originally forced another goal out
 		// to do so pull that state back so that we can finish that goal
-		ReturnPoint rp = returnPoints.remove(goal);
 		if (rp != null)
 		{
 			context = rp.rContext;
-			backtrackInfoStack = rp.rBacktrackInfoStack;
-			backtrackInfoAmount = rp.rBacktrackInfoAmount;
-			backtrackInfoMax = rp.rBacktrackInfoMax;
-			variables = rp.rVariables;
-                        variablesAmount = rp.rVariablesAmount;
-                        undoData = rp.rUndoData;
+			// undo records of this goal are dropped, bindings are kept
+			Arrays.fill(variables, rp.rVariablesAmount, variablesAmount, null);
+			variablesAmount = rp.rVariablesAmount;
+			Arrays.fill(undoData, rp.rUndoDataAmount, undoDataAmount, null);
 			undoDataAmount = rp.rUndoDataAmount;
 			undoPositionAsked = rp.rUndoPositionAsked;
+			module = rp.rModule;
 			currentGoal = rp.rCurrentGoal;
 		}
+		shrinkStacks();
 	}
 
 	/**
@@ -17,6 +17,7 @@
  */
 package gnu.prolog.vm;
 
+import gnu.prolog.database.Module;
 import gnu.prolog.term.CompoundTermTag;
 
 /**
@@ -27,6 +28,8 @@ public class PrologCodeUpdatedEvent extends java.util.EventObject implements Has
 	private static final long serialVersionUID = 3547991978575619876L;
 	/** tag for predicate */
 	CompoundTermTag tag;
+	/** module of predicate */
+	Module module;
 
 	/**
 	 * a constructor
@@ -35,8 +38,21 @@ public class PrologCodeUpdatedEvent extends java.util.EventObject implements Has
 	 * @param tag
 	 */
 	public PrologCodeUpdatedEvent(Environment environment, CompoundTermTag tag)
+	{
+		this(environment, null, tag);
+	}
+
+	/**
+	 * a constructor
+	 * 
+	 * @param environment
+	 * @param module
+	 * @param tag
+	 */
+	public PrologCodeUpdatedEvent(Environment environment, Module module, CompoundTermTag tag)
 	{
 		super(environment);
+		this.module = module;
 		this.tag = tag;
 	}
 
@@ -55,4 +71,14 @@ public class PrologCodeUpdatedEvent extends java.util.EventObject implements Has
 	{
 		return tag;
 	}
+
+	/**
+	 * get module of predicate
+	 * 
+	 * @return the module or null if it is not known
+	 */
+	public Module getModule()
+	{
+		return module;
+	}
 }
@@ -17,6 +17,7 @@
  */
 package gnu.prolog.vm.buildins.arithmetics;
 
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.Evaluate;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
@@ -25,7 +26,7 @@ import gnu.prolog.vm.PrologException;
 /**
  * prolog code
  */
-public class Predicate_is extends ExecuteOnlyCode
+public class Predicate_is extends ExecuteOnlyCode implements DeterministicCode
 {
 
 	@Override
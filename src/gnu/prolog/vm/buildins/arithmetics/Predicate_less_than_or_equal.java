@@ -24,6 +24,7 @@ import gnu.prolog.term.Term;
 import gnu.prolog.term.BigIntegerTerm;
 import gnu.prolog.term.RationalTerm;
 import gnu.prolog.term.Rational;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.Evaluate;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
@@ -34,7 +35,7 @@ import java.math.BigInteger;
 /**
  * prolog code
  */
-public class Predicate_less_than_or_equal extends ExecuteOnlyCode
+public class Predicate_less_than_or_equal extends ExecuteOnlyCode implements DeterministicCode
 {
 
 	@Override
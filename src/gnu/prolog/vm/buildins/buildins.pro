@@ -92,6 +92,8 @@
 :-build_in(assertz/1,  'gnu.prolog.vm.buildins.database.Predicate_assertz'). 
 :-build_in(retract/1,  'gnu.prolog.vm.buildins.database.Predicate_retract'). 
 :-build_in(abolish/1,  'gnu.prolog.vm.buildins.database.Predicate_abolish'). 
+% used by the code of dynamic predicates
+:-build_in('$clause_cut'/1,  'gnu.prolog.vm.interpreter.Predicate_clause_cut'). 
 
 % 8.10 All solutions
 :-build_in(findall/3, 'gnu.prolog.vm.buildins.allsolutions.Predicate_findall'). 
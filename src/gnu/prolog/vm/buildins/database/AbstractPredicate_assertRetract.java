@@ -84,7 +84,7 @@ public abstract class AbstractPredicate_assertRetract extends ExecuteOnlyCode
 		{
 			PrologException.typeError(TermConstants.callableAtom, head);
 		}
-		return new PredicateTagHeadBody(interpreter.getEnvironment().getModule().getDefinedPredicate(predTag), predTag,
+		return new PredicateTagHeadBody(interpreter.getModule().getDefinedPredicate(predTag), predTag,
 				head, body);
 	}
 
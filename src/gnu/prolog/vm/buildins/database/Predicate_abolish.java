@@ -84,14 +84,14 @@ public class Predicate_abolish extends ExecuteOnlyCode
 			PrologException.representationError(TermConstants.maxArityAtom);
 		}
 		CompoundTermTag tag = CompoundTermTag.get(n, a.value);
-		Predicate p = interpreter.getEnvironment().getModule().getDefinedPredicate(tag);
+		Predicate p = interpreter.getModule().getDefinedPredicate(tag);
 		if (p != null)
 		{
 			if (p.getType() != Predicate.TYPE.USER_DEFINED || !p.isDynamic())
 			{
 				PrologException.permissionError(TermConstants.modifyAtom, TermConstants.staticProcedureAtom, pi);
 			}
-			interpreter.getEnvironment().getModule().removeDefinedPredicate(tag);
+			interpreter.getModule().removeDefinedPredicate(tag);
 		}
 		return RC.SUCCESS_LAST;
 	}
@@ -54,7 +54,7 @@ public abstract class Predicate_assert extends AbstractPredicate_assertRetract
 
 		if (p == null)
 		{
-			p = interpreter.getEnvironment().getModule().createDefinedPredicate(predTag);
+			p = interpreter.getModule().createDefinedPredicate(predTag);
 			p.setType(Predicate.TYPE.USER_DEFINED);
 			p.setDynamic();
 		}
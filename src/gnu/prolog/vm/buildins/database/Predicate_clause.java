@@ -28,6 +28,7 @@ import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
 import gnu.prolog.vm.TermConstants;
+import gnu.prolog.vm.interpreter.ClauseIndex;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -44,8 +45,11 @@ public class Predicate_clause extends ExecuteOnlyCode
 			super(-1, -1);
 		}
 
+		/** clauses at the time of call, copied only when tried */
 		List<Term> clauses;
 		int position;
+		/** key of first argument of head */
+		Object key;
 		int startUndoPosition;
 		Term clause;
 
@@ -87,7 +91,7 @@ public class Predicate_clause extends ExecuteOnlyCode
 				PrologException.typeError(TermConstants.callableAtom, body);
 			}
 
-			Predicate p = interpreter.getEnvironment().getModule().getDefinedPredicate(tag);
+			Predicate p = interpreter.getModule().getDefinedPredicate(tag);
 			if (p == null) // if predicate not found
 			{
 				return RC.FAIL;
@@ -100,14 +104,10 @@ public class Predicate_clause extends ExecuteOnlyCode
 						.getPredicateIndicator());
 			}
 
-			List<Term> clauses = new ArrayList<Term>();
 			ClauseBacktrackInfo bi = new ClauseBacktrackInfo();
 			synchronized (p)
 			{
-				for (Term term : p.getClauses())
-				{
-					clauses.add((Term) (term).clone());
-				}
+				List<Term> clauses = new ArrayList<Term>(p.getClauses());
 				if (clauses.size() == 0)
 				{
 					return RC.FAIL;
@@ -117,6 +117,7 @@ public class Predicate_clause extends ExecuteOnlyCode
 					bi.startUndoPosition = interpreter.getUndoPosition();
 					bi.position = 0;
 					bi.clauses = clauses;
+					bi.key = ClauseIndex.getFirstKey(head);
 					bi.clause = new CompoundTerm(TermConstants.clauseTag, head, body);
 				}
 			}
@@ -129,7 +130,12 @@ public class Predicate_clause extends ExecuteOnlyCode
 	{
 		while (bi.position < bi.clauses.size())
 		{
-			RC rc = interpreter.unify(bi.clauses.get(bi.position++), bi.clause);
+			Term term = bi.clauses.get(bi.position++);
+			if (!ClauseIndex.keysMatch(bi.key, ClauseIndex.getFirstKey(((CompoundTerm) term).args[0])))
+			{
+				continue;
+			}
+			RC rc = interpreter.unify((Term) term.clone(), bi.clause);
 			if (rc == RC.SUCCESS_LAST)
 			{
 				interpreter.pushBacktrackInfo(bi);
@@ -78,7 +78,7 @@ public class Predicate_current_functor extends ExecuteOnlyCode
 			{
 				PrologException.typeError(TermConstants.integerAtom, arity);
 			}
-			Set<CompoundTermTag> tagSet = new HashSet<CompoundTermTag>(interpreter.getEnvironment().getModule().getPredicateTags());
+			Set<CompoundTermTag> tagSet = new HashSet<CompoundTermTag>(interpreter.getModule().getPredicateTags());
 			CurrentPredicateBacktrackInfo bi = new CurrentPredicateBacktrackInfo();
 			bi.startUndoPosition = interpreter.getUndoPosition();
 			bi.functor = functor;
@@ -93,7 +93,7 @@ public class Predicate_current_functor extends ExecuteOnlyCode
 		while (bi.tagsIterator.hasNext())
 		{
 			CompoundTermTag tag = bi.tagsIterator.next();
-			Predicate p = interpreter.getEnvironment().getModule().getDefinedPredicate(tag);
+			Predicate p = interpreter.getModule().getDefinedPredicate(tag);
 			if (p == null) // if was destroyed
 			{
 				continue;
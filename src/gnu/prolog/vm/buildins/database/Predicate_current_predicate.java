@@ -91,7 +91,7 @@ public class Predicate_current_predicate extends ExecuteOnlyCode
 			{
 				PrologException.typeError(TermConstants.predicateIndicatorAtom, pi);
 			}
-			Set<CompoundTermTag> tagSet = new HashSet<CompoundTermTag>(interpreter.getEnvironment().getModule()
+			Set<CompoundTermTag> tagSet = new HashSet<CompoundTermTag>(interpreter.getModule()
 					.getPredicateTags());
 			CurrentPredicateBacktrackInfo bi = new CurrentPredicateBacktrackInfo();
 			bi.startUndoPosition = interpreter.getUndoPosition();
@@ -107,7 +107,7 @@ public class Predicate_current_predicate extends ExecuteOnlyCode
 		while (bi.tagsIterator.hasNext())
 		{
 			CompoundTermTag tag = bi.tagsIterator.next();
-			Predicate p = interpreter.getEnvironment().getModule().getDefinedPredicate(tag);
+			Predicate p = interpreter.getModule().getDefinedPredicate(tag);
 			if (p == null) // if was destroyed
 			{
 				continue;
@@ -137,7 +137,7 @@ public class Predicate_predicate_property extends ExecuteOnlyCode
 			if (a0 instanceof VariableTerm)
 			{
 				// In this case, we must enumerate all predicates unfortunately
-				Set<CompoundTermTag> tagSet = new HashSet<CompoundTermTag>(interpreter.getEnvironment().getModule().getPredicateTags());
+				Set<CompoundTermTag> tagSet = new HashSet<CompoundTermTag>(interpreter.getModule().getPredicateTags());
 				bi = new PredicatePropertyBacktrackInfo();
 				bi.startUndoPosition = interpreter.getUndoPosition();
 				bi.tagsIterator = tagSet.iterator();
@@ -147,7 +147,7 @@ public class Predicate_predicate_property extends ExecuteOnlyCode
 												       (((CompoundTerm)a0).args[1] instanceof VariableTerm)))
 			{
 				// In this case, we must enumerate all predicates as well
-				Set<CompoundTermTag> tagSet = new HashSet<CompoundTermTag>(interpreter.getEnvironment().getModule().getPredicateTags());
+				Set<CompoundTermTag> tagSet = new HashSet<CompoundTermTag>(interpreter.getModule().getPredicateTags());
 				bi = new PredicatePropertyBacktrackInfo();
 				bi.startUndoPosition = interpreter.getUndoPosition();
 				bi.tagsIterator = tagSet.iterator();
@@ -234,7 +234,7 @@ public class Predicate_predicate_property extends ExecuteOnlyCode
 				if (bi.tagsIterator.hasNext())
 				{
 					CompoundTermTag tag = bi.tagsIterator.next();
-					bi.predicate = interpreter.getEnvironment().getModule().getDefinedPredicate(tag);
+					bi.predicate = interpreter.getModule().getDefinedPredicate(tag);
 					if (bi.predicate == null) // if was destroyed
 					{
 						continue;
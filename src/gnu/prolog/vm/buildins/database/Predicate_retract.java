@@ -25,12 +25,10 @@ import gnu.prolog.vm.BacktrackInfo;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
 import gnu.prolog.vm.TermConstants;
+import gnu.prolog.vm.interpreter.ClauseIndex;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * prolog code
@@ -44,8 +42,11 @@ public class Predicate_retract extends AbstractPredicate_assertRetract
 			super(-1, -1);
 		}
 
-		Iterator<Term> iclauses;
-		Map<Term, Term> clauseMap;
+		/** clauses at the time of call, copied only when tried */
+		List<Term> clauses;
+		int position;
+		/** key of first argument of head */
+		Object key;
 		int startUndoPosition;
 		Term clause;
 		Predicate pred;
@@ -88,22 +89,12 @@ public class Predicate_retract extends AbstractPredicate_assertRetract
 				PrologException.permissionError(TermConstants.modifyAtom, TermConstants.staticProcedureAtom, predTag
 						.getPredicateIndicator());
 			}
-			Map<Term, Term> map = new HashMap<Term, Term>();
 			RetractBacktrackInfo bi = new RetractBacktrackInfo();
 			synchronized (p)
 			{
-				List<Term> clauses = p.getClauses();
-				List<Term> list = new ArrayList<Term>(clauses.size());
-				for (Term term : clauses)
-				{
-					Term cl = term;
-					Term cp = (Term) cl.clone();
-					map.put(cp, cl);
-					list.add(cp);
-				}
-
-				bi.iclauses = list.iterator();
-				bi.clauseMap = map;
+				bi.clauses = new ArrayList<Term>(p.getClauses());
+				bi.position = 0;
+				bi.key = ClauseIndex.getFirstKey(head);
 				bi.startUndoPosition = interpreter.getUndoPosition();
 				bi.clause = new CompoundTerm(TermConstants.clauseTag, head, body);
 				bi.pred = p;
@@ -115,13 +106,17 @@ public class Predicate_retract extends AbstractPredicate_assertRetract
 
 	private static RC nextSolution(Interpreter interpreter, RetractBacktrackInfo bi) throws PrologException
 	{
-		while (bi.iclauses.hasNext())
+		while (bi.position < bi.clauses.size())
 		{
-			Term term = bi.iclauses.next();
-			RC rc = interpreter.unify(bi.clause, term);
+			Term term = bi.clauses.get(bi.position++);
+			if (!ClauseIndex.keysMatch(bi.key, ClauseIndex.getFirstKey(((CompoundTerm) term).args[0])))
+			{
+				continue;
+			}
+			RC rc = interpreter.unify(bi.clause, (Term) term.clone());
 			if (rc == RC.SUCCESS_LAST)
 			{
-				bi.pred.removeClause(bi.clauseMap.get(term));
+				bi.pred.removeClause(term);
 				interpreter.pushBacktrackInfo(bi);
 				return RC.SUCCESS;
 			}
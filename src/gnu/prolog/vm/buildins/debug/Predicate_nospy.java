@@ -41,7 +41,7 @@ public class Predicate_nospy extends ExecuteOnlyCode
 		CompoundTermTag tag = Predicate_spy.getTag(args[0]);
 		if (tag.arity == -1)
 		{
-			for (CompoundTermTag ptag : interpreter.getEnvironment().getModule().getPredicateTags())
+			for (CompoundTermTag ptag : interpreter.getModule().getPredicateTags())
 			{
 				if (ptag.functor.equals(tag.functor))
 				{
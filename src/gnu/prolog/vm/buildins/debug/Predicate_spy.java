@@ -122,7 +122,7 @@ public class Predicate_spy extends ExecuteOnlyCode
 		CompoundTermTag tag = getTag(args[0]);
 		if (tag.arity == -1)
 		{
-			for (CompoundTermTag ptag : interpreter.getEnvironment().getModule().getPredicateTags())
+			for (CompoundTermTag ptag : interpreter.getModule().getPredicateTags())
 			{
 				if (ptag.functor.equals(tag.functor))
 				{
@@ -19,6 +19,7 @@
 
 package gnu.prolog.vm.buildins.meta;
 
+import gnu.prolog.database.Module;
 import gnu.prolog.term.AtomTerm;
 import gnu.prolog.term.Term;
 import gnu.prolog.vm.Interpreter;
@@ -46,6 +47,11 @@ public class Predicate_colon extends ExecuteOnlyCode
 			PrologException.typeError(TermConstants.atomAtom, args[0]);
 		}
 		AtomTerm moduleName = (AtomTerm)args[0];
+		Module module = environment.getModule(moduleName);
+		if (module == null)
+		{
+			PrologException.existenceError(AtomTerm.get("module"), moduleName);
+		}
 		RC rc;
 		BacktrackInfo bi = null;
 		if (backtrackMode)
@@ -53,8 +59,9 @@ public class Predicate_colon extends ExecuteOnlyCode
 			bi = interpreter.popBacktrackInfo();
 			bi.undo(interpreter);
 		}
-		// If this fails we want to let the exception bubble up. We DEFINITELY do not want to pop later unless we have pushed successfully!
-		environment.pushModule(moduleName);
+		// the module is only set for this interpreter, other interpreters on the
+		// environment keep their own module
+		Module previous = interpreter.setModule(module);
 		try
 		{
 			rc = Predicate_call.staticExecute(interpreter, backtrackMode, args[1]);
@@ -67,7 +74,7 @@ public class Predicate_colon extends ExecuteOnlyCode
 		}
 		finally
 		{
-			environment.popModule();
+			interpreter.setModule(previous);
 		}
 		return rc;
 	}
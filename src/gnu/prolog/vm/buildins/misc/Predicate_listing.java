@@ -47,7 +47,7 @@ public class Predicate_listing extends ExecuteOnlyCode
 		}
 		WriteOptions options = new WriteOptions(interpreter.getEnvironment().getOperatorSet(), true, true, true);
 		PrologStream stream = interpreter.getEnvironment().getCurrentOutput();
-		for (CompoundTermTag tag : interpreter.getEnvironment().getModule().getPredicateTags())
+		for (CompoundTermTag tag : interpreter.getModule().getPredicateTags())
 		{
 			if (filter != null)
 			{
@@ -63,7 +63,7 @@ public class Predicate_listing extends ExecuteOnlyCode
 					}
 				}
 			}
-			Predicate p = interpreter.getEnvironment().getModule().getDefinedPredicate(tag);
+			Predicate p = interpreter.getModule().getDefinedPredicate(tag);
 			if (p.getType() != Predicate.TYPE.USER_DEFINED)
 			{
 				stream.putCodeSequence(null, interpreter, "% Foreign: ");
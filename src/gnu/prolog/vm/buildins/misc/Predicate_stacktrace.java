@@ -39,13 +39,13 @@ public class Predicate_stacktrace extends ExecuteOnlyCode
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, Term[] args) throws PrologException
 	{
+		// the stack is rebuilt from the frames of interpreted code, so it is
+		// available when tracing is off
 		Term res = TermConstants.emptyListAtom;
-		Term prev = TermConstants.emptyListAtom;
-		for (CompoundTermTag tag : interpreter.getTracer().getCallStack())
+		for (CompoundTermTag tag : interpreter.getFrameStack().getCallStack())
 		{
-			prev = res;
 			res = CompoundTerm.getList(tag.getPredicateIndicator(), res);
 		}
-		return interpreter.unify(args[0], prev);
+		return interpreter.unify(args[0], res);
 	}
 }
@@ -23,6 +23,7 @@ import gnu.prolog.term.AtomTerm;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.TermComparator;
 import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -33,7 +34,7 @@ import gnu.prolog.vm.TermConstants;
  * 
  * @author Michiel Hendriks
  */
-public class Predicate_compare extends ExecuteOnlyCode
+public class Predicate_compare extends ExecuteOnlyCode implements DeterministicCode
 {
 	public static final AtomTerm EQ_ATOM = AtomTerm.get("=");
 	public static final AtomTerm LT_ATOM = AtomTerm.get("<");
@@ -18,6 +18,7 @@
 package gnu.prolog.vm.buildins.termcomparsion;
 
 import gnu.prolog.term.TermComparator;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -25,14 +26,13 @@ import gnu.prolog.vm.PrologException;
 /**
  * prolog code
  */
-public class Predicate_term_identical extends ExecuteOnlyCode
+public class Predicate_term_identical extends ExecuteOnlyCode implements DeterministicCode
 {
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[])
 			throws PrologException
 	{
-		TermComparator cmp = new TermComparator();
-		if (cmp.compare(args[0], args[1]) == 0)
+		if (TermComparator.identical(args[0], args[1]))
 		{
 			return RC.SUCCESS_LAST;
 		}
@@ -18,6 +18,7 @@
 package gnu.prolog.vm.buildins.termcomparsion;
 
 import gnu.prolog.term.TermComparator;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -25,7 +26,7 @@ import gnu.prolog.vm.PrologException;
 /**
  * prolog code
  */
-public class Predicate_term_less_then_or_equal extends ExecuteOnlyCode
+public class Predicate_term_less_then_or_equal extends ExecuteOnlyCode implements DeterministicCode
 {
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[])
@@ -21,6 +21,7 @@ import gnu.prolog.term.CompoundTerm;
 import gnu.prolog.term.IntegerTerm;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -29,7 +30,7 @@ import gnu.prolog.vm.TermConstants;
 /**
  * prolog code
  */
-public class Predicate_arg extends ExecuteOnlyCode
+public class Predicate_arg extends ExecuteOnlyCode implements DeterministicCode
 {
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[]) throws PrologException
@@ -24,6 +24,7 @@ import gnu.prolog.term.CompoundTermTag;
 import gnu.prolog.term.IntegerTerm;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -32,7 +33,7 @@ import gnu.prolog.vm.TermConstants;
 /**
  * prolog code
  */
-public class Predicate_functor extends ExecuteOnlyCode
+public class Predicate_functor extends ExecuteOnlyCode implements DeterministicCode
 {
 	/** constant used in predicate */
 	public static final IntegerTerm zero = IntegerTerm.get(0);
@@ -23,6 +23,7 @@ import gnu.prolog.term.CompoundTerm;
 import gnu.prolog.term.CompoundTermTag;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -34,7 +35,7 @@ import java.util.List;
 /**
  * prolog code
  */
-public class Predicate_univ extends ExecuteOnlyCode
+public class Predicate_univ extends ExecuteOnlyCode implements DeterministicCode
 {
 	public final static Term termArrayType[] = new Term[0];
 
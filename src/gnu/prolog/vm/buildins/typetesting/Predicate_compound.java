@@ -18,6 +18,7 @@
 package gnu.prolog.vm.buildins.typetesting;
 
 import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -25,7 +26,7 @@ import gnu.prolog.vm.PrologException;
 /**
  * Predicate variable
  */
-public class Predicate_compound extends ExecuteOnlyCode
+public class Predicate_compound extends ExecuteOnlyCode implements DeterministicCode
 {
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[])
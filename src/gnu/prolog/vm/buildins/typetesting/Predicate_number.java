@@ -19,6 +19,7 @@ package gnu.prolog.vm.buildins.typetesting;
 
 import gnu.prolog.term.FloatTerm;
 import gnu.prolog.term.IntegerTerm;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -26,7 +27,7 @@ import gnu.prolog.vm.PrologException;
 /**
  * Predicate variable
  */
-public class Predicate_number extends ExecuteOnlyCode
+public class Predicate_number extends ExecuteOnlyCode implements DeterministicCode
 {
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[])
@@ -17,6 +17,7 @@
  */
 package gnu.prolog.vm.buildins.unification;
 
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologCode;
@@ -25,7 +26,7 @@ import gnu.prolog.vm.PrologException;
 /**
  * true if two term are not unifiable
  */
-public class Predicate_not_unifiable extends ExecuteOnlyCode
+public class Predicate_not_unifiable extends ExecuteOnlyCode implements DeterministicCode
 {
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[]) throws PrologException
@@ -17,6 +17,7 @@
  */
 package gnu.prolog.vm.buildins.unification;
 
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologException;
@@ -24,7 +25,7 @@ import gnu.prolog.vm.PrologException;
 /**
  * Unify two terms
  */
-public class Predicate_unify extends ExecuteOnlyCode
+public class Predicate_unify extends ExecuteOnlyCode implements DeterministicCode
 {
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[])
@@ -23,6 +23,7 @@ import gnu.prolog.term.IntegerTerm;
 import gnu.prolog.term.JavaObjectTerm;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.ExecuteOnlyCode;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologCode;
@@ -34,7 +35,7 @@ import java.util.List;
 /**
  * Unify two terms occur check
  */
-public class Predicate_unify_with_occurs_check extends ExecuteOnlyCode
+public class Predicate_unify_with_occurs_check extends ExecuteOnlyCode implements DeterministicCode
 {
 	@Override
 	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[]) throws PrologException
@@ -0,0 +1,616 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.io.TermWriter;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.FloatTerm;
+import gnu.prolog.term.IntegerTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.Evaluate;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologCode;
+import gnu.prolog.vm.PrologException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arithmetic expression of an is/2 or comparison goal compiled to a postfix
+ * program. The program works on unboxed integer and float values kept in the
+ * arithmetic stack of the interpreter, only the result of is/2 is boxed.
+ * Whenever the program meets a value it cannot handle, a bound argument which
+ * is not an integer or float, an integer overflow, a zero divisor or a float
+ * overflow, the goal is evaluated by {@link Evaluate} and the builtin
+ * predicate instead, so results and errors are those of the builtin
+ * predicates.
+ */
+public class ArithmeticExpression
+{
+	/** is tag */
+	public static final CompoundTermTag isTag = CompoundTermTag.get("is", 2);
+	/** arithmetic comparison tags */
+	public static final CompoundTermTag lessTag = CompoundTermTag.get("<", 2);
+	public static final CompoundTermTag lessOrEqualTag = CompoundTermTag.get("=<", 2);
+	public static final CompoundTermTag greaterTag = CompoundTermTag.get(">", 2);
+	public static final CompoundTermTag greaterOrEqualTag = CompoundTermTag.get(">=", 2);
+	public static final CompoundTermTag equalTag = CompoundTermTag.get("=:=", 2);
+	public static final CompoundTermTag notEqualTag = CompoundTermTag.get("=\\=", 2);
+
+	/** maximal depth of the stack of a program */
+	public static final int MAX_DEPTH = 32;
+
+	// operations of program
+	private static final int ARGUMENT = 0;
+	private static final int ENVIRONMENT = 1;
+	private static final int INTEGER = 2;
+	private static final int FLOAT = 3;
+	private static final int NEG = 4;
+	private static final int ABS = 5;
+	private static final int ADD = 6;
+	private static final int SUB = 7;
+	private static final int MUL = 8;
+	private static final int DIV = 9;
+	private static final int INTDIV = 10;
+	private static final int REM = 11;
+	private static final int MOD = 12;
+	private static final int LT = 13;
+	private static final int LE = 14;
+	private static final int GT = 15;
+	private static final int GE = 16;
+	private static final int EQ = 17;
+	private static final int NE = 18;
+
+	/** result of program if expression has to be evaluated by {@link Evaluate} */
+	private static final long FALLBACK = -1;
+
+	/** tag of compiled goal */
+	protected final CompoundTermTag tag;
+	/** program */
+	protected final int code[];
+	/** float constants of program */
+	protected final double floats[];
+	/** compiled arguments of goal, the expression only for is/2 */
+	protected final Term expressions[];
+	/** variables of expressions */
+	protected final Term variables[];
+	/** argument index or -1 - environment index of each variable */
+	protected final int references[];
+
+	private ArithmeticExpression(CompoundTermTag tag, int code[], double floats[], Term expressions[],
+			Term variables[], int references[])
+	{
+		this.tag = tag;
+		this.code = code;
+		this.floats = floats;
+		this.expressions = expressions;
+		this.variables = variables;
+		this.references = references;
+	}
+
+	/**
+	 * check if tag is a tag of arithmetic comparison
+	 * 
+	 * @param tag
+	 * @return true if tag is a tag of arithmetic comparison
+	 */
+	public static boolean isComparison(CompoundTermTag tag)
+	{
+		return tag == lessTag || tag == lessOrEqualTag || tag == greaterTag || tag == greaterOrEqualTag
+				|| tag == equalTag || tag == notEqualTag;
+	}
+
+	/**
+	 * compile expression of is/2 goal
+	 * 
+	 * @param expression
+	 *          expression to evaluate
+	 * @param variables
+	 *          argument index or -1 - environment index of initialized variables
+	 * @return compiled expression or null if it cannot be compiled
+	 */
+	public static ArithmeticExpression evaluation(Term expression, Map<Term, Integer> variables)
+	{
+		return compile(isTag, new Term[] { expression }, variables);
+	}
+
+	/**
+	 * compile arithmetic comparison goal
+	 * 
+	 * @param goal
+	 *          comparison goal
+	 * @param variables
+	 *          argument index or -1 - environment index of initialized variables
+	 * @return compiled expression or null if it cannot be compiled
+	 */
+	public static ArithmeticExpression comparison(CompoundTerm goal, Map<Term, Integer> variables)
+	{
+		return compile(goal.tag, goal.args, variables);
+	}
+
+	private static ArithmeticExpression compile(CompoundTermTag tag, Term expressions[], Map<Term, Integer> variables)
+	{
+		List<Integer> code = new ArrayList<Integer>();
+		List<Double> floats = new ArrayList<Double>();
+		List<Term> used = new ArrayList<Term>();
+		for (int i = 0; i < expressions.length; i++)
+		{
+			int depth = compileExpression(expressions[i], variables, code, floats, used);
+			if (depth < 0 || i + depth > MAX_DEPTH)
+			{
+				return null;
+			}
+		}
+		if (tag != isTag)
+		{
+			code.add(Integer.valueOf(tag == lessTag ? LT : tag == lessOrEqualTag ? LE : tag == greaterTag ? GT
+					: tag == greaterOrEqualTag ? GE : tag == equalTag ? EQ : NE));
+		}
+		int codeArray[] = new int[code.size()];
+		for (int i = 0; i < codeArray.length; i++)
+		{
+			codeArray[i] = code.get(i).intValue();
+		}
+		double floatArray[] = new double[floats.size()];
+		for (int i = 0; i < floatArray.length; i++)
+		{
+			floatArray[i] = floats.get(i).doubleValue();
+		}
+		int references[] = new int[used.size()];
+		for (int i = 0; i < references.length; i++)
+		{
+			references[i] = variables.get(used.get(i)).intValue();
+		}
+		return new ArithmeticExpression(tag, codeArray, floatArray, expressions, used.toArray(new Term[used.size()]),
+				references);
+	}
+
+	/**
+	 * compile expression, ground subexpressions are folded
+	 * 
+	 * @return stack depth needed by expression or -1 if it cannot be compiled
+	 */
+	private static int compileExpression(Term term, Map<Term, Integer> variables, List<Integer> code,
+			List<Double> floats, List<Term> used)
+	{
+		if (term instanceof VariableTerm)
+		{
+			Integer reference = variables.get(term);
+			if (reference == null)
+			{
+				// variable is not initialized yet
+				return -1;
+			}
+			int ref = reference.intValue();
+			code.add(Integer.valueOf(ref >= 0 ? ARGUMENT : ENVIRONMENT));
+			code.add(Integer.valueOf(ref >= 0 ? ref : -1 - ref));
+			if (!used.contains(term))
+			{
+				used.add(term);
+			}
+			return 1;
+		}
+		else if (term instanceof IntegerTerm)
+		{
+			code.add(Integer.valueOf(INTEGER));
+			code.add(Integer.valueOf(((IntegerTerm) term).value));
+			return 1;
+		}
+		else if (term instanceof FloatTerm)
+		{
+			code.add(Integer.valueOf(FLOAT));
+			code.add(Integer.valueOf(floats.size()));
+			floats.add(Double.valueOf(((FloatTerm) term).value));
+			return 1;
+		}
+		else if (!(term instanceof CompoundTerm))
+		{
+			return -1;
+		}
+		CompoundTerm ct = (CompoundTerm) term;
+		int op = getOperation(ct.tag);
+		if (op < 0)
+		{
+			return -1;
+		}
+		if (isGround(ct))
+		{
+			try
+			{
+				Term value = Evaluate.evaluate(ct);
+				if (value instanceof IntegerTerm || value instanceof FloatTerm)
+				{
+					return compileExpression(value, variables, code, floats, used);
+				}
+			}
+			catch (PrologException ex)
+			{
+				// the error is raised when the goal is executed
+			}
+		}
+		int depth = 0;
+		for (int i = 0; i < ct.args.length; i++)
+		{
+			int d = compileExpression(ct.args[i], variables, code, floats, used);
+			if (d < 0)
+			{
+				return -1;
+			}
+			depth = Math.max(depth, i + d);
+		}
+		code.add(Integer.valueOf(op));
+		return depth;
+	}
+
+	private static int getOperation(CompoundTermTag tag)
+	{
+		if (tag == Evaluate.add2)
+		{
+			return ADD;
+		}
+		else if (tag == Evaluate.sub2)
+		{
+			return SUB;
+		}
+		else if (tag == Evaluate.mul2)
+		{
+			return MUL;
+		}
+		else if (tag == Evaluate.div2)
+		{
+			return DIV;
+		}
+		else if (tag == Evaluate.intdiv2)
+		{
+			return INTDIV;
+		}
+		else if (tag == Evaluate.rem2)
+		{
+			return REM;
+		}
+		else if (tag == Evaluate.mod2)
+		{
+			return MOD;
+		}
+		else if (tag == Evaluate.neg1)
+		{
+			return NEG;
+		}
+		else if (tag == Evaluate.abs1)
+		{
+			return ABS;
+		}
+		return -1;
+	}
+
+	private static boolean isGround(Term term)
+	{
+		if (term instanceof VariableTerm)
+		{
+			return false;
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			for (Term arg : ((CompoundTerm) term).args)
+			{
+				if (!isGround(arg))
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * evaluate expression of is/2 goal
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context code is executed
+	 * @param environment
+	 *          environment of code
+	 * @param args
+	 *          arguments of code
+	 * @return value of expression
+	 * @throws PrologException
+	 */
+	public Term evaluate(Interpreter interpreter, Term environment[], Term args[]) throws PrologException
+	{
+		long stack[] = interpreter.getArithmeticStack();
+		long floats = run(stack, environment, args);
+		if (floats == FALLBACK)
+		{
+			return Evaluate.evaluate(rebuild(expressions[0], environment, args));
+		}
+		if ((floats & 1) != 0)
+		{
+			return new FloatTerm(Double.longBitsToDouble(stack[0]));
+		}
+		return IntegerTerm.get((int) stack[0]);
+	}
+
+	/**
+	 * execute arithmetic comparison
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context code is executed
+	 * @param environment
+	 *          environment of code
+	 * @param args
+	 *          arguments of code
+	 * @return true if comparison succeeded
+	 * @throws PrologException
+	 */
+	public boolean compare(Interpreter interpreter, Term environment[], Term args[]) throws PrologException
+	{
+		long stack[] = interpreter.getArithmeticStack();
+		if (run(stack, environment, args) == FALLBACK)
+		{
+			Term cargs[] = new Term[] { rebuild(expressions[0], environment, args),
+					rebuild(expressions[1], environment, args) };
+			PrologCode code = interpreter.getEnvironment().getPrologCode(interpreter.getModule(), tag);
+			return code.execute(interpreter, false, cargs) != PrologCode.RC.FAIL;
+		}
+		return stack[0] != 0;
+	}
+
+	/**
+	 * run program
+	 * 
+	 * @return mask of stack entries which hold floats or {@link #FALLBACK}
+	 */
+	private long run(long stack[], Term environment[], Term args[])
+	{
+		long floats = 0; // bit i is set if stack[i] holds bits of a double
+		int sp = 0;
+		int n = code.length;
+		for (int pc = 0; pc < n; pc++)
+		{
+			int op = code[pc];
+			switch (op)
+			{
+				case ARGUMENT:
+				case ENVIRONMENT:
+				{
+					Term t = (op == ARGUMENT ? args : environment)[code[++pc]].dereference();
+					if (t instanceof IntegerTerm)
+					{
+						stack[sp] = ((IntegerTerm) t).value;
+						floats &= ~(1L << sp);
+					}
+					else if (t instanceof FloatTerm)
+					{
+						stack[sp] = Double.doubleToRawLongBits(((FloatTerm) t).value);
+						floats |= 1L << sp;
+					}
+					else
+					{
+						return FALLBACK;
+					}
+					sp++;
+					continue;
+				}
+				case INTEGER:
+					stack[sp] = code[++pc];
+					floats &= ~(1L << sp);
+					sp++;
+					continue;
+				case FLOAT:
+					stack[sp] = Double.doubleToRawLongBits(this.floats[code[++pc]]);
+					floats |= 1L << sp;
+					sp++;
+					continue;
+				case NEG:
+				case ABS:
+				{
+					long a = stack[sp - 1];
+					if ((floats & 1L << (sp - 1)) == 0)
+					{
+						if (a == Integer.MIN_VALUE)
+						{
+							return FALLBACK;
+						}
+						stack[sp - 1] = op == NEG ? -a : Math.abs(a);
+					}
+					else
+					{
+						double x = Double.longBitsToDouble(a);
+						if (Double.isInfinite(x))
+						{
+							return FALLBACK;
+						}
+						stack[sp - 1] = Double.doubleToRawLongBits(op == NEG ? -x : Math.abs(x));
+					}
+					continue;
+				}
+			}
+			// binary operation
+			sp--;
+			long a = stack[sp - 1];
+			long b = stack[sp];
+			boolean af = (floats & 1L << (sp - 1)) != 0;
+			boolean bf = (floats & 1L << sp) != 0;
+			floats &= ~(1L << (sp - 1));
+			if (!af && !bf && op != DIV)
+			{
+				long r;
+				switch (op)
+				{
+					case ADD:
+						r = a + b;
+						break;
+					case SUB:
+						r = a - b;
+						break;
+					case MUL:
+						r = a * b;
+						break;
+					case INTDIV:
+						if (b == 0)
+						{
+							return FALLBACK;
+						}
+						r = a / b;
+						break;
+					case REM:
+						if (b == 0)
+						{
+							return FALLBACK;
+						}
+						r = a % b;
+						break;
+					case MOD:
+						if (b == 0)
+						{
+							return FALLBACK;
+						}
+						r = (int) a - (int) Math.floor((double) a / b) * (int) b;
+						break;
+					case LT:
+						r = a < b ? 1 : 0;
+						break;
+					case LE:
+						r = a <= b ? 1 : 0;
+						break;
+					case GT:
+						r = a > b ? 1 : 0;
+						break;
+					case GE:
+						r = a >= b ? 1 : 0;
+						break;
+					case EQ:
+						r = a == b ? 1 : 0;
+						break;
+					default:
+						r = a != b ? 1 : 0;
+						break;
+				}
+				if (r > Integer.MAX_VALUE || r < Integer.MIN_VALUE)
+				{
+					return FALLBACK;
+				}
+				stack[sp - 1] = r;
+				continue;
+			}
+			if (op == INTDIV || op == REM || op == MOD)
+			{
+				// type error
+				return FALLBACK;
+			}
+			double x = af ? Double.longBitsToDouble(a) : a;
+			double y = bf ? Double.longBitsToDouble(b) : b;
+			double r;
+			switch (op)
+			{
+				case ADD:
+					r = x + y;
+					break;
+				case SUB:
+					r = x - y;
+					break;
+				case MUL:
+					r = x * y;
+					break;
+				case DIV:
+					if (y == 0)
+					{
+						return FALLBACK;
+					}
+					r = x / y;
+					break;
+				default:
+				{
+					boolean c;
+					switch (op)
+					{
+						case LT:
+							c = x < y;
+							break;
+						case LE:
+							c = x <= y;
+							break;
+						case GT:
+							c = x > y;
+							break;
+						case GE:
+							c = x >= y;
+							break;
+						case EQ:
+							c = x == y;
+							break;
+						default:
+							c = x != y;
+							break;
+					}
+					stack[sp - 1] = c ? 1 : 0;
+					continue;
+				}
+			}
+			if (Double.isInfinite(r))
+			{
+				return FALLBACK;
+			}
+			stack[sp - 1] = Double.doubleToRawLongBits(r);
+			floats |= 1L << (sp - 1);
+		}
+		return floats;
+	}
+
+	/**
+	 * copy expression with variables replaced by their values
+	 */
+	private Term rebuild(Term term, Term environment[], Term args[])
+	{
+		if (term instanceof VariableTerm)
+		{
+			for (int i = 0; i < variables.length; i++)
+			{
+				if (variables[i] == term)
+				{
+					int ref = references[i];
+					return ref >= 0 ? args[ref] : environment[-1 - ref];
+				}
+			}
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			CompoundTerm ct = (CompoundTerm) term;
+			Term rargs[] = new Term[ct.args.length];
+			for (int i = 0; i < rargs.length; i++)
+			{
+				rargs[i] = rebuild(ct.args[i], environment, args);
+			}
+			return new CompoundTerm(ct.tag, rargs);
+		}
+		return term;
+	}
+
+	/** convert expression to string */
+	@Override
+	public String toString()
+	{
+		if (tag == isTag)
+		{
+			return TermWriter.toString(expressions[0]);
+		}
+		return TermWriter.toString(new CompoundTerm(tag, expressions));
+	}
+}
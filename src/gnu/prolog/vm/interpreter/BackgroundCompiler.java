@@ -0,0 +1,175 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.Term;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background compiler of hot interpreted code. Code is queued by
+ * {@link InterpretedByteCode} when its call count reaches the threshold set by
+ * {@link InterpretedByteCode#COMPILE_THRESHOLD_PROPERTY} and translated to JVM
+ * code by a daemon thread, so execution is never blocked by compilation. Generated classes are defined
+ * as hidden classes where the Java runtime supports them, otherwise each is
+ * defined by its own class loader. In both cases the class is unloaded once the
+ * compiled code is discarded.
+ */
+class BackgroundCompiler implements Runnable
+{
+	private static final BlockingQueue<InterpretedByteCode> queue = new LinkedBlockingQueue<InterpretedByteCode>();
+	private static final AtomicInteger classCounter = new AtomicInteger();
+	private static Thread thread;
+
+	/** lookup used to define hidden classes, null if they are not supported */
+	private static Object lookup;
+	private static Method defineHiddenClass;
+	private static Object classOptions;
+
+	static
+	{
+		try
+		{
+			Class<?> handles = Class.forName("java.lang.invoke.MethodHandles");
+			Class<?> lookupClass = Class.forName("java.lang.invoke.MethodHandles$Lookup");
+			Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			classOptions = Array.newInstance(optionClass, 0);
+			defineHiddenClass = lookupClass.getMethod("defineHiddenClass", byte[].class, boolean.class, classOptions
+					.getClass());
+			lookup = handles.getMethod("lookup").invoke(null);
+		}
+		catch (Exception ex)
+		{
+			lookup = null;
+		}
+	}
+
+	/** class loader for a single generated class */
+	private static class GeneratedClassLoader extends ClassLoader
+	{
+		GeneratedClassLoader()
+		{
+			super(CompiledByteCode.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte bytes[])
+		{
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	private BackgroundCompiler()
+	{}
+
+	/**
+	 * queue code for compilation
+	 * 
+	 * @param code
+	 */
+	static synchronized void submit(InterpretedByteCode code)
+	{
+		if (thread == null)
+		{
+			thread = new Thread(new BackgroundCompiler(), "Prolog compiler");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+		queue.add(code);
+	}
+
+	/**
+	 * translate code and load the generated class
+	 * 
+	 * @param code
+	 *          code to compile
+	 * @return compiled code or null if code could not be compiled
+	 */
+	static CompiledByteCode compile(InterpretedByteCode code)
+	{
+		ByteCodeTranslator translator = code.getTranslator();
+		if (translator == null)
+		{
+			return null;
+		}
+		try
+		{
+			String name = "gnu/prolog/vm/interpreter/CompiledByteCode$" + classCounter.incrementAndGet();
+			byte bytes[] = translator.translate(name);
+			Class<?> cls;
+			if (lookup != null)
+			{
+				Object hidden = defineHiddenClass.invoke(lookup, bytes, Boolean.TRUE, classOptions);
+				cls = (Class<?>) hidden.getClass().getMethod("lookupClass").invoke(hidden);
+			}
+			else
+			{
+				cls = new GeneratedClassLoader().define(name.replace('/', '.'), bytes);
+			}
+			return (CompiledByteCode) cls.getConstructor(Term[].class, CompoundTermTag[].class,
+					ArithmeticExpression[].class).newInstance(translator.getConstants(), translator.getTags(),
+					translator.getExpressions());
+		}
+		catch (Exception ex)
+		{
+			failed(code, ex);
+			return null;
+		}
+		catch (LinkageError ex)
+		{
+			// for example VerifyError for incorrectly translated code
+			failed(code, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * record the failure in code which could not be compiled, the code stays
+	 * interpreted. The failure is available from
+	 * {@link InterpretedByteCode#getCompileFailure()}.
+	 * 
+	 * @param code
+	 * @param ex
+	 */
+	private static void failed(InterpretedByteCode code, Throwable ex)
+	{
+		code.setCompileFailure(ex);
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			InterpretedByteCode code;
+			try
+			{
+				code = queue.take();
+			}
+			catch (InterruptedException ex)
+			{
+				continue;
+			}
+			code.setCompiledCode(compile(code));
+		}
+	}
+}
@@ -0,0 +1,843 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.TermConstants;
+import gnu.prolog.vm.interpreter.ClassFileWriter.Code;
+import gnu.prolog.vm.interpreter.ClassFileWriter.Label;
+import gnu.prolog.vm.interpreter.instruction.IAllocate;
+import gnu.prolog.vm.interpreter.instruction.ICompare;
+import gnu.prolog.vm.interpreter.instruction.ICreateCompoundTerm;
+import gnu.prolog.vm.interpreter.instruction.ICreateVariable;
+import gnu.prolog.vm.interpreter.instruction.ICut;
+import gnu.prolog.vm.interpreter.instruction.IDup;
+import gnu.prolog.vm.interpreter.instruction.IEvaluate;
+import gnu.prolog.vm.interpreter.instruction.IFail;
+import gnu.prolog.vm.interpreter.instruction.IGetConstant;
+import gnu.prolog.vm.interpreter.instruction.IGetList;
+import gnu.prolog.vm.interpreter.instruction.IGetStructure;
+import gnu.prolog.vm.interpreter.instruction.IIdentical;
+import gnu.prolog.vm.interpreter.instruction.IJump;
+import gnu.prolog.vm.interpreter.instruction.INewVariable;
+import gnu.prolog.vm.interpreter.instruction.IPop;
+import gnu.prolog.vm.interpreter.instruction.IPushArgument;
+import gnu.prolog.vm.interpreter.instruction.IPushConstant;
+import gnu.prolog.vm.interpreter.instruction.IPushEnvironment;
+import gnu.prolog.vm.interpreter.instruction.ISaveCut;
+import gnu.prolog.vm.interpreter.instruction.IStoreEnvironment;
+import gnu.prolog.vm.interpreter.instruction.ISwitchOnTerm;
+import gnu.prolog.vm.interpreter.instruction.ITrue;
+import gnu.prolog.vm.interpreter.instruction.ITypeTest;
+import gnu.prolog.vm.interpreter.instruction.IUnify;
+import gnu.prolog.vm.interpreter.instruction.IUnifyValue;
+import gnu.prolog.vm.interpreter.instruction.IUnifyVariable;
+import gnu.prolog.vm.interpreter.instruction.Instruction;
+import gnu.prolog.vm.interpreter.instruction.RetryInstruction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Translator of the instructions of {@link InterpretedByteCode} to a JVM class
+ * extending {@link CompiledByteCode}.
+ * <p>
+ * The instructions are split into segments which start at positions where the
+ * interpreter may continue in forward mode: the start of code, the instruction
+ * after a call or other control instruction, jump, retry and switch targets and
+ * exception handlers. A segment runs until the next control instruction, which
+ * is left to the interpreter, and never spans positions guarded by different
+ * exception handlers. Within a segment the pushdown stack is kept in JVM local
+ * variables, only the values which are left on the stack when the segment
+ * exits are stored in the pushdown stack of the frame.
+ */
+class ByteCodeTranslator
+{
+	private static final String TERM = "gnu/prolog/term/Term";
+	private static final String TERM_ARRAY = "[Lgnu/prolog/term/Term;";
+	private static final String INTEGER_TERM = "gnu/prolog/term/IntegerTerm";
+	private static final String INTERPRETER = "gnu/prolog/vm/Interpreter";
+	private static final String FRAME = "gnu/prolog/vm/interpreter/Frame";
+	private static final String COMPILED = "gnu/prolog/vm/interpreter/CompiledByteCode";
+	private static final String RC = "gnu/prolog/vm/PrologCode$RC";
+	private static final String EXPRESSION = "gnu/prolog/vm/interpreter/ArithmeticExpression";
+	private static final String INIT = "(" + TERM_ARRAY + "[Lgnu/prolog/term/CompoundTermTag;[L" + EXPRESSION + ";)V";
+
+	private static final int THIS = 0;
+	private static final int INTERPRETER_LOCAL = 1;
+	private static final int FRAME_LOCAL = 2;
+	private static final int ENVIRONMENT_LOCAL = 3;
+	private static final int PDS_LOCAL = 4;
+	private static final int PDS_SIZE_LOCAL = 5;
+	private static final int ARGS_LOCAL = 6;
+	private static final int TEMP_LOCAL = 7;
+	/** first local variable used for pushdown stack */
+	private static final int STACK_LOCAL = 8;
+
+	private final InterpretedByteCode code;
+	private final Instruction source[];
+	private final int positions[];
+	private final List<Term> constants = new ArrayList<Term>();
+	private final Map<Term, Integer> constant2idx = new HashMap<Term, Integer>();
+	private final List<CompoundTermTag> tags = new ArrayList<CompoundTermTag>();
+	private final Map<CompoundTermTag, Integer> tag2idx = new HashMap<CompoundTermTag, Integer>();
+	private final List<ArithmeticExpression> expressions = new ArrayList<ArithmeticExpression>();
+	private ClassFileWriter writer;
+	private Code out;
+	private Label labels[];
+	private int maxStackLocals;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param code
+	 *          code to translate
+	 * @param source
+	 *          instructions of code
+	 * @param positions
+	 *          code position of each instruction
+	 */
+	ByteCodeTranslator(InterpretedByteCode code, Instruction source[], int positions[])
+	{
+		this.code = code;
+		this.source = source;
+		this.positions = positions;
+	}
+
+	/** get constants used by generated class */
+	Term[] getConstants()
+	{
+		return constants.toArray(new Term[constants.size()]);
+	}
+
+	/** get tags used by generated class */
+	CompoundTermTag[] getTags()
+	{
+		return tags.toArray(new CompoundTermTag[tags.size()]);
+	}
+
+	/** get arithmetic expressions used by generated class */
+	ArithmeticExpression[] getExpressions()
+	{
+		return expressions.toArray(new ArithmeticExpression[expressions.size()]);
+	}
+
+	/**
+	 * check if instruction is executed by generated code
+	 * 
+	 * @param instruction
+	 * @return true if generated code executes the instruction, false if it is
+	 *         left to the interpreter
+	 */
+	private static boolean isCompiled(Instruction instruction)
+	{
+		return instruction instanceof IAllocate || instruction instanceof ICreateCompoundTerm
+				|| instruction instanceof ICreateVariable || instruction instanceof ICut || instruction instanceof IDup
+				|| instruction instanceof IFail || instruction instanceof IJump || instruction instanceof IPop
+				|| instruction instanceof IPushArgument || instruction instanceof IPushConstant
+				|| instruction instanceof IPushEnvironment || instruction instanceof ISaveCut
+				|| instruction instanceof IStoreEnvironment || instruction instanceof ITrue || instruction instanceof IUnify
+				|| instruction instanceof IGetConstant || instruction instanceof IGetStructure
+				|| instruction instanceof IGetList || instruction instanceof IUnifyVariable
+				|| instruction instanceof IUnifyValue || instruction instanceof IEvaluate
+				|| instruction instanceof ICompare || instruction instanceof ITypeTest || instruction instanceof IIdentical
+				|| instruction instanceof INewVariable;
+	}
+
+	/**
+	 * get change of pushdown stack size by instruction
+	 * 
+	 * @param instruction
+	 * @return number of terms popped and pushed
+	 */
+	private static int[] getStackEffect(Instruction instruction)
+	{
+		if (instruction instanceof ICreateCompoundTerm)
+		{
+			return new int[] { ((ICreateCompoundTerm) instruction).tag.arity, 1 };
+		}
+		else if (instruction instanceof ICreateVariable || instruction instanceof IPushArgument
+				|| instruction instanceof IPushConstant || instruction instanceof IPushEnvironment
+				|| instruction instanceof IEvaluate || instruction instanceof INewVariable)
+		{
+			return new int[] { 0, 1 };
+		}
+		else if (instruction instanceof IDup)
+		{
+			return new int[] { 1, 2 };
+		}
+		else if (instruction instanceof IPop || instruction instanceof IStoreEnvironment
+				|| instruction instanceof IGetConstant || instruction instanceof IUnifyVariable
+				|| instruction instanceof IUnifyValue || instruction instanceof ITypeTest)
+		{
+			return new int[] { 1, 0 };
+		}
+		else if (instruction instanceof IUnify || instruction instanceof IIdentical)
+		{
+			return new int[] { 2, 0 };
+		}
+		else if (instruction instanceof IGetStructure)
+		{
+			// read mode, write mode leaves the segment
+			return new int[] { 1, ((IGetStructure) instruction).tag.arity };
+		}
+		else if (instruction instanceof IGetList)
+		{
+			return new int[] { 1, 2 };
+		}
+		return new int[] { 0, 0 };
+	}
+
+	/**
+	 * find instructions which start segments
+	 * 
+	 * @return indexes of instructions in increasing order
+	 */
+	private TreeSet<Integer> getLeaders()
+	{
+		int n = source.length;
+		Map<Integer, Integer> position2idx = new HashMap<Integer, Integer>();
+		for (int i = 0; i < n; i++)
+		{
+			position2idx.put(Integer.valueOf(positions[i]), Integer.valueOf(i));
+		}
+		TreeSet<Integer> rc = new TreeSet<Integer>();
+		rc.add(Integer.valueOf(0));
+		for (int i = 0; i < n; i++)
+		{
+			Instruction instruction = source[i];
+			if ((!isCompiled(instruction) || instruction instanceof IFail || instruction instanceof IJump) && i + 1 < n)
+			{
+				rc.add(Integer.valueOf(i + 1));
+			}
+			if (instruction instanceof IJump)
+			{
+				rc.add(Integer.valueOf(((IJump) instruction).jumpPosition));
+			}
+			else if (instruction instanceof RetryInstruction)
+			{
+				rc.add(Integer.valueOf(((RetryInstruction) instruction).retryPosition));
+			}
+			else if (instruction instanceof IGetStructure)
+			{
+				rc.add(Integer.valueOf(((IGetStructure) instruction).writePosition));
+			}
+			else if (instruction instanceof IGetList)
+			{
+				rc.add(Integer.valueOf(((IGetList) instruction).writePosition));
+			}
+			else if (instruction instanceof ISwitchOnTerm)
+			{
+				ISwitchOnTerm ii = (ISwitchOnTerm) instruction;
+				rc.add(Integer.valueOf(ii.variablePosition));
+				for (int position : ii.clausePositions)
+				{
+					rc.add(Integer.valueOf(position));
+				}
+			}
+			if (i > 0 && code.getHandlerPosition(positions[i]) != code.getHandlerPosition(positions[i - 1]))
+			{
+				rc.add(Integer.valueOf(i));
+			}
+		}
+		for (ExceptionHandlerInfo handler : code.exceptionHandlers)
+		{
+			Integer idx = position2idx.get(Integer.valueOf(handler.handlerPosition));
+			if (idx != null)
+			{
+				rc.add(idx);
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * translate code
+	 * 
+	 * @param className
+	 *          internal name of generated class
+	 * @return class file
+	 * @throws IllegalStateException
+	 *           if code cannot be translated
+	 */
+	byte[] translate(String className)
+	{
+		writer = new ClassFileWriter(className, COMPILED);
+		Code init = writer.newCode();
+		init.aload(0);
+		init.aload(1);
+		init.aload(2);
+		init.aload(3);
+		init.op(ClassFileWriter.INVOKESPECIAL, writer.methodRef(COMPILED, "<init>", INIT));
+		init.op(ClassFileWriter.RETURN);
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", INIT, init, 4, 4);
+
+		out = writer.newCode();
+		labels = new Label[source.length];
+		TreeSet<Integer> leaders = getLeaders();
+		int keys[] = new int[leaders.size()];
+		Label targets[] = new Label[leaders.size()];
+		int k = 0;
+		for (Integer leader : leaders)
+		{
+			labels[leader.intValue()] = out.newLabel();
+			keys[k] = positions[leader.intValue()];
+			targets[k++] = labels[leader.intValue()];
+		}
+		// load state from frame
+		out.aload(FRAME_LOCAL);
+		out.op(ClassFileWriter.GETFIELD, writer.fieldRef(FRAME, "environment", TERM_ARRAY));
+		out.astore(ENVIRONMENT_LOCAL);
+		out.aload(FRAME_LOCAL);
+		out.op(ClassFileWriter.GETFIELD, writer.fieldRef(FRAME, "pds", TERM_ARRAY));
+		out.astore(PDS_LOCAL);
+		out.aload(FRAME_LOCAL);
+		out.op(ClassFileWriter.GETFIELD, writer.fieldRef(FRAME, "pdsSize", "I"));
+		out.istore(PDS_SIZE_LOCAL);
+		out.aload(FRAME_LOCAL);
+		out.op(ClassFileWriter.GETFIELD, writer.fieldRef(FRAME, "args", TERM_ARRAY));
+		out.astore(ARGS_LOCAL);
+		Label notCompiled = out.newLabel();
+		out.aload(FRAME_LOCAL);
+		out.op(ClassFileWriter.GETFIELD, writer.fieldRef(FRAME, "position", "I"));
+		out.lookupSwitch(keys, targets, notCompiled);
+		out.mark(notCompiled);
+		out.aload(FRAME_LOCAL);
+		out.op(ClassFileWriter.GETFIELD, writer.fieldRef(FRAME, "position", "I"));
+		out.op(ClassFileWriter.IRETURN);
+		maxStackLocals = 0;
+		for (Integer leader : leaders)
+		{
+			translateSegment(leader.intValue());
+		}
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", "(L" + INTERPRETER + ";L" + FRAME + ";)I", out, 8,
+				STACK_LOCAL + maxStackLocals);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * translate segment
+	 * 
+	 * @param start
+	 *          index of first instruction of segment
+	 */
+	private void translateSegment(int start)
+	{
+		int handler = code.getHandlerPosition(positions[start]);
+		// find end of segment and terms taken from pushdown stack on entry
+		int end = start;
+		int depth = 0;
+		int minDepth = 0;
+		int maxDepth = 0;
+		while (end < source.length && isCompiled(source[end]))
+		{
+			if (end > start && (labels[end] != null || code.getHandlerPosition(positions[end]) != handler))
+			{
+				break;
+			}
+			int effect[] = getStackEffect(source[end]);
+			depth -= effect[0];
+			minDepth = Math.min(minDepth, depth);
+			depth += effect[1];
+			maxDepth = Math.max(maxDepth, depth);
+			if (source[end] instanceof IFail || source[end] instanceof IJump)
+			{
+				end++;
+				break;
+			}
+			end++;
+		}
+		int entryDepth = -minDepth;
+		maxStackLocals = Math.max(maxStackLocals, entryDepth + maxDepth);
+
+		out.mark(labels[start]);
+		for (int i = 0; i < entryDepth; i++)
+		{
+			out.aload(PDS_LOCAL);
+			out.iload(PDS_SIZE_LOCAL);
+			out.iconst(entryDepth - i);
+			out.op(ClassFileWriter.ISUB);
+			out.op(ClassFileWriter.AALOAD);
+			out.astore(STACK_LOCAL + i);
+			out.aload(PDS_LOCAL);
+			out.iload(PDS_SIZE_LOCAL);
+			out.iconst(entryDepth - i);
+			out.op(ClassFileWriter.ISUB);
+			out.op(ClassFileWriter.ACONST_NULL);
+			out.op(ClassFileWriter.AASTORE);
+		}
+		if (entryDepth > 0)
+		{
+			out.iload(PDS_SIZE_LOCAL);
+			out.iconst(entryDepth);
+			out.op(ClassFileWriter.ISUB);
+			out.istore(PDS_SIZE_LOCAL);
+		}
+		depth = entryDepth;
+		for (int i = start; i < end; i++)
+		{
+			depth = translateInstruction(source[i], depth);
+		}
+		Instruction last = end > start ? source[end - 1] : null;
+		if (last instanceof IJump)
+		{
+			int target = ((IJump) last).jumpPosition;
+			spill(depth);
+			out.jump(ClassFileWriter.GOTO, labels[target]);
+		}
+		else if (last instanceof IFail)
+		{
+			exit(depth, -1);
+		}
+		else if (end < source.length && labels[end] != null && isCompiled(source[end]))
+		{
+			spill(depth);
+			out.jump(ClassFileWriter.GOTO, labels[end]);
+		}
+		else if (end < source.length)
+		{
+			exit(depth, positions[end]);
+		}
+		else
+		{
+			throw new IllegalStateException("code does not end with control instruction");
+		}
+	}
+
+	/**
+	 * translate instruction
+	 * 
+	 * @param instruction
+	 * @param depth
+	 *          number of terms in stack locals
+	 * @return number of terms in stack locals after instruction
+	 */
+	private int translateInstruction(Instruction instruction, int depth)
+	{
+		if (instruction instanceof IAllocate)
+		{
+			IAllocate ii = (IAllocate) instruction;
+			out.aload(INTERPRETER_LOCAL);
+			out.iconst(ii.environmentSize);
+			out.iconst(ii.reserved);
+			out.op(ClassFileWriter.INVOKESTATIC, writer.methodRef(COMPILED, "allocate", "(L" + INTERPRETER + ";II)"
+					+ TERM_ARRAY));
+			out.astore(ENVIRONMENT_LOCAL);
+			// the environment is needed by exception handlers
+			out.aload(FRAME_LOCAL);
+			out.aload(ENVIRONMENT_LOCAL);
+			out.op(ClassFileWriter.PUTFIELD, writer.fieldRef(FRAME, "environment", TERM_ARRAY));
+			return depth;
+		}
+		else if (instruction instanceof ICreateCompoundTerm)
+		{
+			CompoundTermTag tag = ((ICreateCompoundTerm) instruction).tag;
+			int arity = tag.arity;
+			out.op(ClassFileWriter.NEW, writer.classRef("gnu/prolog/term/CompoundTerm"));
+			out.op(ClassFileWriter.DUP);
+			out.aload(THIS);
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef(COMPILED, "tags", "[Lgnu/prolog/term/CompoundTermTag;"));
+			out.iconst(getTagIndex(tag));
+			out.op(ClassFileWriter.AALOAD);
+			out.op(ClassFileWriter.INVOKESPECIAL, writer.methodRef("gnu/prolog/term/CompoundTerm", "<init>",
+					"(Lgnu/prolog/term/CompoundTermTag;)V"));
+			out.op(ClassFileWriter.DUP);
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef("gnu/prolog/term/CompoundTerm", "args", TERM_ARRAY));
+			out.astore(TEMP_LOCAL);
+			for (int i = 0; i < arity; i++)
+			{
+				out.aload(TEMP_LOCAL);
+				out.iconst(i);
+				out.aload(STACK_LOCAL + depth - arity + i);
+				dereference();
+				out.op(ClassFileWriter.AASTORE);
+			}
+			depth -= arity;
+			out.astore(STACK_LOCAL + depth);
+			return depth + 1;
+		}
+		else if (instruction instanceof ICreateVariable)
+		{
+			out.aload(INTERPRETER_LOCAL);
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "newVariable",
+					"()Lgnu/prolog/term/VariableTerm;"));
+			out.astore(STACK_LOCAL + depth);
+			return depth + 1;
+		}
+		else if (instruction instanceof INewVariable)
+		{
+			out.aload(INTERPRETER_LOCAL);
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "newVariable",
+					"()Lgnu/prolog/term/VariableTerm;"));
+			out.astore(STACK_LOCAL + depth);
+			out.aload(ENVIRONMENT_LOCAL);
+			out.iconst(((INewVariable) instruction).environmentIndex);
+			out.aload(STACK_LOCAL + depth);
+			out.op(ClassFileWriter.AASTORE);
+			return depth + 1;
+		}
+		else if (instruction instanceof ICut)
+		{
+			// cleanup goals of removed backtrack infos are executed on top of
+			// pushdown stack
+			out.aload(INTERPRETER_LOCAL);
+			out.iload(PDS_SIZE_LOCAL);
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "setPushDownTop", "(I)V"));
+			out.aload(INTERPRETER_LOCAL);
+			out.aload(ENVIRONMENT_LOCAL);
+			out.iconst(((ICut) instruction).environmentIndex);
+			out.op(ClassFileWriter.AALOAD);
+			out.op(ClassFileWriter.CHECKCAST, writer.classRef(INTEGER_TERM));
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef(INTEGER_TERM, "value", "I"));
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "cut", "(I)V"));
+			out.aload(INTERPRETER_LOCAL);
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "getPushDown", "()" + TERM_ARRAY));
+			out.astore(PDS_LOCAL);
+			return depth;
+		}
+		else if (instruction instanceof IDup)
+		{
+			out.aload(STACK_LOCAL + depth - 1);
+			out.astore(STACK_LOCAL + depth);
+			return depth + 1;
+		}
+		else if (instruction instanceof IPop)
+		{
+			return depth - 1;
+		}
+		else if (instruction instanceof IPushArgument)
+		{
+			out.aload(ARGS_LOCAL);
+			out.iconst(((IPushArgument) instruction).argumentPosition);
+			out.op(ClassFileWriter.AALOAD);
+			out.astore(STACK_LOCAL + depth);
+			return depth + 1;
+		}
+		else if (instruction instanceof IPushConstant)
+		{
+			out.aload(THIS);
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef(COMPILED, "constants", TERM_ARRAY));
+			out.iconst(getConstantIndex(((IPushConstant) instruction).term));
+			out.op(ClassFileWriter.AALOAD);
+			out.astore(STACK_LOCAL + depth);
+			return depth + 1;
+		}
+		else if (instruction instanceof IPushEnvironment)
+		{
+			out.aload(ENVIRONMENT_LOCAL);
+			out.iconst(((IPushEnvironment) instruction).environmentPosition);
+			out.op(ClassFileWriter.AALOAD);
+			out.astore(STACK_LOCAL + depth);
+			return depth + 1;
+		}
+		else if (instruction instanceof ISaveCut)
+		{
+			out.aload(ENVIRONMENT_LOCAL);
+			out.iconst(((ISaveCut) instruction).environmentIndex);
+			out.aload(INTERPRETER_LOCAL);
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "getCutBarrier", "()I"));
+			out.op(ClassFileWriter.INVOKESTATIC, writer.methodRef(INTEGER_TERM, "get", "(I)L" + INTEGER_TERM + ";"));
+			out.op(ClassFileWriter.AASTORE);
+			return depth;
+		}
+		else if (instruction instanceof IStoreEnvironment)
+		{
+			out.aload(ENVIRONMENT_LOCAL);
+			out.iconst(((IStoreEnvironment) instruction).environmentIndex);
+			out.aload(STACK_LOCAL + depth - 1);
+			out.op(ClassFileWriter.AASTORE);
+			return depth - 1;
+		}
+		else if (instruction instanceof IUnify)
+		{
+			Label unified = out.newLabel();
+			out.aload(INTERPRETER_LOCAL);
+			out.aload(STACK_LOCAL + depth - 2);
+			dereference();
+			out.aload(STACK_LOCAL + depth - 1);
+			dereference();
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "simpleUnify", "(L" + TERM + ";L" + TERM
+					+ ";)L" + RC + ";"));
+			out.op(ClassFileWriter.GETSTATIC, writer.fieldRef(RC, "FAIL", "L" + RC + ";"));
+			out.jump(ClassFileWriter.IF_ACMPNE, unified);
+			exit(depth - 2, -1);
+			out.mark(unified);
+			return depth - 2;
+		}
+		else if (instruction instanceof IGetConstant)
+		{
+			Label unified = out.newLabel();
+			out.aload(STACK_LOCAL + depth - 1);
+			dereference();
+			out.astore(TEMP_LOCAL);
+			out.aload(TEMP_LOCAL);
+			out.aload(THIS);
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef(COMPILED, "constants", TERM_ARRAY));
+			out.iconst(getConstantIndex(((IGetConstant) instruction).term));
+			out.op(ClassFileWriter.AALOAD);
+			out.jump(ClassFileWriter.IF_ACMPEQ, unified);
+			out.aload(INTERPRETER_LOCAL);
+			out.aload(TEMP_LOCAL);
+			out.aload(THIS);
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef(COMPILED, "constants", TERM_ARRAY));
+			out.iconst(getConstantIndex(((IGetConstant) instruction).term));
+			out.op(ClassFileWriter.AALOAD);
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "simpleUnify", "(L" + TERM + ";L" + TERM
+					+ ";)L" + RC + ";"));
+			out.op(ClassFileWriter.GETSTATIC, writer.fieldRef(RC, "FAIL", "L" + RC + ";"));
+			out.jump(ClassFileWriter.IF_ACMPNE, unified);
+			exit(depth - 1, -1);
+			out.mark(unified);
+			return depth - 1;
+		}
+		else if (instruction instanceof IGetStructure || instruction instanceof IGetList)
+		{
+			CompoundTermTag tag;
+			int writePosition;
+			if (instruction instanceof IGetList)
+			{
+				tag = TermConstants.listTag;
+				writePosition = ((IGetList) instruction).writePosition;
+			}
+			else
+			{
+				tag = ((IGetStructure) instruction).tag;
+				writePosition = ((IGetStructure) instruction).writePosition;
+			}
+			String compound = "gnu/prolog/term/CompoundTerm";
+			Label notMatched = out.newLabel();
+			Label failed = out.newLabel();
+			Label matched = out.newLabel();
+			out.aload(STACK_LOCAL + depth - 1);
+			dereference();
+			out.astore(TEMP_LOCAL);
+			out.aload(TEMP_LOCAL);
+			out.op(ClassFileWriter.INSTANCEOF, writer.classRef(compound));
+			out.jump(ClassFileWriter.IFEQ, notMatched);
+			out.aload(TEMP_LOCAL);
+			out.op(ClassFileWriter.CHECKCAST, writer.classRef(compound));
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef(compound, "tag", "Lgnu/prolog/term/CompoundTermTag;"));
+			out.aload(THIS);
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef(COMPILED, "tags", "[Lgnu/prolog/term/CompoundTermTag;"));
+			out.iconst(getTagIndex(tag));
+			out.op(ClassFileWriter.AALOAD);
+			out.jump(ClassFileWriter.IF_ACMPNE, notMatched);
+			// read mode, the first argument ends on top of the stack
+			out.aload(TEMP_LOCAL);
+			out.op(ClassFileWriter.CHECKCAST, writer.classRef(compound));
+			out.op(ClassFileWriter.GETFIELD, writer.fieldRef(compound, "args", TERM_ARRAY));
+			out.astore(TEMP_LOCAL);
+			for (int i = 0; i < tag.arity; i++)
+			{
+				out.aload(TEMP_LOCAL);
+				out.iconst(tag.arity - 1 - i);
+				out.op(ClassFileWriter.AALOAD);
+				out.astore(STACK_LOCAL + depth - 1 + i);
+			}
+			out.jump(ClassFileWriter.GOTO, matched);
+			// write mode, continue with creation of the structure
+			out.mark(notMatched);
+			out.aload(TEMP_LOCAL);
+			out.op(ClassFileWriter.INSTANCEOF, writer.classRef("gnu/prolog/term/VariableTerm"));
+			out.jump(ClassFileWriter.IFEQ, failed);
+			out.aload(TEMP_LOCAL);
+			out.astore(STACK_LOCAL + depth - 1);
+			spill(depth);
+			out.jump(ClassFileWriter.GOTO, labels[writePosition]);
+			out.mark(failed);
+			exit(depth - 1, -1);
+			out.mark(matched);
+			return depth - 1 + tag.arity;
+		}
+		else if (instruction instanceof IUnifyVariable)
+		{
+			out.aload(ENVIRONMENT_LOCAL);
+			out.iconst(((IUnifyVariable) instruction).environmentIndex);
+			out.aload(STACK_LOCAL + depth - 1);
+			out.op(ClassFileWriter.AASTORE);
+			return depth - 1;
+		}
+		else if (instruction instanceof IUnifyValue)
+		{
+			Label unified = out.newLabel();
+			out.aload(INTERPRETER_LOCAL);
+			out.aload(ENVIRONMENT_LOCAL);
+			out.iconst(((IUnifyValue) instruction).environmentIndex);
+			out.op(ClassFileWriter.AALOAD);
+			dereference();
+			out.aload(STACK_LOCAL + depth - 1);
+			dereference();
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "simpleUnify", "(L" + TERM + ";L" + TERM
+					+ ";)L" + RC + ";"));
+			out.op(ClassFileWriter.GETSTATIC, writer.fieldRef(RC, "FAIL", "L" + RC + ";"));
+			out.jump(ClassFileWriter.IF_ACMPNE, unified);
+			exit(depth - 1, -1);
+			out.mark(unified);
+			return depth - 1;
+		}
+		else if (instruction instanceof IEvaluate)
+		{
+			loadExpression(((IEvaluate) instruction).expression);
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(EXPRESSION, "evaluate", "(L" + INTERPRETER + ";"
+					+ TERM_ARRAY + TERM_ARRAY + ")L" + TERM + ";"));
+			out.astore(STACK_LOCAL + depth);
+			return depth + 1;
+		}
+		else if (instruction instanceof ICompare)
+		{
+			Label succeeded = out.newLabel();
+			loadExpression(((ICompare) instruction).comparison);
+			out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(EXPRESSION, "compare", "(L" + INTERPRETER + ";"
+					+ TERM_ARRAY + TERM_ARRAY + ")Z"));
+			out.jump(ClassFileWriter.IFNE, succeeded);
+			exit(depth, -1);
+			out.mark(succeeded);
+			return depth;
+		}
+		else if (instruction instanceof ITypeTest)
+		{
+			Label succeeded = out.newLabel();
+			out.iconst(((ITypeTest) instruction).test);
+			out.aload(STACK_LOCAL + depth - 1);
+			out.op(ClassFileWriter.INVOKESTATIC, writer.methodRef("gnu/prolog/vm/interpreter/instruction/ITypeTest",
+					"test", "(IL" + TERM + ";)Z"));
+			out.jump(ClassFileWriter.IFNE, succeeded);
+			exit(depth - 1, -1);
+			out.mark(succeeded);
+			return depth - 1;
+		}
+		else if (instruction instanceof IIdentical)
+		{
+			Label succeeded = out.newLabel();
+			out.aload(STACK_LOCAL + depth - 2);
+			out.aload(STACK_LOCAL + depth - 1);
+			out.op(ClassFileWriter.INVOKESTATIC, writer.methodRef("gnu/prolog/term/TermComparator", "identical", "(L"
+					+ TERM + ";L" + TERM + ";)Z"));
+			out.jump(((IIdentical) instruction).identical ? ClassFileWriter.IFNE : ClassFileWriter.IFEQ, succeeded);
+			exit(depth - 2, -1);
+			out.mark(succeeded);
+			return depth - 2;
+		}
+		// ITrue, IFail and IJump have no effect on state
+		return depth;
+	}
+
+	/**
+	 * push expression and the arguments of its evaluation to JVM stack
+	 * 
+	 * @param expression
+	 */
+	private void loadExpression(ArithmeticExpression expression)
+	{
+		out.aload(THIS);
+		out.op(ClassFileWriter.GETFIELD, writer.fieldRef(COMPILED, "expressions", "[L" + EXPRESSION + ";"));
+		out.iconst(expressions.size());
+		out.op(ClassFileWriter.AALOAD);
+		expressions.add(expression);
+		out.aload(INTERPRETER_LOCAL);
+		out.aload(ENVIRONMENT_LOCAL);
+		out.aload(ARGS_LOCAL);
+	}
+
+	private void dereference()
+	{
+		out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(TERM, "dereference", "()L" + TERM + ";"));
+	}
+
+	/**
+	 * store stack locals to pushdown stack
+	 * 
+	 * @param depth
+	 *          number of terms in stack locals
+	 */
+	private void spill(int depth)
+	{
+		if (depth == 0)
+		{
+			return;
+		}
+		out.aload(INTERPRETER_LOCAL);
+		out.iload(PDS_SIZE_LOCAL);
+		out.iconst(depth);
+		out.op(ClassFileWriter.IADD);
+		out.op(ClassFileWriter.INVOKEVIRTUAL, writer.methodRef(INTERPRETER, "ensurePushDownCapacity", "(I)" + TERM_ARRAY));
+		out.astore(PDS_LOCAL);
+		for (int i = 0; i < depth; i++)
+		{
+			out.aload(PDS_LOCAL);
+			out.iload(PDS_SIZE_LOCAL);
+			out.iconst(i);
+			out.op(ClassFileWriter.IADD);
+			out.aload(STACK_LOCAL + i);
+			out.op(ClassFileWriter.AASTORE);
+		}
+		out.iload(PDS_SIZE_LOCAL);
+		out.iconst(depth);
+		out.op(ClassFileWriter.IADD);
+		out.istore(PDS_SIZE_LOCAL);
+	}
+
+	/**
+	 * return control to interpreter
+	 * 
+	 * @param depth
+	 *          number of terms in stack locals
+	 * @param position
+	 *          position to return
+	 */
+	private void exit(int depth, int position)
+	{
+		spill(depth);
+		out.aload(FRAME_LOCAL);
+		out.aload(PDS_LOCAL);
+		out.op(ClassFileWriter.PUTFIELD, writer.fieldRef(FRAME, "pds", TERM_ARRAY));
+		out.aload(FRAME_LOCAL);
+		out.iload(PDS_SIZE_LOCAL);
+		out.op(ClassFileWriter.PUTFIELD, writer.fieldRef(FRAME, "pdsSize", "I"));
+		out.iconst(position);
+		out.op(ClassFileWriter.IRETURN);
+	}
+
+	private int getConstantIndex(Term term)
+	{
+		Integer rc = constant2idx.get(term);
+		if (rc == null)
+		{
+			rc = Integer.valueOf(constants.size());
+			constants.add(term);
+			constant2idx.put(term, rc);
+		}
+		return rc.intValue();
+	}
+
+	private int getTagIndex(CompoundTermTag tag)
+	{
+		Integer rc = tag2idx.get(tag);
+		if (rc == null)
+		{
+			rc = Integer.valueOf(tags.size());
+			tags.add(tag);
+			tag2idx.put(tag, rc);
+		}
+		return rc.intValue();
+	}
+}
@@ -0,0 +1,197 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.vm.Environment;
+import gnu.prolog.vm.PrologCode;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded cache of the code compiled for goals of call/1. Goals are keyed by
+ * their skeleton (see {@link Predicate_call#getSkeleton}) and the module in
+ * which they are called, so goals which only differ in the arguments of the
+ * called predicates share code. Code is
+ * installed when it is added to the cache and uninstalled when it is evicted.
+ * Installed code follows changes of the called predicates through its
+ * {@link gnu.prolog.vm.PrologCodeListener}, so entries never become stale.
+ * 
+ * Lookups do not lock. Eviction is approximately least recently used: a clock
+ * hand passes over the entries, an entry which was used since the hand last
+ * passed gets a second chance, other entries are evicted. Evicted code which is
+ * still running keeps running, it looks up called predicates on every call.
+ */
+public class CallCache
+{
+	/**
+	 * system property with the maximum number of cached goals, 0 or less to
+	 * compile every goal
+	 */
+	public static final String CALL_CACHE_SIZE_PROPERTY = "gnu.prolog.callCacheSize";
+
+	private static final int CALL_CACHE_SIZE = Integer.getInteger(CALL_CACHE_SIZE_PROPERTY, 256).intValue();
+
+	/** cached code */
+	private static class Entry
+	{
+		Entry(PrologCode code)
+		{
+			this.code = code;
+		}
+
+		final PrologCode code;
+		/** true if code was used since the clock hand passed the entry */
+		volatile boolean referenced;
+	}
+
+	/** environment in which code is installed */
+	protected final Environment environment;
+	/** cached code by skeleton */
+	private final ConcurrentMap<Object, Entry> codes = new ConcurrentHashMap<Object, Entry>();
+	/** clock hand of eviction, guarded by this */
+	private Iterator<Map.Entry<Object, Entry>> hand;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param environment
+	 *          environment in which code is installed
+	 */
+	public CallCache(Environment environment)
+	{
+		this.environment = environment;
+	}
+
+	/**
+	 * check if goals are cached
+	 * 
+	 * @return false if every goal is compiled
+	 */
+	public boolean isEnabled()
+	{
+		return CALL_CACHE_SIZE > 0;
+	}
+
+	/**
+	 * get number of cached goals
+	 * 
+	 * @return the number of cached goals
+	 */
+	public int size()
+	{
+		return codes.size();
+	}
+
+	/**
+	 * get code of goal
+	 * 
+	 * @param skeleton
+	 *          skeleton of goal
+	 * @return the code or null if it is not cached
+	 */
+	public PrologCode get(Object skeleton)
+	{
+		Entry entry = codes.get(skeleton);
+		if (entry == null)
+		{
+			return null;
+		}
+		if (!entry.referenced)
+		{
+			entry.referenced = true;
+		}
+		return entry.code;
+	}
+
+	/**
+	 * add code of goal to cache and install it
+	 * 
+	 * @param skeleton
+	 *          skeleton of goal
+	 * @param code
+	 *          code compiled for goal
+	 * @return the cached code, which is different from code if another thread
+	 *         added code for the skeleton first
+	 */
+	public PrologCode put(Object skeleton, PrologCode code)
+	{
+		Entry cached = codes.get(skeleton);
+		if (cached != null)
+		{
+			return cached.code;
+		}
+		// code is installed before it is published
+		code.install(environment);
+		cached = codes.putIfAbsent(skeleton, new Entry(code));
+		if (cached != null)
+		{
+			code.uninstall(environment);
+			return cached.code;
+		}
+		if (codes.size() > CALL_CACHE_SIZE)
+		{
+			evict();
+		}
+		return code;
+	}
+
+	/**
+	 * remove all goals, they are compiled again on next use. Code which is still
+	 * running keeps running.
+	 */
+	public synchronized void clear()
+	{
+		for (Map.Entry<Object, Entry> next : codes.entrySet())
+		{
+			if (codes.remove(next.getKey(), next.getValue()))
+			{
+				next.getValue().code.uninstall(environment);
+			}
+		}
+		hand = null;
+	}
+
+	/** evict entries until the cache is not larger than its maximum size */
+	private synchronized void evict()
+	{
+		while (codes.size() > CALL_CACHE_SIZE)
+		{
+			if (hand == null || !hand.hasNext())
+			{
+				hand = codes.entrySet().iterator();
+				if (!hand.hasNext())
+				{
+					return;
+				}
+			}
+			Map.Entry<Object, Entry> next = hand.next();
+			Entry entry = next.getValue();
+			if (entry.referenced)
+			{
+				entry.referenced = false;
+			}
+			else if (codes.remove(next.getKey(), entry))
+			{
+				entry.code.uninstall(environment);
+			}
+		}
+	}
+}
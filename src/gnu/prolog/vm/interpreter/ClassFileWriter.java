@@ -0,0 +1,424 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer of JVM class files. It supports just what is needed by
+ * {@link ByteCodeTranslator}: a constant pool with class, field, method and
+ * integer entries, and methods whose code uses 16 bit branches and lookup
+ * switches. Class files are written in version 49 format so that no stack map
+ * frames are required.
+ */
+class ClassFileWriter
+{
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	static final int ICONST_0 = 0x03;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC_W = 0x13;
+	static final int ILOAD = 0x15;
+	static final int ALOAD = 0x19;
+	static final int AALOAD = 0x32;
+	static final int ISTORE = 0x36;
+	static final int ASTORE = 0x3a;
+	static final int AASTORE = 0x53;
+	static final int DUP = 0x59;
+	static final int IADD = 0x60;
+	static final int ISUB = 0x64;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int IF_ACMPEQ = 0xa5;
+	static final int IF_ACMPNE = 0xa6;
+	static final int GOTO = 0xa7;
+	static final int LOOKUPSWITCH = 0xab;
+	static final int IRETURN = 0xac;
+	static final int RETURN = 0xb1;
+	static final int GETSTATIC = 0xb2;
+	static final int GETFIELD = 0xb4;
+	static final int PUTFIELD = 0xb5;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKESTATIC = 0xb8;
+	static final int NEW = 0xbb;
+	static final int ANEWARRAY = 0xbd;
+	static final int CHECKCAST = 0xc0;
+	static final int INSTANCEOF = 0xc1;
+	static final int WIDE = 0xc4;
+	static final int ACONST_NULL = 0x01;
+
+	/** branch target inside of method code */
+	static class Label
+	{
+		/** position of label or -1 if not yet marked */
+		int position = -1;
+		/** positions of instructions which refer to label */
+		List<int[]> fixups = new ArrayList<int[]>();
+	}
+
+	/** code of method */
+	class Code
+	{
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final List<Label> labels = new ArrayList<Label>();
+
+		int position()
+		{
+			return bytes.size();
+		}
+
+		void u1(int b)
+		{
+			bytes.write(b);
+		}
+
+		void u2(int s)
+		{
+			bytes.write(s >> 8);
+			bytes.write(s);
+		}
+
+		void u4(int i)
+		{
+			u2(i >>> 16);
+			u2(i & 0xffff);
+		}
+
+		void op(int opcode)
+		{
+			u1(opcode);
+		}
+
+		void op(int opcode, int cpIndex)
+		{
+			u1(opcode);
+			u2(cpIndex);
+		}
+
+		private void local(int opcode, int index)
+		{
+			if (index > 255)
+			{
+				u1(WIDE);
+				u1(opcode);
+				u2(index);
+			}
+			else
+			{
+				u1(opcode);
+				u1(index);
+			}
+		}
+
+		void aload(int index)
+		{
+			local(ALOAD, index);
+		}
+
+		void astore(int index)
+		{
+			local(ASTORE, index);
+		}
+
+		void iload(int index)
+		{
+			local(ILOAD, index);
+		}
+
+		void istore(int index)
+		{
+			local(ISTORE, index);
+		}
+
+		/** push integer constant */
+		void iconst(int value)
+		{
+			if (value >= -1 && value <= 5)
+			{
+				u1(ICONST_0 + value);
+			}
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+			{
+				u1(BIPUSH);
+				u1(value);
+			}
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+			{
+				u1(SIPUSH);
+				u2(value);
+			}
+			else
+			{
+				op(LDC_W, integer(value));
+			}
+		}
+
+		Label newLabel()
+		{
+			Label rc = new Label();
+			labels.add(rc);
+			return rc;
+		}
+
+		void mark(Label label)
+		{
+			label.position = position();
+		}
+
+		/** emit branch instruction with 16 bit offset */
+		void jump(int opcode, Label label)
+		{
+			int pos = position();
+			u1(opcode);
+			label.fixups.add(new int[] { pos, pos + 1, 2 });
+			u2(0);
+		}
+
+		/** emit lookupswitch, keys must be sorted */
+		void lookupSwitch(int keys[], Label targets[], Label dflt)
+		{
+			int pos = position();
+			u1(LOOKUPSWITCH);
+			while (position() % 4 != 0)
+			{
+				u1(0);
+			}
+			dflt.fixups.add(new int[] { pos, position(), 4 });
+			u4(0);
+			u4(keys.length);
+			for (int i = 0; i < keys.length; i++)
+			{
+				u4(keys[i]);
+				targets[i].fixups.add(new int[] { pos, position(), 4 });
+				u4(0);
+			}
+		}
+
+		/**
+		 * resolve labels
+		 * 
+		 * @return code of method
+		 * @throws IllegalStateException
+		 *           if code is too large
+		 */
+		byte[] toByteArray()
+		{
+			byte rc[] = bytes.toByteArray();
+			if (rc.length > 0xffff)
+			{
+				throw new IllegalStateException("method code is too large");
+			}
+			for (Label label : labels)
+			{
+				for (int fixup[] : label.fixups)
+				{
+					int offset = label.position - fixup[0];
+					if (fixup[2] == 2)
+					{
+						if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+						{
+							throw new IllegalStateException("branch offset is too large");
+						}
+					}
+					else
+					{
+						rc[fixup[1]] = (byte) (offset >> 24);
+						rc[fixup[1] + 1] = (byte) (offset >> 16);
+					}
+					rc[fixup[1] + fixup[2] - 2] = (byte) (offset >> 8);
+					rc[fixup[1] + fixup[2] - 1] = (byte) offset;
+				}
+			}
+			return rc;
+		}
+	}
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolData = new DataOutputStream(pool);
+	private int poolSize = 1;
+	private final Map<String, Integer> poolEntries = new HashMap<String, Integer>();
+	private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+	private final DataOutputStream methodData = new DataOutputStream(methods);
+	private int methodCount = 0;
+	private final int thisClass;
+	private final int superClass;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param name
+	 *          internal name of class
+	 * @param superName
+	 *          internal name of super class
+	 */
+	ClassFileWriter(String name, String superName)
+	{
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+	}
+
+	private int entry(String key, int tag, Object... values)
+	{
+		Integer rc = poolEntries.get(key);
+		if (rc != null)
+		{
+			return rc.intValue();
+		}
+		try
+		{
+			poolData.writeByte(tag);
+			for (Object value : values)
+			{
+				if (value instanceof String)
+				{
+					poolData.writeUTF((String) value);
+				}
+				else if (tag == 3)
+				{
+					poolData.writeInt(((Integer) value).intValue());
+				}
+				else
+				{
+					poolData.writeShort(((Integer) value).intValue());
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new IllegalStateException(ex);
+		}
+		poolEntries.put(key, Integer.valueOf(poolSize));
+		return poolSize++;
+	}
+
+	int utf8(String value)
+	{
+		return entry("U" + value, 1, value);
+	}
+
+	int integer(int value)
+	{
+		return entry("I" + value, 3, Integer.valueOf(value));
+	}
+
+	int classRef(String name)
+	{
+		return entry("C" + name, 7, Integer.valueOf(utf8(name)));
+	}
+
+	private int nameAndType(String name, String descriptor)
+	{
+		return entry("N" + name + " " + descriptor, 12, Integer.valueOf(utf8(name)), Integer.valueOf(utf8(descriptor)));
+	}
+
+	int fieldRef(String owner, String name, String descriptor)
+	{
+		return entry("F" + owner + "." + name + " " + descriptor, 9, Integer.valueOf(classRef(owner)),
+				Integer.valueOf(nameAndType(name, descriptor)));
+	}
+
+	int methodRef(String owner, String name, String descriptor)
+	{
+		return entry("M" + owner + "." + name + descriptor, 10, Integer.valueOf(classRef(owner)),
+				Integer.valueOf(nameAndType(name, descriptor)));
+	}
+
+	Code newCode()
+	{
+		return new Code();
+	}
+
+	/**
+	 * add method to class
+	 * 
+	 * @param access
+	 * @param name
+	 * @param descriptor
+	 * @param code
+	 * @param maxStack
+	 * @param maxLocals
+	 */
+	void addMethod(int access, String name, String descriptor, Code code, int maxStack, int maxLocals)
+	{
+		byte body[] = code.toByteArray();
+		int codeAttribute = utf8("Code");
+		try
+		{
+			methodData.writeShort(access);
+			methodData.writeShort(utf8(name));
+			methodData.writeShort(utf8(descriptor));
+			methodData.writeShort(1);
+			methodData.writeShort(codeAttribute);
+			methodData.writeInt(12 + body.length);
+			methodData.writeShort(maxStack);
+			methodData.writeShort(maxLocals);
+			methodData.writeInt(body.length);
+			methodData.write(body);
+			methodData.writeShort(0); // exception table
+			methodData.writeShort(0); // attributes
+		}
+		catch (IOException ex)
+		{
+			throw new IllegalStateException(ex);
+		}
+		methodCount++;
+	}
+
+	/**
+	 * get class file
+	 * 
+	 * @return bytes of class file
+	 */
+	byte[] toByteArray()
+	{
+		ByteArrayOutputStream rc = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(rc);
+		try
+		{
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(poolSize);
+			pool.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(methodCount);
+			methods.writeTo(out);
+			out.writeShort(0); // attributes
+			out.flush();
+		}
+		catch (IOException ex)
+		{
+			throw new IllegalStateException(ex);
+		}
+		return rc.toByteArray();
+	}
+}
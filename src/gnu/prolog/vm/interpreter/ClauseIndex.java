@@ -0,0 +1,262 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.AtomicTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.IntegerTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.term.VariableTerm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the clauses of a predicate on one argument. Atoms and integers are
+ * looked up in the constant table, compound terms by their functor in the
+ * structure table. Clauses with a variable at the indexed position match every
+ * key, clauses with other constants (floats, big integers, ...) are only
+ * selected for keys which cannot be hashed.
+ */
+public class ClauseIndex
+{
+	/** key of head arguments which are not hashed */
+	public static final Object OTHER_KEY = new Object();
+
+	/** empty list of clauses */
+	protected static final int NO_CLAUSES[] = new int[0];
+
+	/** indexed argument */
+	protected final int argument;
+	/** clauses for atoms and integers */
+	protected final Map<AtomicTerm, int[]> constants = new HashMap<AtomicTerm, int[]>();
+	/** clauses for compound terms */
+	protected final Map<CompoundTermTag, int[]> structures = new HashMap<CompoundTermTag, int[]>();
+	/** clauses with variable at indexed position */
+	protected final int variableClauses[];
+	/** clauses which match keys which are not hashed */
+	protected final int otherClauses[];
+	/** average number of clauses selected for hashed key */
+	protected final double averageBucketSize;
+
+	/**
+	 * a constructor
+	 *
+	 * @param argument
+	 *          indexed argument
+	 * @param keys
+	 *          key of each clause as returned by {@link #getKey(Term)}
+	 * @param positions
+	 *          code position of each clause
+	 */
+	public ClauseIndex(int argument, Object keys[], int positions[])
+	{
+		this.argument = argument;
+		Map<Object, List<Integer>> buckets = new HashMap<Object, List<Integer>>();
+		List<Integer> variables = new ArrayList<Integer>();
+		List<Integer> others = new ArrayList<Integer>();
+		for (int i = 0; i < keys.length; i++)
+		{
+			Integer position = Integer.valueOf(positions[i]);
+			Object key = keys[i];
+			if (key == null)
+			{
+				// a variable matches every key
+				for (List<Integer> bucket : buckets.values())
+				{
+					bucket.add(position);
+				}
+				variables.add(position);
+				others.add(position);
+			}
+			else if (key == OTHER_KEY)
+			{
+				others.add(position);
+			}
+			else
+			{
+				List<Integer> bucket = buckets.get(key);
+				if (bucket == null)
+				{
+					bucket = new ArrayList<Integer>(variables);
+					buckets.put(key, bucket);
+				}
+				bucket.add(position);
+			}
+		}
+		long selected = 0;
+		for (Map.Entry<Object, List<Integer>> entry : buckets.entrySet())
+		{
+			selected += entry.getValue().size();
+			if (entry.getKey() instanceof CompoundTermTag)
+			{
+				structures.put((CompoundTermTag) entry.getKey(), toArray(entry.getValue()));
+			}
+			else
+			{
+				constants.put((AtomicTerm) entry.getKey(), toArray(entry.getValue()));
+			}
+		}
+		variableClauses = toArray(variables);
+		otherClauses = toArray(others);
+		averageBucketSize = buckets.isEmpty() ? keys.length : (double) selected / buckets.size();
+	}
+
+	private static int[] toArray(List<Integer> list)
+	{
+		if (list.isEmpty())
+		{
+			return NO_CLAUSES;
+		}
+		int rc[] = new int[list.size()];
+		for (int i = 0; i < rc.length; i++)
+		{
+			rc[i] = list.get(i).intValue();
+		}
+		return rc;
+	}
+
+	/**
+	 * get index key of term
+	 *
+	 * @param term
+	 *          head argument or argument of call
+	 * @return null for variables, the term itself for atoms and integers, the tag
+	 *         for compound terms and {@link #OTHER_KEY} for everything else
+	 */
+	public static Object getKey(Term term)
+	{
+		term = term.dereference();
+		if (term instanceof VariableTerm)
+		{
+			return null;
+		}
+		else if (term instanceof AtomTerm || term instanceof IntegerTerm)
+		{
+			return term;
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			return ((CompoundTerm) term).tag;
+		}
+		return OTHER_KEY;
+	}
+
+	/**
+	 * get index key of first argument of clause head
+	 *
+	 * @param head
+	 *          the head of clause or goal
+	 * @return the key of first argument or null if head has no arguments
+	 */
+	public static Object getFirstKey(Term head)
+	{
+		head = head.dereference();
+		if (head instanceof CompoundTerm)
+		{
+			return getKey(((CompoundTerm) head).args[0]);
+		}
+		return null;
+	}
+
+	/**
+	 * check if terms with given keys could be unified
+	 *
+	 * @param key1
+	 *          the first key, null for variables
+	 * @param key2
+	 *          the second key, null for variables
+	 * @return false if terms with these keys never unify
+	 */
+	public static boolean keysMatch(Object key1, Object key2)
+	{
+		return key1 == null || key2 == null || key1.equals(key2);
+	}
+
+	/**
+	 * get indexed argument
+	 *
+	 * @return the position of indexed argument
+	 */
+	public int getArgument()
+	{
+		return argument;
+	}
+
+	/**
+	 * get clauses which could match the term
+	 *
+	 * @param term
+	 *          dereferenced non variable term
+	 * @return code positions of clauses in source order
+	 */
+	public int[] lookup(Term term)
+	{
+		int rc[];
+		if (term instanceof AtomTerm || term instanceof IntegerTerm)
+		{
+			rc = constants.get(term);
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			rc = structures.get(((CompoundTerm) term).tag);
+		}
+		else
+		{
+			return otherClauses;
+		}
+		return rc == null ? variableClauses : rc;
+	}
+
+	/**
+	 * get estimated memory used by index
+	 * 
+	 * @return estimated size in bytes
+	 */
+	public long getMemoryUsage()
+	{
+		// object headers, hash tables and their entries
+		long rc = 64;
+		rc += 16 + 4L * variableClauses.length + 16 + 4L * otherClauses.length;
+		for (int clauses[] : constants.values())
+		{
+			rc += 48 + 16 + 4L * clauses.length;
+		}
+		for (int clauses[] : structures.values())
+		{
+			rc += 48 + 16 + 4L * clauses.length;
+		}
+		return rc;
+	}
+
+	/** convert index to string */
+	@Override
+	public String toString()
+	{
+		StringBuilder rc = new StringBuilder();
+		rc.append("argument ").append(argument).append(": ");
+		rc.append(constants.size()).append(" constants, ");
+		rc.append(structures.size()).append(" structures, ");
+		rc.append(variableClauses.length).append(" variables");
+		return rc.toString();
+	}
+}
@@ -0,0 +1,94 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologException;
+
+/**
+ * Base class of JVM code generated for {@link InterpretedByteCode} by the
+ * {@link ByteCodeTranslator}. The generated code executes the straight line
+ * parts of a predicate: argument and environment access, term construction,
+ * unification, arithmetic and cut. Calls, returns, choice points and exceptions are left to
+ * the interpreter loop, so the generated code works on the same state as the
+ * interpreter which is passed in a {@link Frame}.
+ */
+public abstract class CompiledByteCode
+{
+	/** constants used by generated code */
+	protected final Term constants[];
+	/** tags used by generated code */
+	protected final CompoundTermTag tags[];
+	/** arithmetic expressions used by generated code */
+	protected final ArithmeticExpression expressions[];
+
+	/**
+	 * a constructor
+	 * 
+	 * @param constants
+	 *          constants used by generated code
+	 * @param tags
+	 *          tags used by generated code
+	 * @param expressions
+	 *          arithmetic expressions used by generated code
+	 */
+	protected CompiledByteCode(Term constants[], CompoundTermTag tags[], ArithmeticExpression expressions[])
+	{
+		this.constants = constants;
+		this.tags = tags;
+		this.expressions = expressions;
+	}
+
+	/**
+	 * execute code starting at frame.position. The arguments, environment and
+	 * pushdown stack are taken from the frame and the environment and pushdown
+	 * stack are stored back when execution stops.
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context code is executed
+	 * @param frame
+	 *          state of the interpreter
+	 * @return position of the next instruction which should be executed by the
+	 *         interpreter, or -1 if the code failed
+	 * @throws PrologException
+	 */
+	public abstract int execute(Interpreter interpreter, Frame frame) throws PrologException;
+
+	/**
+	 * create environment
+	 * 
+	 * @param interpreter
+	 *          interpreter which creates the variables
+	 * @param size
+	 *          size of environment
+	 * @param reserved
+	 *          number of reserved slots which are not initialized
+	 * @return new environment
+	 */
+	public static Term[] allocate(Interpreter interpreter, int size, int reserved)
+	{
+		Term environment[] = new Term[size];
+		for (int i = reserved; i < size; i++)
+		{
+			environment[i] = interpreter.newVariable();
+		}
+		return environment;
+	}
+}
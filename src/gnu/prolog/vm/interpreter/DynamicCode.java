@@ -0,0 +1,756 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.database.ClauseListener;
+import gnu.prolog.database.Module;
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.JavaObjectTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.Environment;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologCode;
+import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.TermConstants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Code of dynamic predicate. The clauses are kept in a store which is updated
+ * when clauses are added or removed, so the code of the predicate is never
+ * recompiled. Every clause is compiled separately when it is first tried,
+ * ground facts are unified directly. Clauses are selected by an index on the
+ * first argument which is also updated incrementally.
+ * 
+ * Calls from interpreted code are executed by the interpreter loop, which runs
+ * the selected clause like called interpreted code, see
+ * {@link #select(Interpreter, DynamicBacktrackInfo)}.
+ * 
+ * A call sees the clauses which the predicate had when the call started
+ * (logical update view). Removed clauses are only marked and the store is
+ * compacted into a new array when it is full or mostly removed clauses, so
+ * running calls keep their view of the old array.
+ */
+public class DynamicCode implements PrologCode, ClauseListener
+{
+	/** functor of compiled clauses */
+	public static final AtomTerm clauseFunctor = AtomTerm.get("$$$clause$$$");
+	/** tag of the goal which marks a cut of clause */
+	public static final CompoundTermTag clauseCutTag = CompoundTermTag.get("$clause_cut", 1);
+
+	/** minimum size of clause store */
+	private static final int MINIMUM_CAPACITY = 8;
+	/** generation of entries which are not removed */
+	private static final int LIVE = Integer.MAX_VALUE;
+
+	/** clause in the store */
+	private static class Entry
+	{
+		Entry(Term clause)
+		{
+			this.clause = clause;
+			CompoundTerm ct = (CompoundTerm) clause;
+			Term head = ct.args[0].dereference();
+			body = ct.args[1].dereference();
+			args = head instanceof CompoundTerm ? ((CompoundTerm) head).args : Predicate_call.termArrayType;
+			key = args.length > 0 ? ClauseIndex.getKey(args[0]) : null;
+			fact = body == TermConstants.trueAtom && isGround(head);
+		}
+
+		/** the clause */
+		final Term clause;
+		/** arguments of head */
+		final Term args[];
+		/** body of clause */
+		final Term body;
+		/** index key of first argument, null for variable */
+		final Object key;
+		/** true if clause is ground fact */
+		final boolean fact;
+		/** compiled clause, null if not compiled yet */
+		volatile InterpretedByteCode code;
+		/** true if compiled clause takes the cut token as last argument */
+		boolean cut;
+		/** generation in which clause was removed */
+		volatile int erased = LIVE;
+	}
+
+	/** ordered positions of clauses in the store */
+	private static class Positions
+	{
+		int data[] = new int[4];
+		int start = 2;
+		int end = 2;
+
+		void addFirst(int position)
+		{
+			if (start == 0)
+			{
+				grow();
+			}
+			data[--start] = position;
+		}
+
+		void addLast(int position)
+		{
+			if (end == data.length)
+			{
+				grow();
+			}
+			data[end++] = position;
+		}
+
+		private void grow()
+		{
+			int size = end - start;
+			int newData[] = new int[size * 2 + 4];
+			int newStart = (newData.length - size) / 2;
+			System.arraycopy(data, start, newData, newStart, size);
+			data = newData;
+			start = newStart;
+			end = newStart + size;
+		}
+	}
+
+	/**
+	 * state of call. When the call is executed by the interpreter loop it is
+	 * the start backtrack info of the clauses, so backtracking into it continues
+	 * with the next clause.
+	 */
+	public static class DynamicBacktrackInfo extends EnterBacktrackInfo
+	{
+		DynamicBacktrackInfo(DynamicCode owner, int undoPosition)
+		{
+			super(undoPosition);
+			this.owner = owner;
+		}
+
+		/** code of predicate */
+		final DynamicCode owner;
+		/** arguments of call */
+		Term args[];
+		/** store at the call */
+		Entry entries[];
+		/** candidate positions in the store, null for all positions */
+		int positions[];
+		/** next candidate */
+		int position;
+		/** end of candidates */
+		int end;
+		/** generation at the call */
+		int generation;
+		/** true if a clause cut the other clauses */
+		boolean cut;
+		/** token which is passed to clauses with cut */
+		Term token;
+		/** code of selected clause */
+		InterpretedByteCode clauseCode;
+		/** arguments of selected clause */
+		Term clauseArgs[];
+		/** true if selected clause could be redone, used when called from Java */
+		boolean redo;
+
+		/**
+		 * get code of predicate
+		 * 
+		 * @return the code
+		 */
+		public DynamicCode getCode()
+		{
+			return owner;
+		}
+
+		/**
+		 * get code of clause selected by {@link DynamicCode#select(Interpreter, DynamicBacktrackInfo)}
+		 * 
+		 * @return the code of clause
+		 */
+		public InterpretedByteCode getClauseCode()
+		{
+			return clauseCode;
+		}
+
+		/**
+		 * get arguments for code of selected clause
+		 * 
+		 * @return the arguments
+		 */
+		public Term[] getClauseArgs()
+		{
+			return clauseArgs;
+		}
+
+		@Override
+		public boolean hasAlternatives()
+		{
+			return !cut && hasCandidate(this);
+		}
+	}
+
+	/** environment in which code is installed */
+	protected Environment environment;
+	/** module of predicate, predicates called by clauses are looked up in it */
+	protected final Module module;
+	/** tag of predicate */
+	protected final CompoundTermTag tag;
+	/** arity of predicate */
+	protected final int arity;
+	/** the store, live clauses are between head and tail */
+	protected Entry entries[];
+	/** position of first clause */
+	protected int head;
+	/** position after last clause */
+	protected int tail;
+	/** number of clauses which are not removed */
+	protected int live;
+	/** incremented on every removal */
+	protected int generation;
+	/** positions of clauses by key of first argument */
+	protected final Map<Object, Positions> buckets = new HashMap<Object, Positions>();
+	/** positions of clauses with variable first argument */
+	protected Positions variables = new Positions();
+	/** entries by clause */
+	protected final Map<Term, Entry> clauseEntries = new IdentityHashMap<Term, Entry>();
+	/** true if some clause was added twice */
+	protected boolean duplicates;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param module
+	 *          module of predicate
+	 * @param tag
+	 *          tag of predicate
+	 * @param clauses
+	 *          current clauses of predicate
+	 */
+	public DynamicCode(Module module, CompoundTermTag tag, List<Term> clauses)
+	{
+		this.module = module;
+		this.tag = tag;
+		arity = tag.arity;
+		int size = clauses.size();
+		entries = new Entry[Math.max(MINIMUM_CAPACITY, size * 2 + 2)];
+		head = tail = (entries.length - size) / 2;
+		synchronized (clauses)
+		{
+			for (Term clause : clauses)
+			{
+				clauseAdded(clause, false);
+			}
+		}
+	}
+
+	public synchronized void clauseAdded(Term clause, boolean first)
+	{
+		Entry entry = new Entry(clause);
+		if (first ? head == 0 : tail == entries.length)
+		{
+			reallocate(live + 1);
+		}
+		int position = first ? --head : tail++;
+		entries[position] = entry;
+		live++;
+		index(entry, position, first);
+		if (clauseEntries.put(clause, entry) != null)
+		{
+			duplicates = true;
+		}
+	}
+
+	public synchronized void clauseRemoved(Term clause)
+	{
+		Entry entry = null;
+		if (duplicates)
+		{
+			// the first live entry of the clause is removed
+			for (int i = head; i < tail; i++)
+			{
+				if (entries[i].clause == clause && entries[i].erased == LIVE)
+				{
+					entry = entries[i];
+					break;
+				}
+			}
+			if (entry != null && clauseEntries.get(clause) == entry)
+			{
+				clauseEntries.remove(clause);
+			}
+		}
+		else
+		{
+			entry = clauseEntries.remove(clause);
+		}
+		if (entry == null)
+		{
+			return;
+		}
+		entry.erased = ++generation;
+		live--;
+		PrologCode code = entry.code;
+		if (code != null && environment != null)
+		{
+			code.uninstall(environment);
+		}
+		if (tail - head - live > live && tail - head >= MINIMUM_CAPACITY)
+		{
+			reallocate(live);
+		}
+	}
+
+	/**
+	 * move live clauses into new store and rebuild index. The old store is not
+	 * changed as running calls could still use it.
+	 * 
+	 * @param size
+	 *          number of clauses to make room for
+	 */
+	private void reallocate(int size)
+	{
+		Entry newEntries[] = new Entry[Math.max(MINIMUM_CAPACITY, size * 2 + 2)];
+		int newHead = (newEntries.length - size) / 2;
+		int newTail = newHead;
+		buckets.clear();
+		variables = new Positions();
+		for (int i = head; i < tail; i++)
+		{
+			Entry entry = entries[i];
+			if (entry.erased == LIVE)
+			{
+				newEntries[newTail] = entry;
+				index(entry, newTail, false);
+				newTail++;
+			}
+		}
+		entries = newEntries;
+		head = newHead;
+		tail = newTail;
+	}
+
+	/** add position of clause to index */
+	private void index(Entry entry, int position, boolean first)
+	{
+		if (arity == 0)
+		{
+			return;
+		}
+		Positions positions;
+		if (entry.key == null)
+		{
+			positions = variables;
+		}
+		else
+		{
+			positions = buckets.get(entry.key);
+			if (positions == null)
+			{
+				positions = new Positions();
+				buckets.put(entry.key, positions);
+			}
+		}
+		if (first)
+		{
+			positions.addFirst(position);
+		}
+		else
+		{
+			positions.addLast(position);
+		}
+	}
+
+	/**
+	 * get live positions of clauses which could match key
+	 * 
+	 * @param key
+	 *          key of first argument
+	 * @return ordered positions
+	 */
+	private int[] select(Object key)
+	{
+		Positions keyed = buckets.get(key);
+		int count = variables.end - variables.start + (keyed == null ? 0 : keyed.end - keyed.start);
+		int rc[] = new int[count];
+		int n = 0;
+		int i = variables.start;
+		int j = keyed == null ? 0 : keyed.start;
+		int jEnd = keyed == null ? 0 : keyed.end;
+		while (i < variables.end || j < jEnd)
+		{
+			int position;
+			if (j == jEnd || i < variables.end && variables.data[i] < keyed.data[j])
+			{
+				position = variables.data[i++];
+			}
+			else
+			{
+				position = keyed.data[j++];
+			}
+			if (entries[position].erased == LIVE)
+			{
+				rc[n++] = position;
+			}
+		}
+		if (n < count)
+		{
+			int tmp[] = new int[n];
+			System.arraycopy(rc, 0, tmp, 0, n);
+			rc = tmp;
+		}
+		return rc;
+	}
+
+	public RC execute(Interpreter interpreter, boolean backtrackMode, Term args[]) throws PrologException
+	{
+		DynamicBacktrackInfo bi;
+		if (backtrackMode)
+		{
+			bi = (DynamicBacktrackInfo) interpreter.popBacktrackInfo();
+			if (bi.redo)
+			{
+				bi.redo = false;
+				RC rc = bi.clauseCode.execute(interpreter, true, bi.clauseArgs);
+				if (rc != RC.FAIL)
+				{
+					return clauseSucceeded(interpreter, bi, rc);
+				}
+			}
+			bi.undo(interpreter);
+		}
+		else
+		{
+			bi = call(interpreter, args.clone());
+		}
+		while (true)
+		{
+			RC rc = select(interpreter, bi);
+			if (rc != null)
+			{
+				return rc;
+			}
+			rc = bi.clauseCode.execute(interpreter, false, bi.clauseArgs);
+			if (rc != RC.FAIL)
+			{
+				return clauseSucceeded(interpreter, bi, rc);
+			}
+			bi.undo(interpreter);
+		}
+	}
+
+	/** return result of call after clause code succeeded */
+	private static RC clauseSucceeded(Interpreter interpreter, DynamicBacktrackInfo bi, RC rc)
+	{
+		if (rc == RC.SUCCESS)
+		{
+			bi.redo = true;
+		}
+		else if (!bi.hasAlternatives())
+		{
+			return RC.SUCCESS_LAST;
+		}
+		interpreter.pushBacktrackInfo(bi);
+		return RC.SUCCESS;
+	}
+
+	/**
+	 * start call of predicate. The call sees the current clauses of predicate.
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context call is executed
+	 * @param args
+	 *          arguments of call
+	 * @return state of call
+	 */
+	public DynamicBacktrackInfo call(Interpreter interpreter, Term args[])
+	{
+		DynamicBacktrackInfo bi = new DynamicBacktrackInfo(this, interpreter.getUndoPosition());
+		Object key = arity > 0 ? ClauseIndex.getKey(args[0]) : null;
+		synchronized (this)
+		{
+			bi.entries = entries;
+			bi.generation = generation;
+			if (key == null || !buckets.containsKey(key) && variables.end - variables.start == tail - head)
+			{
+				// all clauses could match
+				bi.position = head;
+				bi.end = tail;
+			}
+			else
+			{
+				bi.positions = select(key);
+				bi.position = 0;
+				bi.end = bi.positions.length;
+			}
+		}
+		bi.args = args;
+		return bi;
+	}
+
+	/**
+	 * select next clause for call. Ground facts are unified directly, other
+	 * clauses have to be executed by the caller with code and arguments from
+	 * the call state. The state is pushed when fact succeeds and other clauses
+	 * are left.
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context call is executed
+	 * @param bi
+	 *          state of call, bindings of previous clause are undone
+	 * @return result of call if fact was unified or no clause was left, null if
+	 *         clause code has to be executed
+	 * @throws PrologException
+	 */
+	public static RC select(Interpreter interpreter, DynamicBacktrackInfo bi) throws PrologException
+	{
+		if (bi.cut)
+		{
+			return RC.FAIL;
+		}
+		Entry entry;
+		while ((entry = nextCandidate(bi)) != null)
+		{
+			if (!entry.fact)
+			{
+				bi.clauseCode = bi.owner.getCode(entry);
+				Term cargs[] = bi.args;
+				if (entry.cut)
+				{
+					if (bi.token == null)
+					{
+						bi.token = new JavaObjectTerm(bi);
+					}
+					cargs = new Term[cargs.length + 1];
+					System.arraycopy(bi.args, 0, cargs, 0, bi.args.length);
+					cargs[bi.args.length] = bi.token;
+				}
+				bi.clauseArgs = cargs;
+				return null;
+			}
+			if (unify(interpreter, bi.args, entry.args))
+			{
+				if (hasCandidate(bi))
+				{
+					interpreter.pushBacktrackInfo(bi);
+					return RC.SUCCESS;
+				}
+				return RC.SUCCESS_LAST;
+			}
+			bi.undo(interpreter);
+		}
+		return RC.FAIL;
+	}
+
+	/** get next clause which is visible to call */
+	private static Entry nextCandidate(DynamicBacktrackInfo bi)
+	{
+		while (bi.position < bi.end)
+		{
+			Entry entry = bi.entries[bi.positions == null ? bi.position : bi.positions[bi.position]];
+			bi.position++;
+			if (entry.erased > bi.generation)
+			{
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/** check if some clause is left for call and skip clauses before it */
+	private static boolean hasCandidate(DynamicBacktrackInfo bi)
+	{
+		while (bi.position < bi.end)
+		{
+			Entry entry = bi.entries[bi.positions == null ? bi.position : bi.positions[bi.position]];
+			if (entry.erased > bi.generation)
+			{
+				return true;
+			}
+			bi.position++;
+		}
+		return false;
+	}
+
+	/** unify arguments with ground fact, no undo done */
+	private static boolean unify(Interpreter interpreter, Term args[], Term values[]) throws PrologException
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			Term arg = args[i].dereference();
+			Term value = values[i].dereference();
+			if (arg != value && interpreter.simpleUnify(arg, value) == RC.FAIL)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * get compiled clause, the clause is compiled on first use
+	 * 
+	 * @param entry
+	 *          the clause
+	 * @return code of clause
+	 * @throws PrologException
+	 */
+	private InterpretedByteCode getCode(Entry entry) throws PrologException
+	{
+		InterpretedByteCode code = entry.code;
+		if (code == null)
+		{
+			synchronized (this)
+			{
+				code = entry.code;
+				if (code == null)
+				{
+					VariableTerm token = new VariableTerm();
+					Term body = markCuts(entry.body, token);
+					entry.cut = body != entry.body;
+					Term headArgs[] = entry.args;
+					if (entry.cut)
+					{
+						headArgs = new Term[arity + 1];
+						System.arraycopy(entry.args, 0, headArgs, 0, arity);
+						headArgs[arity] = token;
+					}
+					Term head = headArgs.length == 0 ? clauseFunctor : new CompoundTerm(clauseFunctor, headArgs);
+					List<Term> clauses = new ArrayList<Term>(1);
+					clauses.add(new CompoundTerm(TermConstants.clauseTag, head, body));
+					code = (InterpretedByteCode) InterpretedCodeCompiler.compile(environment, module, clauses, true);
+					// the clause is reported as the predicate in call stack
+					code.stackTag = tag;
+					if (environment != null && entry.erased == LIVE)
+					{
+						code.install(environment);
+					}
+					entry.code = code;
+				}
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * mark cuts which cut the clauses of predicate. Such cut is replaced by
+	 * <code>('$clause_cut'(Token), !)</code>. Cuts in conditions and in called
+	 * goals are local to them and are not marked.
+	 * 
+	 * @param body
+	 *          body of clause
+	 * @param token
+	 *          the token of call
+	 * @return the body or the same term if there is no cut to mark
+	 */
+	static Term markCuts(Term body, Term token)
+	{
+		body = body.dereference();
+		if (body == TermConstants.cutAtom)
+		{
+			return new CompoundTerm(TermConstants.conjunctionTag, new CompoundTerm(clauseCutTag, token), body);
+		}
+		if (body instanceof CompoundTerm)
+		{
+			CompoundTerm ct = (CompoundTerm) body;
+			if (ct.tag == TermConstants.conjunctionTag || ct.tag == TermConstants.disjunctionTag)
+			{
+				Term left = markCuts(ct.args[0], token);
+				Term right = markCuts(ct.args[1], token);
+				if (left != ct.args[0] || right != ct.args[1])
+				{
+					return new CompoundTerm(ct.tag, left, right);
+				}
+			}
+			else if (ct.tag == TermConstants.ifTag)
+			{
+				Term then = markCuts(ct.args[1], token);
+				if (then != ct.args[1])
+				{
+					return new CompoundTerm(ct.tag, ct.args[0], then);
+				}
+			}
+		}
+		return body;
+	}
+
+	/**
+	 * cut the clauses which are left for call. It is executed by the goal
+	 * <code>'$clause_cut'(Token)</code> which is added to compiled clauses.
+	 * 
+	 * @param token
+	 *          the token which was passed to clause
+	 */
+	static void cut(Term token)
+	{
+		token = token.dereference();
+		if (token instanceof JavaObjectTerm && ((JavaObjectTerm) token).value instanceof DynamicBacktrackInfo)
+		{
+			((DynamicBacktrackInfo) ((JavaObjectTerm) token).value).cut = true;
+		}
+	}
+
+	/** check if term has no variables */
+	private static boolean isGround(Term term)
+	{
+		term = term.dereference();
+		if (term instanceof VariableTerm)
+		{
+			return false;
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			for (Term arg : ((CompoundTerm) term).args)
+			{
+				if (!isGround(arg))
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	public synchronized void install(Environment env)
+	{
+		environment = env;
+	}
+
+	public synchronized void uninstall(Environment env)
+	{
+		for (int i = head; i < tail; i++)
+		{
+			PrologCode code = entries[i].code;
+			if (code != null)
+			{
+				code.uninstall(env);
+			}
+		}
+		environment = null;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "dynamic code with " + live + " clauses";
+	}
+}
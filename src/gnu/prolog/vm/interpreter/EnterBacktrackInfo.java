@@ -35,4 +35,14 @@ public class EnterBacktrackInfo extends BacktrackInfo
 		super(undoPosition, -1);
 	}
 
+	/**
+	 * check if predicate could continue with other clauses when backtracking
+	 * reaches this info. Such info could not be removed when the code returns.
+	 * 
+	 * @return true if other clauses are left
+	 */
+	public boolean hasAlternatives()
+	{
+		return false;
+	}
 }
@@ -0,0 +1,182 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.database.FactTable;
+import gnu.prolog.term.IntegerTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.BacktrackInfo;
+import gnu.prolog.vm.ExecuteOnlyCode;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologException;
+
+/**
+ * Code of predicate which is stored in a {@link FactTable}. Candidate facts are
+ * taken from the smallest column index of the bound arguments and filtered by
+ * the keys of the other bound arguments before they are unified. No clause
+ * terms are created.
+ */
+public class FactTableCode extends ExecuteOnlyCode
+{
+	/** position in the candidate facts */
+	private static class FactTableBacktrackInfo extends BacktrackInfo
+	{
+		FactTableBacktrackInfo()
+		{
+			super(-1, -1);
+		}
+
+		/** arguments of call */
+		Term args[];
+		/** index keys of arguments, null for unbound arguments */
+		Object keys[];
+		/** candidate facts, null for all facts */
+		int rows[];
+		/** number of candidate facts */
+		int count;
+		/** next candidate */
+		int position;
+		/** undo position at the call */
+		int startUndoPosition;
+	}
+
+	/** the facts */
+	protected final FactTable facts;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param facts
+	 *          the facts
+	 */
+	public FactTableCode(FactTable facts)
+	{
+		this.facts = facts;
+	}
+
+	@Override
+	public RC execute(Interpreter interpreter, boolean backtrackMode, Term args[]) throws PrologException
+	{
+		FactTableBacktrackInfo bi;
+		if (backtrackMode)
+		{
+			bi = (FactTableBacktrackInfo) interpreter.popBacktrackInfo();
+			interpreter.undo(bi.startUndoPosition);
+		}
+		else
+		{
+			int arity = args.length;
+			Object keys[] = new Object[arity];
+			int rows[] = null;
+			for (int i = 0; i < arity; i++)
+			{
+				keys[i] = ClauseIndex.getKey(args[i]);
+				if (keys[i] != null)
+				{
+					int selected[] = facts.getRows(i, keys[i]);
+					if (selected.length == 0)
+					{
+						return RC.FAIL;
+					}
+					if (rows == null || selected.length < rows.length)
+					{
+						rows = selected;
+					}
+				}
+			}
+			bi = new FactTableBacktrackInfo();
+			bi.args = args;
+			bi.keys = keys;
+			bi.rows = rows;
+			bi.count = rows == null ? facts.size() : rows.length;
+			bi.position = 0;
+			bi.startUndoPosition = interpreter.getUndoPosition();
+		}
+		while (bi.position < bi.count)
+		{
+			int row = bi.rows == null ? bi.position : bi.rows[bi.position];
+			bi.position++;
+			if (matches(bi.keys, row) && unify(interpreter, bi.args, row))
+			{
+				while (bi.position < bi.count && !matches(bi.keys, bi.rows == null ? bi.position : bi.rows[bi.position]))
+				{
+					bi.position++;
+				}
+				if (bi.position < bi.count)
+				{
+					interpreter.pushBacktrackInfo(bi);
+					return RC.SUCCESS;
+				}
+				return RC.SUCCESS_LAST;
+			}
+			interpreter.undo(bi.startUndoPosition);
+		}
+		return RC.FAIL;
+	}
+
+	/** check if fact has the keys of the bound arguments */
+	private boolean matches(Object keys[], int row)
+	{
+		for (int i = 0; i < keys.length; i++)
+		{
+			if (keys[i] != null && !facts.hasKey(row, i, keys[i]))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** unify arguments with fact, no undo done */
+	private boolean unify(Interpreter interpreter, Term args[], int row) throws PrologException
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			Term arg = args[i].dereference();
+			if (facts.isIntegerColumn(i))
+			{
+				int value = facts.getInteger(row, i);
+				if (arg instanceof IntegerTerm)
+				{
+					if (((IntegerTerm) arg).value != value)
+					{
+						return false;
+					}
+					continue;
+				}
+				if (!(arg instanceof VariableTerm))
+				{
+					return false;
+				}
+			}
+			Term value = facts.getValue(row, i);
+			if (arg != value && interpreter.simpleUnify(arg, value) == RC.FAIL)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "fact table " + facts.getTag() + " with " + facts.size() + " facts";
+	}
+}
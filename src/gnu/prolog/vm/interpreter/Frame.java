@@ -0,0 +1,75 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.BacktrackInfo;
+
+/**
+ * Saved state of interpreted code which called other interpreted code. Frames
+ * are kept on the {@link FrameStack} of the interpreter instead of on the Java
+ * stack, the state is restored when the called code returns, fails or throws
+ * an exception.
+ */
+public class Frame
+{
+	/** code of the caller */
+	public InterpretedByteCode code;
+	/** arguments of the caller */
+	public Term args[];
+	/** environment of the caller */
+	public Term environment[];
+	/** backtrack info created on entry to the caller */
+	public BacktrackInfo startBacktrackInfo;
+	/** height of backtrack stack on entry to the caller if it is deterministic */
+	public int startHeight;
+	/** backtrack info the caller was redone with or null */
+	public LeaveByteCodeBacktrackInfo leaveBacktrackInfo;
+	/** pushdown stack, only used to pass state to compiled code */
+	public Term pds[];
+	/** start of the part of pushdown stack used by the caller */
+	public int pdsBase;
+	/** size of pushdown stack of the caller */
+	public int pdsSize;
+	/** position of call instruction in the caller */
+	public int position;
+	/** tag of called predicate, it is replaced by the tag of its last call */
+	public CompoundTermTag callTag;
+	/** arguments of call */
+	public Term callArgs[];
+	/** backtrack info of the call if it is redone, null on first call */
+	public CallBacktrackInfo redoBacktrackInfo;
+	/** true if the call was reported to the tracer */
+	public boolean traced;
+
+	/** release references held by frame */
+	public void clear()
+	{
+		code = null;
+		args = null;
+		environment = null;
+		startBacktrackInfo = null;
+		leaveBacktrackInfo = null;
+		pds = null;
+		callTag = null;
+		callArgs = null;
+		redoBacktrackInfo = null;
+		traced = false;
+	}
+}
@@ -0,0 +1,129 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.term.CompoundTermTag;
+
+/**
+ * Stack of {@link Frame}s owned by an interpreter. Frame objects are reused
+ * between calls.
+ */
+public class FrameStack
+{
+	private static final int GROWSIZE = 256;
+
+	private Frame frames[] = new Frame[GROWSIZE];
+	private int size = 0;
+
+	/**
+	 * push frame
+	 * 
+	 * @return cleared frame on top of stack
+	 */
+	public Frame push()
+	{
+		if (size == frames.length)
+		{
+			Frame tmp[] = new Frame[frames.length + GROWSIZE];
+			System.arraycopy(frames, 0, tmp, 0, size);
+			frames = tmp;
+		}
+		Frame rc = frames[size];
+		if (rc == null)
+		{
+			rc = new Frame();
+			frames[size] = rc;
+		}
+		size++;
+		return rc;
+	}
+
+	/**
+	 * pop frame. The caller should clear the frame after it has restored the
+	 * state.
+	 * 
+	 * @return frame which was on top of stack
+	 */
+	public Frame pop()
+	{
+		return frames[--size];
+	}
+
+	/**
+	 * get frame on top of stack
+	 * 
+	 * @return frame which is on top of stack
+	 */
+	public Frame peek()
+	{
+		return frames[size - 1];
+	}
+
+	/**
+	 * get number of frames
+	 * 
+	 * @return the number of frames on stack
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * pop and clear frames until stack has specified size
+	 * 
+	 * @param height
+	 */
+	public void popTo(int height)
+	{
+		while (size > height)
+		{
+			frames[--size].clear();
+		}
+	}
+
+	/**
+	 * get tags of calls which are in progress. The stack is rebuilt from the
+	 * frames, a call which was replaced by last call optimisation is reported as
+	 * the call which replaced it. Calls of builtin and meta predicates are not
+	 * included.
+	 * 
+	 * @return the tags, outermost call first
+	 */
+	public CompoundTermTag[] getCallStack()
+	{
+		int count = 0;
+		for (int i = 0; i < size; i++)
+		{
+			if (frames[i].callTag != null)
+			{
+				count++;
+			}
+		}
+		CompoundTermTag rc[] = new CompoundTermTag[count];
+		count = 0;
+		for (int i = 0; i < size; i++)
+		{
+			if (frames[i].callTag != null)
+			{
+				rc[count++] = frames[i].callTag;
+			}
+		}
+		return rc;
+	}
+}
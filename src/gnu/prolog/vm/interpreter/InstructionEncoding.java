@@ -0,0 +1,64 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+/**
+ * The encodings of the instructions of {@link InterpretedByteCode} which can be
+ * executed by the interpreter. The encoding is chosen when the
+ * {@link gnu.prolog.vm.Environment Environment} is created.
+ */
+public enum InstructionEncoding
+{
+	/**
+	 * instructions are kept in byte array only, the operands are decoded each
+	 * time an instruction is executed
+	 */
+	BYTES,
+	/**
+	 * each byte of code has an int slot, the opcode is in the slot of the
+	 * instruction and the operands are decoded to the following slots when code
+	 * is installed, jump targets keep their code positions
+	 */
+	PREDECODED;
+
+	/**
+	 * system property with the name of the encoding used if none is specified
+	 * when the environment is created, PREDECODED if it is not set or unknown
+	 */
+	public static final String INSTRUCTION_ENCODING_PROPERTY = "gnu.prolog.instructionEncoding";
+
+	/**
+	 * @return the encoding used if none is specified when the environment is
+	 *         created.
+	 */
+	public static InstructionEncoding getDefault()
+	{
+		String name = System.getProperty(INSTRUCTION_ENCODING_PROPERTY);
+		if (name != null)
+		{
+			for (InstructionEncoding encoding : values())
+			{
+				if (encoding.name().equalsIgnoreCase(name.trim()))
+				{
+					return encoding;
+				}
+			}
+		}
+		return PREDECODED;
+	}
+}
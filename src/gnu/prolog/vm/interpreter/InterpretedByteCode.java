@@ -17,30 +17,42 @@
  */
 package gnu.prolog.vm.interpreter;
 
+import gnu.prolog.database.Module;
 import gnu.prolog.database.Pair;
 import gnu.prolog.io.TermWriter;
+import gnu.prolog.term.AtomTerm;
 import gnu.prolog.term.AtomicTerm;
 import gnu.prolog.term.CompoundTerm;
 import gnu.prolog.term.CompoundTermTag;
-import gnu.prolog.term.JavaObjectTerm;
+import gnu.prolog.term.IntegerTerm;
 import gnu.prolog.term.Term;
+import gnu.prolog.term.TermComparator;
 import gnu.prolog.term.VariableTerm;
 import gnu.prolog.vm.BacktrackInfo;
+import gnu.prolog.vm.DeterministicCode;
 import gnu.prolog.vm.Environment;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologCode;
 import gnu.prolog.vm.PrologCodeListener;
 import gnu.prolog.vm.PrologCodeUpdatedEvent;
 import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.TermConstants;
 import gnu.prolog.vm.interpreter.Tracer.TraceLevel;
 import gnu.prolog.vm.interpreter.instruction.IAllocate;
 import gnu.prolog.vm.interpreter.instruction.ICall;
+import gnu.prolog.vm.interpreter.instruction.ICompare;
 import gnu.prolog.vm.interpreter.instruction.ICreateCompoundTerm;
 import gnu.prolog.vm.interpreter.instruction.ICreateVariable;
 import gnu.prolog.vm.interpreter.instruction.ICut;
 import gnu.prolog.vm.interpreter.instruction.IDup;
+import gnu.prolog.vm.interpreter.instruction.IEvaluate;
 import gnu.prolog.vm.interpreter.instruction.IFail;
+import gnu.prolog.vm.interpreter.instruction.IGetConstant;
+import gnu.prolog.vm.interpreter.instruction.IGetList;
+import gnu.prolog.vm.interpreter.instruction.IGetStructure;
+import gnu.prolog.vm.interpreter.instruction.IIdentical;
 import gnu.prolog.vm.interpreter.instruction.IJump;
+import gnu.prolog.vm.interpreter.instruction.INewVariable;
 import gnu.prolog.vm.interpreter.instruction.IPop;
 import gnu.prolog.vm.interpreter.instruction.IPushArgument;
 import gnu.prolog.vm.interpreter.instruction.IPushConstant;
@@ -49,18 +61,27 @@ import gnu.prolog.vm.interpreter.instruction.IRetryMeElse;
 import gnu.prolog.vm.interpreter.instruction.IReturn;
 import gnu.prolog.vm.interpreter.instruction.ISaveCut;
 import gnu.prolog.vm.interpreter.instruction.IStoreEnvironment;
+import gnu.prolog.vm.interpreter.instruction.ISwitchOnTerm;
 import gnu.prolog.vm.interpreter.instruction.IThrow;
 import gnu.prolog.vm.interpreter.instruction.ITrue;
 import gnu.prolog.vm.interpreter.instruction.ITrustMe;
 import gnu.prolog.vm.interpreter.instruction.ITryMeElse;
+import gnu.prolog.vm.interpreter.instruction.ITypeTest;
 import gnu.prolog.vm.interpreter.instruction.IUnify;
+import gnu.prolog.vm.interpreter.instruction.IUnifyValue;
+import gnu.prolog.vm.interpreter.instruction.IUnifyVariable;
 import gnu.prolog.vm.interpreter.instruction.Instruction;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Interpreted Code. This class is used by call_term instruction and
@@ -70,16 +91,84 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 {
 	/** tag of this code */
 	protected CompoundTermTag codeTag;
+	/** tag reported in call stack, null for goals of meta predicates */
+	protected CompoundTermTag stackTag;
 	/** tags used by code */
 	protected CompoundTermTag tags[];
 	/** constants used by code */
 	protected AtomicTerm constants[];
 	/** predicate codes used by code */
 	protected PrologCode predicateCodes[];
+	/**
+	 * modules of module qualified calls for each predicate code, null for
+	 * unqualified calls
+	 */
+	protected AtomTerm callModules[];
+	/** modules in which listeners of module qualified calls are registered */
+	private Module listenedModules[];
+	/** module in which listeners of this code and unqualified calls are registered */
+	private Module installedModule;
+	/**
+	 * module in which predicates of unqualified calls are looked up, null for the
+	 * module of the interpreter
+	 */
+	protected Module module;
 	/** set of instructions */
 	protected byte instructions[];
+	/** instructions with decoded operands, null until decoded */
+	protected volatile int decodedInstructions[];
 	/** set of exception handlers */
 	protected ExceptionHandlerInfo exceptionHandlers[];
+	/** clause indexes used by switch_on_term instructions */
+	protected SwitchTable switchTables[];
+	/** expressions used by evaluate and compare instructions */
+	protected ArithmeticExpression expressions[];
+	/** source instructions, kept until code is compiled */
+	protected Instruction source[];
+	/** code position of each source instruction */
+	protected int sourcePositions[];
+	/** JVM code generated for hot code, null while code is interpreted */
+	private volatile CompiledByteCode compiledCode;
+	/** error which prevented compilation to JVM code, null if there was none */
+	private volatile Throwable compileFailure;
+	/** true if code was replaced and must not be compiled anymore */
+	private volatile boolean discarded;
+	/** true if code was compiled with all optimisations, false for baseline code */
+	protected final boolean optimized;
+	/** number of source instructions */
+	protected final int instructionCount;
+	/** number of source instructions before peephole optimisation */
+	protected final int unoptimizedInstructionCount;
+	/** environment in which code is installed */
+	private Environment environment;
+	/** number of times code was entered */
+	private int callCount;
+	/** number of times code was reentered on backtracking */
+	private int backtrackCount;
+	/** true once hot code was promoted or queued for compilation */
+	private final AtomicBoolean hot = new AtomicBoolean();
+	/**
+	 * calls which must be {@link DeterministicCode} for this code to leave no
+	 * choice points, null if code is not deterministic
+	 */
+	protected CompoundTermTag deterministicCalls[];
+	/** 1 if code is deterministic, -1 if it is not, 0 if it is not checked yet */
+	private volatile int determinism;
+
+	/**
+	 * system property with the number of calls and redos after which baseline
+	 * code is recompiled with all optimisations, 0 or less to always compile
+	 * with all optimisations
+	 */
+	public static final String PROMOTE_THRESHOLD_PROPERTY = "gnu.prolog.promoteThreshold";
+	/**
+	 * system property with the number of calls and redos after which optimized
+	 * code is compiled to JVM code, 0 or less to disable compilation
+	 */
+	public static final String COMPILE_THRESHOLD_PROPERTY = "gnu.prolog.compileThreshold";
+
+	private static final int PROMOTE_THRESHOLD = Integer.getInteger(PROMOTE_THRESHOLD_PROPERTY, 50).intValue();
+	private static final int COMPILE_THRESHOLD = Integer.getInteger(COMPILE_THRESHOLD_PROPERTY, 1000).intValue();
 
 	/**
 	 * constructor of code
@@ -89,12 +178,74 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 	 * @param ehs
 	 */
 	protected InterpretedByteCode(CompoundTermTag codeTag, Instruction isrc[], ExceptionHandlerInfo ehs[])
+	{
+		this(codeTag, isrc, ehs, true);
+	}
+
+	/**
+	 * constructor of code
+	 * 
+	 * @param codeTag
+	 * @param isrc
+	 * @param ehs
+	 * @param optimized
+	 *          true if code was compiled with all optimisations
+	 */
+	protected InterpretedByteCode(CompoundTermTag codeTag, Instruction isrc[], ExceptionHandlerInfo ehs[],
+			boolean optimized)
+	{
+		this(codeTag, isrc, ehs, optimized, null);
+	}
+
+	/**
+	 * constructor of code
+	 * 
+	 * @param codeTag
+	 * @param isrc
+	 * @param ehs
+	 * @param optimized
+	 *          true if code was compiled with all optimisations
+	 * @param deterministicCalls
+	 *          calls which must be deterministic for this code to leave no
+	 *          choice points, null if code is not deterministic
+	 */
+	protected InterpretedByteCode(CompoundTermTag codeTag, Instruction isrc[], ExceptionHandlerInfo ehs[],
+			boolean optimized, CompoundTermTag deterministicCalls[])
+	{
+		this(codeTag, isrc, ehs, optimized, deterministicCalls, isrc.length);
+	}
+
+	/**
+	 * constructor of code
+	 * 
+	 * @param codeTag
+	 * @param isrc
+	 * @param ehs
+	 * @param optimized
+	 *          true if code was compiled with all optimisations
+	 * @param deterministicCalls
+	 *          calls which must be deterministic for this code to leave no
+	 *          choice points, null if code is not deterministic
+	 * @param unoptimizedInstructionCount
+	 *          number of instructions before peephole optimisation
+	 */
+	protected InterpretedByteCode(CompoundTermTag codeTag, Instruction isrc[], ExceptionHandlerInfo ehs[],
+			boolean optimized, CompoundTermTag deterministicCalls[], int unoptimizedInstructionCount)
 	{
 		this.codeTag = codeTag;
+		if (codeTag != null && codeTag.functor != Predicate_call.headFunctor)
+		{
+			stackTag = codeTag;
+		}
+		this.optimized = optimized;
+		this.deterministicCalls = deterministicCalls;
+		this.instructionCount = isrc.length;
+		this.unoptimizedInstructionCount = unoptimizedInstructionCount;
 		int ipos[] = new int[isrc.length];
 		Map<CompoundTermTag, Integer> tag2idx = new HashMap<CompoundTermTag, Integer>();
+		Map<ICall, Integer> qualifiedCall2idx = new IdentityHashMap<ICall, Integer>();
 		Map<AtomicTerm, Integer> constant2idx = new HashMap<AtomicTerm, Integer>();
-		pass1(isrc, ipos, tag2idx, constant2idx);
+		pass1(isrc, ipos, tag2idx, qualifiedCall2idx, constant2idx);
 		exceptionHandlers = new ExceptionHandlerInfo[ehs.length];
 		int i, n = ehs.length;
 		for (i = 0; i < n; i++)
@@ -104,13 +255,232 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 			exceptionHandlers[i].endPosition = ipos[ehs[i].endPosition];
 			exceptionHandlers[i].handlerPosition = ipos[ehs[i].handlerPosition];
 		}
-		pass2(isrc, ipos, tag2idx, constant2idx);
+		pass2(isrc, ipos, tag2idx, qualifiedCall2idx, constant2idx);
+		if (optimized && COMPILE_THRESHOLD > 0)
+		{
+			source = isrc;
+			sourcePositions = ipos;
+		}
+	}
+
+	/**
+	 * check if user defined predicates are first compiled to baseline code
+	 * 
+	 * @return true if baseline code is promoted when it becomes hot
+	 */
+	public static boolean isTiered()
+	{
+		return PROMOTE_THRESHOLD > 0;
+	}
+
+	/**
+	 * count entry to code
+	 * 
+	 * @throws PrologException
+	 */
+	private void countCall() throws PrologException
+	{
+		callCount++;
+		checkHot();
+	}
+
+	/**
+	 * count reentry to code on backtracking
+	 * 
+	 * @throws PrologException
+	 */
+	private void countRedo() throws PrologException
+	{
+		backtrackCount++;
+		checkHot();
+	}
+
+	/**
+	 * promote baseline code or queue optimized code for compilation to JVM code
+	 * when it becomes hot
+	 * 
+	 * @throws PrologException
+	 */
+	private void checkHot() throws PrologException
+	{
+		// the counters are updated without synchronization by all threads running
+		// the code and may skip values, the flag makes sure it is done once
+		int count = callCount + backtrackCount;
+		if (optimized)
+		{
+			if (COMPILE_THRESHOLD > 0 && count >= COMPILE_THRESHOLD && !discarded && becomeHot())
+			{
+				BackgroundCompiler.submit(this);
+			}
+		}
+		else if (isTiered() && count >= PROMOTE_THRESHOLD && environment != null && !discarded && becomeHot())
+		{
+			environment.promotePrologCode(module != null ? module : environment.getModule(), codeTag, this);
+		}
+	}
+
+	/**
+	 * mark code as hot
+	 * 
+	 * @return true if code was not hot before
+	 */
+	private boolean becomeHot()
+	{
+		return !hot.get() && hot.compareAndSet(false, true);
+	}
+
+	/**
+	 * check if code never leaves choice points. Such code is executed without
+	 * start backtrack info and returns without leave backtrack info.
+	 * 
+	 * @return true if code is deterministic
+	 * @throws PrologException
+	 */
+	boolean isDeterministic() throws PrologException
+	{
+		int rc = determinism;
+		if (rc == 0)
+		{
+			rc = 1;
+			if (deterministicCalls == null || environment == null || discarded)
+			{
+				rc = -1;
+			}
+			else
+			{
+				Module lookup = module != null ? module : environment.getModule();
+				for (CompoundTermTag tag : deterministicCalls)
+				{
+					if (!(environment.getPrologCode(lookup, tag) instanceof DeterministicCode))
+					{
+						rc = -1;
+						break;
+					}
+				}
+			}
+			determinism = rc;
+		}
+		return rc > 0;
+	}
+
+	/**
+	 * get number of times code was entered
+	 * 
+	 * @return the call count
+	 */
+	public int getCallCount()
+	{
+		return callCount;
+	}
+
+	/**
+	 * get number of times code was reentered on backtracking
+	 * 
+	 * @return the backtrack count
+	 */
+	public int getBacktrackCount()
+	{
+		return backtrackCount;
+	}
+
+	/**
+	 * check if code was compiled with all optimisations
+	 * 
+	 * @return false for baseline code
+	 */
+	public boolean isOptimized()
+	{
+		return optimized;
+	}
+
+	/**
+	 * get number of instructions the code was encoded from
+	 * 
+	 * @return number of instructions
+	 */
+	public int getInstructionCount()
+	{
+		return instructionCount;
+	}
+
+	/**
+	 * get number of instructions before the code was optimised by
+	 * {@link PeepholeOptimizer}
+	 * 
+	 * @return number of instructions before peephole optimisation
+	 */
+	public int getUnoptimizedInstructionCount()
+	{
+		return unoptimizedInstructionCount;
+	}
+
+	/**
+	 * get translator of code to JVM code
+	 * 
+	 * @return translator or null if code cannot be compiled
+	 */
+	synchronized ByteCodeTranslator getTranslator()
+	{
+		if (source == null || discarded)
+		{
+			return null;
+		}
+		return new ByteCodeTranslator(this, source, sourcePositions);
+	}
+
+	/**
+	 * set compiled code
+	 * 
+	 * @param code
+	 *          compiled code or null if code could not be compiled
+	 */
+	synchronized void setCompiledCode(CompiledByteCode code)
+	{
+		source = null;
+		sourcePositions = null;
+		compiledCode = code;
+		if (discarded)
+		{
+			compiledCode = null;
+		}
+	}
+
+	/**
+	 * record why code could not be compiled, the code stays interpreted
+	 * 
+	 * @param ex
+	 *          error raised by translation or loading of the generated class
+	 */
+	void setCompileFailure(Throwable ex)
+	{
+		compileFailure = ex;
+	}
+
+	/**
+	 * get the error which prevented compilation to JVM code
+	 * 
+	 * @return the error or null if code was compiled or was not tried yet
+	 */
+	public Throwable getCompileFailure()
+	{
+		return compileFailure;
+	}
+
+	/**
+	 * check if code is compiled to JVM code
+	 * 
+	 * @return true if code is compiled
+	 */
+	public boolean isCompiled()
+	{
+		return compiledCode != null;
 	}
 
 	protected void pass1(Instruction isrc[], int ipos[], Map<CompoundTermTag, Integer> tag2idx,
-			Map<AtomicTerm, Integer> constant2idx)
+			Map<ICall, Integer> qualifiedCall2idx, Map<AtomicTerm, Integer> constant2idx)
 	{
 		Set<CompoundTermTag> callTags = new HashSet<CompoundTermTag>();
+		List<ICall> qualifiedCalls = new ArrayList<ICall>();
 		Set<CompoundTermTag> createCompoundTermTags = new HashSet<CompoundTermTag>();
 		Set<AtomicTerm> constantSet = new HashSet<AtomicTerm>();
 
@@ -126,7 +496,14 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 			else if (isrc[i] instanceof ICall)
 			{
 				ICall ii = (ICall) isrc[i];
-				callTags.add(ii.tag);
+				if (ii.module != null)
+				{
+					qualifiedCalls.add(ii);
+				}
+				else
+				{
+					callTags.add(ii.tag);
+				}
 				ipos[i] = bytes;
 				bytes += 3;
 			}
@@ -204,6 +581,11 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 				ipos[i] = bytes;
 				bytes += 3;
 			}
+			else if (isrc[i] instanceof ISwitchOnTerm)
+			{
+				ipos[i] = bytes;
+				bytes += 7;
+			}
 			else if (isrc[i] instanceof IThrow)
 			{
 				ipos[i] = bytes;
@@ -229,10 +611,58 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 				ipos[i] = bytes;
 				bytes++;
 			}
+			else if (isrc[i] instanceof IGetConstant)
+			{
+				IGetConstant ii = (IGetConstant) isrc[i];
+				constantSet.add(ii.term);
+				ipos[i] = bytes;
+				bytes += 3;
+			}
+			else if (isrc[i] instanceof IGetStructure)
+			{
+				IGetStructure ii = (IGetStructure) isrc[i];
+				createCompoundTermTags.add(ii.tag);
+				ipos[i] = bytes;
+				bytes += 7;
+			}
+			else if (isrc[i] instanceof IGetList)
+			{
+				ipos[i] = bytes;
+				bytes += 5;
+			}
+			else if (isrc[i] instanceof IUnifyVariable)
+			{
+				ipos[i] = bytes;
+				bytes += 3;
+			}
+			else if (isrc[i] instanceof IUnifyValue)
+			{
+				ipos[i] = bytes;
+				bytes += 3;
+			}
+			else if (isrc[i] instanceof IEvaluate || isrc[i] instanceof ICompare)
+			{
+				ipos[i] = bytes;
+				bytes += 3;
+			}
+			else if (isrc[i] instanceof ITypeTest || isrc[i] instanceof IIdentical)
+			{
+				ipos[i] = bytes;
+				bytes += 3;
+			}
+			else if (isrc[i] instanceof INewVariable)
+			{
+				ipos[i] = bytes;
+				bytes += 3;
+			}
 		}
 		createCompoundTermTags.removeAll(callTags);
-		tags = new CompoundTermTag[createCompoundTermTags.size() + callTags.size()];
-		predicateCodes = new PrologCode[callTags.size()];
+		// each module qualified call has its own predicate code
+		int calls = callTags.size() + qualifiedCalls.size();
+		tags = new CompoundTermTag[createCompoundTermTags.size() + calls];
+		predicateCodes = new PrologCode[calls];
+		callModules = new AtomTerm[calls];
+		listenedModules = new Module[calls];
 		Iterator<CompoundTermTag> j = callTags.iterator();
 		int k = 0;
 		for (; j.hasNext(); k++)
@@ -241,6 +671,12 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 			tags[k] = tag;
 			tag2idx.put(tag, Integer.valueOf(k));
 		}
+		for (ICall call : qualifiedCalls)
+		{
+			tags[k] = call.tag;
+			callModules[k] = call.module;
+			qualifiedCall2idx.put(call, Integer.valueOf(k++));
+		}
 		j = createCompoundTermTags.iterator();
 		for (; j.hasNext(); k++)
 		{
@@ -260,10 +696,12 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 	}
 
 	protected void pass2(Instruction isrc[], int ipos[], Map<CompoundTermTag, Integer> tag2idx,
-			Map<AtomicTerm, Integer> constant2idx)
+			Map<ICall, Integer> qualifiedCall2idx, Map<AtomicTerm, Integer> constant2idx)
 	{
 		int bytes = 0;
 		int i, n = isrc.length;
+		List<SwitchTable> indexes = new ArrayList<SwitchTable>();
+		List<ArithmeticExpression> arithmetic = new ArrayList<ArithmeticExpression>();
 		for (i = 0; i < n; i++)
 		{
 			if (isrc[i] instanceof IAllocate)
@@ -278,7 +716,7 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 			else if (isrc[i] instanceof ICall)
 			{
 				ICall ii = (ICall) isrc[i];
-				int idx = (tag2idx.get(ii.tag)).intValue();
+				int idx = (ii.module != null ? qualifiedCall2idx.get(ii) : tag2idx.get(ii.tag)).intValue();
 				instructions[bytes++] = (byte) ICALL;
 				instructions[bytes++] = (byte) (idx >> 8 & 255);
 				instructions[bytes++] = (byte) (idx & 255);
@@ -372,6 +810,24 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 				instructions[bytes++] = (byte) (ii.environmentIndex >> 8 & 255);
 				instructions[bytes++] = (byte) (ii.environmentIndex & 255);
 			}
+			else if (isrc[i] instanceof ISwitchOnTerm)
+			{
+				ISwitchOnTerm ii = (ISwitchOnTerm) isrc[i];
+				int positions[] = new int[ii.clausePositions.length];
+				for (int j = 0; j < positions.length; j++)
+				{
+					positions[j] = ipos[ii.clausePositions[j]];
+				}
+				int idx = indexes.size();
+				indexes.add(new SwitchTable(ii.clauseKeys, positions));
+				instructions[bytes++] = (byte) ISWITCH_ON_TERM;
+				instructions[bytes++] = (byte) (idx >> 8 & 255);
+				instructions[bytes++] = (byte) (idx & 255);
+				instructions[bytes++] = (byte) (ipos[ii.variablePosition] >> 24 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.variablePosition] >> 16 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.variablePosition] >> 8 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.variablePosition] & 255);
+			}
 			else if (isrc[i] instanceof IThrow)
 			{
 				instructions[bytes++] = (byte) ITHROW;
@@ -397,7 +853,91 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 			{
 				instructions[bytes++] = (byte) IUNIFY;
 			}
+			else if (isrc[i] instanceof IGetConstant)
+			{
+				IGetConstant ii = (IGetConstant) isrc[i];
+				int idx = (constant2idx.get(ii.term)).intValue();
+				instructions[bytes++] = (byte) IGET_CONSTANT;
+				instructions[bytes++] = (byte) (idx >> 8 & 255);
+				instructions[bytes++] = (byte) (idx & 255);
+			}
+			else if (isrc[i] instanceof IGetStructure)
+			{
+				IGetStructure ii = (IGetStructure) isrc[i];
+				int idx = (tag2idx.get(ii.tag)).intValue();
+				instructions[bytes++] = (byte) IGET_STRUCTURE;
+				instructions[bytes++] = (byte) (idx >> 8 & 255);
+				instructions[bytes++] = (byte) (idx & 255);
+				instructions[bytes++] = (byte) (ipos[ii.writePosition] >> 24 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.writePosition] >> 16 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.writePosition] >> 8 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.writePosition] & 255);
+			}
+			else if (isrc[i] instanceof IGetList)
+			{
+				IGetList ii = (IGetList) isrc[i];
+				instructions[bytes++] = (byte) IGET_LIST;
+				instructions[bytes++] = (byte) (ipos[ii.writePosition] >> 24 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.writePosition] >> 16 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.writePosition] >> 8 & 255);
+				instructions[bytes++] = (byte) (ipos[ii.writePosition] & 255);
+			}
+			else if (isrc[i] instanceof IUnifyVariable)
+			{
+				IUnifyVariable ii = (IUnifyVariable) isrc[i];
+				instructions[bytes++] = (byte) IUNIFY_VARIABLE;
+				instructions[bytes++] = (byte) (ii.environmentIndex >> 8 & 255);
+				instructions[bytes++] = (byte) (ii.environmentIndex & 255);
+			}
+			else if (isrc[i] instanceof IUnifyValue)
+			{
+				IUnifyValue ii = (IUnifyValue) isrc[i];
+				instructions[bytes++] = (byte) IUNIFY_VALUE;
+				instructions[bytes++] = (byte) (ii.environmentIndex >> 8 & 255);
+				instructions[bytes++] = (byte) (ii.environmentIndex & 255);
+			}
+			else if (isrc[i] instanceof IEvaluate)
+			{
+				IEvaluate ii = (IEvaluate) isrc[i];
+				int idx = arithmetic.size();
+				arithmetic.add(ii.expression);
+				instructions[bytes++] = (byte) IEVALUATE;
+				instructions[bytes++] = (byte) (idx >> 8 & 255);
+				instructions[bytes++] = (byte) (idx & 255);
+			}
+			else if (isrc[i] instanceof ICompare)
+			{
+				ICompare ii = (ICompare) isrc[i];
+				int idx = arithmetic.size();
+				arithmetic.add(ii.comparison);
+				instructions[bytes++] = (byte) ICOMPARE;
+				instructions[bytes++] = (byte) (idx >> 8 & 255);
+				instructions[bytes++] = (byte) (idx & 255);
+			}
+			else if (isrc[i] instanceof ITypeTest)
+			{
+				ITypeTest ii = (ITypeTest) isrc[i];
+				instructions[bytes++] = (byte) ITYPE_TEST;
+				instructions[bytes++] = (byte) (ii.test >> 8 & 255);
+				instructions[bytes++] = (byte) (ii.test & 255);
+			}
+			else if (isrc[i] instanceof IIdentical)
+			{
+				IIdentical ii = (IIdentical) isrc[i];
+				instructions[bytes++] = (byte) IIDENTICAL;
+				instructions[bytes++] = 0;
+				instructions[bytes++] = (byte) (ii.identical ? 1 : 0);
+			}
+			else if (isrc[i] instanceof INewVariable)
+			{
+				INewVariable ii = (INewVariable) isrc[i];
+				instructions[bytes++] = (byte) INEW_VARIABLE;
+				instructions[bytes++] = (byte) (ii.environmentIndex >> 8 & 255);
+				instructions[bytes++] = (byte) (ii.environmentIndex & 255);
+			}
 		}
+		switchTables = indexes.toArray(new SwitchTable[indexes.size()]);
+		expressions = arithmetic.toArray(new ArithmeticExpression[arithmetic.size()]);
 		// System.out.print("ssz = "+isrc.length+" sz = "+instructions.length+" code = ");
 		// for (i=0;i<instructions.length;i++)
 		// {
@@ -408,48 +948,1114 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 	}
 
 	/**
-	 * this method is used for execution of code
+	 * decode instructions for {@link InstructionEncoding#PREDECODED} encoding
 	 * 
-	 * @param interpreter
-	 *          interpreter in which context code is executed
-	 * @param backtrackMode
-	 *          true if predicate is called on backtracking and false otherwise
-	 * @param args
-	 *          arguments of code
-	 * @return either RC.SUCCESS, RC.SUCCESS_LAST, or RC.FAIL.
+	 * @return decoded instructions, there is an int for each byte of code, the
+	 *         opcode is at the position of instruction and its operands follow
 	 */
-	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[]) throws PrologException
+	protected int[] decode()
 	{
-
+		int rc[] = new int[instructions.length];
+		int position = 0;
+		while (position < instructions.length)
+		{
+			int instr = instructions[position] & 255;
+			rc[position] = instr;
+			int operand = position + 1;
+			int next = position + 1;
+			for (int size : OPERAND_SIZES[instr])
+			{
+				rc[operand++] = size == 2 ? get16(instructions, next) : get32(instructions, next);
+				next += size;
+			}
+			position = next;
+		}
+		return rc;
+	}
+
+	/**
+	 * get decoded instructions, code that was not decoded on installation is
+	 * decoded on its first execution by the decoded interpreter loop
+	 * 
+	 * @return decoded instructions
+	 */
+	protected int[] getDecodedInstructions()
+	{
+		int rc[] = decodedInstructions;
+		if (rc == null)
+		{
+			rc = decode();
+			decodedInstructions = rc;
+		}
+		return rc;
+	}
+
+	/**
+	 * read unsigned 16 bit operand
+	 * 
+	 * @param instructions
+	 * @param position
+	 *          position of operand
+	 * @return value of operand
+	 */
+	private static int get16(byte instructions[], int position)
+	{
+		return ((instructions[position] & 255) << 8) + (instructions[position + 1] & 255);
+	}
+
+	/**
+	 * read 32 bit operand
+	 * 
+	 * @param instructions
+	 * @param position
+	 *          position of operand
+	 * @return value of operand
+	 */
+	private static int get32(byte instructions[], int position)
+	{
+		return ((instructions[position] & 255) << 24) + ((instructions[position + 1] & 255) << 16)
+				+ ((instructions[position + 2] & 255) << 8) + (instructions[position + 3] & 255);
+	}
+
+	/**
+	 * this method is used for execution of code. Calls to other interpreted code
+	 * do not recurse on the Java stack, the state of the caller is saved in a
+	 * {@link Frame} on the {@link FrameStack} of the interpreter and the callee is
+	 * executed by the same loop. A call which is the last goal of deterministic
+	 * code replaces the caller instead (last call optimisation).
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context code is executed
+	 * @param backtrackMode
+	 *          true if predicate is called on backtracking and false otherwise
+	 * @param args
+	 *          arguments of code
+	 * @return either RC.SUCCESS, RC.SUCCESS_LAST, or RC.FAIL.
+	 */
+	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[]) throws PrologException
+	{
+		FrameStack frames = interpreter.getFrameStack();
+		// the entry of this activation in the call stack
+		frames.push();
+		int base = frames.size();
+		int top = interpreter.getPushDownTop();
+		try
+		{
+			if (interpreter.getEnvironment().getInstructionEncoding() == InstructionEncoding.PREDECODED)
+			{
+				return runDecoded(interpreter, frames, base, backtrackMode, args);
+			}
+			return runBytes(interpreter, frames, base, backtrackMode, args);
+		}
+		finally
+		{
+			frames.popTo(base - 1);
+			interpreter.setPushDownTop(top);
+		}
+	}
+
+	/**
+	 * interpreter loop for {@link InstructionEncoding#PREDECODED} code, operands
+	 * are read from the decoded instructions
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context code is executed
+	 * @param frames
+	 *          frame stack of interpreter
+	 * @param base
+	 *          size of frame stack on entry, including the entry of this
+	 *          activation
+	 * @param backtrackMode
+	 *          true if predicate is called on backtracking and false otherwise
+	 * @param args
+	 *          arguments of code
+	 * @return either RC.SUCCESS, RC.SUCCESS_LAST, or RC.FAIL.
+	 * @throws PrologException
+	 */
+	private RC runDecoded(Interpreter interpreter, FrameStack frames, int base, boolean backtrackMode, Term args[])
+			throws PrologException
+	{
+		Tracer tracer = interpreter.getTracer();
+		InterpretedByteCode self; // code being executed
+		int decoded[];
+		Term environment[] = null;
+		BacktrackInfo startBacktrackInfo = null; // null for deterministic code
+		int startHeight = 0; // backtrack stack height on entry to deterministic code
+		int currentPosition = 0;
+		LeaveByteCodeBacktrackInfo bi = null;
+		BacktrackInfo cur_bi = null;
+		Frame state = null; // state passed to compiled code
+		Term pds[] = interpreter.getPushDown(); // shared pushdown stack
+		int pdsBase = interpreter.getPushDownTop(); // start of stack of code
+		int pdsSize = pdsBase;
+		int pdsMaxSize = pds.length;
+
+		if (backtrackMode) // if redo, restore execution state
+		{
+			BacktrackInfo lbi = interpreter.popBacktrackInfo();
+			if (!(lbi instanceof LeaveByteCodeBacktrackInfo))
+			{
+				PrologException.systemError();
+			}
+			bi = (LeaveByteCodeBacktrackInfo) lbi;
+			self = bi.code;
+			args = bi.args;
+			environment = bi.environment;
+			startBacktrackInfo = bi.startBacktrackInfo;
+			self.countRedo();
+		}
+		else
+		// else create new execution state
+		{
+			self = this;
+			startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+			interpreter.pushBacktrackInfo(startBacktrackInfo);
+			countCall();
+		}
+		frames.peek().callTag = self.stackTag;
+		decoded = self.getDecodedInstructions();
+
+		interpreter_loop: while (true) // interpreter loop
+		{
+			try
+			{
+				try
+				{
+					if (backtrackMode)
+					{
+						if (startBacktrackInfo == null)
+						{
+							// deterministic code fails to calling code once its own choice
+							// points are exhausted, the caller undoes the bindings
+							cur_bi = interpreter.popBacktrackInfoAbove(startHeight);
+						}
+						else
+						{
+							cur_bi = interpreter.popBacktrackInfo();
+						}
+						if (cur_bi != null)
+						{
+							cur_bi.undo(interpreter);
+						}
+						if (cur_bi instanceof DynamicCode.DynamicBacktrackInfo)
+						{
+							// clause of dynamic predicate failed, try next clause
+							DynamicCode.DynamicBacktrackInfo dynamic = (DynamicCode.DynamicBacktrackInfo) cur_bi;
+							RC rc = DynamicCode.select(interpreter, dynamic);
+							if (rc == null)
+							{
+								interpreter.pushBacktrackInfo(dynamic);
+								self = dynamic.getClauseCode();
+								self.countCall();
+								decoded = self.getDecodedInstructions();
+								args = dynamic.getClauseArgs();
+								environment = null;
+								bi = null;
+								Arrays.fill(pds, pdsBase, pdsSize, null);
+								pdsSize = pdsBase;
+								currentPosition = 0;
+								backtrackMode = false;
+								continue interpreter_loop;
+							}
+							if (rc != RC.FAIL)
+							{
+								// fact succeeded, return to calling code
+								Frame frame = frames.pop();
+								if (frame.traced)
+								{
+									tracer.decreaseDepth();
+								}
+								self = frame.code;
+								decoded = self.getDecodedInstructions();
+								args = frame.args;
+								environment = frame.environment;
+								startBacktrackInfo = frame.startBacktrackInfo;
+								startHeight = frame.startHeight;
+								bi = frame.leaveBacktrackInfo;
+								Arrays.fill(pds, frame.pdsSize, pdsSize, null);
+								pdsBase = frame.pdsBase;
+								pdsSize = frame.pdsSize;
+								currentPosition = frame.position;
+								backtrackMode = callCompleted(interpreter, rc, frame.callTag, frame.callArgs, dynamic.getCode(), null,
+										currentPosition, frame.traced);
+								frame.clear();
+								currentPosition += 3;
+								continue interpreter_loop;
+							}
+						}
+						if (cur_bi == null || cur_bi instanceof EnterBacktrackInfo)
+						{
+							if (frames.size() == base)
+							{
+								Arrays.fill(pds, pdsBase, pdsSize, null);
+								return RC.FAIL;
+							}
+							// return failure to calling code
+							Frame frame = frames.pop();
+							self = frame.code;
+							decoded = self.getDecodedInstructions();
+							args = frame.args;
+							environment = frame.environment;
+							startBacktrackInfo = frame.startBacktrackInfo;
+							startHeight = frame.startHeight;
+							bi = frame.leaveBacktrackInfo;
+							Arrays.fill(pds, frame.pdsSize, pdsSize, null);
+							pdsBase = frame.pdsBase;
+							pdsSize = frame.pdsSize;
+							currentPosition = frame.position;
+							if (frame.traced)
+							{
+								tracer.decreaseDepth();
+								tracer.traceEvent(TraceLevel.FAIL, interpreter, frame.callTag, frame.callArgs);
+							}
+							frame.clear();
+							continue interpreter_loop;
+						}
+						else
+						{
+							currentPosition = cur_bi.codePosition;
+						}
+					}
+
+					else
+					{
+						CompiledByteCode compiled = self.compiledCode;
+						if (compiled != null)
+						{
+							if (state == null)
+							{
+								state = new Frame();
+							}
+							state.args = args;
+							state.environment = environment;
+							state.pds = pds;
+							state.pdsSize = pdsSize;
+							state.position = currentPosition;
+							try
+							{
+								currentPosition = compiled.execute(interpreter, state);
+							}
+							finally
+							{
+								environment = state.environment;
+								pds = state.pds;
+								pdsSize = state.pdsSize;
+								pdsMaxSize = pds.length;
+							}
+							if (currentPosition == -1)
+							{
+								backtrackMode = true;
+								continue interpreter_loop;
+							}
+						}
+					}
+
+					int instr = decoded[currentPosition];
+					// System.err.println("code = "+self.codeTag+" bmode = "+backtrackMode+" instr = "+self.getIntruction(currentPosition));
+					switch (instr)
+					{
+						case IALLOCATE:
+						{
+							int sz = decoded[currentPosition + 1];
+							int rs = decoded[currentPosition + 2];
+							environment = new Term[sz];
+							for (int i = rs; i < sz; i++)
+							{
+								environment[i] = interpreter.newVariable();
+							}
+							currentPosition += 5;
+							continue interpreter_loop;
+						}
+						case ICALL:
+						{
+							PrologCode code;
+							Term cargs[];
+							CompoundTermTag tag;
+							boolean registers = false; // arguments are in reused array
+							DynamicCode.DynamicBacktrackInfo dynamic = null; // call of dynamic predicate
+							RC rc = null;
+							// tracer bookkeeping is only done for calls made while tracing is
+							// active, so tracing could be switched on and off during execution
+							boolean traced = tracer.isActive();
+
+							if (backtrackMode)
+							{
+								CallBacktrackInfo cbi = (CallBacktrackInfo) cur_bi;
+								code = cbi.code;
+								cargs = cbi.args;
+								tag = cbi.tag;
+								if (traced)
+								{
+									tracer.traceEvent(TraceLevel.REDO, interpreter, tag, cargs);
+								}
+								if (code instanceof InterpretedByteCode)
+								{
+									// redo interpreted code in this loop
+									Frame frame = frames.push();
+									frame.code = self;
+									frame.args = args;
+									frame.environment = environment;
+									frame.startBacktrackInfo = startBacktrackInfo;
+									frame.startHeight = startHeight;
+									frame.leaveBacktrackInfo = bi;
+									frame.pdsBase = pdsBase;
+									frame.pdsSize = pdsSize;
+									frame.position = currentPosition;
+									frame.callTag = tag;
+									frame.callArgs = cargs;
+									frame.redoBacktrackInfo = cbi;
+									frame.traced = traced;
+									BacktrackInfo lbi = interpreter.popBacktrackInfo();
+									if (!(lbi instanceof LeaveByteCodeBacktrackInfo))
+									{
+										PrologException.systemError();
+									}
+									bi = (LeaveByteCodeBacktrackInfo) lbi;
+									self = bi.code;
+									self.countRedo();
+									decoded = self.getDecodedInstructions();
+									args = bi.args;
+									environment = bi.environment;
+									startBacktrackInfo = bi.startBacktrackInfo;
+									pdsBase = pdsSize;
+									continue interpreter_loop;
+								}
+								if (code instanceof DynamicCode)
+								{
+									// a fact succeeded, continue with next clause
+									dynamic = (DynamicCode.DynamicBacktrackInfo) interpreter.popBacktrackInfo();
+									dynamic.undo(interpreter);
+								}
+							}
+							else
+							{
+								int cd = decoded[currentPosition + 1];
+								tag = self.tags[cd];
+								int arity = tag.arity;
+								code = self.predicateCodes[cd];
+								if (code == null)
+								{
+									code = self.getPredicateCode(interpreter, cd);
+								}
+								registers = code instanceof DeterministicCode && !traced;
+								cargs = registers ? interpreter.getArgumentRegisters(arity) : new Term[arity];
+								for (int i = arity - 1; i >= 0; i--)
+								{
+									cargs[i] = pds[--pdsSize].dereference(); // pop argument from
+									// stack
+									pds[pdsSize] = null;
+								}
+								if (traced)
+								{
+									tracer.traceEvent(TraceLevel.CALL, interpreter, tag, cargs);
+								}
+								if (code instanceof DynamicCode)
+								{
+									dynamic = ((DynamicCode) code).call(interpreter, cargs);
+								}
+							}
+							int next = decoded[currentPosition + 3];
+							Term codeArgs[] = cargs;
+							if (dynamic != null)
+							{
+								if (!backtrackMode && startBacktrackInfo == null && next == IRETURN)
+								{
+									// choice points of last call are kept for the caller
+									startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+									interpreter.pushBacktrackInfo(startBacktrackInfo);
+								}
+								rc = DynamicCode.select(interpreter, dynamic);
+								if (rc == null)
+								{
+									// clause is executed like called interpreted code
+									code = dynamic.getClauseCode();
+									codeArgs = dynamic.getClauseArgs();
+								}
+							}
+							if (rc == null && code instanceof InterpretedByteCode)
+							{
+								InterpretedByteCode callee = (InterpretedByteCode) code;
+								// other clauses of dynamic predicate are tried when backtracking
+								// reaches start backtrack info of the clause
+								EnterBacktrackInfo enter = dynamic != null && dynamic.hasAlternatives() ? dynamic : null;
+								if (!backtrackMode
+										&& (enter == null || frames.size() > base
+												&& (startBacktrackInfo == null || !((EnterBacktrackInfo) startBacktrackInfo).hasAlternatives()))
+										&& pdsSize == pdsBase
+										&& next == IRETURN
+										&& (startBacktrackInfo != null ? startBacktrackInfo == interpreter.peekBacktrackInfo()
+												: interpreter.getBacktrackInfoHeight() == startHeight) && !traced
+										&& self.getHandlerPosition(currentPosition) == -1)
+								{
+									// last call of deterministic code, the called code replaces
+									// this one and reuses its start backtrack info and call stack
+									// entry
+									frames.peek().callTag = tag;
+									if (enter != null)
+									{
+										// the start backtrack info is replaced by the one of the clause
+										if (startBacktrackInfo != null)
+										{
+											interpreter.popBacktrackInfo();
+										}
+										startBacktrackInfo = enter;
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+									else if (startBacktrackInfo == null && !callee.isDeterministic())
+									{
+										// called code could leave choice points
+										startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+								}
+								else
+								{
+									if (startBacktrackInfo == null && next == IRETURN)
+									{
+										// choice points of last call are kept for the caller
+										startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+									Frame frame = frames.push();
+									frame.code = self;
+									frame.args = args;
+									frame.environment = environment;
+									frame.startBacktrackInfo = startBacktrackInfo;
+									frame.startHeight = startHeight;
+									frame.leaveBacktrackInfo = bi;
+									frame.pdsBase = pdsBase;
+									frame.pdsSize = pdsSize;
+									frame.position = currentPosition;
+									frame.callTag = tag;
+									frame.callArgs = cargs;
+									frame.traced = traced;
+									if (enter != null)
+									{
+										startBacktrackInfo = enter;
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+									else if (callee.isDeterministic() && !traced)
+									{
+										// deterministic code needs no start backtrack info
+										startBacktrackInfo = null;
+										startHeight = interpreter.getBacktrackInfoHeight();
+									}
+									else
+									{
+										startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+									pdsBase = pdsSize;
+								}
+								self = callee;
+								self.countCall();
+								decoded = self.getDecodedInstructions();
+								args = codeArgs;
+								environment = null;
+								bi = null;
+								backtrackMode = false;
+								currentPosition = 0;
+								continue interpreter_loop;
+							}
+							if (!backtrackMode && startBacktrackInfo == null && next == IRETURN
+									&& !(code instanceof DeterministicCode))
+							{
+								// choice points of last call are kept for the caller
+								startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+								interpreter.pushBacktrackInfo(startBacktrackInfo);
+							}
+							if (rc == null)
+							{
+								interpreter.setPushDownTop(pdsSize);
+								try
+								{
+									rc = code.execute(interpreter, backtrackMode, cargs);
+								}
+								finally
+								{
+									if (traced)
+									{
+										tracer.decreaseDepth();
+									}
+									// nested execution might have grown the pushdown stack
+									pds = interpreter.getPushDown();
+									pdsMaxSize = pds.length;
+								}
+							}
+							else if (traced)
+							{
+								tracer.decreaseDepth();
+							}
+							backtrackMode = callCompleted(interpreter, rc, tag, cargs, code, backtrackMode ? cur_bi : null,
+									currentPosition, traced);
+							if (registers)
+							{
+								Arrays.fill(cargs, null);
+							}
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case ICREATE_COMPOUND:
+						{
+							int tg = decoded[currentPosition + 1];
+							CompoundTermTag tag = self.tags[tg];
+							int arity = tag.arity;
+							Term targs[] = new Term[arity];
+							for (int i = arity - 1; i >= 0; i--)
+							{
+								targs[i] = pds[--pdsSize].dereference(); // pop argument from
+								// stack
+								pds[pdsSize] = null;
+							}
+							pds[pdsSize++] = new CompoundTerm(tag, targs);
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case ICREATE_VARIABLE:
+						{
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							pds[pdsSize++] = interpreter.newVariable();
+							currentPosition++;
+							continue interpreter_loop;
+						}
+						case ICUT:
+						{
+							int ep = decoded[currentPosition + 1];
+							int height = ((IntegerTerm) environment[ep]).value;
+							// cleanup goals of removed backtrack infos are executed on top
+							interpreter.setPushDownTop(pdsSize);
+							interpreter.cut(height);
+							pds = interpreter.getPushDown();
+							pdsMaxSize = pds.length;
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case IDUP:
+						{
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							Term tmp1 = pds[pdsSize - 1];
+							pds[pdsSize++] = tmp1;
+							currentPosition++;
+							continue interpreter_loop;
+						}
+						case IFAIL:
+						{
+							backtrackMode = true;
+							continue interpreter_loop;
+						}
+						case IJUMP:
+						{
+							int jp = decoded[currentPosition + 1];
+							currentPosition = jp;
+							continue interpreter_loop;
+						}
+						case IPOP:
+						{
+							pds[--pdsSize] = null;
+							currentPosition++;
+							continue interpreter_loop;
+						}
+						case IPUSH_ARGUMENT:
+						{
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							int ar = decoded[currentPosition + 1];
+							pds[pdsSize++] = args[ar];
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case IPUSH_CONSTANT:
+						{
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							int cp = decoded[currentPosition + 1];
+							pds[pdsSize++] = self.constants[cp];
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case IPUSH_ENVIRONMENT:
+						{
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							int ep = decoded[currentPosition + 1];
+							pds[pdsSize++] = environment[ep];
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case IRETRY_ME_ELSE:
+						{
+							int rp = decoded[currentPosition + 1];
+							cur_bi.codePosition = rp;
+							interpreter.pushBacktrackInfo(cur_bi);
+							currentPosition += 5;
+							backtrackMode = false;
+							continue interpreter_loop;
+						}
+						case IRETURN:
+						{
+							RC rc;
+							if (startBacktrackInfo == null)
+							{
+								// deterministic code does not leave choice points
+								rc = RC.SUCCESS_LAST;
+							}
+							else if (startBacktrackInfo == interpreter.peekBacktrackInfo()
+									&& !((EnterBacktrackInfo) startBacktrackInfo).hasAlternatives())
+							{
+								// code cannot be rexecuted
+								interpreter.popBacktrackInfo();
+								rc = RC.SUCCESS_LAST;
+							}
+							else
+							{
+								LeaveByteCodeBacktrackInfo lbi;
+								if (bi != null)
+								{
+									lbi = bi;
+									lbi.code = self;
+									lbi.args = args;
+								}
+								else
+								{
+									lbi = new LeaveByteCodeBacktrackInfo(self, args, environment, startBacktrackInfo);
+								}
+								interpreter.pushBacktrackInfo(lbi);
+								rc = RC.SUCCESS;
+							}
+							if (frames.size() == base)
+							{
+								return rc;
+							}
+							// return to calling code
+							InterpretedByteCode code = self;
+							Frame frame = frames.pop();
+							if (frame.traced)
+							{
+								tracer.decreaseDepth();
+							}
+							self = frame.code;
+							decoded = self.getDecodedInstructions();
+							args = frame.args;
+							environment = frame.environment;
+							startBacktrackInfo = frame.startBacktrackInfo;
+							startHeight = frame.startHeight;
+							bi = frame.leaveBacktrackInfo;
+							pdsBase = frame.pdsBase;
+							pdsSize = frame.pdsSize;
+							currentPosition = frame.position;
+							backtrackMode = callCompleted(interpreter, rc, frame.callTag, frame.callArgs, code,
+									frame.redoBacktrackInfo, currentPosition, frame.traced);
+							frame.clear();
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case ISAVE_CUT:
+						{
+							int ep = decoded[currentPosition + 1];
+							// cut barrier is the height of backtrack stack
+							environment[ep] = IntegerTerm.get(interpreter.getCutBarrier());
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case ISTORE_ENVIRONMENT:
+						{
+							int ep = decoded[currentPosition + 1];
+							Term t = pds[--pdsSize]; // pop argument from stack
+							pds[pdsSize] = null;
+							environment[ep] = t;
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case ISWITCH_ON_TERM:
+						{
+							if (backtrackMode)
+							{
+								// try next clause selected by index
+								SwitchBacktrackInfo sbi = (SwitchBacktrackInfo) cur_bi;
+								currentPosition = sbi.alternatives[sbi.next++];
+								if (sbi.next < sbi.alternatives.length)
+								{
+									interpreter.pushBacktrackInfo(sbi);
+								}
+								backtrackMode = false;
+								continue interpreter_loop;
+							}
+							int si = decoded[currentPosition + 1];
+							int alternatives[] = self.switchTables[si].select(args);
+							if (alternatives == null)
+							{
+								currentPosition = decoded[currentPosition + 2];
+								continue interpreter_loop;
+							}
+							switch (alternatives.length)
+							{
+								case 0:
+									backtrackMode = true;
+									continue interpreter_loop;
+								case 1:
+									// deterministic selection, no choice point is needed
+									currentPosition = alternatives[0];
+									continue interpreter_loop;
+								default:
+									interpreter.pushBacktrackInfo(new SwitchBacktrackInfo(interpreter.getUndoPosition(), currentPosition,
+											alternatives));
+									currentPosition = alternatives[0];
+									continue interpreter_loop;
+							}
+						}
+						case ITHROW:
+						{
+							Term t = pds[--pdsSize].dereference(); // pop argument from stack
+							pds[pdsSize] = null;
+							if (t instanceof VariableTerm)
+							{
+								PrologException.instantiationError(t);
+							}
+							throw new PrologException(t, null);
+						}
+						case ITRUE:
+						{
+							currentPosition++;
+							continue interpreter_loop;
+						}
+						case ITRUST_ME:
+						{
+							currentPosition++;
+							backtrackMode = false;
+							continue interpreter_loop;
+						}
+						case ITRY_ME_ELSE:
+						{
+							int rp = decoded[currentPosition + 1];
+							cur_bi = new BacktrackInfo(interpreter.getUndoPosition(), rp);
+							interpreter.pushBacktrackInfo(cur_bi);
+							currentPosition += 5;
+							cur_bi = null;
+							continue interpreter_loop;
+						}
+						case IUNIFY:
+						{
+							Term t1 = pds[--pdsSize].dereference(); // pop argument from stack
+							pds[pdsSize] = null;
+							Term t0 = pds[--pdsSize].dereference(); // pop argument from stack
+							pds[pdsSize] = null;
+							RC rc = interpreter.simpleUnify(t0, t1);
+							if (rc == RC.FAIL)
+							{
+								backtrackMode = true;
+							}
+							else
+							{
+								currentPosition++;
+							}
+							continue interpreter_loop;
+						}
+						case IGET_CONSTANT:
+						{
+							Term t = pds[--pdsSize].dereference(); // pop argument from stack
+							pds[pdsSize] = null;
+							int cp = decoded[currentPosition + 1];
+							AtomicTerm c = self.constants[cp];
+							if (t != c && interpreter.simpleUnify(t, c) == RC.FAIL)
+							{
+								backtrackMode = true;
+							}
+							else
+							{
+								currentPosition += 3;
+							}
+							continue interpreter_loop;
+						}
+						case IGET_STRUCTURE:
+						case IGET_LIST:
+						{
+							Term t = pds[--pdsSize].dereference(); // pop argument from stack
+							CompoundTermTag tag;
+							int wp; // write position
+							int np; // next position
+							if (instr == IGET_LIST)
+							{
+								tag = TermConstants.listTag;
+								wp = decoded[currentPosition + 1];
+								np = currentPosition + 5;
+							}
+							else
+							{
+								tag = self.tags[decoded[currentPosition + 1]];
+								wp = decoded[currentPosition + 2];
+								np = currentPosition + 7;
+							}
+							if (t instanceof CompoundTerm && ((CompoundTerm) t).tag == tag)
+							{
+								// read mode, match arguments without creating terms
+								Term targs[] = ((CompoundTerm) t).args;
+								if (pdsSize + targs.length > pdsMaxSize)
+								{
+									pds = interpreter.ensurePushDownCapacity(pdsSize + targs.length);
+									pdsMaxSize = pds.length;
+								}
+								for (int i = targs.length - 1; i >= 0; i--)
+								{
+									pds[pdsSize++] = targs[i];
+								}
+								currentPosition = np;
+							}
+							else if (t instanceof VariableTerm)
+							{
+								// write mode, create the structure
+								pds[pdsSize++] = t;
+								currentPosition = wp;
+							}
+							else
+							{
+								pds[pdsSize] = null;
+								backtrackMode = true;
+							}
+							continue interpreter_loop;
+						}
+						case IUNIFY_VARIABLE:
+						{
+							int ep = decoded[currentPosition + 1];
+							environment[ep] = pds[--pdsSize];
+							pds[pdsSize] = null;
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case IUNIFY_VALUE:
+						{
+							Term t = pds[--pdsSize].dereference(); // pop argument from stack
+							pds[pdsSize] = null;
+							int ep = decoded[currentPosition + 1];
+							if (interpreter.simpleUnify(environment[ep].dereference(), t) == RC.FAIL)
+							{
+								backtrackMode = true;
+							}
+							else
+							{
+								currentPosition += 3;
+							}
+							continue interpreter_loop;
+						}
+						case IEVALUATE:
+						{
+							int ei = decoded[currentPosition + 1];
+							Term t = self.expressions[ei].evaluate(interpreter, environment, args);
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							pds[pdsSize++] = t;
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case ICOMPARE:
+						{
+							int ei = decoded[currentPosition + 1];
+							if (self.expressions[ei].compare(interpreter, environment, args))
+							{
+								currentPosition += 3;
+							}
+							else
+							{
+								backtrackMode = true;
+							}
+							continue interpreter_loop;
+						}
+						case ITYPE_TEST:
+						{
+							int test = decoded[currentPosition + 1];
+							Term t = pds[--pdsSize];
+							pds[pdsSize] = null;
+							if (ITypeTest.test(test, t))
+							{
+								currentPosition += 3;
+							}
+							else
+							{
+								backtrackMode = true;
+							}
+							continue interpreter_loop;
+						}
+						case INEW_VARIABLE:
+						{
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							int ep = decoded[currentPosition + 1];
+							Term t = interpreter.newVariable();
+							environment[ep] = t;
+							pds[pdsSize++] = t;
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case IIDENTICAL:
+						{
+							int identical = decoded[currentPosition + 1];
+							Term t1 = pds[--pdsSize];
+							pds[pdsSize] = null;
+							Term t0 = pds[--pdsSize];
+							pds[pdsSize] = null;
+							if (TermComparator.identical(t0, t1) == (identical != 0))
+							{
+								currentPosition += 3;
+							}
+							else
+							{
+								backtrackMode = true;
+							}
+							continue interpreter_loop;
+						}
+						default:
+							PrologException.systemError();
+					}
+				}
+				catch (RuntimeException ex)
+				{
+					// unchecked exception behaves as system_error
+					ex.printStackTrace();// TODO incorporate this into a proper debugging
+					// framework
+					PrologException.systemError(ex);
+				}
+			}
+			catch (PrologException ex)
+			{
+				backtrackMode = false;
+				while (true)
+				{
+					int handlerPosition = self.getHandlerPosition(currentPosition);
+					if (handlerPosition != -1)
+					{
+						if (pdsSize == pdsMaxSize)
+						{
+							pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+							pdsMaxSize = pds.length;
+						}
+						pds[pdsSize++] = ex.getTerm();
+						currentPosition = handlerPosition;
+						continue interpreter_loop;
+					}
+					// no handler was found
+					interpreter.setPushDownTop(pdsSize);
+					if (startBacktrackInfo == null)
+					{
+						interpreter.popBacktrackInfoTo(startHeight);
+					}
+					else
+					{
+						interpreter.popBacktrackInfoUntil(startBacktrackInfo);
+						cur_bi = interpreter.popBacktrackInfo();
+						cur_bi.undo(interpreter);
+					}
+					pds = interpreter.getPushDown();
+					pdsMaxSize = pds.length;
+					if (frames.size() == base)
+					{
+						Arrays.fill(pds, pdsBase, pdsSize, null);
+						throw ex;
+					}
+					// pass exception to calling code
+					Frame frame = frames.pop();
+					if (frame.traced)
+					{
+						tracer.decreaseDepth();
+					}
+					self = frame.code;
+					decoded = self.getDecodedInstructions();
+					args = frame.args;
+					environment = frame.environment;
+					startBacktrackInfo = frame.startBacktrackInfo;
+					startHeight = frame.startHeight;
+					bi = frame.leaveBacktrackInfo;
+					Arrays.fill(pds, frame.pdsSize, pdsSize, null);
+					pdsBase = frame.pdsBase;
+					pdsSize = frame.pdsSize;
+					currentPosition = frame.position;
+					frame.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * interpreter loop for {@link InstructionEncoding#BYTES} code, operands are
+	 * decoded from the instruction bytes
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context code is executed
+	 * @param frames
+	 *          frame stack of interpreter
+	 * @param base
+	 *          size of frame stack on entry, including the entry of this
+	 *          activation
+	 * @param backtrackMode
+	 *          true if predicate is called on backtracking and false otherwise
+	 * @param args
+	 *          arguments of code
+	 * @return either RC.SUCCESS, RC.SUCCESS_LAST, or RC.FAIL.
+	 * @throws PrologException
+	 */
+	private RC runBytes(Interpreter interpreter, FrameStack frames, int base, boolean backtrackMode, Term args[])
+			throws PrologException
+	{
+		Tracer tracer = interpreter.getTracer();
+		InterpretedByteCode self; // code being executed
+		byte instructions[];
 		Term environment[] = null;
-		BacktrackInfo currentBacktrackInfo = null;
-		BacktrackInfo startBacktrackInfo = null;
-		int currentPosition;
-		BacktrackInfo bi = backtrackMode ? interpreter.popBacktrackInfo() : null;
+		BacktrackInfo startBacktrackInfo = null; // null for deterministic code
+		int startHeight = 0; // backtrack stack height on entry to deterministic code
+		int currentPosition = 0;
+		LeaveByteCodeBacktrackInfo bi = null;
 		BacktrackInfo cur_bi = null;
-		Term pds[] = new Term[16];
-		int pdsSize = 0;
+		Frame state = null; // state passed to compiled code
+		Term pds[] = interpreter.getPushDown(); // shared pushdown stack
+		int pdsBase = interpreter.getPushDownTop(); // start of stack of code
+		int pdsSize = pdsBase;
 		int pdsMaxSize = pds.length;
-		final int pdsInc = 16;
 
-		if (bi != null) // if redo, restore execution state
+		if (backtrackMode) // if redo, restore execution state
 		{
-			if (!(bi instanceof LeaveByteCodeBacktrackInfo))
+			BacktrackInfo lbi = interpreter.popBacktrackInfo();
+			if (!(lbi instanceof LeaveByteCodeBacktrackInfo))
 			{
 				PrologException.systemError();
 			}
-			LeaveByteCodeBacktrackInfo lbi = (LeaveByteCodeBacktrackInfo) bi;
-			environment = lbi.environment;
-			startBacktrackInfo = lbi.startBacktrackInfo;
-			currentPosition = 0; // fake assignment in order to fool compiler
+			bi = (LeaveByteCodeBacktrackInfo) lbi;
+			self = bi.code;
+			args = bi.args;
+			environment = bi.environment;
+			startBacktrackInfo = bi.startBacktrackInfo;
+			self.countRedo();
 		}
 		else
 		// else create new execution state
 		{
+			self = this;
 			startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
 			interpreter.pushBacktrackInfo(startBacktrackInfo);
-			currentPosition = 0;
+			countCall();
 		}
+		frames.peek().callTag = self.stackTag;
+		instructions = self.instructions;
 
 		interpreter_loop: while (true) // interpreter loop
 		{
@@ -459,11 +2065,93 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 				{
 					if (backtrackMode)
 					{
-						cur_bi = interpreter.popBacktrackInfo();
-						cur_bi.undo(interpreter);
-						if (cur_bi instanceof EnterBacktrackInfo)
+						if (startBacktrackInfo == null)
+						{
+							// deterministic code fails to calling code once its own choice
+							// points are exhausted, the caller undoes the bindings
+							cur_bi = interpreter.popBacktrackInfoAbove(startHeight);
+						}
+						else
+						{
+							cur_bi = interpreter.popBacktrackInfo();
+						}
+						if (cur_bi != null)
+						{
+							cur_bi.undo(interpreter);
+						}
+						if (cur_bi instanceof DynamicCode.DynamicBacktrackInfo)
 						{
-							return RC.FAIL;
+							// clause of dynamic predicate failed, try next clause
+							DynamicCode.DynamicBacktrackInfo dynamic = (DynamicCode.DynamicBacktrackInfo) cur_bi;
+							RC rc = DynamicCode.select(interpreter, dynamic);
+							if (rc == null)
+							{
+								interpreter.pushBacktrackInfo(dynamic);
+								self = dynamic.getClauseCode();
+								self.countCall();
+								instructions = self.instructions;
+								args = dynamic.getClauseArgs();
+								environment = null;
+								bi = null;
+								Arrays.fill(pds, pdsBase, pdsSize, null);
+								pdsSize = pdsBase;
+								currentPosition = 0;
+								backtrackMode = false;
+								continue interpreter_loop;
+							}
+							if (rc != RC.FAIL)
+							{
+								// fact succeeded, return to calling code
+								Frame frame = frames.pop();
+								if (frame.traced)
+								{
+									tracer.decreaseDepth();
+								}
+								self = frame.code;
+								instructions = self.instructions;
+								args = frame.args;
+								environment = frame.environment;
+								startBacktrackInfo = frame.startBacktrackInfo;
+								startHeight = frame.startHeight;
+								bi = frame.leaveBacktrackInfo;
+								Arrays.fill(pds, frame.pdsSize, pdsSize, null);
+								pdsBase = frame.pdsBase;
+								pdsSize = frame.pdsSize;
+								currentPosition = frame.position;
+								backtrackMode = callCompleted(interpreter, rc, frame.callTag, frame.callArgs, dynamic.getCode(), null,
+										currentPosition, frame.traced);
+								frame.clear();
+								currentPosition += 3;
+								continue interpreter_loop;
+							}
+						}
+						if (cur_bi == null || cur_bi instanceof EnterBacktrackInfo)
+						{
+							if (frames.size() == base)
+							{
+								Arrays.fill(pds, pdsBase, pdsSize, null);
+								return RC.FAIL;
+							}
+							// return failure to calling code
+							Frame frame = frames.pop();
+							self = frame.code;
+							instructions = self.instructions;
+							args = frame.args;
+							environment = frame.environment;
+							startBacktrackInfo = frame.startBacktrackInfo;
+							startHeight = frame.startHeight;
+							bi = frame.leaveBacktrackInfo;
+							Arrays.fill(pds, frame.pdsSize, pdsSize, null);
+							pdsBase = frame.pdsBase;
+							pdsSize = frame.pdsSize;
+							currentPosition = frame.position;
+							if (frame.traced)
+							{
+								tracer.decreaseDepth();
+								tracer.traceEvent(TraceLevel.FAIL, interpreter, frame.callTag, frame.callArgs);
+							}
+							frame.clear();
+							continue interpreter_loop;
 						}
 						else
 						{
@@ -471,18 +2159,51 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						}
 					}
 
+					else
+					{
+						CompiledByteCode compiled = self.compiledCode;
+						if (compiled != null)
+						{
+							if (state == null)
+							{
+								state = new Frame();
+							}
+							state.args = args;
+							state.environment = environment;
+							state.pds = pds;
+							state.pdsSize = pdsSize;
+							state.position = currentPosition;
+							try
+							{
+								currentPosition = compiled.execute(interpreter, state);
+							}
+							finally
+							{
+								environment = state.environment;
+								pds = state.pds;
+								pdsSize = state.pdsSize;
+								pdsMaxSize = pds.length;
+							}
+							if (currentPosition == -1)
+							{
+								backtrackMode = true;
+								continue interpreter_loop;
+							}
+						}
+					}
+
 					int instr = instructions[currentPosition] & 255;
-					// System.err.println("code = "+codeTag+" bmode = "+backtrackMode+" instr = "+getIntruction(currentPosition));
+					// System.err.println("code = "+self.codeTag+" bmode = "+backtrackMode+" instr = "+self.getIntruction(currentPosition));
 					switch (instr)
 					{
 						case IALLOCATE:
 						{
-							int sz = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
-							int rs = ((instructions[currentPosition + 3] & 255) << 8) + (instructions[currentPosition + 4] & 255);
+							int sz = get16(instructions, currentPosition + 1);
+							int rs = get16(instructions, currentPosition + 3);
 							environment = new Term[sz];
 							for (int i = rs; i < sz; i++)
 							{
-								environment[i] = new VariableTerm();
+								environment[i] = interpreter.newVariable();
 							}
 							currentPosition += 5;
 							continue interpreter_loop;
@@ -492,6 +2213,12 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 							PrologCode code;
 							Term cargs[];
 							CompoundTermTag tag;
+							boolean registers = false; // arguments are in reused array
+							DynamicCode.DynamicBacktrackInfo dynamic = null; // call of dynamic predicate
+							RC rc = null;
+							// tracer bookkeeping is only done for calls made while tracing is
+							// active, so tracing could be switched on and off during execution
+							boolean traced = tracer.isActive();
 
 							if (backtrackMode)
 							{
@@ -499,68 +2226,221 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 								code = cbi.code;
 								cargs = cbi.args;
 								tag = cbi.tag;
+								if (traced)
+								{
+									tracer.traceEvent(TraceLevel.REDO, interpreter, tag, cargs);
+								}
+								if (code instanceof InterpretedByteCode)
+								{
+									// redo interpreted code in this loop
+									Frame frame = frames.push();
+									frame.code = self;
+									frame.args = args;
+									frame.environment = environment;
+									frame.startBacktrackInfo = startBacktrackInfo;
+									frame.startHeight = startHeight;
+									frame.leaveBacktrackInfo = bi;
+									frame.pdsBase = pdsBase;
+									frame.pdsSize = pdsSize;
+									frame.position = currentPosition;
+									frame.callTag = tag;
+									frame.callArgs = cargs;
+									frame.redoBacktrackInfo = cbi;
+									frame.traced = traced;
+									BacktrackInfo lbi = interpreter.popBacktrackInfo();
+									if (!(lbi instanceof LeaveByteCodeBacktrackInfo))
+									{
+										PrologException.systemError();
+									}
+									bi = (LeaveByteCodeBacktrackInfo) lbi;
+									self = bi.code;
+									self.countRedo();
+									instructions = self.instructions;
+									args = bi.args;
+									environment = bi.environment;
+									startBacktrackInfo = bi.startBacktrackInfo;
+									pdsBase = pdsSize;
+									continue interpreter_loop;
+								}
+								if (code instanceof DynamicCode)
+								{
+									// a fact succeeded, continue with next clause
+									dynamic = (DynamicCode.DynamicBacktrackInfo) interpreter.popBacktrackInfo();
+									dynamic.undo(interpreter);
+								}
 							}
 							else
 							{
-								int cd = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
-								tag = tags[cd];
+								int cd = get16(instructions, currentPosition + 1);
+								tag = self.tags[cd];
 								int arity = tag.arity;
-								cargs = new Term[arity];
+								code = self.predicateCodes[cd];
+								if (code == null)
+								{
+									code = self.getPredicateCode(interpreter, cd);
+								}
+								registers = code instanceof DeterministicCode && !traced;
+								cargs = registers ? interpreter.getArgumentRegisters(arity) : new Term[arity];
 								for (int i = arity - 1; i >= 0; i--)
 								{
 									cargs[i] = pds[--pdsSize].dereference(); // pop argument from
 									// stack
 									pds[pdsSize] = null;
 								}
-								code = predicateCodes[cd];
-								if (code == null)
+								if (traced)
 								{
-									code = interpreter.getEnvironment().getPrologCode(tag);
-									predicateCodes[cd] = code;
+									tracer.traceEvent(TraceLevel.CALL, interpreter, tag, cargs);
+								}
+								if (code instanceof DynamicCode)
+								{
+									dynamic = ((DynamicCode) code).call(interpreter, cargs);
 								}
 							}
-							interpreter.getTracer().traceEvent(backtrackMode ? TraceLevel.REDO : TraceLevel.CALL, interpreter, tag,
-									cargs);
-							RC rc;
-							try
-							{
-								rc = code.execute(interpreter, backtrackMode, cargs);
-							}
-							finally
+							int next = instructions[currentPosition + 3] & 255;
+							Term codeArgs[] = cargs;
+							if (dynamic != null)
 							{
-								interpreter.getTracer().decreaseDepth();
+								if (!backtrackMode && startBacktrackInfo == null && next == IRETURN)
+								{
+									// choice points of last call are kept for the caller
+									startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+									interpreter.pushBacktrackInfo(startBacktrackInfo);
+								}
+								rc = DynamicCode.select(interpreter, dynamic);
+								if (rc == null)
+								{
+									// clause is executed like called interpreted code
+									code = dynamic.getClauseCode();
+									codeArgs = dynamic.getClauseArgs();
+								}
 							}
-							switch (rc)
+							if (rc == null && code instanceof InterpretedByteCode)
 							{
-								case SUCCESS_LAST:
-									interpreter.getTracer().traceEvent(TraceLevel.EXIT, interpreter, tag, cargs);
-									backtrackMode = false;
-									break;
-								case SUCCESS:
-									interpreter.getTracer().traceEvent(TraceLevel.EXIT, interpreter, tag, cargs);
-									if (backtrackMode)
+								InterpretedByteCode callee = (InterpretedByteCode) code;
+								// other clauses of dynamic predicate are tried when backtracking
+								// reaches start backtrack info of the clause
+								EnterBacktrackInfo enter = dynamic != null && dynamic.hasAlternatives() ? dynamic : null;
+								if (!backtrackMode
+										&& (enter == null || frames.size() > base
+												&& (startBacktrackInfo == null || !((EnterBacktrackInfo) startBacktrackInfo).hasAlternatives()))
+										&& pdsSize == pdsBase
+										&& next == IRETURN
+										&& (startBacktrackInfo != null ? startBacktrackInfo == interpreter.peekBacktrackInfo()
+												: interpreter.getBacktrackInfoHeight() == startHeight) && !traced
+										&& self.getHandlerPosition(currentPosition) == -1)
+								{
+									// last call of deterministic code, the called code replaces
+									// this one and reuses its start backtrack info and call stack
+									// entry
+									frames.peek().callTag = tag;
+									if (enter != null)
+									{
+										// the start backtrack info is replaced by the one of the clause
+										if (startBacktrackInfo != null)
+										{
+											interpreter.popBacktrackInfo();
+										}
+										startBacktrackInfo = enter;
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+									else if (startBacktrackInfo == null && !callee.isDeterministic())
+									{
+										// called code could leave choice points
+										startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+								}
+								else
+								{
+									if (startBacktrackInfo == null && next == IRETURN)
+									{
+										// choice points of last call are kept for the caller
+										startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+									Frame frame = frames.push();
+									frame.code = self;
+									frame.args = args;
+									frame.environment = environment;
+									frame.startBacktrackInfo = startBacktrackInfo;
+									frame.startHeight = startHeight;
+									frame.leaveBacktrackInfo = bi;
+									frame.pdsBase = pdsBase;
+									frame.pdsSize = pdsSize;
+									frame.position = currentPosition;
+									frame.callTag = tag;
+									frame.callArgs = cargs;
+									frame.traced = traced;
+									if (enter != null)
+									{
+										startBacktrackInfo = enter;
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
+									}
+									else if (callee.isDeterministic() && !traced)
 									{
-										cur_bi.undoPosition = interpreter.getUndoPosition();
-										interpreter.pushBacktrackInfo(cur_bi);
+										// deterministic code needs no start backtrack info
+										startBacktrackInfo = null;
+										startHeight = interpreter.getBacktrackInfoHeight();
 									}
 									else
 									{
-										interpreter.pushBacktrackInfo(new CallBacktrackInfo(interpreter.getUndoPosition(), currentPosition,
-												cargs, code, tag));
+										startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+										interpreter.pushBacktrackInfo(startBacktrackInfo);
 									}
-									backtrackMode = false;
-									break;
-								case FAIL:
-									interpreter.getTracer().traceEvent(TraceLevel.FAIL, interpreter, tag, cargs);
-									backtrackMode = true;
+									pdsBase = pdsSize;
+								}
+								self = callee;
+								self.countCall();
+								instructions = self.instructions;
+								args = codeArgs;
+								environment = null;
+								bi = null;
+								backtrackMode = false;
+								currentPosition = 0;
+								continue interpreter_loop;
+							}
+							if (!backtrackMode && startBacktrackInfo == null && next == IRETURN
+									&& !(code instanceof DeterministicCode))
+							{
+								// choice points of last call are kept for the caller
+								startBacktrackInfo = new EnterBacktrackInfo(interpreter.getUndoPosition());
+								interpreter.pushBacktrackInfo(startBacktrackInfo);
+							}
+							if (rc == null)
+							{
+								interpreter.setPushDownTop(pdsSize);
+								try
+								{
+									rc = code.execute(interpreter, backtrackMode, cargs);
+								}
+								finally
+								{
+									if (traced)
+									{
+										tracer.decreaseDepth();
+									}
+									// nested execution might have grown the pushdown stack
+									pds = interpreter.getPushDown();
+									pdsMaxSize = pds.length;
+								}
+							}
+							else if (traced)
+							{
+								tracer.decreaseDepth();
+							}
+							backtrackMode = callCompleted(interpreter, rc, tag, cargs, code, backtrackMode ? cur_bi : null,
+									currentPosition, traced);
+							if (registers)
+							{
+								Arrays.fill(cargs, null);
 							}
 							currentPosition += 3;
 							continue interpreter_loop;
 						}
 						case ICREATE_COMPOUND:
 						{
-							int tg = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
-							CompoundTermTag tag = tags[tg];
+							int tg = get16(instructions, currentPosition + 1);
+							CompoundTermTag tag = self.tags[tg];
 							int arity = tag.arity;
 							Term targs[] = new Term[arity];
 							for (int i = arity - 1; i >= 0; i--)
@@ -577,21 +2457,22 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						{
 							if (pdsSize == pdsMaxSize)
 							{
-								Term tmp[] = new Term[pdsSize + pdsInc];
-								System.arraycopy(pds, 0, tmp, 0, pdsMaxSize);
-								pdsMaxSize += pdsInc;
-								pds = tmp;
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
 							}
-							pds[pdsSize++] = new VariableTerm();
+							pds[pdsSize++] = interpreter.newVariable();
 							currentPosition++;
 							continue interpreter_loop;
 						}
 						case ICUT:
 						{
-							int ep = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
-							JavaObjectTerm t = (JavaObjectTerm) environment[ep];
-							BacktrackInfo cutPoint = (BacktrackInfo) t.value;
-							interpreter.popBacktrackInfoUntil(cutPoint);
+							int ep = get16(instructions, currentPosition + 1);
+							int height = ((IntegerTerm) environment[ep]).value;
+							// cleanup goals of removed backtrack infos are executed on top
+							interpreter.setPushDownTop(pdsSize);
+							interpreter.cut(height);
+							pds = interpreter.getPushDown();
+							pdsMaxSize = pds.length;
 							currentPosition += 3;
 							continue interpreter_loop;
 						}
@@ -599,9 +2480,8 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						{
 							if (pdsSize == pdsMaxSize)
 							{
-								Term tmp[] = new Term[pdsSize + pdsInc];
-								System.arraycopy(pds, 0, tmp, 0, pdsMaxSize);
-								pdsMaxSize += pdsInc;
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
 							}
 							Term tmp1 = pds[pdsSize - 1];
 							pds[pdsSize++] = tmp1;
@@ -615,7 +2495,7 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						}
 						case IJUMP:
 						{
-                                                        int jp = ((instructions[currentPosition + 1] & 255) << 24) + ((instructions[currentPosition + 2] & 255) << 16) + ((instructions[currentPosition + 3] & 255) << 8) + (instructions[currentPosition + 4] & 255);
+							int jp = get32(instructions, currentPosition + 1);
 							currentPosition = jp;
 							continue interpreter_loop;
 						}
@@ -629,12 +2509,10 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						{
 							if (pdsSize == pdsMaxSize)
 							{
-								Term tmp[] = new Term[pdsSize + pdsInc];
-								System.arraycopy(pds, 0, tmp, 0, pdsMaxSize);
-								pdsMaxSize += pdsInc;
-								pds = tmp;
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
 							}
-							int ar = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+							int ar = get16(instructions, currentPosition + 1);
 							pds[pdsSize++] = args[ar];
 							currentPosition += 3;
 							continue interpreter_loop;
@@ -643,13 +2521,11 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						{
 							if (pdsSize == pdsMaxSize)
 							{
-								Term tmp[] = new Term[pdsMaxSize + pdsInc];
-								System.arraycopy(pds, 0, tmp, 0, pdsMaxSize);
-								pdsMaxSize += pdsInc;
-								pds = tmp;
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
 							}
-							int cp = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
-							pds[pdsSize++] = constants[cp];
+							int cp = get16(instructions, currentPosition + 1);
+							pds[pdsSize++] = self.constants[cp];
 							currentPosition += 3;
 							continue interpreter_loop;
 						}
@@ -657,19 +2533,17 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						{
 							if (pdsSize == pdsMaxSize)
 							{
-								Term tmp[] = new Term[pdsSize + pdsInc];
-								System.arraycopy(pds, 0, tmp, 0, pdsMaxSize);
-								pdsMaxSize += pdsInc;
-								pds = tmp;
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
 							}
-							int ep = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+							int ep = get16(instructions, currentPosition + 1);
 							pds[pdsSize++] = environment[ep];
 							currentPosition += 3;
 							continue interpreter_loop;
 						}
 						case IRETRY_ME_ELSE:
 						{
-							int rp = ((instructions[currentPosition + 1] & 255) << 24) + ((instructions[currentPosition + 2] & 255) << 16) + ((instructions[currentPosition + 3] & 255) << 8) + (instructions[currentPosition + 4] & 255);
+							int rp = get32(instructions, currentPosition + 1);
 							cur_bi.codePosition = rp;
 							interpreter.pushBacktrackInfo(cur_bi);
 							currentPosition += 5;
@@ -678,44 +2552,116 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						}
 						case IRETURN:
 						{
-							if (startBacktrackInfo == interpreter.peekBacktrackInfo())
+							RC rc;
+							if (startBacktrackInfo == null)
+							{
+								// deterministic code does not leave choice points
+								rc = RC.SUCCESS_LAST;
+							}
+							else if (startBacktrackInfo == interpreter.peekBacktrackInfo()
+									&& !((EnterBacktrackInfo) startBacktrackInfo).hasAlternatives())
 							{
 								// code cannot be rexecuted
 								interpreter.popBacktrackInfo();
-								return RC.SUCCESS_LAST;
+								rc = RC.SUCCESS_LAST;
 							}
 							else
 							{
 								LeaveByteCodeBacktrackInfo lbi;
 								if (bi != null)
 								{
-									lbi = (LeaveByteCodeBacktrackInfo) bi;
+									lbi = bi;
+									lbi.code = self;
+									lbi.args = args;
 								}
 								else
 								{
-									lbi = new LeaveByteCodeBacktrackInfo(environment, startBacktrackInfo);
+									lbi = new LeaveByteCodeBacktrackInfo(self, args, environment, startBacktrackInfo);
 								}
 								interpreter.pushBacktrackInfo(lbi);
-								return RC.SUCCESS;
+								rc = RC.SUCCESS;
+							}
+							if (frames.size() == base)
+							{
+								return rc;
+							}
+							// return to calling code
+							InterpretedByteCode code = self;
+							Frame frame = frames.pop();
+							if (frame.traced)
+							{
+								tracer.decreaseDepth();
 							}
+							self = frame.code;
+							instructions = self.instructions;
+							args = frame.args;
+							environment = frame.environment;
+							startBacktrackInfo = frame.startBacktrackInfo;
+							startHeight = frame.startHeight;
+							bi = frame.leaveBacktrackInfo;
+							pdsBase = frame.pdsBase;
+							pdsSize = frame.pdsSize;
+							currentPosition = frame.position;
+							backtrackMode = callCompleted(interpreter, rc, frame.callTag, frame.callArgs, code,
+									frame.redoBacktrackInfo, currentPosition, frame.traced);
+							frame.clear();
+							currentPosition += 3;
+							continue interpreter_loop;
 						}
 						case ISAVE_CUT:
 						{
-							int ep = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
-							JavaObjectTerm t = new JavaObjectTerm(interpreter.peekBacktrackInfo());
-							environment[ep] = t;
+							int ep = get16(instructions, currentPosition + 1);
+							// cut barrier is the height of backtrack stack
+							environment[ep] = IntegerTerm.get(interpreter.getCutBarrier());
 							currentPosition += 3;
 							continue interpreter_loop;
 						}
 						case ISTORE_ENVIRONMENT:
 						{
-							int ep = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+							int ep = get16(instructions, currentPosition + 1);
 							Term t = pds[--pdsSize]; // pop argument from stack
 							pds[pdsSize] = null;
 							environment[ep] = t;
 							currentPosition += 3;
 							continue interpreter_loop;
 						}
+						case ISWITCH_ON_TERM:
+						{
+							if (backtrackMode)
+							{
+								// try next clause selected by index
+								SwitchBacktrackInfo sbi = (SwitchBacktrackInfo) cur_bi;
+								currentPosition = sbi.alternatives[sbi.next++];
+								if (sbi.next < sbi.alternatives.length)
+								{
+									interpreter.pushBacktrackInfo(sbi);
+								}
+								backtrackMode = false;
+								continue interpreter_loop;
+							}
+							int si = get16(instructions, currentPosition + 1);
+							int alternatives[] = self.switchTables[si].select(args);
+							if (alternatives == null)
+							{
+								currentPosition = get32(instructions, currentPosition + 3);
+								continue interpreter_loop;
+							}
+							switch (alternatives.length)
+							{
+								case 0:
+									backtrackMode = true;
+									continue interpreter_loop;
+								case 1:
+									// deterministic selection, no choice point is needed
+									currentPosition = alternatives[0];
+									continue interpreter_loop;
+								default:
+									interpreter.pushBacktrackInfo(new SwitchBacktrackInfo(interpreter.getUndoPosition(), currentPosition,
+											alternatives));
+									currentPosition = alternatives[0];
+									continue interpreter_loop;
+							}
+						}
 						case ITHROW:
 						{
 							Term t = pds[--pdsSize].dereference(); // pop argument from stack
@@ -739,7 +2685,7 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 						}
 						case ITRY_ME_ELSE:
 						{
-                                                        int rp = ((instructions[currentPosition + 1] & 255) << 24) + ((instructions[currentPosition + 2] & 255) << 16) + ((instructions[currentPosition + 3] & 255) << 8) + (instructions[currentPosition + 4] & 255);
+							int rp = get32(instructions, currentPosition + 1);
 							cur_bi = new BacktrackInfo(interpreter.getUndoPosition(), rp);
 							interpreter.pushBacktrackInfo(cur_bi);
 							currentPosition += 5;
@@ -763,6 +2709,164 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 							}
 							continue interpreter_loop;
 						}
+						case IGET_CONSTANT:
+						{
+							Term t = pds[--pdsSize].dereference(); // pop argument from stack
+							pds[pdsSize] = null;
+							int cp = get16(instructions, currentPosition + 1);
+							AtomicTerm c = self.constants[cp];
+							if (t != c && interpreter.simpleUnify(t, c) == RC.FAIL)
+							{
+								backtrackMode = true;
+							}
+							else
+							{
+								currentPosition += 3;
+							}
+							continue interpreter_loop;
+						}
+						case IGET_STRUCTURE:
+						case IGET_LIST:
+						{
+							Term t = pds[--pdsSize].dereference(); // pop argument from stack
+							CompoundTermTag tag;
+							int wp; // write position
+							int np; // next position
+							if (instr == IGET_LIST)
+							{
+								tag = TermConstants.listTag;
+								wp = get32(instructions, currentPosition + 1);
+								np = currentPosition + 5;
+							}
+							else
+							{
+								tag = self.tags[get16(instructions, currentPosition + 1)];
+								wp = get32(instructions, currentPosition + 3);
+								np = currentPosition + 7;
+							}
+							if (t instanceof CompoundTerm && ((CompoundTerm) t).tag == tag)
+							{
+								// read mode, match arguments without creating terms
+								Term targs[] = ((CompoundTerm) t).args;
+								if (pdsSize + targs.length > pdsMaxSize)
+								{
+									pds = interpreter.ensurePushDownCapacity(pdsSize + targs.length);
+									pdsMaxSize = pds.length;
+								}
+								for (int i = targs.length - 1; i >= 0; i--)
+								{
+									pds[pdsSize++] = targs[i];
+								}
+								currentPosition = np;
+							}
+							else if (t instanceof VariableTerm)
+							{
+								// write mode, create the structure
+								pds[pdsSize++] = t;
+								currentPosition = wp;
+							}
+							else
+							{
+								pds[pdsSize] = null;
+								backtrackMode = true;
+							}
+							continue interpreter_loop;
+						}
+						case IUNIFY_VARIABLE:
+						{
+							int ep = get16(instructions, currentPosition + 1);
+							environment[ep] = pds[--pdsSize];
+							pds[pdsSize] = null;
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case IUNIFY_VALUE:
+						{
+							Term t = pds[--pdsSize].dereference(); // pop argument from stack
+							pds[pdsSize] = null;
+							int ep = get16(instructions, currentPosition + 1);
+							if (interpreter.simpleUnify(environment[ep].dereference(), t) == RC.FAIL)
+							{
+								backtrackMode = true;
+							}
+							else
+							{
+								currentPosition += 3;
+							}
+							continue interpreter_loop;
+						}
+						case IEVALUATE:
+						{
+							int ei = get16(instructions, currentPosition + 1);
+							Term t = self.expressions[ei].evaluate(interpreter, environment, args);
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							pds[pdsSize++] = t;
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case ICOMPARE:
+						{
+							int ei = get16(instructions, currentPosition + 1);
+							if (self.expressions[ei].compare(interpreter, environment, args))
+							{
+								currentPosition += 3;
+							}
+							else
+							{
+								backtrackMode = true;
+							}
+							continue interpreter_loop;
+						}
+						case ITYPE_TEST:
+						{
+							int test = get16(instructions, currentPosition + 1);
+							Term t = pds[--pdsSize];
+							pds[pdsSize] = null;
+							if (ITypeTest.test(test, t))
+							{
+								currentPosition += 3;
+							}
+							else
+							{
+								backtrackMode = true;
+							}
+							continue interpreter_loop;
+						}
+						case INEW_VARIABLE:
+						{
+							if (pdsSize == pdsMaxSize)
+							{
+								pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+								pdsMaxSize = pds.length;
+							}
+							int ep = get16(instructions, currentPosition + 1);
+							Term t = interpreter.newVariable();
+							environment[ep] = t;
+							pds[pdsSize++] = t;
+							currentPosition += 3;
+							continue interpreter_loop;
+						}
+						case IIDENTICAL:
+						{
+							int identical = get16(instructions, currentPosition + 1);
+							Term t1 = pds[--pdsSize];
+							pds[pdsSize] = null;
+							Term t0 = pds[--pdsSize];
+							pds[pdsSize] = null;
+							if (TermComparator.identical(t0, t1) == (identical != 0))
+							{
+								currentPosition += 3;
+							}
+							else
+							{
+								backtrackMode = true;
+							}
+							continue interpreter_loop;
+						}
 						default:
 							PrologException.systemError();
 					}
@@ -777,45 +2881,230 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 			}
 			catch (PrologException ex)
 			{
-				int ei, en = exceptionHandlers.length;
 				backtrackMode = false;
-				for (ei = 0; ei < en; ei++)
+				while (true)
 				{
-					ExceptionHandlerInfo cur = exceptionHandlers[ei];
-					if (cur.startPosition < currentPosition && currentPosition < cur.endPosition)
+					int handlerPosition = self.getHandlerPosition(currentPosition);
+					if (handlerPosition != -1)
 					{
 						if (pdsSize == pdsMaxSize)
 						{
-							Term tmp[] = new Term[pdsSize + pdsInc];
-							System.arraycopy(pds, 0, tmp, 0, pdsMaxSize);
-							pdsMaxSize += pdsInc;
+							pds = interpreter.ensurePushDownCapacity(pdsSize + 1);
+							pdsMaxSize = pds.length;
 						}
 						pds[pdsSize++] = ex.getTerm();
-						currentPosition = cur.handlerPosition;
+						currentPosition = handlerPosition;
 						continue interpreter_loop;
 					}
+					// no handler was found
+					interpreter.setPushDownTop(pdsSize);
+					if (startBacktrackInfo == null)
+					{
+						interpreter.popBacktrackInfoTo(startHeight);
+					}
+					else
+					{
+						interpreter.popBacktrackInfoUntil(startBacktrackInfo);
+						cur_bi = interpreter.popBacktrackInfo();
+						cur_bi.undo(interpreter);
+					}
+					pds = interpreter.getPushDown();
+					pdsMaxSize = pds.length;
+					if (frames.size() == base)
+					{
+						Arrays.fill(pds, pdsBase, pdsSize, null);
+						throw ex;
+					}
+					// pass exception to calling code
+					Frame frame = frames.pop();
+					if (frame.traced)
+					{
+						tracer.decreaseDepth();
+					}
+					self = frame.code;
+					instructions = self.instructions;
+					args = frame.args;
+					environment = frame.environment;
+					startBacktrackInfo = frame.startBacktrackInfo;
+					startHeight = frame.startHeight;
+					bi = frame.leaveBacktrackInfo;
+					Arrays.fill(pds, frame.pdsSize, pdsSize, null);
+					pdsBase = frame.pdsBase;
+					pdsSize = frame.pdsSize;
+					currentPosition = frame.position;
+					frame.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * update backtrack stack and tracer after call is completed
+	 * 
+	 * @param interpreter
+	 *          interpreter in which context code is executed
+	 * @param rc
+	 *          result of call
+	 * @param tag
+	 *          tag of called predicate
+	 * @param args
+	 *          arguments of call
+	 * @param code
+	 *          called code
+	 * @param redo
+	 *          call backtrack info if call was redone, null otherwise
+	 * @param position
+	 *          position of call instruction
+	 * @param traced
+	 *          true if call was made while tracing was active
+	 * @return new backtrack mode
+	 */
+	private static boolean callCompleted(Interpreter interpreter, RC rc, CompoundTermTag tag, Term args[],
+			PrologCode code, BacktrackInfo redo, int position, boolean traced) throws PrologException
+	{
+		switch (rc)
+		{
+			case SUCCESS_LAST:
+				if (traced)
+				{
+					interpreter.getTracer().traceEvent(TraceLevel.EXIT, interpreter, tag, args);
+				}
+				return false;
+			case SUCCESS:
+				if (traced)
+				{
+					interpreter.getTracer().traceEvent(TraceLevel.EXIT, interpreter, tag, args);
+				}
+				if (redo != null)
+				{
+					redo.undoPosition = interpreter.getUndoPosition();
+					interpreter.pushBacktrackInfo(redo);
+				}
+				else
+				{
+					interpreter.pushBacktrackInfo(new CallBacktrackInfo(interpreter.getUndoPosition(), position, args, code, tag));
+				}
+				return false;
+			default:
+				if (traced)
+				{
+					interpreter.getTracer().traceEvent(TraceLevel.FAIL, interpreter, tag, args);
 				}
-				// no handler was found
-				interpreter.popBacktrackInfoUntil(startBacktrackInfo);
-				cur_bi = interpreter.popBacktrackInfo();
-				cur_bi.undo(interpreter);
-				throw ex;
+				return true;
+		}
+	}
+
+	/**
+	 * get exception handler which covers position
+	 * 
+	 * @param position
+	 *          code position
+	 * @return position of handler or -1 if position is not guarded
+	 */
+	int getHandlerPosition(int position)
+	{
+		for (ExceptionHandlerInfo cur : exceptionHandlers)
+		{
+			if (cur.startPosition < position && position < cur.endPosition)
+			{
+				return cur.handlerPosition;
 			}
 		}
+		return -1;
 	}
 
 	/** this method is called when prolog code was updated */
 	public void prologCodeUpdated(PrologCodeUpdatedEvent evt)
 	{
 		CompoundTermTag tag = evt.getPredicateTag();
+		Module updated = evt.getModule();
+		if (tag == codeTag && (updated == null || updated == installedModule))
+		{
+			// this code has been replaced, indexes built on demand and compiled code
+			// are stale
+			for (SwitchTable table : switchTables)
+			{
+				table.invalidate();
+			}
+			discarded = true;
+			compiledCode = null;
+			determinism = -1;
+		}
 		for (int i = predicateCodes.length - 1; i >= 0; i--)
 		{
-			if (tags[i] == tag)
+			if (tags[i] == tag
+					&& (updated == null || updated == (callModules[i] == null ? installedModule : listenedModules[i])))
 			{
 				predicateCodes[i] = null;
-				return;
+				if (determinism > 0)
+				{
+					// called code is checked again on next call
+					determinism = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * look up code of predicate called by code. The code is kept until it is
+	 * updated if this code is installed.
+	 * 
+	 * @param interpreter
+	 * @param index
+	 *          index of predicate code
+	 * @return the code
+	 * @throws PrologException
+	 */
+	PrologCode getPredicateCode(Interpreter interpreter, int index) throws PrologException
+	{
+		Environment env = interpreter.getEnvironment();
+		CompoundTermTag tag = tags[index];
+		PrologCode code;
+		if (callModules[index] == null)
+		{
+			code = env.getPrologCode(module != null ? module : interpreter.getModule(), tag);
+		}
+		else
+		{
+			Module m = env.getModule(callModules[index]);
+			if (m == null)
+			{
+				PrologException.existenceError(AtomTerm.get("module"), callModules[index]);
+			}
+			if (environment != null)
+			{
+				synchronized (this)
+				{
+					if (listenedModules[index] == null)
+					{
+						m.addPrologCodeListener(env, tag, this);
+						listenedModules[index] = m;
+					}
+				}
 			}
+			code = new ModuleCallCode(m, env.getPrologCode(m, tag));
+		}
+		if (environment != null)
+		{
+			// only installed code is notified when the code changes
+			predicateCodes[index] = code;
+		}
+		return code;
+	}
+
+	/**
+	 * get estimated memory used by clause indexes of this code
+	 * 
+	 * @return estimated size in bytes
+	 */
+	public long getIndexMemoryUsage()
+	{
+		long rc = 0;
+		for (SwitchTable table : switchTables)
+		{
+			rc += table.getMemoryUsage();
 		}
+		return rc;
 	}
 
 	/**
@@ -827,10 +3116,21 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 	 */
 	public void install(Environment env)
 	{
+		environment = env;
+		if (env.getInstructionEncoding() == InstructionEncoding.PREDECODED)
+		{
+			decodedInstructions = decode();
+		}
+		Module m = module != null ? module : env.getModule();
+		installedModule = m;
 		for (int i = predicateCodes.length - 1; i >= 0; i--)
 		{
-			env.addPrologCodeListener(tags[i], this);
+			if (callModules[i] == null)
+			{
+				m.addPrologCodeListener(env, tags[i], this);
+			}
 		}
+		m.addPrologCodeListener(env, codeTag, this);
 	}
 
 	/**
@@ -841,10 +3141,28 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 	 */
 	public void uninstall(Environment env)
 	{
+		environment = null;
+		Module m = installedModule != null ? installedModule : env.getModule();
 		for (int i = predicateCodes.length - 1; i >= 0; i--)
 		{
-			env.removePrologCodeListener(tags[i], this);
+			if (callModules[i] == null)
+			{
+				m.removePrologCodeListener(env, tags[i], this);
+			}
+			else
+			{
+				synchronized (this)
+				{
+					if (listenedModules[i] != null)
+					{
+						listenedModules[i].removePrologCodeListener(env, tags[i], this);
+						listenedModules[i] = null;
+					}
+				}
+			}
+			predicateCodes[i] = null;
 		}
+		m.removePrologCodeListener(env, codeTag, this);
 	}
 
 	/** convert code to string */
@@ -890,7 +3208,7 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 			{
 				int cd = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
 				CompoundTermTag tag = tags[cd];
-				rc += currentPosition + ": call " + tag;
+				rc += currentPosition + ": call " + (callModules[cd] != null ? callModules[cd] + ":" : "") + tag;
 				currentPosition += 3;
 				break;
 			}
@@ -961,6 +3279,79 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 				currentPosition += 3;
 				break;
 			}
+			case IGET_CONSTANT:
+			{
+				int cp = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				rc += currentPosition + ": get_constant " + TermWriter.toString(constants[cp]);
+				currentPosition += 3;
+				break;
+			}
+			case IGET_STRUCTURE:
+			{
+				int tg = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				int wp = ((instructions[currentPosition + 3] & 255) << 24) + ((instructions[currentPosition + 4] & 255) << 16)
+						+ ((instructions[currentPosition + 5] & 255) << 8) + (instructions[currentPosition + 6] & 255);
+				rc += currentPosition + ": get_structure " + tags[tg].functor.value + "/" + tags[tg].arity + ", " + wp;
+				currentPosition += 7;
+				break;
+			}
+			case IGET_LIST:
+			{
+				int wp = ((instructions[currentPosition + 1] & 255) << 24) + ((instructions[currentPosition + 2] & 255) << 16)
+						+ ((instructions[currentPosition + 3] & 255) << 8) + (instructions[currentPosition + 4] & 255);
+				rc += currentPosition + ": get_list " + wp;
+				currentPosition += 5;
+				break;
+			}
+			case IUNIFY_VARIABLE:
+			{
+				int ep = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				rc += currentPosition + ": unify_variable " + ep;
+				currentPosition += 3;
+				break;
+			}
+			case IUNIFY_VALUE:
+			{
+				int ep = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				rc += currentPosition + ": unify_value " + ep;
+				currentPosition += 3;
+				break;
+			}
+			case IEVALUATE:
+			{
+				int ei = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				rc += currentPosition + ": evaluate " + expressions[ei];
+				currentPosition += 3;
+				break;
+			}
+			case ICOMPARE:
+			{
+				int ei = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				rc += currentPosition + ": compare " + expressions[ei];
+				currentPosition += 3;
+				break;
+			}
+			case ITYPE_TEST:
+			{
+				int test = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				rc += currentPosition + ": type_test " + ITypeTest.getTag(test);
+				currentPosition += 3;
+				break;
+			}
+			case INEW_VARIABLE:
+			{
+				int ep = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				rc += currentPosition + ": new_variable " + ep;
+				currentPosition += 3;
+				break;
+			}
+			case IIDENTICAL:
+			{
+				int identical = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				rc += currentPosition + (identical != 0 ? ": identical" : ": not_identical");
+				currentPosition += 3;
+				break;
+			}
 			case IRETRY_ME_ELSE:
 			{
 				int rp = ((instructions[currentPosition + 1] & 255) << 24) + ((instructions[currentPosition + 2] & 255) << 16) + ((instructions[currentPosition + 3] & 255) << 8) + (instructions[currentPosition + 4] & 255);
@@ -988,6 +3379,15 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 				currentPosition += 3;
 				break;
 			}
+			case ISWITCH_ON_TERM:
+			{
+				int si = ((instructions[currentPosition + 1] & 255) << 8) + (instructions[currentPosition + 2] & 255);
+				int vp = ((instructions[currentPosition + 3] & 255) << 24) + ((instructions[currentPosition + 4] & 255) << 16)
+						+ ((instructions[currentPosition + 5] & 255) << 8) + (instructions[currentPosition + 6] & 255);
+				rc += currentPosition + ": switch_on_term " + vp + " [" + switchTables[si] + "]";
+				currentPosition += 7;
+				break;
+			}
 			case ITHROW:
 			{
 				rc += currentPosition + ": throw";
@@ -1061,4 +3461,50 @@ public class InterpretedByteCode implements PrologCode, PrologCodeListener
 	public final static int ITRUST_ME = 18;
 	public final static int ITRY_ME_ELSE = 19;
 	public final static int IUNIFY = 20;
+	public final static int ISWITCH_ON_TERM = 21;
+	public final static int IGET_CONSTANT = 22;
+	public final static int IGET_STRUCTURE = 23;
+	public final static int IGET_LIST = 24;
+	public final static int IUNIFY_VARIABLE = 25;
+	public final static int IUNIFY_VALUE = 26;
+	public final static int IEVALUATE = 27;
+	public final static int ICOMPARE = 28;
+	public final static int ITYPE_TEST = 29;
+	public final static int IIDENTICAL = 30;
+	public final static int INEW_VARIABLE = 31;
+
+	/** sizes in bytes of the operands of each instruction */
+	private final static int OPERAND_SIZES[][] = { { 2, 2 }, // allocate
+			{ 2 }, // call
+			{ 2 }, // create_compound
+			{}, // create_variable
+			{ 2 }, // cut
+			{}, // dup
+			{}, // fail
+			{ 4 }, // jump
+			{}, // pop
+			{ 2 }, // push_argument
+			{ 2 }, // push_constant
+			{ 2 }, // push_environment
+			{ 4 }, // retry_me_else
+			{}, // return
+			{ 2 }, // save_cut
+			{ 2 }, // store_environment
+			{}, // throw
+			{}, // true
+			{}, // trust_me
+			{ 4 }, // try_me_else
+			{}, // unify
+			{ 2, 4 }, // switch_on_term
+			{ 2 }, // get_constant
+			{ 2, 4 }, // get_structure
+			{ 4 }, // get_list
+			{ 2 }, // unify_variable
+			{ 2 }, // unify_value
+			{ 2 }, // evaluate
+			{ 2 }, // compare
+			{ 2 }, // type_test
+			{ 2 }, // identical
+			{ 2 }, // new_variable
+	};
 }
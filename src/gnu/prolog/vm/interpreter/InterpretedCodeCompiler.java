@@ -17,21 +17,32 @@
  */
 package gnu.prolog.vm.interpreter;
 
+import gnu.prolog.database.Module;
 import gnu.prolog.term.AtomTerm;
 import gnu.prolog.term.AtomicTerm;
 import gnu.prolog.term.CompoundTerm;
 import gnu.prolog.term.CompoundTermTag;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.Environment;
 import gnu.prolog.vm.PrologCode;
 import gnu.prolog.vm.PrologException;
 import gnu.prolog.vm.TermConstants;
 import gnu.prolog.vm.interpreter.instruction.IAllocate;
 import gnu.prolog.vm.interpreter.instruction.ICall;
+import gnu.prolog.vm.interpreter.instruction.ICompare;
 import gnu.prolog.vm.interpreter.instruction.ICreateCompoundTerm;
+import gnu.prolog.vm.interpreter.instruction.ICreateVariable;
 import gnu.prolog.vm.interpreter.instruction.ICut;
+import gnu.prolog.vm.interpreter.instruction.IDup;
+import gnu.prolog.vm.interpreter.instruction.IEvaluate;
 import gnu.prolog.vm.interpreter.instruction.IFail;
+import gnu.prolog.vm.interpreter.instruction.IGetConstant;
+import gnu.prolog.vm.interpreter.instruction.IGetList;
+import gnu.prolog.vm.interpreter.instruction.IGetStructure;
+import gnu.prolog.vm.interpreter.instruction.IIdentical;
 import gnu.prolog.vm.interpreter.instruction.IJump;
+import gnu.prolog.vm.interpreter.instruction.IPop;
 import gnu.prolog.vm.interpreter.instruction.IPushArgument;
 import gnu.prolog.vm.interpreter.instruction.IPushConstant;
 import gnu.prolog.vm.interpreter.instruction.IPushEnvironment;
@@ -39,19 +50,25 @@ import gnu.prolog.vm.interpreter.instruction.IRetryMeElse;
 import gnu.prolog.vm.interpreter.instruction.IReturn;
 import gnu.prolog.vm.interpreter.instruction.ISaveCut;
 import gnu.prolog.vm.interpreter.instruction.IStoreEnvironment;
+import gnu.prolog.vm.interpreter.instruction.ISwitchOnTerm;
 import gnu.prolog.vm.interpreter.instruction.IThrow;
 import gnu.prolog.vm.interpreter.instruction.ITrue;
 import gnu.prolog.vm.interpreter.instruction.ITrustMe;
 import gnu.prolog.vm.interpreter.instruction.ITryMeElse;
+import gnu.prolog.vm.interpreter.instruction.ITypeTest;
 import gnu.prolog.vm.interpreter.instruction.IUnify;
+import gnu.prolog.vm.interpreter.instruction.IUnifyValue;
+import gnu.prolog.vm.interpreter.instruction.IUnifyVariable;
 import gnu.prolog.vm.interpreter.instruction.Instruction;
 import gnu.prolog.vm.interpreter.instruction.RetryInstruction;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * compiler from predicate to interpreted code This version assume following
@@ -70,6 +87,20 @@ public class InterpretedCodeCompiler
 	public static final CompoundTermTag throwTag = CompoundTermTag.get("throw", 1);
 	/** catch tag */
 	public static final CompoundTermTag catchTag = CompoundTermTag.get("catch", 3);
+	/** ==/2 tag */
+	public static final CompoundTermTag identicalTag = CompoundTermTag.get("==", 2);
+	/** \==/2 tag */
+	public static final CompoundTermTag notIdenticalTag = CompoundTermTag.get("\\==", 2);
+	/** :/2 tag */
+	public static final CompoundTermTag colonTag = CompoundTermTag.get(":", 2);
+	/**
+	 * system property, if it is false type tests, term identity and arithmetic
+	 * are compiled to calls of the predicates so that a redefinition of them
+	 * takes effect. A builtin with a spy point is always compiled to a call.
+	 */
+	public static final String INLINE_BUILTINS_PROPERTY = "gnu.prolog.inlineBuiltins";
+	private static final boolean INLINE_BUILTINS = Boolean.parseBoolean(System.getProperty(INLINE_BUILTINS_PROPERTY,
+			"true"));
 	/** array type constant for Instruction.class */
 	public final static Instruction instructionArrayConstant[] = new Instruction[0];
 	/** array type constant ExceptionHandlerInfo.class */
@@ -88,6 +119,14 @@ public class InterpretedCodeCompiler
 	protected Map<Term, Integer> variableToEnvironmentIndex = new HashMap<Term, Integer>();
 	/** this predicate tag */
 	protected CompoundTermTag codeTag;
+	/** number of occurrences of variables in current clause */
+	protected Map<Term, Integer> variableOccurrences = new HashMap<Term, Integer>();
+	/** variables of current clause which already have a value */
+	protected Set<Term> initializedVariables = new HashSet<Term>();
+	/** variables which are kept in arguments instead of environment */
+	protected Map<Term, Integer> variableToArgument = new HashMap<Term, Integer>();
+	/** variables which are created at their first occurrence */
+	protected Set<Term> lazyVariables = new HashSet<Term>();
 
 	// Analysis variables
 	/** number of reserved fields, one position for saving cut */
@@ -97,6 +136,12 @@ public class InterpretedCodeCompiler
 	protected List<Integer> cutPositionStack = new ArrayList<Integer>();
 	/** clauses to compile */
 	protected List<Term> passedClauses;
+	/** true if code is compiled with all optimisations, false for baseline code */
+	protected boolean optimize = true;
+	/** environment whose spy points are checked, may be null */
+	protected Environment environment;
+	/** module in which called predicates are looked up, null for the module of the interpreter */
+	protected Module module;
 
 	/**
 	 * a constructor
@@ -125,7 +170,25 @@ public class InterpretedCodeCompiler
 	{
 		if (term instanceof VariableTerm)
 		{
-			iPushEnvironment(getEnvironmentIndex((VariableTerm) term));
+			Integer argument = variableToArgument.get(term);
+			if (argument != null)
+			{
+				iPushArgument(argument.intValue());
+			}
+			else if (lazyVariables.contains(term) && initializedVariables.add(term))
+			{
+				// first occurrence, slot has no placeholder variable
+				iCreateVariable();
+				if (!isVoidVariable(term))
+				{
+					iDup();
+					iStoreEnvironment(getEnvironmentIndex((VariableTerm) term));
+				}
+			}
+			else
+			{
+				iPushEnvironment(getEnvironmentIndex((VariableTerm) term));
+			}
 		}
 		else if (term instanceof AtomicTerm)
 		{
@@ -147,6 +210,68 @@ public class InterpretedCodeCompiler
 		}
 	}
 
+	/**
+	 * compile is/2 or arithmetic comparison goal to evaluate or compare
+	 * instruction
+	 * 
+	 * @param goal
+	 *          goal to compile
+	 * @return false if the goal cannot be compiled inline and has to be called
+	 * @throws PrologException
+	 */
+	boolean compileArithmetic(CompoundTerm goal) throws PrologException
+	{
+		Map<Term, Integer> variables = new HashMap<Term, Integer>();
+		for (Term variable : variableOccurrences.keySet())
+		{
+			Integer argument = variableToArgument.get(variable);
+			if (argument != null)
+			{
+				variables.put(variable, argument);
+			}
+			else if (!lazyVariables.contains(variable) || initializedVariables.contains(variable))
+			{
+				variables.put(variable, Integer.valueOf(-1 - getEnvironmentIndex((VariableTerm) variable)));
+			}
+		}
+		if (goal.tag != ArithmeticExpression.isTag)
+		{
+			ArithmeticExpression comparison = ArithmeticExpression.comparison(goal, variables);
+			if (comparison == null)
+			{
+				return false;
+			}
+			iCompare(comparison);
+			return true;
+		}
+		ArithmeticExpression expression = ArithmeticExpression.evaluation(goal.args[1], variables);
+		if (expression == null)
+		{
+			return false;
+		}
+		iEvaluate(expression);
+		Term result = goal.args[0];
+		if (result instanceof VariableTerm && !variables.containsKey(result))
+		{
+			// first occurrence, the value is stored without creating a variable
+			initializedVariables.add(result);
+			if (isVoidVariable(result))
+			{
+				iPop();
+			}
+			else
+			{
+				iStoreEnvironment(getEnvironmentIndex((VariableTerm) result));
+			}
+		}
+		else
+		{
+			compileTermCreation(result);
+			iUnify();
+		}
+		return true;
+	}
+
 	/**
 	 * compile head of clause
 	 * 
@@ -170,9 +295,17 @@ public class InterpretedCodeCompiler
 			CompoundTerm ct = (CompoundTerm) headTerm;
 			for (int i = 0; i < ct.tag.arity; i++)
 			{
-				iPushArgument(i);
-				compileTermCreation(ct.args[i]);
-				iUnify();
+				if (!optimize)
+				{
+					iPushArgument(i);
+					compileTermCreation(ct.args[i]);
+					iUnify();
+				}
+				else if (!isVoidVariable(ct.args[i]) && !isArgument(ct.args[i], i))
+				{
+					iPushArgument(i);
+					compileHeadUnification(ct.args[i]);
+				}
 			}
 			if (codeTag == null)
 			{
@@ -185,6 +318,136 @@ public class InterpretedCodeCompiler
 		}
 	}
 
+	/**
+	 * compile unification of head term with top of pushdown list. Structures
+	 * passed by the caller are matched without creating any term, the term is
+	 * created only if the caller passed a variable.
+	 * 
+	 * @param term
+	 *          head argument or its part
+	 * @throws PrologException
+	 *           #systemError() if term cannot be compiled
+	 */
+	void compileHeadUnification(Term term) throws PrologException
+	{
+		if (term instanceof VariableTerm)
+		{
+			Integer argument = variableToArgument.get(term);
+			if (isVoidVariable(term))
+			{
+				iPop();
+			}
+			else if (argument != null)
+			{
+				iPushArgument(argument.intValue());
+				iUnify();
+			}
+			else if (initializedVariables.add(term))
+			{
+				iUnifyVariable(getEnvironmentIndex((VariableTerm) term));
+			}
+			else
+			{
+				iUnifyValue(getEnvironmentIndex((VariableTerm) term));
+			}
+		}
+		else if (term instanceof AtomicTerm)
+		{
+			iGetConstant((AtomicTerm) term);
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			CompoundTerm ct = (CompoundTerm) term;
+			IGetList getList = null;
+			IGetStructure getStructure = null;
+			if (ct.tag == TermConstants.listTag)
+			{
+				getList = iGetList(-1);
+			}
+			else
+			{
+				getStructure = iGetStructure(ct.tag, -1);
+			}
+			// read mode
+			Set<Term> initialized = new HashSet<Term>(initializedVariables);
+			for (Term arg : ct.args)
+			{
+				compileHeadUnification(arg);
+			}
+			IJump jump = iJump(-1);
+			// write mode, variables first occurring in structure are created here
+			if (getList != null)
+			{
+				getList.writePosition = currentCodePosition;
+			}
+			else
+			{
+				getStructure.writePosition = currentCodePosition;
+			}
+			Set<Term> readInitialized = initializedVariables;
+			initializedVariables = initialized;
+			compileTermCreation(ct);
+			iUnify();
+			initializedVariables = readInitialized;
+			jump.jumpPosition = currentCodePosition;
+		}
+		else
+		// unknown type of term
+		{
+			PrologException.systemError();
+		}
+	}
+
+	/**
+	 * check if term is variable kept in argument
+	 * 
+	 * @param term
+	 *          head argument
+	 * @param argument
+	 *          position of argument
+	 * @return true if term is variable kept in this argument
+	 */
+	boolean isArgument(Term term, int argument)
+	{
+		Integer rc = variableToArgument.get(term);
+		return rc != null && rc.intValue() == argument;
+	}
+
+	/**
+	 * check if term is a variable which occurs only once in clause
+	 * 
+	 * @param term
+	 *          term to check
+	 * @return true if term is a variable which is not used elsewhere
+	 */
+	boolean isVoidVariable(Term term)
+	{
+		Integer occurrences = variableOccurrences.get(term);
+		return occurrences != null && occurrences.intValue() == 1;
+	}
+
+	/**
+	 * count occurrences of variables in term
+	 * 
+	 * @param term
+	 *          term to analyse
+	 */
+	void countVariables(Term term)
+	{
+		if (term instanceof VariableTerm)
+		{
+			Integer occurrences = variableOccurrences.get(term);
+			variableOccurrences.put(term, Integer.valueOf(occurrences == null ? 1 : occurrences.intValue() + 1));
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			for (Term arg : ((CompoundTerm) term).args)
+			{
+				countVariables(arg);
+			}
+		}
+	}
+
 	/**
 	 * compile body of clause
 	 * 
@@ -297,6 +560,32 @@ public class InterpretedCodeCompiler
 				compileTermCreation(ct.args[1]);
 				iUnify();
 			}
+			else if (isInline(tag) && ITypeTest.getTest(tag) != -1)
+			{
+				compileTermCreation(ct.args[0]);
+				iTypeTest(ITypeTest.getTest(tag));
+			}
+			else if (isInline(tag) && (tag == identicalTag || tag == notIdenticalTag))
+			{
+				compileTermCreation(ct.args[0]);
+				compileTermCreation(ct.args[1]);
+				iIdentical(tag == identicalTag);
+			}
+			else if (isInline(tag)
+					&& (tag == ArithmeticExpression.isTag || ArithmeticExpression.isComparison(tag)) && compileArithmetic(ct))
+			{
+				// arithmetic is compiled inline
+			}
+			else if (tag == colonTag && ct.args[0] instanceof AtomTerm && Predicate_call.getDirectTag(ct.args[1]) != null)
+			{
+				// module is known, predicate is called in it without :/2
+				CompoundTermTag goalTag = Predicate_call.getDirectTag(ct.args[1]);
+				for (int i = 0; i < goalTag.arity; i++)
+				{
+					compileTermCreation(((CompoundTerm) ct.args[1]).args[i]);
+				}
+				iCall((AtomTerm) ct.args[0], goalTag);
+			}
 			else
 			// user defined predicate
 			{
@@ -399,6 +688,118 @@ public class InterpretedCodeCompiler
 		return rc;
 	}
 
+	/**
+	 * classify variables of clause. A variable which first occurs as an argument
+	 * of head is kept in the argument. A variable which first occurs elsewhere in
+	 * head or outside of alternatives in body is created when it first occurs.
+	 * Other variables have to be initialized when environment is allocated.
+	 * 
+	 * @param clause
+	 *          clause to analyse
+	 * @param lazy
+	 *          list to which variables created at first occurrence are added
+	 * @param eager
+	 *          list to which variables initialized on allocation are added
+	 */
+	void classifyVariables(Term clause, List<Term> lazy, List<Term> eager)
+	{
+		Set<Term> seen = new HashSet<Term>();
+		Term head = clause;
+		Term body = null;
+		if (clause instanceof CompoundTerm && ((CompoundTerm) clause).tag == TermConstants.clauseTag)
+		{
+			head = ((CompoundTerm) clause).args[0];
+			body = ((CompoundTerm) clause).args[1];
+		}
+		if (head instanceof CompoundTerm)
+		{
+			Term args[] = ((CompoundTerm) head).args;
+			for (int i = 0; i < args.length; i++)
+			{
+				if (args[i] instanceof VariableTerm && seen.add(args[i]))
+				{
+					variableToArgument.put(args[i], Integer.valueOf(i));
+				}
+				else
+				{
+					collectVariables(args[i], seen, lazy);
+				}
+			}
+		}
+		if (body != null)
+		{
+			classifyBodyVariables(body, seen, lazy, eager);
+		}
+	}
+
+	/**
+	 * classify variables of body
+	 * 
+	 * @param body
+	 *          body or its part
+	 * @param seen
+	 *          variables which occurred before
+	 * @param lazy
+	 *          list to which variables created at first occurrence are added
+	 * @param eager
+	 *          list to which variables initialized on allocation are added
+	 */
+	void classifyBodyVariables(Term body, Set<Term> seen, List<Term> lazy, List<Term> eager)
+	{
+		if (body instanceof CompoundTerm)
+		{
+			CompoundTerm ct = (CompoundTerm) body;
+			if (ct.tag == TermConstants.conjunctionTag)
+			{
+				classifyBodyVariables(ct.args[0], seen, lazy, eager);
+				classifyBodyVariables(ct.args[1], seen, lazy, eager);
+				return;
+			}
+			else if (ct.tag == TermConstants.disjunctionTag || ct.tag == TermConstants.ifTag)
+			{
+				// variable may be created on one path only
+				collectVariables(ct, seen, eager);
+				return;
+			}
+			else if (ct.tag == catchTag)
+			{
+				collectVariables(ct.args[0], seen, lazy);
+				collectVariables(ct.args[1], seen, eager);
+				collectVariables(ct.args[2], seen, eager);
+				return;
+			}
+		}
+		collectVariables(body, seen, lazy);
+	}
+
+	/**
+	 * collect variables of term which were not seen before
+	 * 
+	 * @param term
+	 *          term to analyse
+	 * @param seen
+	 *          variables which occurred before
+	 * @param variables
+	 *          list to which new variables are added
+	 */
+	void collectVariables(Term term, Set<Term> seen, List<Term> variables)
+	{
+		if (term instanceof VariableTerm)
+		{
+			if (seen.add(term))
+			{
+				variables.add(term);
+			}
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			for (Term arg : ((CompoundTerm) term).args)
+			{
+				collectVariables(arg, seen, variables);
+			}
+		}
+	}
+
 	/**
 	 * get all variables from term and populate variableToEnvironmentIndex map
 	 * 
@@ -463,6 +864,12 @@ public class InterpretedCodeCompiler
 	 */
 	void compileClause(Term clause) throws PrologException
 	{
+		variableOccurrences.clear();
+		initializedVariables.clear();
+		if (optimize)
+		{
+			countVariables(clause);
+		}
 		if (clause instanceof CompoundTerm)
 		{
 			CompoundTerm ct = (CompoundTerm) clause;
@@ -476,6 +883,43 @@ public class InterpretedCodeCompiler
 		compileHead(clause);
 	}
 
+	/**
+	 * get index keys of the head arguments of clauses
+	 * 
+	 * @param clauses
+	 *          dereferenced clauses of predicate
+	 * @return keys[argument][clause] as returned by
+	 *         {@link ClauseIndex#getKey(Term)} or null if predicate has no
+	 *         arguments
+	 */
+	static Object[][] getArgumentKeys(List<Term> clauses)
+	{
+		Object keys[][] = null;
+		int n = clauses.size();
+		for (int i = 0; i < n; i++)
+		{
+			Term head = clauses.get(i);
+			if (head instanceof CompoundTerm && ((CompoundTerm) head).tag == TermConstants.clauseTag)
+			{
+				head = ((CompoundTerm) head).args[0];
+			}
+			if (!(head instanceof CompoundTerm))
+			{
+				return null;
+			}
+			Term args[] = ((CompoundTerm) head).args;
+			if (keys == null)
+			{
+				keys = new Object[args.length][n];
+			}
+			for (int j = 0; j < args.length; j++)
+			{
+				keys[j][i] = ClauseIndex.getKey(args[j]);
+			}
+		}
+		return keys;
+	}
+
 	/**
 	 * compile set of clauses to interpreted code
 	 * 
@@ -485,13 +929,95 @@ public class InterpretedCodeCompiler
 	 * @throws PrologException
 	 */
 	public static PrologCode compile(List<Term> passedClauses) throws PrologException
+	{
+		return compile(passedClauses, true);
+	}
+
+	/**
+	 * compile set of clauses to interpreted code
+	 * 
+	 * @param passedClauses
+	 *          clauses passed to compiler
+	 * @param optimize
+	 *          true to compile with all optimisations, false to produce baseline
+	 *          code quickly
+	 * @return instance of interpreted code
+	 * @throws PrologException
+	 */
+	public static PrologCode compile(List<Term> passedClauses, boolean optimize) throws PrologException
+	{
+		return compile(null, passedClauses, optimize);
+	}
+
+	/**
+	 * compile set of clauses to interpreted code
+	 * 
+	 * @param module
+	 *          module in which called predicates are looked up, null to look
+	 *          them up in the module of the interpreter
+	 * @param passedClauses
+	 *          clauses passed to compiler
+	 * @param optimize
+	 *          true to compile with all optimisations, false to produce baseline
+	 *          code quickly
+	 * @return instance of interpreted code
+	 * @throws PrologException
+	 */
+	public static PrologCode compile(Module module, List<Term> passedClauses, boolean optimize)
+			throws PrologException
+	{
+		return compile(null, module, passedClauses, optimize);
+	}
+
+	/**
+	 * compile set of clauses to interpreted code
+	 * 
+	 * @param environment
+	 *          environment in which the code runs, builtins which have a spy
+	 *          point in it are called instead of compiled inline
+	 * @param module
+	 *          module in which called predicates are looked up, null to look
+	 *          them up in the module of the interpreter
+	 * @param passedClauses
+	 *          clauses passed to compiler
+	 * @param optimize
+	 *          true to compile with all optimisations, false to produce baseline
+	 *          code quickly
+	 * @return instance of interpreted code
+	 * @throws PrologException
+	 */
+	public static PrologCode compile(Environment environment, Module module, List<Term> passedClauses,
+			boolean optimize) throws PrologException
 	{
 		synchronized (passedClauses)
 		{
-			return new InterpretedCodeCompiler(passedClauses).compilePredicate();
+			InterpretedCodeCompiler compiler = new InterpretedCodeCompiler(passedClauses);
+			compiler.optimize = optimize;
+			compiler.module = module;
+			compiler.environment = environment;
+			return compiler.compilePredicate();
 		}
 	}
 
+	/**
+	 * check if optimized code may compile builtin inline
+	 * 
+	 * @param tag
+	 *          tag of builtin
+	 * @return true if tag is one of the builtins which are compiled inline
+	 */
+	public static boolean isInlineBuiltin(CompoundTermTag tag)
+	{
+		return ITypeTest.getTest(tag) != -1 || tag == identicalTag || tag == notIdenticalTag
+				|| tag == ArithmeticExpression.isTag || ArithmeticExpression.isComparison(tag);
+	}
+
+	/** check if builtin is compiled inline, it is called if it has a spy point */
+	private boolean isInline(CompoundTermTag tag)
+	{
+		return optimize && INLINE_BUILTINS && (environment == null || !environment.hasSpyPoint(tag));
+	}
+
 	/**
 	 * compile set of clauses to interpreted code
 	 * 
@@ -533,14 +1059,39 @@ public class InterpretedCodeCompiler
 			}
 			// get number of variables
 			int environmentSize = numberOfReserved;
-			for (iclauses = clauses.iterator(); iclauses.hasNext();)
+			int uninitialized = numberOfReserved;
+			if (optimize)
 			{
-				environmentSize = getAllVariables(iclauses.next(), environmentSize);
+				// variables created at first occurrence are placed before variables
+				// initialized on allocation
+				List<Term> lazy = new ArrayList<Term>();
+				List<Term> eager = new ArrayList<Term>();
+				for (Term clause : clauses)
+				{
+					classifyVariables(clause, lazy, eager);
+				}
+				for (Term variable : lazy)
+				{
+					variableToEnvironmentIndex.put(variable, Integer.valueOf(environmentSize++));
+				}
+				lazyVariables.addAll(lazy);
+				uninitialized = environmentSize;
+				for (Term variable : eager)
+				{
+					variableToEnvironmentIndex.put(variable, Integer.valueOf(environmentSize++));
+				}
+			}
+			else
+			{
+				for (iclauses = clauses.iterator(); iclauses.hasNext();)
+				{
+					environmentSize = getAllVariables(iclauses.next(), environmentSize);
+				}
 			}
 
 			// compile predicate
 			// predicate prefix
-			iAllocate(environmentSize, numberOfReserved);
+			iAllocate(environmentSize, uninitialized);
 			int envPos = allocReserved();
 			iSaveCut(envPos);
 			pushCutPosition(envPos);
@@ -549,18 +1100,32 @@ public class InterpretedCodeCompiler
 			if (n > 1) // if more then one clause
 			{
 				List<IJump> jumps = new ArrayList<IJump>();
+				int clausePositions[] = new int[n];
+				Object clauseKeys[][] = optimize ? getArgumentKeys(clauses) : null;
+				ISwitchOnTerm switchOnTerm = null;
+				if (clauseKeys != null)
+				{
+					switchOnTerm = iSwitchOnTerm(clauseKeys, clausePositions);
+				}
 				RetryInstruction prv = iTryMeElse(-1);
+				if (switchOnTerm != null)
+				{
+					switchOnTerm.variablePosition = prv.codePosition;
+				}
+				clausePositions[0] = currentCodePosition;
 				compileClause(clauses.get(0));
-				jumps.add(iJump(-1));
+				compileClauseEnd(jumps);
 				for (i = 1; i < n - 1; i++)
 				{
 					prv.retryPosition = currentCodePosition;
 					prv = iRetryMeElse(-1);
+					clausePositions[i] = currentCodePosition;
 					compileClause(clauses.get(i));
-					jumps.add(iJump(-1));
+					compileClauseEnd(jumps);
 				}
 				prv.retryPosition = currentCodePosition;
 				iTrustMe();
+				clausePositions[n - 1] = currentCodePosition;
 				compileClause(clauses.get(n - 1));
 				for (IJump jump2 : jumps)
 				{
@@ -577,12 +1142,205 @@ public class InterpretedCodeCompiler
 			popCutPosition();
 		}
 		// predicate compilation finished, construct InterpretedCode
+		int unoptimizedSize = code.size();
+		if (optimize)
+		{
+			new PeepholeOptimizer(code, exceptionHandlers).optimize();
+		}
 		Instruction instr[] = code.toArray(instructionArrayConstant);
 		ExceptionHandlerInfo ehs[] = exceptionHandlers.toArray(exceptionHandlerArrayConstant);
-		return new InterpretedByteCode(codeTag, instr, ehs);
+		CompoundTermTag deterministicCalls[] = null;
+		if (optimize && ehs.length == 0)
+		{
+			Set<CompoundTermTag> calls = getDeterministicCalls(clauses);
+			if (calls != null)
+			{
+				deterministicCalls = calls.toArray(new CompoundTermTag[calls.size()]);
+			}
+		}
+		InterpretedByteCode rc = new InterpretedByteCode(codeTag, instr, ehs, optimize, deterministicCalls,
+				unoptimizedSize);
+		rc.module = module;
+		return rc;
 		// return new InterpretedCode(codeTag, instr, ehs);
 	}
 
+	/**
+	 * compile end of clause which is not the last one. Optimized code returns
+	 * directly, so the last call of a clause which cut away other clauses is a
+	 * last call of predicate too.
+	 * 
+	 * @param jumps
+	 *          jumps to end of predicate
+	 */
+	void compileClauseEnd(List<IJump> jumps)
+	{
+		if (optimize)
+		{
+			iReturn();
+		}
+		else
+		{
+			jumps.add(iJump(-1));
+		}
+	}
+
+	/**
+	 * determinism analysis. Predicate is deterministic if in every clause the
+	 * goals after the last cut of its body, or all goals if it is the last clause
+	 * and has no cut, cannot leave choice points. Except for the last call, such
+	 * goals are control constructs and calls to {@link gnu.prolog.vm.DeterministicCode},
+	 * which is checked when the code is installed. Calls to the predicate itself
+	 * are deterministic if the last calls of the predicate are.
+	 * 
+	 * @param clauses
+	 *          dereferenced clauses of predicate
+	 * @return tags of calls which must be deterministic for predicate to be
+	 *         deterministic or null if predicate is not deterministic
+	 */
+	Set<CompoundTermTag> getDeterministicCalls(List<Term> clauses)
+	{
+		Set<CompoundTermTag> calls = new HashSet<CompoundTermTag>();
+		Set<CompoundTermTag> lastCalls = new HashSet<CompoundTermTag>();
+		List<Term> goals = new ArrayList<Term>();
+		int n = clauses.size();
+		for (int i = 0; i < n; i++)
+		{
+			Term clause = clauses.get(i);
+			goals.clear();
+			if (clause instanceof CompoundTerm && ((CompoundTerm) clause).tag == TermConstants.clauseTag)
+			{
+				collectGoals(((CompoundTerm) clause).args[1], goals);
+			}
+			int start = goals.lastIndexOf(TermConstants.cutAtom) + 1;
+			if (start == 0 && i < n - 1)
+			{
+				// choice point of the following clauses is kept
+				return null;
+			}
+			int m = goals.size();
+			for (int j = start; j < m; j++)
+			{
+				Term goal = goals.get(j);
+				CompoundTermTag tag = getCallTag(goal);
+				if (j == m - 1 && tag != null)
+				{
+					if (tag != codeTag)
+					{
+						lastCalls.add(tag);
+					}
+				}
+				else if (!isDeterministicGoal(goal, calls))
+				{
+					return null;
+				}
+			}
+		}
+		if (calls.remove(codeTag))
+		{
+			calls.addAll(lastCalls);
+		}
+		return calls;
+	}
+
+	/**
+	 * collect goals of conjunction
+	 * 
+	 * @param body
+	 *          body of clause
+	 * @param goals
+	 *          list to which goals are added
+	 */
+	static void collectGoals(Term body, List<Term> goals)
+	{
+		if (body instanceof CompoundTerm && ((CompoundTerm) body).tag == TermConstants.conjunctionTag)
+		{
+			collectGoals(((CompoundTerm) body).args[0], goals);
+			collectGoals(((CompoundTerm) body).args[1], goals);
+		}
+		else
+		{
+			goals.add(body);
+		}
+	}
+
+	/**
+	 * get tag of predicate called by goal
+	 * 
+	 * @param goal
+	 *          goal of clause body
+	 * @return tag of called predicate or null if goal is compiled inline
+	 */
+	static CompoundTermTag getCallTag(Term goal)
+	{
+		if (goal instanceof VariableTerm)
+		{
+			return TermConstants.callTag;
+		}
+		else if (goal instanceof AtomTerm)
+		{
+			if (goal == TermConstants.cutAtom || goal == TermConstants.trueAtom || goal == TermConstants.failAtom)
+			{
+				return null;
+			}
+			return CompoundTermTag.get((AtomTerm) goal, 0);
+		}
+		else if (goal instanceof CompoundTerm)
+		{
+			CompoundTermTag tag = ((CompoundTerm) goal).tag;
+			if (tag == TermConstants.conjunctionTag || tag == TermConstants.disjunctionTag || tag == TermConstants.ifTag
+					|| tag == throwTag || tag == catchTag || tag == unifyTag)
+			{
+				return null;
+			}
+			return tag;
+		}
+		return null;
+	}
+
+	/**
+	 * check if goal cannot leave choice points
+	 * 
+	 * @param goal
+	 *          goal of clause body
+	 * @param calls
+	 *          set to which tags of calls which must be deterministic are added
+	 * @return true if goal is deterministic when calls are
+	 */
+	static boolean isDeterministicGoal(Term goal, Set<CompoundTermTag> calls)
+	{
+		CompoundTermTag tag = getCallTag(goal);
+		if (tag != null)
+		{
+			calls.add(tag);
+			return true;
+		}
+		if (goal instanceof CompoundTerm)
+		{
+			CompoundTerm ct = (CompoundTerm) goal;
+			if (ct.tag == TermConstants.conjunctionTag)
+			{
+				return isDeterministicGoal(ct.args[0], calls) && isDeterministicGoal(ct.args[1], calls);
+			}
+			else if (ct.tag == TermConstants.disjunctionTag)
+			{
+				// only if then else, choice point of condition is cut
+				if (ct.args[0] instanceof CompoundTerm && ((CompoundTerm) ct.args[0]).tag == TermConstants.ifTag)
+				{
+					return isDeterministicGoal(((CompoundTerm) ct.args[0]).args[1], calls)
+							&& isDeterministicGoal(ct.args[1], calls);
+				}
+				return false;
+			}
+			else if (ct.tag == TermConstants.ifTag)
+			{
+				return isDeterministicGoal(ct.args[1], calls);
+			}
+			return ct.tag == throwTag || ct.tag == unifyTag;
+		}
+		return goal instanceof AtomTerm;
+	}
+
 	/**
 	 * get index of variable in environment
 	 * 
@@ -665,6 +1423,20 @@ public class InterpretedCodeCompiler
 		return rc;
 	}
 
+	/**
+	 * add module qualified call instruction
+	 * 
+	 * @param module
+	 * @param tag
+	 * @return instruction which has been added
+	 */
+	ICall iCall(AtomTerm module, CompoundTermTag tag)
+	{
+		ICall rc = new ICall(module, tag);
+		addInstruction(rc);
+		return rc;
+	}
+
 	/**
 	 * add create compound tag instruction
 	 * 
@@ -678,6 +1450,18 @@ public class InterpretedCodeCompiler
 		return rc;
 	}
 
+	/**
+	 * add create variable instruction
+	 * 
+	 * @return instruction which has been added
+	 */
+	ICreateVariable iCreateVariable()
+	{
+		ICreateVariable rc = new ICreateVariable();
+		addInstruction(rc);
+		return rc;
+	}
+
 	/**
 	 * add cut instruction
 	 * 
@@ -691,6 +1475,18 @@ public class InterpretedCodeCompiler
 		return rc;
 	}
 
+	/**
+	 * add dup instruction
+	 * 
+	 * @return instruction which has been added
+	 */
+	IDup iDup()
+	{
+		IDup rc = new IDup();
+		addInstruction(rc);
+		return rc;
+	}
+
 	/**
 	 * add fail instruction
 	 * 
@@ -716,6 +1512,111 @@ public class InterpretedCodeCompiler
 		return rc;
 	}
 
+	/**
+	 * add get constant instruction
+	 * 
+	 * @param term
+	 * @return instruction which has been added
+	 */
+	IGetConstant iGetConstant(AtomicTerm term)
+	{
+		IGetConstant rc = new IGetConstant(term);
+		addInstruction(rc);
+		return rc;
+	}
+
+	/**
+	 * add get list instruction
+	 * 
+	 * @param writePos
+	 * @return instruction which has been added
+	 */
+	IGetList iGetList(int writePos)
+	{
+		IGetList rc = new IGetList(writePos);
+		addInstruction(rc);
+		return rc;
+	}
+
+	/**
+	 * add get structure instruction
+	 * 
+	 * @param tag
+	 * @param writePos
+	 * @return instruction which has been added
+	 */
+	IGetStructure iGetStructure(CompoundTermTag tag, int writePos)
+	{
+		IGetStructure rc = new IGetStructure(tag, writePos);
+		addInstruction(rc);
+		return rc;
+	}
+
+	/**
+	 * add evaluate instruction
+	 * 
+	 * @param expression
+	 * @return instruction which has been added
+	 */
+	IEvaluate iEvaluate(ArithmeticExpression expression)
+	{
+		IEvaluate rc = new IEvaluate(expression);
+		addInstruction(rc);
+		return rc;
+	}
+
+	/**
+	 * add compare instruction
+	 * 
+	 * @param comparison
+	 * @return instruction which has been added
+	 */
+	ICompare iCompare(ArithmeticExpression comparison)
+	{
+		ICompare rc = new ICompare(comparison);
+		addInstruction(rc);
+		return rc;
+	}
+
+	/**
+	 * add type test instruction
+	 * 
+	 * @param test
+	 * @return instruction which has been added
+	 */
+	ITypeTest iTypeTest(int test)
+	{
+		ITypeTest rc = new ITypeTest(test);
+		addInstruction(rc);
+		return rc;
+	}
+
+	/**
+	 * add identical instruction
+	 * 
+	 * @param identical
+	 *          true for ==/2, false for \==/2
+	 * @return instruction which has been added
+	 */
+	IIdentical iIdentical(boolean identical)
+	{
+		IIdentical rc = new IIdentical(identical);
+		addInstruction(rc);
+		return rc;
+	}
+
+	/**
+	 * add pop instruction
+	 * 
+	 * @return instruction which has been added
+	 */
+	IPop iPop()
+	{
+		IPop rc = new IPop();
+		addInstruction(rc);
+		return rc;
+	}
+
 	/**
 	 * add push argument instruction
 	 * 
@@ -793,6 +1694,20 @@ public class InterpretedCodeCompiler
 		return rc;
 	}
 
+	/**
+	 * add switch on term instruction
+	 * 
+	 * @param clauseKeys
+	 * @param clausePositions
+	 * @return instruction which has been added
+	 */
+	ISwitchOnTerm iSwitchOnTerm(Object clauseKeys[][], int clausePositions[])
+	{
+		ISwitchOnTerm rc = new ISwitchOnTerm(-1, clauseKeys, clausePositions);
+		addInstruction(rc);
+		return rc;
+	}
+
 	IStoreEnvironment iStoreEnvironment(int envPos)
 	{
 		IStoreEnvironment rc = new IStoreEnvironment(envPos);
@@ -861,6 +1776,32 @@ public class InterpretedCodeCompiler
 		return rc;
 	}
 
+	/**
+	 * add unify value instruction
+	 * 
+	 * @param envIdx
+	 * @return instruction which has been added
+	 */
+	IUnifyValue iUnifyValue(int envIdx)
+	{
+		IUnifyValue rc = new IUnifyValue(envIdx);
+		addInstruction(rc);
+		return rc;
+	}
+
+	/**
+	 * add unify variable instruction
+	 * 
+	 * @param envIdx
+	 * @return instruction which has been added
+	 */
+	IUnifyVariable iUnifyVariable(int envIdx)
+	{
+		IUnifyVariable rc = new IUnifyVariable(envIdx);
+		addInstruction(rc);
+		return rc;
+	}
+
 	/**
 	 * add exception handler
 	 * 
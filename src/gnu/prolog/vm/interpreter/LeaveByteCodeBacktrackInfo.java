@@ -31,16 +31,25 @@ public class LeaveByteCodeBacktrackInfo extends BacktrackInfo
 	/** execution state */
 	public BacktrackInfo startBacktrackInfo;
 	public Term environment[];
+	/** code which has been left, it could differ from called code after last call */
+	public InterpretedByteCode code;
+	/** arguments of code which has been left */
+	public Term args[];
 
 	/**
 	 * a constructor
 	 * 
+	 * @param code
+	 * @param args
 	 * @param environment
 	 * @param startBacktrackInfo
 	 */
-	public LeaveByteCodeBacktrackInfo(Term environment[], BacktrackInfo startBacktrackInfo)
+	public LeaveByteCodeBacktrackInfo(InterpretedByteCode code, Term args[], Term environment[],
+			BacktrackInfo startBacktrackInfo)
 	{
 		super(-1, -1);
+		this.code = code;
+		this.args = args;
 		this.environment = environment;
 		this.startBacktrackInfo = startBacktrackInfo;
 	}
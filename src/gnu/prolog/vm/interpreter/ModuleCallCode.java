@@ -0,0 +1,70 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.database.Module;
+import gnu.prolog.vm.ExecuteOnlyCode;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologCode;
+import gnu.prolog.vm.PrologException;
+
+/**
+ * Code of predicate called with module qualification Module:Goal when the
+ * module is known at compile time. The code is executed with the module of the
+ * interpreter set to the module, on call and on redo.
+ */
+public class ModuleCallCode extends ExecuteOnlyCode
+{
+	/** module of called predicate */
+	protected final Module module;
+	/** code of called predicate */
+	protected final PrologCode code;
+
+	/**
+	 * a constructor
+	 *
+	 * @param module
+	 * @param code
+	 */
+	public ModuleCallCode(Module module, PrologCode code)
+	{
+		this.module = module;
+		this.code = code;
+	}
+
+	@Override
+	public RC execute(Interpreter interpreter, boolean backtrackMode, gnu.prolog.term.Term args[])
+			throws PrologException
+	{
+		Module previous = interpreter.setModule(module);
+		try
+		{
+			return code.execute(interpreter, backtrackMode, args);
+		}
+		finally
+		{
+			interpreter.setModule(previous);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return module + ":" + code;
+	}
+}
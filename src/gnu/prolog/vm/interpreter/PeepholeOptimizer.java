@@ -0,0 +1,428 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.vm.interpreter.instruction.ICreateVariable;
+import gnu.prolog.vm.interpreter.instruction.IDup;
+import gnu.prolog.vm.interpreter.instruction.IFail;
+import gnu.prolog.vm.interpreter.instruction.IGetConstant;
+import gnu.prolog.vm.interpreter.instruction.IGetList;
+import gnu.prolog.vm.interpreter.instruction.IGetStructure;
+import gnu.prolog.vm.interpreter.instruction.IJump;
+import gnu.prolog.vm.interpreter.instruction.INewVariable;
+import gnu.prolog.vm.interpreter.instruction.IPop;
+import gnu.prolog.vm.interpreter.instruction.IPushArgument;
+import gnu.prolog.vm.interpreter.instruction.IPushConstant;
+import gnu.prolog.vm.interpreter.instruction.IPushEnvironment;
+import gnu.prolog.vm.interpreter.instruction.IReturn;
+import gnu.prolog.vm.interpreter.instruction.IStoreEnvironment;
+import gnu.prolog.vm.interpreter.instruction.ISwitchOnTerm;
+import gnu.prolog.vm.interpreter.instruction.IThrow;
+import gnu.prolog.vm.interpreter.instruction.ITrue;
+import gnu.prolog.vm.interpreter.instruction.IUnify;
+import gnu.prolog.vm.interpreter.instruction.Instruction;
+import gnu.prolog.vm.interpreter.instruction.RetryInstruction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * peephole optimiser for the instructions produced by
+ * {@link InterpretedCodeCompiler}. It threads jumps, removes unreachable code
+ * and no-ops, eliminates redundant pushes, stores and loads and merges
+ * create_variable, dup, store_environment into new_variable. Positions in
+ * instructions and exception handlers are indexes in the instruction list and
+ * are updated when instructions are removed.
+ */
+public class PeepholeOptimizer
+{
+	/** instructions to optimise */
+	protected List<Instruction> code;
+	/** exception handlers of instructions */
+	protected List<ExceptionHandlerInfo> exceptionHandlers;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param code
+	 *          instructions, the list is changed by {@link #optimize()}
+	 * @param exceptionHandlers
+	 *          exception handlers, they are changed by {@link #optimize()}
+	 */
+	public PeepholeOptimizer(List<Instruction> code, List<ExceptionHandlerInfo> exceptionHandlers)
+	{
+		this.code = code;
+		this.exceptionHandlers = exceptionHandlers;
+	}
+
+	/**
+	 * optimise instructions until no rule applies
+	 */
+	public void optimize()
+	{
+		boolean changed = true;
+		while (changed)
+		{
+			changed = threadJumps();
+			boolean removed[] = new boolean[code.size()];
+			boolean compact = removeUnreachable(removed);
+			compact |= rewrite(removed, getTargets());
+			if (compact)
+			{
+				compact(removed);
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * replace instruction
+	 * 
+	 * @param position
+	 * @param instruction
+	 */
+	private void replace(int position, Instruction instruction)
+	{
+		instruction.codePosition = position;
+		code.set(position, instruction);
+	}
+
+	/**
+	 * let jumps go to the final destination of jump chains, jumps to return and
+	 * fail are replaced by the instruction
+	 * 
+	 * @return true if code was changed
+	 */
+	boolean threadJumps()
+	{
+		boolean changed = false;
+		int n = code.size();
+		for (int i = 0; i < n; i++)
+		{
+			if (!(code.get(i) instanceof IJump))
+			{
+				continue;
+			}
+			IJump jump = (IJump) code.get(i);
+			int target = jump.jumpPosition;
+			for (int steps = 0; steps < n && code.get(target) instanceof IJump; steps++)
+			{
+				target = ((IJump) code.get(target)).jumpPosition;
+			}
+			if (code.get(target) instanceof IReturn)
+			{
+				replace(i, new IReturn());
+				changed = true;
+			}
+			else if (code.get(target) instanceof IFail)
+			{
+				replace(i, new IFail());
+				changed = true;
+			}
+			else if (target != jump.jumpPosition)
+			{
+				jump.jumpPosition = target;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * get positions to which control can be transferred from elsewhere than the
+	 * previous instruction or which delimit exception handlers
+	 * 
+	 * @return true for each such position
+	 */
+	boolean[] getTargets()
+	{
+		boolean targets[] = new boolean[code.size()];
+		for (Instruction instruction : code)
+		{
+			for (int target : getBranches(instruction))
+			{
+				targets[target] = true;
+			}
+		}
+		for (ExceptionHandlerInfo eh : exceptionHandlers)
+		{
+			targets[eh.startPosition] = true;
+			targets[eh.endPosition] = true;
+			targets[eh.handlerPosition] = true;
+		}
+		return targets;
+	}
+
+	/**
+	 * get positions other than the next one to which instruction can transfer
+	 * control
+	 * 
+	 * @param instruction
+	 * @return positions
+	 */
+	private static List<Integer> getBranches(Instruction instruction)
+	{
+		List<Integer> rc = new ArrayList<Integer>();
+		if (instruction instanceof IJump)
+		{
+			rc.add(((IJump) instruction).jumpPosition);
+		}
+		else if (instruction instanceof RetryInstruction)
+		{
+			rc.add(((RetryInstruction) instruction).retryPosition);
+		}
+		else if (instruction instanceof IGetStructure)
+		{
+			rc.add(((IGetStructure) instruction).writePosition);
+		}
+		else if (instruction instanceof IGetList)
+		{
+			rc.add(((IGetList) instruction).writePosition);
+		}
+		else if (instruction instanceof ISwitchOnTerm)
+		{
+			ISwitchOnTerm ii = (ISwitchOnTerm) instruction;
+			rc.add(ii.variablePosition);
+			for (int position : ii.clausePositions)
+			{
+				rc.add(position);
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * check if execution can continue with the next instruction
+	 * 
+	 * @param instruction
+	 * @return false if instruction always transfers control elsewhere
+	 */
+	private static boolean hasNext(Instruction instruction)
+	{
+		return !(instruction instanceof IJump || instruction instanceof IFail || instruction instanceof IThrow || instruction instanceof IReturn);
+	}
+
+	/**
+	 * mark instructions which cannot be reached from the start of code or from
+	 * exception handlers. The last instruction is kept as the end of code.
+	 * 
+	 * @param removed
+	 *          removed instructions
+	 * @return true if instructions were removed
+	 */
+	boolean removeUnreachable(boolean removed[])
+	{
+		int n = code.size();
+		boolean reachable[] = new boolean[n];
+		List<Integer> work = new ArrayList<Integer>();
+		work.add(0);
+		for (ExceptionHandlerInfo eh : exceptionHandlers)
+		{
+			work.add(eh.handlerPosition);
+		}
+		while (!work.isEmpty())
+		{
+			int i = work.remove(work.size() - 1);
+			if (reachable[i])
+			{
+				continue;
+			}
+			reachable[i] = true;
+			Instruction instruction = code.get(i);
+			work.addAll(getBranches(instruction));
+			if (hasNext(instruction) && i + 1 < n)
+			{
+				work.add(i + 1);
+			}
+		}
+		boolean rc = false;
+		for (int i = 0; i < n - 1; i++)
+		{
+			if (!reachable[i])
+			{
+				removed[i] = true;
+				rc = true;
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * get position of the first instruction after position which is not removed
+	 * 
+	 * @param position
+	 * @param removed
+	 * @return position of next instruction, size of code if there is none
+	 */
+	private int next(int position, boolean removed[])
+	{
+		int i = position + 1;
+		while (i < removed.length && removed[i])
+		{
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * apply rewriting rules to instructions. Instructions after the first of a
+	 * sequence must not be targets, so the sequence is always executed as a
+	 * whole.
+	 * 
+	 * @param removed
+	 *          removed instructions
+	 * @param targets
+	 *          positions which are targets, see {@link #getTargets()}
+	 * @return true if instructions were removed
+	 */
+	boolean rewrite(boolean removed[], boolean targets[])
+	{
+		boolean rc = false;
+		int n = code.size();
+		for (int i = 0; i < n; i = next(i, removed))
+		{
+			if (removed[i])
+			{
+				continue;
+			}
+			Instruction a = code.get(i);
+			if (a instanceof ITrue && i < n - 1)
+			{
+				// no-op
+				removed[i] = true;
+				rc = true;
+				continue;
+			}
+			int j = next(i, removed);
+			if (a instanceof IJump && ((IJump) a).jumpPosition == j)
+			{
+				// jump to next instruction
+				removed[i] = true;
+				rc = true;
+				continue;
+			}
+			if (j != i + 1 || j >= n || targets[j])
+			{
+				continue;
+			}
+			Instruction b = code.get(j);
+			if (b instanceof IPop
+					&& (a instanceof IPushArgument || a instanceof IPushConstant || a instanceof IPushEnvironment
+							|| a instanceof ICreateVariable || a instanceof IDup))
+			{
+				// value is not used
+				removed[i] = true;
+				removed[j] = true;
+				rc = true;
+			}
+			else if (a instanceof IPushEnvironment && b instanceof IStoreEnvironment
+					&& ((IPushEnvironment) a).environmentPosition == ((IStoreEnvironment) b).environmentIndex)
+			{
+				// value is stored where it was loaded from
+				removed[i] = true;
+				removed[j] = true;
+				rc = true;
+			}
+			else if (a instanceof IStoreEnvironment && b instanceof IPushEnvironment
+					&& ((IStoreEnvironment) a).environmentIndex == ((IPushEnvironment) b).environmentPosition)
+			{
+				// stored value is still on the stack
+				replace(i, new IDup());
+				replace(j, a);
+			}
+			else if (a instanceof IPushConstant && b instanceof IUnify)
+			{
+				replace(i, new IGetConstant(((IPushConstant) a).term));
+				removed[j] = true;
+				rc = true;
+			}
+			else if (a instanceof ICreateVariable && b instanceof IDup && j + 1 < n && !targets[j + 1]
+					&& code.get(j + 1) instanceof IStoreEnvironment)
+			{
+				replace(i, new INewVariable(((IStoreEnvironment) code.get(j + 1)).environmentIndex));
+				removed[j] = true;
+				removed[j + 1] = true;
+				rc = true;
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * remove marked instructions and update positions
+	 * 
+	 * @param removed
+	 *          removed instructions
+	 */
+	void compact(boolean removed[])
+	{
+		int n = code.size();
+		// removed positions are mapped to the next instruction which is kept
+		int newPositions[] = new int[n];
+		List<Instruction> kept = new ArrayList<Instruction>();
+		for (int i = 0; i < n; i++)
+		{
+			newPositions[i] = kept.size();
+			if (!removed[i])
+			{
+				kept.add(code.get(i));
+			}
+		}
+		for (Instruction instruction : kept)
+		{
+			instruction.codePosition = newPositions[instruction.codePosition];
+			if (instruction instanceof IJump)
+			{
+				IJump ii = (IJump) instruction;
+				ii.jumpPosition = newPositions[ii.jumpPosition];
+			}
+			else if (instruction instanceof RetryInstruction)
+			{
+				RetryInstruction ii = (RetryInstruction) instruction;
+				ii.retryPosition = newPositions[ii.retryPosition];
+			}
+			else if (instruction instanceof IGetStructure)
+			{
+				IGetStructure ii = (IGetStructure) instruction;
+				ii.writePosition = newPositions[ii.writePosition];
+			}
+			else if (instruction instanceof IGetList)
+			{
+				IGetList ii = (IGetList) instruction;
+				ii.writePosition = newPositions[ii.writePosition];
+			}
+			else if (instruction instanceof ISwitchOnTerm)
+			{
+				ISwitchOnTerm ii = (ISwitchOnTerm) instruction;
+				ii.variablePosition = newPositions[ii.variablePosition];
+				for (int k = 0; k < ii.clausePositions.length; k++)
+				{
+					ii.clausePositions[k] = newPositions[ii.clausePositions[k]];
+				}
+			}
+		}
+		for (ExceptionHandlerInfo eh : exceptionHandlers)
+		{
+			eh.startPosition = newPositions[eh.startPosition];
+			eh.endPosition = newPositions[eh.endPosition];
+			eh.handlerPosition = newPositions[eh.handlerPosition];
+		}
+		code.clear();
+		code.addAll(kept);
+	}
+}
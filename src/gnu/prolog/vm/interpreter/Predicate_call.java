@@ -19,8 +19,10 @@
 package gnu.prolog.vm.interpreter;
 
 import gnu.prolog.database.MetaPredicateInfo;
+import gnu.prolog.database.Module;
 import gnu.prolog.term.AtomTerm;
 import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
 import gnu.prolog.vm.BacktrackInfo;
@@ -34,6 +36,7 @@ import gnu.prolog.vm.TermConstants;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -64,18 +67,6 @@ public class Predicate_call extends ExecuteOnlyMetaCode
 		Term args[];
 		/** Term passed as parameter */
 		Term callTerm;
-		/** environment */
-		Environment environment;
-
-		@Override
-		protected void finalize() throws Throwable
-		{
-			if (code != null)
-			{
-				code.uninstall(environment);
-			}
-			super.finalize();
-		}
 	}
 
 	@Override
@@ -110,37 +101,62 @@ public class Predicate_call extends ExecuteOnlyMetaCode
 		Term callTerm; // term being called
 		if (cbi == null)
 		{
-			callTerm = arg;
+			callTerm = arg.dereference();
 			if (callTerm instanceof VariableTerm)
 			{
 				PrologException.instantiationError(callTerm);
 			}
-			// This was originally done using two Lists by keeping their sizes in sync
-			// but I (Daniel) refactored this to a map. (This may have broken
-			// something).
-			Map<Term, VariableTerm> argumentsToArgumentVariables = new HashMap<Term, VariableTerm>();
-			Term body;
-			try
+			Environment environment = interpreter.getEnvironment();
+			Module module = interpreter.getModule();
+			// the goal is compiled when tracing so that its call is traced
+			CompoundTermTag tag = interpreter.getTracer().isActive() ? null : getDirectTag(callTerm);
+			if (tag != null)
 			{
-				body = getClause(callTerm, argumentsToArgumentVariables);
+				// goal without control constructs, the code of predicate is called
+				// directly
+				code = environment.getPrologCode(module, tag);
+				args = new Term[tag.arity];
+				for (int i = 0; i < args.length; i++)
+				{
+					args[i] = ((CompoundTerm) callTerm).args[i].dereference();
+				}
 			}
-			catch (IllegalArgumentException ex) // term not callable
+			else
 			{
-				PrologException.typeError(TermConstants.callableAtom, callTerm);
-				return RC.FAIL; // fake return
+				List<Term> arguments = new ArrayList<Term>();
+				List<Object> skeleton;
+				try
+				{
+					skeleton = getSkeleton(callTerm, new HashMap<Term, Integer>(), arguments);
+				}
+				catch (IllegalArgumentException ex) // term not callable
+				{
+					PrologException.typeError(TermConstants.callableAtom, callTerm);
+					return RC.FAIL; // fake return
+				}
+				args = arguments.toArray(termArrayType);
+				// called predicates are looked up in the current module
+				skeleton.add(module);
+				CallCache cache = environment.getCallCache();
+				code = cache.isEnabled() ? cache.get(skeleton) : null;
+				if (code == null)
+				{
+					// the head variables are in order of first occurrence like the
+					// arguments
+					Map<Term, VariableTerm> argumentsToArgumentVariables = new LinkedHashMap<Term, VariableTerm>();
+					Term body = getClause(callTerm, argumentsToArgumentVariables);
+					Term headArgs[] = argumentsToArgumentVariables.values().toArray(termArrayType);
+					Term head = new CompoundTerm(headFunctor, headArgs);
+					Term clause = new CompoundTerm(TermConstants.clauseTag, head, body);
+					List<Term> clauses = new ArrayList<Term>(1);
+					clauses.add(clause);
+					code = InterpretedCodeCompiler.compile(environment, module, clauses, true);
+					if (cache.isEnabled())
+					{
+						code = cache.put(skeleton, code);
+					}
+				}
 			}
-			Term headArgs[] = argumentsToArgumentVariables.values().toArray(termArrayType);
-			Term head = new CompoundTerm(headFunctor, headArgs);
-			Term clause = new CompoundTerm(TermConstants.clauseTag, head, body);
-			args = argumentsToArgumentVariables.keySet().toArray(termArrayType);
-			List<Term> clauses = new ArrayList<Term>(1);
-			clauses.add(clause);
-			code = InterpretedCodeCompiler.compile(clauses);
-			code.install(interpreter.getEnvironment());
-			// System.err.println("converted clause");
-			// System.err.println(gnu.prolog.io.TermWriter.toString(clause));
-			// System.err.println("converted code");
-			// System.err.print(code);
 		}
 		else
 		{
@@ -152,19 +168,112 @@ public class Predicate_call extends ExecuteOnlyMetaCode
 		RC rc = code.execute(interpreter, backtrackMode, args);
 		if (rc == RC.SUCCESS) // redo is possible
 		{
-			cbi = new CallTermBacktrackInfo(interpreter, code, args, callTerm);
-			cbi.environment = interpreter.getEnvironment();
-			interpreter.pushBacktrackInfo(cbi);
+			interpreter.pushBacktrackInfo(new CallTermBacktrackInfo(interpreter, code, args, callTerm));
 		}
-		else
+		return rc;
+	}
+
+	/**
+	 * get tag of goal which could be executed by calling the code of the
+	 * predicate directly
+	 * 
+	 * @param term
+	 *          dereferenced goal
+	 * @return the tag of the goal or null if the goal contains control constructs
+	 *         and needs to be compiled or is not callable
+	 */
+	public static CompoundTermTag getDirectTag(Term term)
+	{
+		if (term instanceof AtomTerm)
 		{
-			code.uninstall(interpreter.getEnvironment());
-			if (cbi != null)
+			if (term == TermConstants.cutAtom || term == TermConstants.trueAtom || term == TermConstants.failAtom)
 			{
-				cbi.code = null;
+				return null;
 			}
+			return CompoundTermTag.get((AtomTerm) term, 0);
 		}
-		return rc;
+		else if (term instanceof CompoundTerm)
+		{
+			CompoundTermTag tag = ((CompoundTerm) term).tag;
+			if (tag == TermConstants.conjunctionTag || tag == TermConstants.disjunctionTag || tag == TermConstants.ifTag
+					|| tag == InterpretedCodeCompiler.throwTag || tag == InterpretedCodeCompiler.catchTag)
+			{
+				return null;
+			}
+			return tag;
+		}
+		return null;
+	}
+
+	/**
+	 * get skeleton of callable term. The skeleton contains the control
+	 * constructs and tags of the goals of the term, the arguments of the goals
+	 * and the goals which are variables are replaced by their position in the
+	 * arguments. Terms with the same skeleton are converted to the same clause by
+	 * {@link #getClause(Term, Map)}, the arguments are added in the order of the
+	 * head variables of that clause if it is created with a map which keeps
+	 * insertion order.
+	 * 
+	 * @param term
+	 *          dereferenced callable term
+	 * @param argumentIndexes
+	 *          position of arguments which were already added
+	 * @param arguments
+	 *          list to which the arguments are added
+	 * @return the skeleton
+	 * @throws IllegalArgumentException
+	 *           if term is not callable
+	 */
+	public static List<Object> getSkeleton(Term term, Map<Term, Integer> argumentIndexes, List<Term> arguments)
+	{
+		List<Object> skeleton = new ArrayList<Object>();
+		addSkeleton(term, argumentIndexes, arguments, skeleton);
+		return skeleton;
+	}
+
+	private static void addSkeleton(Term term, Map<Term, Integer> argumentIndexes, List<Term> arguments,
+			List<Object> skeleton)
+	{
+		if (term instanceof AtomTerm)
+		{
+			skeleton.add(term);
+		}
+		else if (term instanceof VariableTerm)
+		{
+			skeleton.add(getArgumentIndex(term, argumentIndexes, arguments));
+		}
+		else if (term instanceof CompoundTerm)
+		{
+			CompoundTerm ct = (CompoundTerm) term;
+			skeleton.add(ct.tag);
+			if (ct.tag == TermConstants.ifTag || ct.tag == TermConstants.conjunctionTag
+					|| ct.tag == TermConstants.disjunctionTag)
+			{
+				addSkeleton(ct.args[0].dereference(), argumentIndexes, arguments, skeleton);
+				addSkeleton(ct.args[1].dereference(), argumentIndexes, arguments, skeleton);
+				return;
+			}
+			for (int i = 0; i < ct.tag.arity; i++)
+			{
+				skeleton.add(getArgumentIndex(ct.args[i].dereference(), argumentIndexes, arguments));
+			}
+		}
+		else
+		{
+			throw new IllegalArgumentException("the term is not callable");
+		}
+	}
+
+	private static Integer getArgumentIndex(Term arg, Map<Term, Integer> argumentIndexes, List<Term> arguments)
+	{
+		Integer index = argumentIndexes.get(arg);
+		if (index == null)
+		{
+			index = Integer.valueOf(arguments.size());
+			argumentIndexes.put(arg, index);
+			arguments.add(arg);
+		}
+		return index;
 	}
 
 	/**
@@ -0,0 +1,48 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.vm.BacktrackInfo;
+
+/**
+ * switch backtrack info. It is used by switch_on_term instruction to remember
+ * the clauses which are still to be tried for the indexed argument.
+ */
+public class SwitchBacktrackInfo extends BacktrackInfo
+{
+	/** code positions of the clauses selected by the index */
+	public int alternatives[];
+	/** next alternative to try */
+	public int next;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param undoPosition
+	 * @param codePosition
+	 *          position of switch instruction
+	 * @param alternatives
+	 *          code positions of the clauses to try
+	 */
+	public SwitchBacktrackInfo(int undoPosition, int codePosition, int alternatives[])
+	{
+		super(undoPosition, codePosition);
+		this.alternatives = alternatives;
+		next = 1;
+	}
+}
@@ -0,0 +1,247 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter;
+
+import gnu.prolog.term.Term;
+import gnu.prolog.term.VariableTerm;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Clause selection data of switch_on_term instruction. The first argument is
+ * indexed when the code is created. For other arguments the table counts how
+ * often they are bound on call and builds an index for an argument after it
+ * was bound {@link #INDEX_THRESHOLD} times, provided the argument separates the
+ * clauses at all. On call the most selective index for a bound argument is
+ * used.
+ */
+public class SwitchTable
+{
+	/** number of calls with bound argument after which argument is indexed */
+	public static final int INDEX_THRESHOLD = 16;
+
+	/** index key of each clause for each argument */
+	protected final Object keys[][];
+	/** code position of each clause */
+	protected final int positions[];
+	/** indexes by argument, null if not built */
+	protected volatile ClauseIndex indexes[];
+	/** number of calls for which argument was bound */
+	protected final int boundCalls[];
+	/** arguments which do not separate clauses */
+	protected final boolean rejected[];
+	/** true if code was replaced and no more indexes should be built */
+	protected volatile boolean invalidated;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param keys
+	 *          index keys of clauses, keys[argument][clause]
+	 * @param positions
+	 *          code position of each clause
+	 */
+	public SwitchTable(Object keys[][], int positions[])
+	{
+		this.keys = keys;
+		this.positions = positions;
+		int arity = keys.length;
+		boundCalls = new int[arity];
+		rejected = new boolean[arity];
+		indexes = new ClauseIndex[arity];
+		if (arity > 0)
+		{
+			if (getAverageBucketSize(0) < positions.length)
+			{
+				indexes[0] = new ClauseIndex(0, keys[0], positions);
+			}
+			else
+			{
+				rejected[0] = true;
+			}
+		}
+	}
+
+	/**
+	 * select clauses for call
+	 * 
+	 * @param args
+	 *          arguments of call
+	 * @return code positions of clauses to try or null if all clauses should be
+	 *         tried
+	 */
+	public int[] select(Term args[])
+	{
+		ClauseIndex current[] = indexes;
+		ClauseIndex best = null;
+		Term bestTerm = null;
+		int candidate = -1;
+		for (int i = 0; i < current.length; i++)
+		{
+			Term t = args[i].dereference();
+			if (t instanceof VariableTerm)
+			{
+				continue;
+			}
+			ClauseIndex index = current[i];
+			if (index != null)
+			{
+				if (best == null || index.averageBucketSize < best.averageBucketSize)
+				{
+					best = index;
+					bestTerm = t;
+				}
+			}
+			else if (!rejected[i] && ++boundCalls[i] >= INDEX_THRESHOLD && candidate == -1)
+			{
+				candidate = i;
+			}
+		}
+		if (candidate != -1 && !invalidated)
+		{
+			ClauseIndex index = buildIndex(candidate, best);
+			if (index != null)
+			{
+				best = index;
+				bestTerm = args[candidate].dereference();
+			}
+		}
+		return best == null ? null : best.lookup(bestTerm);
+	}
+
+	/**
+	 * build index for argument if it is more selective than existing index
+	 * 
+	 * @param argument
+	 *          argument to index
+	 * @param best
+	 *          most selective index usable for current call or null
+	 * @return index which has been built or null
+	 */
+	protected synchronized ClauseIndex buildIndex(int argument, ClauseIndex best)
+	{
+		if (indexes[argument] != null)
+		{
+			return indexes[argument];
+		}
+		if (rejected[argument])
+		{
+			return null;
+		}
+		double size = getAverageBucketSize(argument);
+		if (size >= positions.length || best != null && size >= best.averageBucketSize)
+		{
+			rejected[argument] = true;
+			return null;
+		}
+		ClauseIndex index = new ClauseIndex(argument, keys[argument], positions);
+		ClauseIndex tmp[] = indexes.clone();
+		tmp[argument] = index;
+		indexes = tmp;
+		return index;
+	}
+
+	/**
+	 * estimate number of clauses selected by index on argument
+	 * 
+	 * @param argument
+	 * @return average number of clauses selected for a key
+	 */
+	protected double getAverageBucketSize(int argument)
+	{
+		Object argumentKeys[] = keys[argument];
+		Set<Object> distinct = new HashSet<Object>();
+		int variables = 0;
+		int keyed = 0;
+		for (Object key : argumentKeys)
+		{
+			if (key == null)
+			{
+				variables++;
+			}
+			else if (key != ClauseIndex.OTHER_KEY)
+			{
+				distinct.add(key);
+				keyed++;
+			}
+		}
+		if (distinct.isEmpty())
+		{
+			return argumentKeys.length;
+		}
+		return (double) keyed / distinct.size() + variables;
+	}
+
+	/**
+	 * drop indexes built on demand. It is called when code is replaced by new
+	 * version, the indexes of first argument remain available for executions of
+	 * old code which are still in progress.
+	 */
+	public synchronized void invalidate()
+	{
+		invalidated = true;
+		ClauseIndex tmp[] = new ClauseIndex[indexes.length];
+		tmp[0] = indexes[0];
+		indexes = tmp;
+	}
+
+	/**
+	 * get indexes which are currently built
+	 * 
+	 * @return indexes by argument, elements are null for arguments without index
+	 */
+	public ClauseIndex[] getIndexes()
+	{
+		return indexes.clone();
+	}
+
+	/**
+	 * get estimated memory used by indexes
+	 * 
+	 * @return estimated size in bytes
+	 */
+	public long getMemoryUsage()
+	{
+		long rc = 0;
+		for (ClauseIndex index : indexes)
+		{
+			if (index != null)
+			{
+				rc += index.getMemoryUsage();
+			}
+		}
+		return rc;
+	}
+
+	/** convert table to string */
+	@Override
+	public String toString()
+	{
+		StringBuilder rc = new StringBuilder();
+		rc.append(positions.length).append(" clauses");
+		for (ClauseIndex index : indexes)
+		{
+			if (index != null)
+			{
+				rc.append("; ").append(index);
+			}
+		}
+		return rc.toString();
+	}
+}
@@ -23,6 +23,7 @@ import gnu.prolog.io.PrologStream;
 import gnu.prolog.io.TermWriter;
 import gnu.prolog.term.CompoundTermTag;
 import gnu.prolog.term.Term;
+import gnu.prolog.vm.Environment;
 import gnu.prolog.vm.Interpreter;
 import gnu.prolog.vm.PrologCode.RC;
 
@@ -132,6 +133,9 @@ public class Tracer
 
 	protected PrologStream output;
 
+	/** environment which is told about changed trace points, may be null */
+	protected final Environment environment;
+
 	protected Set<TracerEventListener> listeners;
 
 	protected static final int callStackGrow = 4096;
@@ -145,6 +149,18 @@ public class Tracer
 	 */
 	public Tracer(PrologStream stdout)
 	{
+		this(null, stdout);
+	}
+
+	/**
+	 * @param environment
+	 *          environment whose code is compiled again when trace points on
+	 *          builtins change
+	 * @param stdout
+	 */
+	public Tracer(Environment environment, PrologStream stdout)
+	{
+		this.environment = environment;
 		listeners = new HashSet<TracerEventListener>();
 		tracePoints = new HashMap<CompoundTermTag, EnumSet<TraceLevel>>();
 		output = stdout;
@@ -184,7 +200,10 @@ public class Tracer
 	 */
 	public void setTrace(CompoundTermTag pred, EnumSet<TraceLevel> levels)
 	{
-		tracePoints.put(pred, EnumSet.copyOf(levels));
+		if (tracePoints.put(pred, EnumSet.copyOf(levels)) == null)
+		{
+			tracePointChanged(pred, true);
+		}
 		println(String.format("%% Tracing %s for %s", pred, levels));
 	}
 
@@ -205,6 +224,7 @@ public class Tracer
 		{
 			set = EnumSet.copyOf(levels);
 			tracePoints.put(pred, set);
+			tracePointChanged(pred, true);
 		}
 		else
 		{
@@ -229,7 +249,10 @@ public class Tracer
 	 */
 	public void removeTrace(CompoundTermTag pred)
 	{
-		tracePoints.remove(pred);
+		if (tracePoints.remove(pred) != null)
+		{
+			tracePointChanged(pred, false);
+		}
 		println(String.format("%% Not tracing %s", pred));
 	}
 
@@ -248,6 +271,7 @@ public class Tracer
 			if (set.isEmpty())
 			{
 				tracePoints.remove(pred);
+				tracePointChanged(pred, false);
 				println(String.format("%% Not tracing %s", pred));
 			}
 			else
@@ -271,9 +295,29 @@ public class Tracer
 	 */
 	public void removeAllTraces()
 	{
+		for (CompoundTermTag pred : tracePoints.keySet())
+		{
+			tracePointChanged(pred, false);
+		}
 		tracePoints.clear();
 	}
 
+	/** tell the environment that a trace point was set or removed */
+	protected void tracePointChanged(CompoundTermTag pred, boolean set)
+	{
+		if (environment != null)
+		{
+			environment.spyPointChanged(pred, set);
+		}
+	}
+
+	/**
+	 * get tags of traced calls which are in progress. Calls are only reported to
+	 * the tracer while tracing is active, use
+	 * {@link FrameStack#getCallStack()} for the full stack.
+	 *
+	 * @return the tags, outermost call first
+	 */
 	public CompoundTermTag[] getCallStack()
 	{
 		CompoundTermTag[] res = new CompoundTermTag[callStackPointer];
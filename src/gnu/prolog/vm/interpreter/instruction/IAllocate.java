@@ -30,9 +30,10 @@ public class IAllocate extends Instruction
 	/** size of environment */
 	public int environmentSize;
 	/**
-	 * reserved fields, fields are reserved for saved choice points and arguments,
-	 * reserved fields are included in environment size but they are not
-	 * initilized with unbound variables
+	 * reserved fields, fields are reserved for saved choice points, arguments
+	 * and variables created at their first occurrence, reserved fields are
+	 * included in environment size but they are not initilized with unbound
+	 * variables
 	 */
 	public int reserved;
 
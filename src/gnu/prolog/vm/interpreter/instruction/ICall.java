@@ -17,6 +17,7 @@
  */
 package gnu.prolog.vm.interpreter.instruction;
 
+import gnu.prolog.term.AtomTerm;
 import gnu.prolog.term.CompoundTermTag;
 import gnu.prolog.term.Term;
 import gnu.prolog.vm.BacktrackInfo;
@@ -45,13 +46,28 @@ public class ICall extends Instruction implements PrologCodeListener
 		this.tag = tag;
 	}
 
+	/**
+	 * a constructor of module qualified call
+	 * 
+	 * @param module
+	 * @param tag
+	 */
+	public ICall(AtomTerm module, CompoundTermTag tag)
+	{
+		this.module = module;
+		this.tag = tag;
+	}
+
 	/** convert instruction to string */
 	@Override
 	public String toString()
 	{
-		return codePosition + ": call " + tag.functor.value + "/" + tag.arity;
+		return codePosition + ": call " + (module != null ? module.value + ":" : "") + tag.functor.value + "/"
+				+ tag.arity;
 	}
 
+	/** module in which predicate is called, null for unqualified call */
+	public AtomTerm module;
 	/** tag of predicate to call */
 	public CompoundTermTag tag;
 	/** code to call, if predicate is dynamic it changes after each update */
@@ -17,7 +17,7 @@
  */
 package gnu.prolog.vm.interpreter.instruction;
 
-import gnu.prolog.term.JavaObjectTerm;
+import gnu.prolog.term.IntegerTerm;
 import gnu.prolog.vm.BacktrackInfo;
 import gnu.prolog.vm.PrologException;
 import gnu.prolog.vm.interpreter.ExecutionState;
@@ -28,7 +28,7 @@ public class ICut extends Instruction
 {
 	/**
 	 * index in environment where cut position is kept, cut position is kept as
-	 * JavaObjectTerm containing BacktrackInfo until which all should be be popped
+	 * IntegerTerm containing height of backtrack stack to which it is cut
 	 */
 	public int environmentIndex;
 
@@ -61,12 +61,8 @@ public class ICut extends Instruction
 	@Override
 	public EXRC execute(ExecutionState state, BacktrackInfo bi) throws PrologException
 	{
-		JavaObjectTerm term = (JavaObjectTerm) state.getEnvironment(environmentIndex);
-		BacktrackInfo cutparent = (BacktrackInfo) term.value;
-		while (state.peekBacktrackInfo() != cutparent)
-		{
-			state.popBacktrackInfo();
-		}
+		IntegerTerm term = (IntegerTerm) state.getEnvironment(environmentIndex);
+		state.interpreter.cut(term.value);
 		return ExecutionState.EXRC.NEXT;
 	}
 }
@@ -0,0 +1,67 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter.instruction;
+
+import gnu.prolog.vm.BacktrackInfo;
+import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.interpreter.ArithmeticExpression;
+import gnu.prolog.vm.interpreter.ExecutionState;
+
+/**
+ * evaluate arithmetic expression of is/2 goal and push its value to pushdown
+ * stack
+ */
+public class IEvaluate extends Instruction
+{
+	/** expression to evaluate */
+	public ArithmeticExpression expression;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param expression
+	 */
+	public IEvaluate(ArithmeticExpression expression)
+	{
+		this.expression = expression;
+	}
+
+	/**
+	 * execute call instruction within specified sate
+	 * 
+	 * @param state
+	 *          state within which instruction will be executed
+	 * @return instruction to caller how to execute next instruction
+	 * @throws PrologException
+	 *           if code is throwing prolog exception
+	 */
+	@Override
+	public ExecutionState.EXRC execute(ExecutionState state, BacktrackInfo bi) throws PrologException
+	{
+		state.pushPushDown(expression.evaluate(state.interpreter, state.environment, state.args));
+		return ExecutionState.EXRC.NEXT;
+	}
+
+	/** convert instruction to string */
+	@Override
+	public String toString()
+	{
+		return codePosition + ": evaluate " + expression;
+	}
+
+}
@@ -0,0 +1,73 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter.instruction;
+
+import gnu.prolog.term.AtomicTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.BacktrackInfo;
+import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.PrologCode.RC;
+import gnu.prolog.vm.interpreter.ExecutionState;
+
+/**
+ * match top of pushdown list with constant. The term is popped, a variable is
+ * bound to the constant, any other term has to be equal to it.
+ */
+public class IGetConstant extends Instruction
+{
+	/** constant to match */
+	public AtomicTerm term;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param term
+	 */
+	public IGetConstant(AtomicTerm term)
+	{
+		this.term = term;
+	}
+
+	/**
+	 * execute call instruction within specified sate
+	 * 
+	 * @param state
+	 *          state within which instruction will be executed
+	 * @return instruction to caller how to execute next instruction
+	 * @throws PrologException
+	 *           if code is throwing prolog exception
+	 */
+	@Override
+	public ExecutionState.EXRC execute(ExecutionState state, BacktrackInfo bi) throws PrologException
+	{
+		Term t = state.popPushDown().dereference();
+		if (t == term || state.interpreter.unify(t, term) != RC.FAIL)
+		{
+			return ExecutionState.EXRC.NEXT;
+		}
+		return ExecutionState.EXRC.BACKTRACK;
+	}
+
+	/** convert instruction to string */
+	@Override
+	public String toString()
+	{
+		return codePosition + ": get_constant " + gnu.prolog.io.TermWriter.toString(term);
+	}
+
+}
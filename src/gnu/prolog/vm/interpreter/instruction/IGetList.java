@@ -0,0 +1,83 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter.instruction;
+
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.BacktrackInfo;
+import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.TermConstants;
+import gnu.prolog.vm.interpreter.ExecutionState;
+
+/**
+ * match top of pushdown list with list cell. This is {@link IGetStructure} for
+ * the tag './2'.
+ */
+public class IGetList extends Instruction
+{
+	/** position of code which creates the list cell */
+	public int writePosition;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param writePosition
+	 */
+	public IGetList(int writePosition)
+	{
+		this.writePosition = writePosition;
+	}
+
+	/**
+	 * execute call instruction within specified sate
+	 * 
+	 * @param state
+	 *          state within which instruction will be executed
+	 * @return instruction to caller how to execute next instruction
+	 * @throws PrologException
+	 *           if code is throwing prolog exception
+	 */
+	@Override
+	public ExecutionState.EXRC execute(ExecutionState state, BacktrackInfo bi) throws PrologException
+	{
+		Term t = state.popPushDown().dereference();
+		if (t instanceof CompoundTerm && ((CompoundTerm) t).tag == TermConstants.listTag)
+		{
+			Term args[] = ((CompoundTerm) t).args;
+			state.pushPushDown(args[1]);
+			state.pushPushDown(args[0]);
+			return ExecutionState.EXRC.NEXT;
+		}
+		else if (t instanceof VariableTerm)
+		{
+			state.pushPushDown(t);
+			state.jumpPosition = writePosition;
+			return ExecutionState.EXRC.JUMP;
+		}
+		return ExecutionState.EXRC.BACKTRACK;
+	}
+
+	/** convert instruction to string */
+	@Override
+	public String toString()
+	{
+		return codePosition + ": get_list " + writePosition;
+	}
+
+}
@@ -17,7 +17,7 @@
  */
 package gnu.prolog.vm.interpreter.instruction;
 
-import gnu.prolog.term.JavaObjectTerm;
+import gnu.prolog.term.IntegerTerm;
 import gnu.prolog.vm.BacktrackInfo;
 import gnu.prolog.vm.PrologException;
 import gnu.prolog.vm.interpreter.ExecutionState;
@@ -27,7 +27,7 @@ public class ISaveCut extends Instruction
 {
 	/**
 	 * index in environment where cut position is kept, cut position is kept as
-	 * JavaObjectTerm containing BacktrackInfo until which all should be be popped
+	 * IntegerTerm containing height of backtrack stack to which it is cut
 	 */
 	public int environmentIndex;
 
@@ -53,7 +53,7 @@ public class ISaveCut extends Instruction
 	@Override
 	public ExecutionState.EXRC execute(ExecutionState state, BacktrackInfo bi) throws PrologException
 	{
-		state.putEnvironment(environmentIndex, new JavaObjectTerm(state.peekBacktrackInfo()));
+		state.putEnvironment(environmentIndex, IntegerTerm.get(state.interpreter.getCutBarrier()));
 		return ExecutionState.EXRC.NEXT;
 	}
 
@@ -0,0 +1,77 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter.instruction;
+
+import gnu.prolog.vm.BacktrackInfo;
+import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.interpreter.ExecutionState;
+
+/**
+ * switch_on_term instruction. It selects clauses by the bound arguments of the
+ * call using the clause indexes. If no index can be used execution continues
+ * at the try_me_else chain of all clauses, otherwise only the clauses whose
+ * indexed argument could match are tried.
+ */
+public class ISwitchOnTerm extends Instruction
+{
+	/** position of try_me_else chain used for variable argument */
+	public int variablePosition;
+	/** index key of each clause for each argument, see ClauseIndex.getKey() */
+	public Object clauseKeys[][];
+	/** position of the first instruction of each clause */
+	public int clausePositions[];
+
+	/**
+	 * a constructor
+	 * 
+	 * @param variablePosition
+	 * @param clauseKeys
+	 * @param clausePositions
+	 */
+	public ISwitchOnTerm(int variablePosition, Object clauseKeys[][], int clausePositions[])
+	{
+		this.variablePosition = variablePosition;
+		this.clauseKeys = clauseKeys;
+		this.clausePositions = clausePositions;
+	}
+
+	/**
+	 * execute call instruction within specified sate
+	 * 
+	 * @param state
+	 *          state within which instruction will be executed
+	 * @return instruction to caller how to execute next instruction
+	 * @throws PrologException
+	 *           if code is throwing prolog exception
+	 */
+	@Override
+	public ExecutionState.EXRC execute(ExecutionState state, BacktrackInfo bi) throws PrologException
+	{
+		// this interpreter does not use index, all clauses are tried
+		state.jumpPosition = variablePosition;
+		return ExecutionState.EXRC.JUMP;
+	}
+
+	/** convert instruction to string */
+	@Override
+	public String toString()
+	{
+		return codePosition + ": switch_on_term " + variablePosition;
+	}
+
+}
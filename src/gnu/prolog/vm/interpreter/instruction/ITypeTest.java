@@ -0,0 +1,156 @@
+/* GNU Prolog for Java
+ * Copyright (C) 1997-1999  Constantine Plotnikov
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.vm.interpreter.instruction;
+
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.AtomicTerm;
+import gnu.prolog.term.BigIntegerTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.FloatTerm;
+import gnu.prolog.term.IntegerTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.term.VariableTerm;
+import gnu.prolog.vm.BacktrackInfo;
+import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.interpreter.ExecutionState;
+
+/**
+ * pop term from pushdown stack and backtrack if it does not pass a type test
+ * like var/1 or atom/1
+ */
+public class ITypeTest extends Instruction
+{
+	public static final int VAR = 0;
+	public static final int NONVAR = 1;
+	public static final int ATOM = 2;
+	public static final int INTEGER = 3;
+	public static final int FLOAT = 4;
+	public static final int NUMBER = 5;
+	public static final int ATOMIC = 6;
+	public static final int COMPOUND = 7;
+
+	/** tags of the type testing predicates in the order of tests */
+	private static final CompoundTermTag TAGS[] = { CompoundTermTag.get("var", 1), CompoundTermTag.get("nonvar", 1),
+			CompoundTermTag.get("atom", 1), CompoundTermTag.get("integer", 1), CompoundTermTag.get("float", 1),
+			CompoundTermTag.get("number", 1), CompoundTermTag.get("atomic", 1), CompoundTermTag.get("compound", 1) };
+
+	/** test to execute */
+	public int test;
+
+	/**
+	 * a constructor
+	 * 
+	 * @param test
+	 */
+	public ITypeTest(int test)
+	{
+		this.test = test;
+	}
+
+	/**
+	 * get test executed by predicate
+	 * 
+	 * @param tag
+	 *          tag of predicate
+	 * @return the test or -1 if predicate is not a type test
+	 */
+	public static int getTest(CompoundTermTag tag)
+	{
+		for (int i = 0; i < TAGS.length; i++)
+		{
+			if (TAGS[i] == tag)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * get tag of type testing predicate
+	 * 
+	 * @param test
+	 * @return tag of predicate which executes the test
+	 */
+	public static CompoundTermTag getTag(int test)
+	{
+		return TAGS[test];
+	}
+
+	/**
+	 * execute test, the result is the same as the one of the builtin predicate
+	 * 
+	 * @param test
+	 * @param term
+	 *          term to test
+	 * @return true if term passes the test
+	 */
+	public static boolean test(int test, Term term)
+	{
+		term = term.dereference();
+		switch (test)
+		{
+			case VAR:
+				return term instanceof VariableTerm;
+			case NONVAR:
+				return !(term instanceof VariableTerm);
+			case ATOM:
+				return term instanceof AtomTerm;
+			case INTEGER:
+				return term instanceof IntegerTerm || term instanceof BigIntegerTerm;
+			case FLOAT:
+				return term instanceof FloatTerm;
+			case NUMBER:
+				return term instanceof IntegerTerm || term instanceof FloatTerm;
+			case ATOMIC:
+				return term instanceof AtomicTerm;
+			case COMPOUND:
+				return term instanceof CompoundTerm;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * execute call instruction within specified sate
+	 * 
+	 * @param state
+	 *          state within which instruction will be executed
+	 * @return instruction to caller how to execute next instruction
+	 * @throws PrologException
+	 *           if code is throwing prolog exception
+	 */
+	@Override
+	public ExecutionState.EXRC execute(ExecutionState state, BacktrackInfo bi) throws PrologException
+	{
+		if (!test(test, state.popPushDown()))
+		{
+			return ExecutionState.EXRC.BACKTRACK;
+		}
+		return ExecutionState.EXRC.NEXT;
+	}
+
+	/** convert instruction to string */
+	@Override
+	public String toString()
+	{
+		return codePosition + ": type_test " + getTag(test);
+	}
+
+}
@@ -0,0 +1,25 @@
+% predicates called by the goals of CallCacheTest
+
+cc_p(user).
+
+cc_q(N, M) :- M is N * 2.
+
+cc_foo(1, 1).
+cc_foo(1, 2).
+
+answers(T, G, L) :- findall(T, G, L).
+
+% call goals with skeletons From to To, they evict other cached goals
+cc_evict(From, To) :- From > To, !.
+cc_evict(From, To) :-
+	cc_conjunction(From, G),
+	call(G),
+	From1 is From + 1,
+	cc_evict(From1, To).
+
+cc_conjunction(0, true) :- !.
+cc_conjunction(N, (true, G)) :-
+	N1 is N - 1,
+	cc_conjunction(N1, G).
+
+:- ensure_loaded(cc_module).
@@ -0,0 +1,24 @@
+% predicates compiled to JVM code by CompileTest, they cover the
+% instructions which are translated
+
+app([], L, L).
+app([H|T], L, [H|R]) :- app(T, L, R).
+
+sum([], S, S).
+sum([X|Xs], S0, S) :- S1 is S0 + X, sum(Xs, S1, S).
+
+colour(red, warm).
+colour(orange, warm).
+colour(blue, cold).
+colour(f(green), cold).
+
+classify(X, C) :- ( X > 10 -> C = big ; X < 0 -> C = negative ; C = small ).
+
+first([X|_], X) :- !.
+first(_, none).
+
+safe_div(X, Y, Z) :- catch(Z is X // Y, error(evaluation_error(_), _), Z = undefined).
+
+shape(T, S) :- ( var(T) -> S = var ; atom(T) -> S = atom ; T = f(A, A) -> S = same ; S = other ).
+
+answers(T, G, L) :- findall(T, G, L).
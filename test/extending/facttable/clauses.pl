@@ -0,0 +1,2 @@
+edge(x, y).
+:- fact_table(edge/2, 'edges.facts').
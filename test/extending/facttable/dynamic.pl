@@ -0,0 +1,2 @@
+:- dynamic(edge/2).
+:- fact_table(edge/2, 'edges.facts').
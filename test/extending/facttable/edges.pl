@@ -0,0 +1,15 @@
+% facts which FactTableTest writes to fact table files
+
+edge(a, b).
+edge(a, c).
+edge(b, d).
+edge(c, d).
+edge(d, f(e, [g])).
+edge(1, 'multi word').
+edge(2, 3.5).
+edge(3, 123456789012345678901234567890).
+
+hop(1, 2).
+hop(2, 3).
+hop(3, 1).
+hop(3, -7).
@@ -0,0 +1,6 @@
+:- fact_table(edge/2, 'edges.facts').
+
+path(X, Y) :- edge(X, Y).
+path(X, Z) :- edge(X, Y), path(Y, Z).
+
+answers(T, G, L) :- findall(T, G, L).
@@ -0,0 +1 @@
+:- fact_table(edge/3, 'edges.facts').
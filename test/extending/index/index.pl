@@ -0,0 +1,37 @@
+% predicates of IndexTest, the large tables big_fact/2 and big_rule/2 are
+% generated by the test
+
+% only the second argument separates the clauses, it is indexed once it was
+% bound often enough
+mode(same, k1, 1).
+mode(same, k2, 2).
+mode(same, k3, 3).
+mode(same, k4, 4).
+mode(same, k5, 5).
+mode(same, k6, 6).
+mode(same, k7, 7).
+mode(same, k8, 8).
+mode(same, k9, 9).
+mode(same, k10, 10).
+mode(same, k11, 11).
+mode(same, k12, 12).
+mode(same, k13, 13).
+mode(same, k14, 14).
+mode(same, k15, 15).
+mode(same, k16, 16).
+mode(same, k17, 17).
+mode(same, k18, 18).
+mode(same, k19, 19).
+mode(same, k20, 20).
+
+% deterministic predicates
+
+double(X, Y) :- Y is X * 2.
+
+twice(X, Z) :- double(X, Y), double(Y, Z).
+
+max(X, Y, X) :- X >= Y, !.
+max(_, Y, Y).
+
+len([], 0).
+len([_|T], N) :- len(T, N0), N is N0 + 1.
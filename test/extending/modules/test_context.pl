@@ -0,0 +1,15 @@
+/* Tests that each interpreter keeps its own module and restores it */
+
+:-build_in(interpreter_module/1, 'gnu.prolog.test.ModuleTest$InterpreterModule').
+
+redo(Xs):-
+	findall(X-Y-Z, (ctx_a:gen(X-Y), interpreter_module(Z)), Xs).
+
+redo_meta(Xs):-
+	findall(X-Y-Z, (M = ctx_a, call(M:gen(X-Y)), interpreter_module(Z)), Xs).
+
+nested(Xs):-
+	findall(B-N-A-U, (ctx_a:nested(B, N, A), interpreter_module(U)), Xs).
+
+:-ensure_loaded(test_context_a).
+:-ensure_loaded(test_context_b).
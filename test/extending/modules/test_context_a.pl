@@ -0,0 +1,25 @@
+:-module(ctx_a, []).
+
+% Declared here, a predicate which falls back to user would run in user
+:-build_in(interpreter_module/1, 'gnu.prolog.test.ModuleTest$InterpreterModule').
+:-build_in(run_nested/1, 'gnu.prolog.test.ModuleTest$RunNested').
+
+% Succeeds only if the interpreter runs in this module on every iteration
+loop(0, _):- !.
+loop(N, M):-
+	N > 0,
+	interpreter_module(M),
+	N1 is N - 1,
+	loop(N1, M).
+
+% Each solution is found again on backtracking, the interpreter must still
+% run in this module afterwards
+gen(X-M):-
+	member(X, [1,2,3]),
+	interpreter_module(M).
+
+% The nested goal runs in user, this module is in effect again after it
+nested(Before, Nested, After):-
+	interpreter_module(Before),
+	run_nested(interpreter_module(Nested)),
+	interpreter_module(After).
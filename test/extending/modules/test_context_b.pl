@@ -0,0 +1,10 @@
+:-module(ctx_b, []).
+
+:-build_in(interpreter_module/1, 'gnu.prolog.test.ModuleTest$InterpreterModule').
+
+loop(0, _):- !.
+loop(N, M):-
+	N > 0,
+	interpreter_module(M),
+	N1 is N - 1,
+	loop(N1, M).
@@ -0,0 +1,33 @@
+% predicates used by the tests of dynamic predicates, every test starts by
+% setting the clauses it uses
+
+:- dynamic(e_dyn_f/1).
+:- dynamic(e_dyn_c/1).
+:- dynamic(e_dyn_t/1).
+:- dynamic(e_dyn_k/2).
+:- dynamic(e_dyn_n/1).
+
+e_dyn_clear(H) :- retract((H :- _)), fail.
+e_dyn_clear(_).
+
+e_dyn_set(H, L) :-
+	e_dyn_clear(H),
+	e_dyn_add(L).
+
+e_dyn_add([]).
+e_dyn_add([C|Cs]) :- assertz(C), e_dyn_add(Cs).
+
+e_dyn_facts :- e_dyn_set(e_dyn_f(_), [e_dyn_f(1), e_dyn_f(2), e_dyn_f(3)]).
+
+e_dyn_numbers(N, N) :- !.
+e_dyn_numbers(I, N) :- I1 is I + 1, assertz(e_dyn_n(I1)), e_dyn_numbers(I1, N).
+
+e_dyn_retract_from(I, N) :- I > N, !.
+e_dyn_retract_from(I, N) :- retract(e_dyn_n(I)), I1 is I + 1, e_dyn_retract_from(I1, N).
+
+e_dyn_asserta_from(I, N) :- I > N, !.
+e_dyn_asserta_from(I, N) :- asserta(e_dyn_n(I)), I1 is I + 1, e_dyn_asserta_from(I1, N).
+
+e_dyn_keys :-
+	e_dyn_set(e_dyn_k(_, _), [e_dyn_k(a, 1), e_dyn_k(b, 2), e_dyn_k(_, 3), e_dyn_k(f(x), 4), e_dyn_k(a, 5),
+		e_dyn_k(1, 6), e_dyn_k(1.0, 7), e_dyn_k([a], 8), e_dyn_k(f(y), 9)]).
@@ -0,0 +1,38 @@
+% predicates used by the stacktrace tests, e_st_c/1 returns the three
+% innermost entries of the call stack
+
+:- dynamic(e_st_dynamic/1).
+
+e_st_take(0, _, []) :- !.
+e_st_take(_, [], []) :- !.
+e_st_take(N, [X|Xs], [X|Ys]) :-
+	N1 is N - 1,
+	e_st_take(N1, Xs, Ys).
+
+e_st_c(L) :-
+	stacktrace(S),
+	e_st_take(3, S, L).
+
+e_st_b(L) :- e_st_c(L), L = [_|_].
+
+e_st_a(L) :- e_st_b(L), L = [_|_].
+
+e_st_run(L) :- e_st_a(L), L = [_|_].
+
+% e_st_b/1 is the last call of e_st_last/1 and replaces it
+e_st_last(L) :- e_st_b(L).
+
+e_st_run_last(L) :- e_st_last(L), L = [_|_].
+
+e_st_run_meta(L) :- catch(e_st_a(L), _, true), L = [_|_].
+
+e_st_dynamic(L) :- e_st_c(L), L = [_|_].
+
+e_st_run_dynamic(L) :- e_st_dynamic(L), L = [_|_].
+
+e_st_choice(1).
+e_st_choice(2).
+
+e_st_redo(N, L) :- e_st_choice(N), e_st_c(L), L = [_|_].
+
+e_st_run_redo(N, L) :- e_st_redo(N, L), L = [_|_].
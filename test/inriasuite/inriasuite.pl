@@ -779,6 +779,10 @@ file(TF,IF) :-
 	io(NTF,NIF),
 	atom_concat('io/',NTF,TF),
 	atom_concat('io/', NIF, IF).
+file(TF,IF) :-
+	extra_file(NTF,NIF),
+	atom_concat('extra/',NTF,TF),
+	atom_concat('extra/', NIF, IF).
 
 %arith
 arith(arith_diff).
@@ -820,6 +824,9 @@ extra(setup_call_catcher_cleanup).
 extra(F) :- extra_database(N), atom_concat('database/',N,F).
 extra(F) :- extra_list(N), atom_concat('list/',N,F).
 
+extra_file(dynamic,'dynamic.pl').
+extra_file(stacktrace,'stacktrace.pl').
+
 extra_database(current_functor).
 extra_database(predicate_property).
 
@@ -0,0 +1,156 @@
+/* GNU Prolog for Java
+ * Copyright (C) 2016       Matt Lilley
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+
+package gnu.prolog.test;
+
+import gnu.prolog.database.PrologTextLoaderError;
+import gnu.prolog.io.TermReader;
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.vm.Environment;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologCode.RC;
+import gnu.prolog.vm.interpreter.CallCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the cache of code compiled for goals of call/1. The tests are run
+ * with a small cache and with the cache disabled, see
+ * {@link CallCache#CALL_CACHE_SIZE_PROPERTY}.
+ */
+public class CallCacheTest
+{
+	private static final int CALL_CACHE_SIZE = Integer.getInteger(CallCache.CALL_CACHE_SIZE_PROPERTY, 256).intValue();
+
+	private Environment env;
+	private CallCache cache;
+
+	@Before
+	public void setUp()
+	{
+		env = new Environment();
+		Interpreter interpreter = env.createInterpreter();
+		env.ensureLoaded(AtomTerm.get("callcache.pl"));
+		env.runInitialization(interpreter);
+		for (PrologTextLoaderError error : env.getLoadingErrors())
+		{
+			System.err.println("Prolog compile error: " + error);
+		}
+		assertEquals(0, env.getLoadingErrors().size());
+		cache = env.getCallCache();
+		assertEquals(CALL_CACHE_SIZE > 0, cache.isEnabled());
+	}
+
+	private void assertAnswers(String expected, String template, String goal) throws Exception
+	{
+		Interpreter interpreter = env.createInterpreter();
+		CompoundTerm goalTerm = (CompoundTerm) TermReader.stringToTerm("answers(" + template + ", (" + goal + "), L)",
+				env);
+		assertEquals(RC.SUCCESS_LAST, interpreter.runOnce(goalTerm));
+		assertEquals(TermReader.stringToTerm(expected, env).toString(), goalTerm.args[2].dereference().toString());
+	}
+
+	/**
+	 * check number of cached goals
+	 * 
+	 * @param expected
+	 *          number of cached goals if the cache is large enough
+	 */
+	private void assertCached(int expected)
+	{
+		if (cache.isEnabled())
+		{
+			assertEquals(Math.min(expected, CALL_CACHE_SIZE), cache.size());
+		}
+		else
+		{
+			assertEquals(0, cache.size());
+		}
+	}
+
+	@Test
+	public void testHitWithOtherArguments() throws Exception
+	{
+		assertCached(0);
+		assertAnswers("[2]", "A", "call((cc_q(1, A), true))");
+		assertCached(1);
+		assertAnswers("[14]", "A", "call((cc_q(7, A), true))");
+		assertAnswers("[a]", "a", "call((cc_q(7, 14), true))");
+		assertAnswers("[]", "a", "call((cc_q(7, 15), true))");
+		assertCached(1);
+	}
+
+	@Test
+	public void testSharedVariables() throws Exception
+	{
+		assertAnswers("[1]", "A", "call((cc_foo(A, A), true))");
+		assertAnswers("[1-1, 1-2]", "A-B", "call((cc_foo(A, B), true))");
+		assertCached(2);
+		// the same terms are passed as one argument, other terms as two
+		assertAnswers("[a]", "a", "call((cc_foo(1, 1), true))");
+		assertAnswers("[]", "a", "call((cc_foo(2, 2), true))");
+		assertAnswers("[a]", "a", "call((cc_foo(1, 2), true))");
+		assertAnswers("[]", "a", "call((cc_foo(2, 1), true))");
+		assertCached(2);
+	}
+
+	@Test
+	public void testModules() throws Exception
+	{
+		assertAnswers("[user]", "A", "call((cc_p(A), true))");
+		assertAnswers("[module]", "A", "call(cc_module:(cc_p(A), true))");
+		assertAnswers("[user]", "A", "call((cc_p(A), true))");
+		assertAnswers("[module]", "A", "call(cc_module:(cc_p(A), true))");
+	}
+
+	@Test
+	public void testEvictionOfRunningCode() throws Exception
+	{
+		int goals = CALL_CACHE_SIZE + 4;
+		// the outer goal is evicted while it runs and when it is redone
+		assertAnswers("[1-1, 1-2]", "A-B", "call((cc_foo(1, A), cc_evict(1, " + goals
+				+ "), cc_foo(A, B), cc_q(B, _)))");
+		assertTrue(cache.size() <= CALL_CACHE_SIZE);
+		assertAnswers("[user]", "A", "call((cc_evict(1, " + goals + "), cc_p(A)))");
+		assertTrue(cache.size() <= CALL_CACHE_SIZE);
+	}
+
+	@Test
+	public void testEvictionKeepsUsedGoals() throws Exception
+	{
+		if (!cache.isEnabled())
+		{
+			return;
+		}
+		int goals = CALL_CACHE_SIZE - 1;
+		for (int i = 0; i < 3; i++)
+		{
+			assertAnswers("[2]", "A", "call((cc_q(1, A), true))");
+			// other goals are added, which evicts the goals added before
+			assertAnswers("[a]", "a", "cc_evict(" + (i * goals + 1) + ", " + (i + 1) * goals + ")");
+			assertCached(CALL_CACHE_SIZE);
+		}
+		// the used goal is not evicted
+		assertAnswers("[4]", "A", "call((cc_q(2, A), true))");
+		assertCached(CALL_CACHE_SIZE);
+	}
+}
@@ -0,0 +1,186 @@
+/* GNU Prolog for Java
+ * Copyright (C) 2016       Matt Lilley
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+
+package gnu.prolog.test;
+
+import gnu.prolog.database.PrologTextLoaderError;
+import gnu.prolog.io.ParseException;
+import gnu.prolog.io.TermReader;
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.Environment;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologCode;
+import gnu.prolog.vm.PrologCode.RC;
+import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.interpreter.InterpretedByteCode;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+/**
+ * Checks that hot code is compiled to JVM code and gives the same answers
+ * afterwards. Run with -Dgnu.prolog.compileThreshold=1 and
+ * -Dgnu.prolog.promoteThreshold=1, so code is compiled after its first calls.
+ */
+public class CompileTest
+{
+	private Environment env;
+	private Interpreter interpreter;
+
+	@Before
+	public void setUp()
+	{
+		setUp(new Environment());
+	}
+
+	private void setUp(Environment environment)
+	{
+		env = environment;
+		interpreter = env.createInterpreter();
+		env.ensureLoaded(AtomTerm.get("compile.pl"));
+		env.runInitialization(interpreter);
+		for (PrologTextLoaderError error : env.getLoadingErrors())
+		{
+			System.err.println("Prolog compile error: " + error);
+		}
+		assertEquals(0, env.getLoadingErrors().size());
+	}
+
+	private Term parse(String text) throws ParseException
+	{
+		return TermReader.stringToTerm(text, env);
+	}
+
+	/**
+	 * check that goal has the expected answer, the goal is run until the code of
+	 * the predicate is compiled and once more with the compiled code
+	 */
+	private void assertCompiled(String name, int arity, String goal, String expected) throws Exception
+	{
+		CompoundTermTag tag = CompoundTermTag.get(name, arity);
+		long deadline = System.currentTimeMillis() + 10000;
+		PrologCode code;
+		while (true)
+		{
+			assertAnswer(goal, expected);
+			code = env.getPrologCode(tag);
+			assertThat(code, instanceOf(InterpretedByteCode.class));
+			if (((InterpretedByteCode) code).isCompiled() || ((InterpretedByteCode) code).getCompileFailure() != null
+					|| System.currentTimeMillis() > deadline)
+			{
+				break;
+			}
+			Thread.sleep(10);
+		}
+		assertNull(tag + " could not be compiled", ((InterpretedByteCode) code).getCompileFailure());
+		assertTrue(tag + " is not compiled", ((InterpretedByteCode) code).isCompiled());
+		assertAnswer(goal, expected);
+	}
+
+	private void assertAnswer(String goal, String expected) throws PrologException, ParseException
+	{
+		CompoundTerm goalTerm = (CompoundTerm) parse("answers(Answer, (" + goal + "), Answers)");
+		Interpreter.Goal g = interpreter.prepareGoal(goalTerm);
+		RC rc = interpreter.execute(g);
+		assertEquals(RC.SUCCESS_LAST, rc);
+		assertEquals(parse(expected).toString(), goalTerm.args[2].dereference().toString());
+	}
+
+	@Test
+	public void testAppend() throws Exception
+	{
+		assertCompiled("app", 3, "app(Answer, _, [a,b])", "[[], [a], [a,b]]");
+	}
+
+	@Test
+	public void testArithmetic() throws Exception
+	{
+		assertCompiled("sum", 3, "sum([1,2,3,4], 0, Answer)", "[10]");
+	}
+
+	@Test
+	public void testIndexedFacts() throws Exception
+	{
+		assertCompiled("colour", 2, "colour(Answer, cold)", "[blue, f(green)]");
+		assertCompiled("colour", 2, "colour(f(Answer), _)", "[green]");
+	}
+
+	@Test
+	public void testIfThenElse() throws Exception
+	{
+		assertCompiled("classify", 2, "member(X, [20, -1, 5]), classify(X, Answer)", "[big, negative, small]");
+	}
+
+	@Test
+	public void testCut() throws Exception
+	{
+		assertCompiled("first", 2, "member(X, [[a,b], []]), first(X, Answer)", "[a, none]");
+	}
+
+	@Test
+	public void testCatch() throws Exception
+	{
+		assertCompiled("safe_div", 3, "member(Y, [2, 0]), safe_div(7, Y, Answer)",
+				"[3, undefined]");
+	}
+
+	@Test
+	public void testTypeTests() throws Exception
+	{
+		assertCompiled("shape", 2, "member(T, [_, a, f(b, b), f(b, c)]), shape(T, Answer)",
+				"[var, atom, same, other]");
+	}
+
+	/**
+	 * builtins which are compiled inline are reported once they have a spy point,
+	 * code compiled before the spy point was set is compiled again
+	 */
+	@Test
+	public void testSpyPointOnInlineBuiltins() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		setUp(new Environment(System.in, out));
+		assertCompiled("shape", 2, "shape(_, Answer)", "[var]");
+		assertCompiled("sum", 3, "sum([1,2], 0, Answer)", "[3]");
+		assertEquals(RC.SUCCESS_LAST, interpreter.runOnce(parse("spy(var/1)")));
+		assertEquals(RC.SUCCESS_LAST, interpreter.runOnce(parse("spy((is)/2)")));
+		assertEquals(RC.SUCCESS_LAST, interpreter.runOnce(AtomTerm.get("trace")));
+		out.reset();
+		assertCompiled("shape", 2, "shape(_, Answer)", "[var]");
+		assertCompiled("sum", 3, "sum([1,2], 0, Answer)", "[3]");
+		assertTrue(out.toString(), out.toString().contains(") var("));
+		assertTrue(out.toString(), out.toString().contains(") is("));
+		assertEquals(RC.SUCCESS_LAST, interpreter.runOnce(parse("nospy(var/1)")));
+		out.reset();
+		assertCompiled("shape", 2, "shape(_, Answer)", "[var]");
+		assertCompiled("sum", 3, "sum([1,2], 0, Answer)", "[3]");
+		assertFalse(out.toString(), out.toString().contains(") var("));
+		assertTrue(out.toString(), out.toString().contains(") is("));
+	}
+}
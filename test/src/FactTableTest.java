@@ -0,0 +1,213 @@
+/* GNU Prolog for Java
+ * Copyright (C) 2016       Matt Lilley
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+
+package gnu.prolog.test;
+
+import gnu.prolog.database.FactTable;
+import gnu.prolog.database.MappedFactTable;
+import gnu.prolog.database.Predicate;
+import gnu.prolog.database.PrologTextLoaderError;
+import gnu.prolog.io.TermReader;
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.IntegerTerm;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.Environment;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologCode.RC;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of fact tables stored in memory mapped files and of the fact_table/2
+ * directive. The tables are written from the facts in edges.pl.
+ */
+public class FactTableTest
+{
+	private static final CompoundTermTag edgeTag = CompoundTermTag.get("edge", 2);
+	private static final CompoundTermTag hopTag = CompoundTermTag.get("hop", 2);
+
+	private final File edges = new File("edges.facts");
+	private final File hops = new File("hops.facts");
+	private Environment source;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		source = new Environment();
+		source.ensureLoaded(AtomTerm.get("edges.pl"));
+		assertEquals(0, source.getLoadingErrors().size());
+		MappedFactTable.write(createTable(edgeTag), edges);
+	}
+
+	@After
+	public void tearDown()
+	{
+		edges.delete();
+		hops.delete();
+	}
+
+	private FactTable createTable(CompoundTermTag tag)
+	{
+		FactTable table = FactTable.create(tag, source.getModule().getDefinedPredicate(tag).getClauses());
+		assertTrue(table != null);
+		return table;
+	}
+
+	private void assertSameTable(FactTable expected, FactTable actual)
+	{
+		assertSame(expected.getTag(), actual.getTag());
+		assertEquals(expected.size(), actual.size());
+		for (int column = 0; column < expected.getTag().arity; column++)
+		{
+			assertEquals(expected.isIntegerColumn(column), actual.isIntegerColumn(column));
+			for (int row = 0; row < expected.size(); row++)
+			{
+				assertEquals(expected.getValue(row, column).toString(), actual.getValue(row, column).toString());
+				Object key = expected.getKey(row, column);
+				assertEquals(expected.getRows(column, key).length, actual.getRows(column, key).length);
+			}
+		}
+	}
+
+	private Environment load(String file)
+	{
+		Environment env = new Environment();
+		env.ensureLoaded(AtomTerm.get(file));
+		env.runInitialization(env.createInterpreter());
+		return env;
+	}
+
+	private void assertLoadError(String file, String message)
+	{
+		List<PrologTextLoaderError> errors = load(file).getLoadingErrors();
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).toString(), errors.get(0).toString().indexOf(message) != -1);
+	}
+
+	private String answers(Environment env, String goal) throws Exception
+	{
+		Interpreter interpreter = env.createInterpreter();
+		CompoundTerm goalTerm = (CompoundTerm) TermReader.stringToTerm("answers(A, (" + goal + "), L)", env);
+		assertEquals(RC.SUCCESS_LAST, interpreter.runOnce(goalTerm));
+		return goalTerm.args[2].dereference().toString();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		FactTable edgeTable = createTable(edgeTag);
+		assertSameTable(edgeTable, MappedFactTable.open(edges));
+		FactTable hopTable = createTable(hopTag);
+		assertTrue(hopTable.isIntegerColumn(0) && hopTable.isIntegerColumn(1));
+		MappedFactTable.write(hopTable, hops);
+		MappedFactTable mappedHops = MappedFactTable.open(hops);
+		assertSameTable(hopTable, mappedHops);
+		assertEquals(2, mappedHops.getRows(0, IntegerTerm.get(3)).length);
+		assertEquals(0, mappedHops.getRows(0, IntegerTerm.get(4)).length);
+	}
+
+	@Test
+	public void testReplace() throws IOException
+	{
+		MappedFactTable edgeTable = MappedFactTable.open(edges);
+		// the file is replaced, not overwritten, so the mapped table is intact
+		MappedFactTable.write(createTable(hopTag), edges);
+		assertSameTable(createTable(edgeTag), edgeTable);
+		MappedFactTable hopTable = MappedFactTable.open(edges);
+		assertNotSame(edgeTable, hopTable);
+		assertSameTable(createTable(hopTag), hopTable);
+		File directory = edges.getAbsoluteFile().getParentFile();
+		for (String name : directory.list())
+		{
+			assertTrue("temporary file " + name + " is left", !name.endsWith(".tmp"));
+		}
+	}
+
+	@Test
+	public void testInvalidFile() throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(edges);
+		out.write(new byte[] { 0x47, 0x50, 0x46, 0x54, 0, 0, 0, 1, 0, 0, 0, 2 });
+		out.close();
+		try
+		{
+			MappedFactTable.open(edges);
+			fail("truncated file is opened");
+		}
+		catch (IOException ex)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testDirective() throws Exception
+	{
+		Environment env = load("use_edges.pl");
+		assertEquals(0, env.getLoadingErrors().size());
+		Predicate p = env.getModule().getDefinedPredicate(edgeTag);
+		assertTrue(p.getFactTable(0) instanceof MappedFactTable);
+		assertEquals("[b, c, d, f(e,[g]), d, f(e,[g])]", answers(env, "path(a, A)"));
+		assertEquals("[1, 2, 3]", answers(env, "edge(A, _), integer(A)"));
+		assertEquals("['multi word']", answers(env, "edge(1, A)"));
+		assertEquals("[d]", answers(env, "edge(A, f(_, _))"));
+	}
+
+	@Test
+	public void testWrongTag()
+	{
+		assertLoadError("wrong_tag.pl", "contains facts of edge/2");
+	}
+
+	@Test
+	public void testDynamic()
+	{
+		assertLoadError("dynamic.pl", "could not be defined by fact table");
+	}
+
+	@Test
+	public void testClausesPresent()
+	{
+		assertLoadError("clauses.pl", "could not be defined by fact table");
+	}
+
+	@Test
+	public void testSharedBetweenEnvironments() throws Exception
+	{
+		Environment first = load("use_edges.pl");
+		Environment second = load("use_edges.pl");
+		FactTable table = first.getModule().getDefinedPredicate(edgeTag).getFactTable(0);
+		assertSame(table, second.getModule().getDefinedPredicate(edgeTag).getFactTable(0));
+		assertEquals(answers(first, "path(A, d)"), answers(second, "path(A, d)"));
+		assertEquals("[b, c, a, a]", answers(second, "path(A, d)"));
+	}
+}
@@ -0,0 +1,156 @@
+/* GNU Prolog for Java
+ * Copyright (C) 2016       Matt Lilley
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place - Suite 330,
+ * Boston, MA  02111-1307, USA. The text of license can be also found
+ * at http://www.gnu.org/copyleft/lgpl.html
+ */
+package gnu.prolog.test;
+
+import gnu.prolog.database.PrologTextLoaderError;
+import gnu.prolog.io.ParseException;
+import gnu.prolog.io.TermReader;
+import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.CompoundTerm;
+import gnu.prolog.term.CompoundTermTag;
+import gnu.prolog.term.Term;
+import gnu.prolog.vm.Environment;
+import gnu.prolog.vm.Interpreter;
+import gnu.prolog.vm.PrologCode;
+import gnu.prolog.vm.PrologCode.RC;
+import gnu.prolog.vm.PrologException;
+import gnu.prolog.vm.interpreter.FactTableCode;
+import gnu.prolog.vm.interpreter.InterpretedByteCode;
+import gnu.prolog.vm.interpreter.SwitchTable;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+/**
+ * Checks that clause indexes and the determinism analysis let calls return
+ * without choice points. The large tables are written to large.pl so that one
+ * is stored as a fact table and the other one is compiled. Run with
+ * -Dgnu.prolog.promoteThreshold=0, so predicates are compiled with all
+ * optimisations on first use.
+ */
+public class IndexTest
+{
+	private static final int LARGE = 1000;
+
+	private final File large = new File("large.pl");
+	private Environment env;
+	private Interpreter interpreter;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		Writer out = new FileWriter(large);
+		try
+		{
+			for (int i = 0; i < LARGE; i++)
+			{
+				out.write("big_fact(k" + i + ", " + i + ").\n");
+			}
+			for (int i = 0; i < LARGE; i++)
+			{
+				out.write("big_rule(k" + i + ", V) :- V = " + i + ".\n");
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		env = new Environment();
+		interpreter = env.createInterpreter();
+		env.ensureLoaded(AtomTerm.get("index.pl"));
+		env.ensureLoaded(AtomTerm.get("large.pl"));
+		env.runInitialization(interpreter);
+		for (PrologTextLoaderError error : env.getLoadingErrors())
+		{
+			System.err.println("Prolog compile error: " + error);
+		}
+		assertEquals(0, env.getLoadingErrors().size());
+	}
+
+	@After
+	public void tearDown()
+	{
+		large.delete();
+	}
+
+	private Term parse(String text) throws ParseException
+	{
+		return TermReader.stringToTerm(text, env);
+	}
+
+	/** run goal once and check its answer */
+	private RC run(String goal, String expected) throws PrologException, ParseException
+	{
+		CompoundTerm goalTerm = (CompoundTerm) parse("(" + goal + ", Answer = Answer)");
+		RC rc = interpreter.runOnce(goalTerm.args[0]);
+		assertTrue(goal + " failed", rc != RC.FAIL);
+		Term answer = ((CompoundTerm) goalTerm.args[1]).args[0].dereference();
+		assertEquals(parse(expected).toString(), answer.toString());
+		return rc;
+	}
+
+	@Test
+	public void testLargeTables() throws Exception
+	{
+		assertThat(env.getPrologCode(CompoundTermTag.get("big_fact", 2)), instanceOf(FactTableCode.class));
+		assertEquals(RC.SUCCESS_LAST, run("big_fact(k500, Answer)", "500"));
+		assertEquals(RC.SUCCESS_LAST, run("big_fact(k0, Answer)", "0"));
+		assertEquals(RC.SUCCESS_LAST, run("big_rule(k500, Answer)", "500"));
+		assertEquals(RC.SUCCESS_LAST, run("big_rule(k0, Answer)", "0"));
+		assertThat(env.getPrologCode(CompoundTermTag.get("big_rule", 2)), instanceOf(InterpretedByteCode.class));
+	}
+
+	@Test
+	public void testIndexFromCallModes() throws Exception
+	{
+		CompoundTermTag tag = CompoundTermTag.get("mode", 3);
+		PrologCode code = env.getPrologCode(tag);
+		assertThat(code, instanceOf(InterpretedByteCode.class));
+		// the first argument is the same in all clauses and is not indexed
+		for (int i = 1; i < SwitchTable.INDEX_THRESHOLD; i++)
+		{
+			assertEquals(RC.SUCCESS, run("mode(same, k7, Answer)", "7"));
+			assertEquals(0, ((InterpretedByteCode) code).getIndexMemoryUsage());
+		}
+		// the second argument was bound often enough to be indexed
+		assertEquals(RC.SUCCESS_LAST, run("mode(same, k7, Answer)", "7"));
+		assertTrue(((InterpretedByteCode) code).getIndexMemoryUsage() > 0);
+		assertEquals(RC.SUCCESS_LAST, run("mode(same, k20, Answer)", "20"));
+		assertEquals(RC.SUCCESS_LAST, run("mode(_, k1, Answer)", "1"));
+	}
+
+	@Test
+	public void testDeterministicPredicates() throws Exception
+	{
+		assertEquals(RC.SUCCESS_LAST, run("double(3, Answer)", "6"));
+		assertEquals(RC.SUCCESS_LAST, run("twice(3, Answer)", "12"));
+		assertEquals(RC.SUCCESS_LAST, run("max(3, 1, Answer)", "3"));
+		assertEquals(RC.SUCCESS_LAST, run("max(1, 3, Answer)", "3"));
+		assertEquals(RC.SUCCESS_LAST, run("len([a,b,c], Answer)", "3"));
+	}
+}
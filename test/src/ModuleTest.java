@@ -24,10 +24,13 @@ import gnu.prolog.vm.PrologCode;
 import gnu.prolog.vm.PrologException;
 import gnu.prolog.database.PrologTextLoaderError;
 import gnu.prolog.term.AtomTerm;
+import gnu.prolog.term.IntegerTerm;
 import gnu.prolog.term.Term;
 import gnu.prolog.term.VariableTerm;
 import gnu.prolog.term.CompoundTerm;
 import gnu.prolog.vm.PrologCode.RC;
+import gnu.prolog.vm.ExecuteOnlyCode;
+import gnu.prolog.io.TermReader;
 
 import java.util.Collection;
 import gnu.prolog.vm.TermConstants;
@@ -51,6 +54,7 @@ import static org.hamcrest.core.IsNull.nullValue;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class ModuleTest
@@ -150,4 +154,98 @@ public class ModuleTest
                 assertEquals(">predicate_in_user\n>a:predicate_exported_from_a\n>a:local_predicate\n>b:predicate_exported_from_b\n>a:predicate_exported_from_a\n>a:local_predicate\n>c:local_predicate\n", bos.toString());
 	}
 
+	/**
+	 * Unifies its argument with the name of the module the interpreter runs in
+	 */
+	public static class InterpreterModule extends ExecuteOnlyCode
+	{
+		@Override
+		public RC execute(Interpreter interpreter, boolean backtrackMode, Term args[]) throws PrologException
+		{
+			return interpreter.unify(args[0], interpreter.getModule().getName());
+		}
+	}
+
+	/**
+	 * Runs its argument as a nested goal of the interpreter
+	 */
+	public static class RunNested extends ExecuteOnlyCode
+	{
+		@Override
+		public RC execute(Interpreter interpreter, boolean backtrackMode, Term args[]) throws PrologException
+		{
+			return interpreter.runOnce(args[0]) == RC.FAIL ? RC.FAIL : RC.SUCCESS_LAST;
+		}
+	}
+
+	private static Term parse(String text) throws Exception
+	{
+		return TermReader.stringToTerm(text, new Environment());
+	}
+
+	@Test
+	public void testConcurrentModules() throws Exception
+	{
+		final Environment env = new Environment();
+		env.ensureLoaded(AtomTerm.get("test_context.pl"));
+		env.runInitialization(env.createInterpreter());
+		assertEquals(0, env.getLoadingErrors().size());
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++)
+		{
+			final String module = i == 0 ? "ctx_a" : "ctx_b";
+						threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Interpreter interpreter = env.createInterpreter();
+						for (int n = 0; n < 200; n++)
+						{
+							VariableTerm x = new VariableTerm("X");
+							Term goal = new CompoundTerm(":", new Term[] { AtomTerm.get(module),
+									new CompoundTerm("loop", new Term[] { IntegerTerm.get(50), x }) });
+							assertEquals(RC.SUCCESS_LAST, interpreter.runOnce(goal));
+							assertEquals(AtomTerm.get(module), x.dereference());
+						}
+					}
+					catch (Throwable ex)
+					{
+						failure.compareAndSet(null, ex);
+					}
+				}
+			};
+		}
+		for (Thread thread : threads)
+		{
+			thread.start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		if (failure.get() != null)
+		{
+			throw new AssertionError(failure.get());
+		}
+	}
+
+	@Test
+	public void testModuleOnRedo() throws Exception
+	{
+		assertEquals(parse("[1-ctx_a-user, 2-ctx_a-user, 3-ctx_a-user]").toString(),
+				callPredicate("test_context.pl", "redo").toString());
+		assertEquals(parse("[1-ctx_a-user, 2-ctx_a-user, 3-ctx_a-user]").toString(),
+				callPredicate("test_context.pl", "redo_meta").toString());
+	}
+
+	@Test
+	public void testNestedGoalRestoresModule() throws Exception
+	{
+		assertEquals(parse("[ctx_a-user-ctx_a-user]").toString(), callPredicate("test_context.pl", "nested").toString());
+	}
+
 }